@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import org.jblas.NativeBlas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Dense matrix multiplication backends. All matrices are column-major arrays, as in BLAS. The backend used by the java
+ * layers is selected with {@link CoreSettings#setBlas(Blas)} or the BLAS system property.
+ */
+public enum Blas {
+  /**
+   * Native BLAS via jblas. Falls back to the java backend if the native library cannot be loaded.
+   */
+  NATIVE {
+    @Override
+    public void gemm(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                     final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c) {
+      if (0 == m || 0 == n) return;
+      if (nativeAvailable) {
+        try {
+          NativeBlas.dgemm(transposeA ? 'T' : 'N', transposeB ? 'T' : 'N', m, n, k,
+              alpha, a, 0, transposeA ? k : m, b, 0, transposeB ? n : k, beta, c, 0, m);
+          return;
+        } catch (@Nonnull final UnsatisfiedLinkError e) {
+          logger.warn("Native BLAS unavailable; falling back to java matrix multiplication", e);
+          nativeAvailable = false;
+        }
+      }
+      JAVA.gemm(transposeA, transposeB, m, n, k, alpha, a, b, beta, c);
+    }
+  },
+  /**
+   * Pure java cache-blocked, multithreaded implementation.
+   */
+  JAVA {
+    @Override
+    public void gemm(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                     final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c) {
+      JavaBlas.gemm(transposeA, transposeB, m, n, k, alpha, a, b, beta, c);
+    }
+  };
+
+  private static final Logger logger = LoggerFactory.getLogger(Blas.class);
+  private static volatile boolean nativeAvailable = true;
+
+  /**
+   * Computes C = alpha * op(A) * op(B) + beta * C, where op(A) is m x k and op(B) is k x n. When beta is zero, C need
+   * not be initialized.
+   *
+   * @param transposeA whether A is stored as k x m
+   * @param transposeB whether B is stored as n x k
+   * @param m          the rows of the result
+   * @param n          the columns of the result
+   * @param k          the inner dimension
+   * @param alpha      the alpha
+   * @param a          the a
+   * @param b          the b
+   * @param beta       the beta
+   * @param c          the c
+   */
+  public abstract void gemm(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                            final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c);
+
+  /**
+   * Computes y = alpha * op(A) * x + beta * y, where op(A) is m x k.
+   *
+   * @param transposeA whether A is stored as k x m
+   * @param m          the rows of the result
+   * @param k          the inner dimension
+   * @param alpha      the alpha
+   * @param a          the a
+   * @param x          the x
+   * @param beta       the beta
+   * @param y          the y
+   */
+  public void gemv(final boolean transposeA, final int m, final int k,
+                   final double alpha, @Nonnull final double[] a, @Nonnull final double[] x, final double beta, @Nonnull final double[] y) {
+    gemm(transposeA, false, m, 1, k, alpha, a, x, beta, y);
+  }
+}
@@ -40,6 +40,12 @@ public class CoreSettings implements Settings {
   private final boolean lifecycleDebug;
   private final boolean singleThreaded;
   private final PersistanceMode doubleCacheMode;
+  private volatile Blas blas;
+  private volatile boolean convolutionAutotune;
+  private volatile String convolutionTuningFile;
+  private volatile boolean activationRecompute;
+  private volatile double sparseThreshold;
+  private volatile MathMode math;
 
   private CoreSettings() {
     System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", Integer.toString(Settings.get("THREADS", 64)));
@@ -47,6 +53,12 @@ public class CoreSettings implements Settings {
     this.lifecycleDebug = Settings.get("DEBUG_LIFECYCLE", false);
     this.doubleCacheMode = Settings.get("DOUBLE_CACHE_MODE", PersistanceMode.WEAK);
     this.backpropAggregationSize = Settings.get("BACKPROP_AGG_SIZE", 2);
+    this.blas = Settings.get("BLAS", Blas.NATIVE);
+    this.convolutionAutotune = Settings.get("CONV_AUTOTUNE", false);
+    this.convolutionTuningFile = Settings.get("CONV_TUNING_FILE", "");
+    this.activationRecompute = Settings.get("ACTIVATION_RECOMPUTE", false);
+    this.sparseThreshold = Settings.get("SPARSE_THRESHOLD", 0.7);
+    this.math = Settings.get("MATH_MODE", MathMode.EXACT);
     MarkdownNotebookOutput.MAX_OUTPUT = Settings.get("MAX_OUTPUT", 2 * 1024);
     if (CudaSettings.INSTANCE() == null) throw new RuntimeException();
   }
@@ -95,4 +107,127 @@ public class CoreSettings implements Settings {
     return doubleCacheMode;
   }
 
+  /**
+   * Gets the matrix multiplication backend.
+   *
+   * @return the blas
+   */
+  public Blas getBlas() {
+    return blas;
+  }
+
+  /**
+   * Sets the matrix multiplication backend.
+   *
+   * @param blas the blas
+   * @return the core settings
+   */
+  public CoreSettings setBlas(final Blas blas) {
+    this.blas = blas;
+    return this;
+  }
+
+  /**
+   * Whether CPU convolutions time the available algorithms for each new shape and keep the fastest.
+   *
+   * @return the boolean
+   */
+  public boolean isConvolutionAutotune() {
+    return convolutionAutotune;
+  }
+
+  /**
+   * Sets convolution autotune.
+   *
+   * @param convolutionAutotune the convolution autotune
+   * @return the core settings
+   */
+  public CoreSettings setConvolutionAutotune(final boolean convolutionAutotune) {
+    this.convolutionAutotune = convolutionAutotune;
+    return this;
+  }
+
+  /**
+   * Gets the file the {@link TuningTable}s of convolution algorithms and CPU-mode Aparapi tile sizes are loaded from
+   * and saved to; empty to keep them in memory only.
+   *
+   * @return the convolution tuning file
+   */
+  public String getConvolutionTuningFile() {
+    return convolutionTuningFile;
+  }
+
+  /**
+   * Sets convolution tuning file.
+   *
+   * @param convolutionTuningFile the convolution tuning file
+   * @return the core settings
+   */
+  public CoreSettings setConvolutionTuningFile(final String convolutionTuningFile) {
+    this.convolutionTuningFile = convolutionTuningFile;
+    return this;
+  }
+
+  /**
+   * Whether activation layers recompute their derivative during backprop rather than storing it from the forward pass,
+   * trading compute for memory.
+   *
+   * @return the boolean
+   */
+  public boolean isActivationRecompute() {
+    return activationRecompute;
+  }
+
+  /**
+   * Sets activation recompute.
+   *
+   * @param activationRecompute the activation recompute
+   * @return the core settings
+   */
+  public CoreSettings setActivationRecompute(final boolean activationRecompute) {
+    this.activationRecompute = activationRecompute;
+    return this;
+  }
+
+  /**
+   * Gets the fraction of exact zeros above which ReLU and dropout layers emit their output as a
+   * {@link SparseTensorList}; a value above 1 disables the sparse form.
+   *
+   * @return the sparse threshold
+   */
+  public double getSparseThreshold() {
+    return sparseThreshold;
+  }
+
+  /**
+   * Sets sparse threshold.
+   *
+   * @param sparseThreshold the sparse threshold
+   * @return the core settings
+   */
+  public CoreSettings setSparseThreshold(final double sparseThreshold) {
+    this.sparseThreshold = sparseThreshold;
+    return this;
+  }
+
+  /**
+   * Gets the implementation of exp, log, sin and cos used by the java activation layers.
+   *
+   * @return the math mode
+   */
+  public MathMode getMath() {
+    return math;
+  }
+
+  /**
+   * Sets the math mode.
+   *
+   * @param math the math
+   * @return the core settings
+   */
+  public CoreSettings setMath(final MathMode math) {
+    this.math = math;
+    return this;
+  }
+
 }
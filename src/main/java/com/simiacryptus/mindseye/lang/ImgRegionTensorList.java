@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A view of a window of the images in another TensorList: element (x, y, band) is inner element (x + offsetX, y +
+ * offsetY, band + offsetBand), or zero where that lies outside the inner image. Crops, zero padding, tiles and band
+ * slices are so expressed without copying; a view of a view collapses into a single view where possible, and the data
+ * is only materialized when an element is read. {@link #copy(TensorList, int, double[], int, int[], int, int, int)}
+ * writes an element straight into a region of a larger buffer, reading through any views in one pass, which lets
+ * concatenation and assembly layers fill their output without intermediate tensors.
+ */
+public class ImgRegionTensorList extends ReferenceCountingBase implements TensorList {
+  @Nonnull
+  private final TensorList inner;
+  @Nonnull
+  private final int[] dims;
+  private final int offsetX;
+  private final int offsetY;
+  private final int offsetBand;
+
+  /**
+   * Instantiates a new Img region tensor list.
+   *
+   * @param inner      the inner list, with 3-dimensional elements
+   * @param dims       the view dims
+   * @param offsetX    the offset x
+   * @param offsetY    the offset y
+   * @param offsetBand the offset band
+   */
+  public ImgRegionTensorList(@Nonnull final TensorList inner, @Nonnull final int[] dims, final int offsetX, final int offsetY, final int offsetBand) {
+    if (3 != inner.getDimensions().length || 3 != dims.length) throw new IllegalArgumentException(Arrays.toString(inner.getDimensions()));
+    this.inner = inner;
+    this.inner.addRef(this);
+    this.dims = Arrays.copyOf(dims, 3);
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+    this.offsetBand = offsetBand;
+  }
+
+  /**
+   * Creates a view of a window of the given list, collapsing nested views and returning the list itself for the
+   * identity window. The result holds its own reference.
+   *
+   * @param list       the list
+   * @param dims       the view dims
+   * @param offsetX    the offset x
+   * @param offsetY    the offset y
+   * @param offsetBand the offset band
+   * @return the tensor list
+   */
+  @Nonnull
+  public static TensorList create(@Nonnull final TensorList list, @Nonnull final int[] dims, final int offsetX, final int offsetY, final int offsetBand) {
+    @Nonnull final int[] listDims = list.getDimensions();
+    if (0 == offsetX && 0 == offsetY && 0 == offsetBand && Arrays.equals(listDims, dims)) {
+      list.addRef();
+      return list;
+    }
+    if (list instanceof ImgRegionTensorList && contains(listDims, dims, offsetX, offsetY, offsetBand)) {
+      @Nonnull final ImgRegionTensorList view = (ImgRegionTensorList) list;
+      return create(view.inner, dims, offsetX + view.offsetX, offsetY + view.offsetY, offsetBand + view.offsetBand);
+    }
+    return new ImgRegionTensorList(list, dims, offsetX, offsetY, offsetBand);
+  }
+
+  private static boolean contains(@Nonnull final int[] outer, @Nonnull final int[] dims, final int offsetX, final int offsetY, final int offsetBand) {
+    return offsetX >= 0 && offsetX + dims[0] <= outer[0]
+        && offsetY >= 0 && offsetY + dims[1] <= outer[1]
+        && offsetBand >= 0 && offsetBand + dims[2] <= outer[2];
+  }
+
+  /**
+   * Writes an element of a list of images into a region of an image buffer, clipped to the buffer. Pixels of the
+   * element which are zero by virtue of a view's padding are skipped, so the buffer should be zero there.
+   *
+   * @param source    the source list
+   * @param index     the element index
+   * @param dst       the destination buffer
+   * @param dstOffset the index of the destination image within the buffer
+   * @param dstDims   the destination image dims
+   * @param dstX      the x position of the element in the destination
+   * @param dstY      the y position of the element in the destination
+   * @param dstBand   the band position of the element in the destination
+   */
+  public static void copy(@Nonnull final TensorList source, final int index, @Nonnull final double[] dst, final int dstOffset,
+                          @Nonnull final int[] dstDims, final int dstX, final int dstY, final int dstBand) {
+    @Nonnull final int[] dims = source.getDimensions();
+    copy(source, index, 0, 0, 0, dims[0], dims[1], dims[2], dst, dstOffset, dstDims, dstX, dstY, dstBand);
+  }
+
+  private static void copy(@Nonnull final TensorList source, final int index,
+                           final int srcX, final int srcY, final int srcBand, final int w, final int h, final int bands,
+                           @Nonnull final double[] dst, final int dstOffset, @Nonnull final int[] dstDims,
+                           final int dstX, final int dstY, final int dstBand) {
+    @Nonnull final int[] srcDims = source.getDimensions();
+    // Clip the window to both the source and the destination
+    final int x0 = Math.max(0, Math.max(-srcX, -dstX));
+    final int x1 = Math.min(w, Math.min(srcDims[0] - srcX, dstDims[0] - dstX));
+    final int y0 = Math.max(0, Math.max(-srcY, -dstY));
+    final int y1 = Math.min(h, Math.min(srcDims[1] - srcY, dstDims[1] - dstY));
+    final int b0 = Math.max(0, Math.max(-srcBand, -dstBand));
+    final int b1 = Math.min(bands, Math.min(srcDims[2] - srcBand, dstDims[2] - dstBand));
+    if (x0 >= x1 || y0 >= y1 || b0 >= b1) return;
+    if (source instanceof ImgRegionTensorList) {
+      @Nonnull final ImgRegionTensorList view = (ImgRegionTensorList) source;
+      copy(view.inner, index,
+          srcX + x0 + view.offsetX, srcY + y0 + view.offsetY, srcBand + b0 + view.offsetBand, x1 - x0, y1 - y0, b1 - b0,
+          dst, dstOffset, dstDims, dstX + x0, dstY + y0, dstBand + b0);
+      return;
+    }
+    @Nonnull final Tensor tensor = source.get(index);
+    @Nonnull final double[] src = tensor.getData();
+    for (int b = b0; b < b1; b++) {
+      for (int y = y0; y < y1; y++) {
+        System.arraycopy(src, srcX + x0 + srcDims[0] * (srcY + y + srcDims[1] * (srcBand + b)),
+            dst, dstOffset + dstX + x0 + dstDims[0] * (dstY + y + dstDims[1] * (dstBand + b)), x1 - x0);
+      }
+    }
+    tensor.freeRef();
+  }
+
+  @Nonnull
+  @Override
+  public Tensor get(final int i) {
+    assertAlive();
+    @Nonnull final Tensor tensor = new Tensor(dims);
+    copy(this, i, tensor.getData(), 0, dims, 0, 0, 0);
+    return tensor;
+  }
+
+  @Nonnull
+  @Override
+  public int[] getDimensions() {
+    return Arrays.copyOf(dims, dims.length);
+  }
+
+  @Override
+  public int length() {
+    return inner.length();
+  }
+
+  @Override
+  public Stream<Tensor> stream() {
+    return IntStream.range(0, length()).mapToObj(this::get);
+  }
+
+  @Override
+  protected void _free() {
+    inner.freeRef();
+  }
+
+  /**
+   * Gets inner.
+   *
+   * @return the inner
+   */
+  @Nonnull
+  public TensorList getInner() {
+    return inner;
+  }
+}
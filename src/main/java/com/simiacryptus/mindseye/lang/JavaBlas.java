@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import javax.annotation.Nonnull;
+import java.util.stream.IntStream;
+
+/**
+ * Pure java dense matrix multiplication over column-major arrays. The product is computed in independent MC x NC tiles
+ * of the result, which are evaluated in parallel; within a tile, KC-deep slices of both operands are packed into
+ * contiguous micro-panels and multiplied by a register-blocked 4x4 kernel.
+ */
+final class JavaBlas {
+  private static final int MR = 4;
+  private static final int NR = 4;
+  private static final int MC = 64;
+  private static final int NC = 64;
+  private static final int KC = 256;
+  private static final int GEMV_ROWS = 256;
+  private static final long PARALLEL_FLOPS = 1 << 16;
+  private static final ThreadLocal<double[]> packedA = ThreadLocal.withInitial(() -> new double[MC * KC]);
+  private static final ThreadLocal<double[]> packedB = ThreadLocal.withInitial(() -> new double[KC * NC]);
+
+  private JavaBlas() {
+  }
+
+  /**
+   * Computes C = alpha * op(A) * op(B) + beta * C, where op(A) is m x k and op(B) is k x n.
+   *
+   * @param transposeA whether A is stored as k x m
+   * @param transposeB whether B is stored as n x k
+   * @param m          the rows of the result
+   * @param n          the columns of the result
+   * @param k          the inner dimension
+   * @param alpha      the alpha
+   * @param a          the a
+   * @param b          the b
+   * @param beta       the beta
+   * @param c          the c
+   */
+  static void gemm(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                   final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c) {
+    if (0 == m || 0 == n) return;
+    if (1 == n) {
+      gemv(transposeA, m, k, alpha, a, b, beta, c);
+      return;
+    }
+    final int rowBlocks = (m + MC - 1) / MC;
+    final int colBlocks = (n + NC - 1) / NC;
+    IntStream tiles = IntStream.range(0, rowBlocks * colBlocks);
+    if ((long) m * n * k >= PARALLEL_FLOPS) tiles = tiles.parallel();
+    tiles.forEach(tile -> gemmTile(transposeA, transposeB, m, n, k, alpha, a, b, beta, c, (tile % rowBlocks) * MC, (tile / rowBlocks) * NC));
+  }
+
+  /**
+   * Computes y = alpha * op(A) * x + beta * y, where op(A) is m x k.
+   *
+   * @param transposeA whether A is stored as k x m
+   * @param m          the rows of the result
+   * @param k          the inner dimension
+   * @param alpha      the alpha
+   * @param a          the a
+   * @param x          the x
+   * @param beta       the beta
+   * @param y          the y
+   */
+  static void gemv(final boolean transposeA, final int m, final int k,
+                   final double alpha, @Nonnull final double[] a, @Nonnull final double[] x, final double beta, @Nonnull final double[] y) {
+    final int blocks = (m + GEMV_ROWS - 1) / GEMV_ROWS;
+    IntStream stream = IntStream.range(0, blocks);
+    if ((long) m * k >= PARALLEL_FLOPS) stream = stream.parallel();
+    stream.forEach(block -> {
+      final int i0 = block * GEMV_ROWS;
+      final int i1 = Math.min(m, i0 + GEMV_ROWS);
+      final double[] sums = new double[i1 - i0];
+      if (transposeA) {
+        for (int i = i0; i < i1; i++) {
+          final int offset = i * k;
+          double sum = 0;
+          for (int p = 0; p < k; p++) {
+            sum += a[offset + p] * x[p];
+          }
+          sums[i - i0] = sum;
+        }
+      } else {
+        for (int p = 0; p < k; p++) {
+          final double xp = x[p];
+          if (0.0 == xp) continue;
+          final int offset = p * m;
+          for (int i = i0; i < i1; i++) {
+            sums[i - i0] += a[offset + i] * xp;
+          }
+        }
+      }
+      for (int i = i0; i < i1; i++) {
+        y[i] = alpha * sums[i - i0] + (0.0 == beta ? 0.0 : beta * y[i]);
+      }
+    });
+  }
+
+  private static void gemmTile(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                               final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c,
+                               final int i0, final int j0) {
+    final int mc = Math.min(MC, m - i0);
+    final int nc = Math.min(NC, n - j0);
+    for (int j = j0; j < j0 + nc; j++) {
+      for (int i = i0; i < i0 + mc; i++) {
+        final int index = i + j * m;
+        c[index] = 0.0 == beta ? 0.0 : beta * c[index];
+      }
+    }
+    if (0 == k || 0.0 == alpha) return;
+    final double[] pa = packedA.get();
+    final double[] pb = packedB.get();
+    for (int p0 = 0; p0 < k; p0 += KC) {
+      final int kc = Math.min(KC, k - p0);
+      packA(transposeA, m, k, alpha, a, i0, mc, p0, kc, pa);
+      packB(transposeB, n, k, b, j0, nc, p0, kc, pb);
+      for (int jr = 0; jr < nc; jr += NR) {
+        for (int ir = 0; ir < mc; ir += MR) {
+          kernel(kc, pa, ir * kc, pb, jr * kc, c, i0 + ir, j0 + jr, m, Math.min(MR, mc - ir), Math.min(NR, nc - jr));
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs rows [i0, i0+mc) and columns [p0, p0+kc) of alpha * op(A) into MR-row panels, each stored column by column.
+   */
+  private static void packA(final boolean transposeA, final int m, final int k, final double alpha, @Nonnull final double[] a,
+                            final int i0, final int mc, final int p0, final int kc, @Nonnull final double[] packed) {
+    for (int ir = 0; ir < mc; ir += MR) {
+      final int panel = ir * kc;
+      for (int p = 0; p < kc; p++) {
+        for (int r = 0; r < MR; r++) {
+          final int i = i0 + ir + r;
+          final double value;
+          if (ir + r >= mc) value = 0.0;
+          else if (transposeA) value = a[(p0 + p) + i * k];
+          else value = a[i + (p0 + p) * m];
+          packed[panel + p * MR + r] = alpha * value;
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs rows [p0, p0+kc) and columns [j0, j0+nc) of op(B) into NR-column panels, each stored row by row.
+   */
+  private static void packB(final boolean transposeB, final int n, final int k, @Nonnull final double[] b,
+                            final int j0, final int nc, final int p0, final int kc, @Nonnull final double[] packed) {
+    for (int jr = 0; jr < nc; jr += NR) {
+      final int panel = jr * kc;
+      for (int p = 0; p < kc; p++) {
+        for (int s = 0; s < NR; s++) {
+          final int j = j0 + jr + s;
+          final double value;
+          if (jr + s >= nc) value = 0.0;
+          else if (transposeB) value = b[j + (p0 + p) * n];
+          else value = b[(p0 + p) + j * k];
+          packed[panel + p * NR + s] = value;
+        }
+      }
+    }
+  }
+
+  private static void kernel(final int kc, @Nonnull final double[] pa, final int aOffset, @Nonnull final double[] pb, final int bOffset,
+                             @Nonnull final double[] c, final int i, final int j, final int ldc, final int mr, final int nr) {
+    double c00 = 0, c10 = 0, c20 = 0, c30 = 0;
+    double c01 = 0, c11 = 0, c21 = 0, c31 = 0;
+    double c02 = 0, c12 = 0, c22 = 0, c32 = 0;
+    double c03 = 0, c13 = 0, c23 = 0, c33 = 0;
+    for (int p = 0; p < kc; p++) {
+      final int ai = aOffset + p * MR;
+      final int bi = bOffset + p * NR;
+      final double a0 = pa[ai];
+      final double a1 = pa[ai + 1];
+      final double a2 = pa[ai + 2];
+      final double a3 = pa[ai + 3];
+      final double b0 = pb[bi];
+      final double b1 = pb[bi + 1];
+      final double b2 = pb[bi + 2];
+      final double b3 = pb[bi + 3];
+      c00 += a0 * b0;
+      c10 += a1 * b0;
+      c20 += a2 * b0;
+      c30 += a3 * b0;
+      c01 += a0 * b1;
+      c11 += a1 * b1;
+      c21 += a2 * b1;
+      c31 += a3 * b1;
+      c02 += a0 * b2;
+      c12 += a1 * b2;
+      c22 += a2 * b2;
+      c32 += a3 * b2;
+      c03 += a0 * b3;
+      c13 += a1 * b3;
+      c23 += a2 * b3;
+      c33 += a3 * b3;
+    }
+    if (MR == mr && NR == nr) {
+      int offset = i + j * ldc;
+      c[offset] += c00;
+      c[offset + 1] += c10;
+      c[offset + 2] += c20;
+      c[offset + 3] += c30;
+      offset += ldc;
+      c[offset] += c01;
+      c[offset + 1] += c11;
+      c[offset + 2] += c21;
+      c[offset + 3] += c31;
+      offset += ldc;
+      c[offset] += c02;
+      c[offset + 1] += c12;
+      c[offset + 2] += c22;
+      c[offset + 3] += c32;
+      offset += ldc;
+      c[offset] += c03;
+      c[offset + 1] += c13;
+      c[offset + 2] += c23;
+      c[offset + 3] += c33;
+    } else {
+      final double[] block = {
+          c00, c10, c20, c30,
+          c01, c11, c21, c31,
+          c02, c12, c22, c32,
+          c03, c13, c23, c33
+      };
+      for (int s = 0; s < nr; s++) {
+        for (int r = 0; r < mr; r++) {
+          c[(i + r) + (j + s) * ldc] += block[r + s * MR];
+        }
+      }
+    }
+  }
+}
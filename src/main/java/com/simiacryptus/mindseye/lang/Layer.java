@@ -233,6 +233,39 @@ public interface Layer extends ReferenceCounting, Serializable {
     return result;
   }
 
+  /**
+   * Evaluates the forward pass only. The returned result is a constant, so no backpropagation state (accumulator
+   * closures, captured inputs, cached derivatives) is retained once the output is produced. Like evalAndFree, this
+   * consumes the given results and their data.
+   * <p>
+   * This default still runs evalAndFree, so the layer builds its backpropagation state and only releases it once the
+   * output has been detached; it bounds what is retained, not what is computed. Layers for which that state is costly,
+   * such as networks and the fully connected, convolution and batch normalization layers, override this with a true
+   * forward-only path.
+   *
+   * @param array the array
+   * @return the nn result
+   */
+  @Nonnull
+  default Result evalInferenceAndFree(Result... array) {
+    @Nullable final Result result = evalAndFree(array);
+    if (null == result) throw new IllegalStateException();
+    final TensorList data = result.getData();
+    result.freeRef();
+    return new ConstantResult(data);
+  }
+
+  /**
+   * Evaluates the forward pass only, without retaining any backpropagation state.
+   *
+   * @param array the array
+   * @return the nn result
+   */
+  @Nonnull
+  default Result evalInference(@Nonnull final Tensor... array) {
+    return evalInferenceAndFree(ConstantResult.singleResultArray(array));
+  }
+
   /**
    * Eval nn result.
    *
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+/**
+ * Implementations of the transcendental functions used by the activation layers. The mode used by the java layers is
+ * selected with {@link CoreSettings#setMath(MathMode)} or the MATH_MODE system property. Layers read the mode once per
+ * batch and use it for both the forward value and the derivative, so the two stay consistent.
+ */
+public enum MathMode {
+  /**
+   * The JDK's {@link Math} functions.
+   */
+  EXACT {
+    @Override
+    public double exp(final double x) {
+      return Math.exp(x);
+    }
+
+    @Override
+    public double log(final double x) {
+      return Math.log(x);
+    }
+
+    @Override
+    public double sin(final double x) {
+      return Math.sin(x);
+    }
+
+    @Override
+    public double cos(final double x) {
+      return Math.cos(x);
+    }
+  },
+  /**
+   * Branch-light polynomial approximations after range reduction, for inference where full libm precision is not
+   * needed. exp and log have a relative error below 1e-8, and sin and cos an absolute error below 1e-9, as measured by
+   * MathModeTest. Arguments outside the reduced ranges (non-finite, subnormal results, or |x| above 1e5 for sin and
+   * cos) fall back to {@link Math}.
+   */
+  FAST {
+    @Override
+    public double exp(final double x) {
+      if (!(x > -708.0 && x < 709.0)) return Math.exp(x);
+      // x = k ln2 + r with |r| <= ln2/2, so exp(x) = 2^k exp(r)
+      final double k = Math.rint(x * LOG2_E);
+      final double r = (x - k * LN2_HI) - k * LN2_LO;
+      final double p = 1 + r * (1 + r * (1 / 2.0 + r * (1 / 6.0 + r * (1 / 24.0 + r * (1 / 120.0 + r * (1 / 720.0 + r * (1 / 5040.0)))))));
+      return p * Double.longBitsToDouble(((long) k + 1023) << 52);
+    }
+
+    @Override
+    public double log(final double x) {
+      if (!(x >= Double.MIN_NORMAL && x < Double.POSITIVE_INFINITY)) return Math.log(x);
+      // x = m 2^e with m in [sqrt(1/2), sqrt(2)), taken from the bits without a branch, and log(m) = 2 atanh(s) with
+      // s = (m-1)/(m+1)
+      final long bits = Double.doubleToRawLongBits(x);
+      final long e = (bits - SQRT_HALF_BITS) >> 52;
+      final double m = Double.longBitsToDouble(bits - (e << 52));
+      final double s = (m - 1) / (m + 1);
+      final double s2 = s * s;
+      final double p = s2 * (1 / 3.0 + s2 * (1 / 5.0 + s2 * (1 / 7.0 + s2 * (1 / 9.0 + s2 * (1 / 11.0)))));
+      return e * LN2_HI + (2 * s + (2 * s * p + e * LN2_LO));
+    }
+
+    @Override
+    public double sin(final double x) {
+      if (!(Math.abs(x) < REDUCTION_LIMIT)) return Math.sin(x);
+      final double k = Math.rint(x * TWO_OVER_PI);
+      final double r = (x - k * PI_OVER_2_HI) - k * PI_OVER_2_LO;
+      return quadrant((long) k, r);
+    }
+
+    @Override
+    public double cos(final double x) {
+      if (!(Math.abs(x) < REDUCTION_LIMIT)) return Math.cos(x);
+      final double k = Math.rint(x * TWO_OVER_PI);
+      final double r = (x - k * PI_OVER_2_HI) - k * PI_OVER_2_LO;
+      // cos(x) = sin(x + pi/2)
+      return quadrant((long) k + 1, r);
+    }
+  };
+
+  private static final double LOG2_E = 1.4426950408889634;
+  private static final double LN2_HI = 6.93147180369123816490e-01;
+  private static final double LN2_LO = 1.90821492927058770002e-10;
+  private static final long SQRT_HALF_BITS = Double.doubleToRawLongBits(Math.sqrt(0.5));
+  private static final double TWO_OVER_PI = 0.6366197723675814;
+  private static final double PI_OVER_2_HI = 1.57079632673412561417e+00;
+  private static final double PI_OVER_2_LO = 6.07710050650619224932e-11;
+  private static final double REDUCTION_LIMIT = 1e5;
+  /**
+   * The Taylor coefficients of sin(r)/r and of cos(r), in powers of r^2.
+   */
+  private static final double[][] SERIES = {
+      {1, -1 / 6.0, 1 / 120.0, -1 / 5040.0, 1 / 362880.0, -1 / 39916800.0},
+      {1, -1 / 2.0, 1 / 24.0, -1 / 720.0, 1 / 40320.0, -1 / 3628800.0}
+  };
+
+  /**
+   * Gets sin(q pi/2 + r) for |r| at most pi/4. Odd quadrants use the cosine series; the series is picked from a table
+   * rather than by a branch, since random quadrants mispredict one.
+   */
+  private static double quadrant(final long q, final double r) {
+    final double[] c = SERIES[(int) (q & 1)];
+    final double r2 = r * r;
+    final double series = c[0] + r2 * (c[1] + r2 * (c[2] + r2 * (c[3] + r2 * (c[4] + r2 * c[5]))));
+    final double value = series * (0 == (q & 1) ? r : 1.0);
+    return Double.longBitsToDouble(Double.doubleToRawLongBits(value) ^ ((q & 2) << 62));
+  }
+
+  /**
+   * Exp double.
+   *
+   * @param x the x
+   * @return e^x
+   */
+  public abstract double exp(final double x);
+
+  /**
+   * Log double.
+   *
+   * @param x the x
+   * @return the natural logarithm of x
+   */
+  public abstract double log(final double x);
+
+  /**
+   * Sin double.
+   *
+   * @param x the x, in radians
+   * @return the sine of x
+   */
+  public abstract double sin(final double x);
+
+  /**
+   * Cos double.
+   *
+   * @param x the x, in radians
+   * @return the cosine of x
+   */
+  public abstract double cos(final double x);
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.google.common.hash.HashCode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache of evaluation outputs bounded by the total size of the cached tensors. Entries hold a
+ * reference to their TensorList, released on eviction; lookups hand out a new reference.
+ */
+public class ResultCache {
+  private final long maxBytes;
+  private final LinkedHashMap<HashCode, TensorList> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+  private long bytes = 0;
+
+  /**
+   * Instantiates a new Result cache.
+   *
+   * @param maxBytes the byte budget
+   */
+  public ResultCache(final long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Gets the heap size of a tensor list's data.
+   *
+   * @param data the data
+   * @return the size in bytes
+   */
+  public static long sizeOf(@Nonnull final TensorList data) {
+    return (long) data.length() * Tensor.length(data.getDimensions()) * Double.BYTES;
+  }
+
+  /**
+   * Gets a cached output, marking it most recently used.
+   *
+   * @param key the key
+   * @return a new reference to the output, or null if absent
+   */
+  @Nullable
+  public synchronized TensorList get(@Nonnull final HashCode key) {
+    final TensorList data = entries.get(key);
+    if (null == data) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    data.addRef();
+    return data;
+  }
+
+  /**
+   * Caches an output, evicting least recently used entries to stay within the byte budget. Outputs larger than the
+   * whole budget are not cached.
+   *
+   * @param key  the key
+   * @param data the output; the cache takes its own reference
+   */
+  public synchronized void put(@Nonnull final HashCode key, @Nonnull final TensorList data) {
+    final long size = sizeOf(data);
+    if (size > maxBytes) return;
+    data.addRef();
+    @Nullable final TensorList previous = entries.put(key, data);
+    if (null != previous) {
+      bytes -= sizeOf(previous);
+      previous.freeRef();
+    }
+    bytes += size;
+    final Iterator<Map.Entry<HashCode, TensorList>> iterator = entries.entrySet().iterator();
+    while (bytes > maxBytes && iterator.hasNext()) {
+      final TensorList evicted = iterator.next().getValue();
+      iterator.remove();
+      bytes -= sizeOf(evicted);
+      evicted.freeRef();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Releases all cached outputs.
+   */
+  public synchronized void clear() {
+    entries.values().forEach(ReferenceCounting::freeRef);
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Gets the bytes currently cached.
+   *
+   * @return the bytes
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Gets the number of cached outputs.
+   *
+   * @return the size
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets max bytes.
+   *
+   * @return the max bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Gets the hit count.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the miss count.
+   *
+   * @return the misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the eviction count.
+   *
+   * @return the evictions
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ResultCache{entries=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d}",
+        size(), getBytes(), maxBytes, hits.get(), misses.get(), evictions.get());
+  }
+}
@@ -56,7 +56,7 @@ public interface Settings {
    * @return the t
    */
   static <T extends Enum<T>> T get(final String key, @Nonnull final T defaultValue) {
-    T value = Enum.valueOf((Class<T>) defaultValue.getClass().getSuperclass(), System.getProperty(key, defaultValue.toString().toUpperCase()));
+    T value = Enum.valueOf(defaultValue.getDeclaringClass(), System.getProperty(key, defaultValue.toString().toUpperCase()));
     logger.info(String.format("%s = %s", key, value));
     return value;
   }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An on-heap TensorList which stores only the nonzero elements, in compressed sparse row form with one row per item:
+ * the nonzeros of item i are values[rowPointers[i]] through values[rowPointers[i+1]-1], at the flat element positions
+ * given by the same range of indices, sorted ascending. Layers whose outputs are mostly exact zeros, such as ReLU and
+ * dropout, emit this form through {@link #compressAndFree(TensorList)}, and layers which recognize it can skip the
+ * zeros. Any other consumer sees ordinary dense tensors through {@link #get(int)}.
+ */
+public class SparseTensorList extends ReferenceCountingBase implements TensorList {
+  @Nonnull
+  private final int[] dims;
+  @Nonnull
+  private final int[] rowPointers;
+  @Nonnull
+  private final int[] indices;
+  @Nonnull
+  private final double[] values;
+
+  /**
+   * Instantiates a new Sparse tensor list.
+   *
+   * @param dims        the dimensions of each item
+   * @param rowPointers the start of each item's nonzeros, followed by the total count
+   * @param indices     the flat element position of each nonzero
+   * @param values      the value of each nonzero
+   */
+  public SparseTensorList(@Nonnull final int[] dims, @Nonnull final int[] rowPointers, @Nonnull final int[] indices, @Nonnull final double[] values) {
+    if (rowPointers.length < 2) throw new IllegalArgumentException("Empty tensor list");
+    if (indices.length != values.length || rowPointers[rowPointers.length - 1] != values.length)
+      throw new IllegalArgumentException(String.format("%d indices, %d values, %d nonzeros", indices.length, values.length, rowPointers[rowPointers.length - 1]));
+    this.dims = Arrays.copyOf(dims, dims.length);
+    this.rowPointers = rowPointers;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Copies the nonzero elements of a tensor list into a new sparse tensor list.
+   *
+   * @param data the data
+   * @return the sparse tensor list
+   */
+  @Nonnull
+  public static SparseTensorList create(@Nonnull final TensorList data) {
+    final int length = data.length();
+    final int[][] rowIndices = new int[length][];
+    final double[][] rowValues = new double[length][];
+    IntStream.range(0, length).parallel().forEach(dataIndex -> {
+      Tensor tensor = data.get(dataIndex);
+      final double[] tensorData = tensor.getData();
+      int nonzeros = 0;
+      for (final double v : tensorData) if (v != 0) nonzeros++;
+      final int[] idx = new int[nonzeros];
+      final double[] val = new double[nonzeros];
+      for (int i = 0, j = 0; i < tensorData.length; i++) {
+        if (tensorData[i] != 0) {
+          idx[j] = i;
+          val[j++] = tensorData[i];
+        }
+      }
+      tensor.freeRef();
+      rowIndices[dataIndex] = idx;
+      rowValues[dataIndex] = val;
+    });
+    return create(data.getDimensions(), rowIndices, rowValues);
+  }
+
+  /**
+   * Converts a tensor list to the sparse form when at least {@link CoreSettings#getSparseThreshold()} of its elements
+   * are zero; otherwise returns it unchanged. The argument is consumed either way.
+   *
+   * @param data the data
+   * @return the tensor list
+   */
+  @Nonnull
+  public static TensorList compressAndFree(@Nonnull final TensorList data) {
+    if (data instanceof SparseTensorList) return data;
+    final double threshold = CoreSettings.INSTANCE().getSparseThreshold();
+    if (threshold > 1 || getSparsity(data) < threshold) return data;
+    @Nonnull final SparseTensorList sparse = create(data);
+    data.freeRef();
+    return sparse;
+  }
+
+  /**
+   * Gets the fraction of elements which are exactly zero.
+   *
+   * @param data the data
+   * @return the sparsity
+   */
+  public static double getSparsity(@Nonnull final TensorList data) {
+    if (data instanceof SparseTensorList) return ((SparseTensorList) data).getSparsity();
+    final int elements = data.getElements();
+    if (0 == elements) return 0;
+    final long zeros = IntStream.range(0, data.length()).parallel().mapToLong(dataIndex -> {
+      Tensor tensor = data.get(dataIndex);
+      long count = 0;
+      for (final double v : tensor.getData()) if (v == 0) count++;
+      tensor.freeRef();
+      return count;
+    }).sum();
+    return (double) zeros / elements;
+  }
+
+  /**
+   * Creates a sparse tensor list from the nonzeros of each item.
+   *
+   * @param dims       the dimensions of each item
+   * @param rowIndices the ascending flat element positions of each item's nonzeros
+   * @param rowValues  the values of each item's nonzeros
+   * @return the sparse tensor list
+   */
+  @Nonnull
+  public static SparseTensorList create(@Nonnull final int[] dims, @Nonnull final int[][] rowIndices, @Nonnull final double[][] rowValues) {
+    final int[] rowPointers = new int[rowIndices.length + 1];
+    for (int i = 0; i < rowIndices.length; i++) rowPointers[i + 1] = rowPointers[i] + rowIndices[i].length;
+    final int[] indices = new int[rowPointers[rowIndices.length]];
+    final double[] values = new double[indices.length];
+    for (int i = 0; i < rowIndices.length; i++) {
+      System.arraycopy(rowIndices[i], 0, indices, rowPointers[i], rowIndices[i].length);
+      System.arraycopy(rowValues[i], 0, values, rowPointers[i], rowValues[i].length);
+    }
+    return new SparseTensorList(dims, rowPointers, indices, values);
+  }
+
+  /**
+   * Adds another list element-by-element. Two sparse lists merge into a sparse result; a dense right side is copied and
+   * only this list's nonzeros are added to it.
+   *
+   * @param right the right
+   * @return the tensor list
+   */
+  @Override
+  public TensorList add(@Nonnull final TensorList right) {
+    if (right.length() == 0) return this;
+    assert length() == right.length();
+    assert Arrays.equals(dims, right.getDimensions()) : Arrays.toString(dims) + " != " + Arrays.toString(right.getDimensions());
+    if (right instanceof SparseTensorList) return merge((SparseTensorList) right);
+    return TensorArray.wrap(IntStream.range(0, length()).parallel().mapToObj(dataIndex -> {
+      Tensor tensor = right.get(dataIndex);
+      @Nonnull final Tensor sum = tensor.copy();
+      tensor.freeRef();
+      final double[] sumData = sum.getData();
+      for (int j = rowPointers[dataIndex]; j < rowPointers[dataIndex + 1]; j++) sumData[indices[j]] += values[j];
+      return sum;
+    }).toArray(i -> new Tensor[i]));
+  }
+
+  @Nonnull
+  private SparseTensorList merge(@Nonnull final SparseTensorList right) {
+    final int length = length();
+    final int[][] rowIndices = new int[length][];
+    final double[][] rowValues = new double[length][];
+    IntStream.range(0, length).parallel().forEach(dataIndex -> {
+      int a = rowPointers[dataIndex];
+      final int aEnd = rowPointers[dataIndex + 1];
+      int b = right.rowPointers[dataIndex];
+      final int bEnd = right.rowPointers[dataIndex + 1];
+      final int[] idx = new int[aEnd - a + bEnd - b];
+      final double[] val = new double[idx.length];
+      int n = 0;
+      while (a < aEnd || b < bEnd) {
+        final int ia = a < aEnd ? indices[a] : Integer.MAX_VALUE;
+        final int ib = b < bEnd ? right.indices[b] : Integer.MAX_VALUE;
+        final double v;
+        final int index;
+        if (ia == ib) {
+          index = ia;
+          v = values[a++] + right.values[b++];
+        } else if (ia < ib) {
+          index = ia;
+          v = values[a++];
+        } else {
+          index = ib;
+          v = right.values[b++];
+        }
+        if (v != 0) {
+          idx[n] = index;
+          val[n++] = v;
+        }
+      }
+      rowIndices[dataIndex] = Arrays.copyOf(idx, n);
+      rowValues[dataIndex] = Arrays.copyOf(val, n);
+    });
+    return create(dims, rowIndices, rowValues);
+  }
+
+  @Nonnull
+  @Override
+  public Tensor get(final int i) {
+    assertAlive();
+    @Nonnull final Tensor tensor = new Tensor(dims);
+    final double[] data = tensor.getData();
+    for (int j = rowPointers[i]; j < rowPointers[i + 1]; j++) data[indices[j]] = values[j];
+    return tensor;
+  }
+
+  @Nonnull
+  @Override
+  public int[] getDimensions() {
+    return Arrays.copyOf(dims, dims.length);
+  }
+
+  @Override
+  public int length() {
+    return rowPointers.length - 1;
+  }
+
+  @Override
+  public Stream<Tensor> stream() {
+    return IntStream.range(0, length()).mapToObj(this::get);
+  }
+
+  /**
+   * Gets the start of each item's nonzeros, followed by the total count. The array is shared, not copied.
+   *
+   * @return the row pointers
+   */
+  @Nonnull
+  public int[] getRowPointers() {
+    return rowPointers;
+  }
+
+  /**
+   * Gets the flat element position of each nonzero. The array is shared, not copied.
+   *
+   * @return the indices
+   */
+  @Nonnull
+  public int[] getIndices() {
+    return indices;
+  }
+
+  /**
+   * Gets the value of each nonzero. The array is shared, not copied.
+   *
+   * @return the values
+   */
+  @Nonnull
+  public double[] getValues() {
+    return values;
+  }
+
+  /**
+   * Gets the number of stored nonzeros.
+   *
+   * @return the non zeros
+   */
+  public int getNonZeros() {
+    return values.length;
+  }
+
+  /**
+   * Gets the fraction of elements which are zero.
+   *
+   * @return the sparsity
+   */
+  public double getSparsity() {
+    final int elements = getElements();
+    return 0 == elements ? 0 : 1.0 - (double) getNonZeros() / elements;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SparseTensorList{length=%d, dims=%s, nonzeros=%d}", length(), Arrays.toString(dims), getNonZeros());
+  }
+
+  @Override
+  protected void _free() {
+  }
+}
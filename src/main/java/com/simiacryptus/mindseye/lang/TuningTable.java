@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Autotuned choices keyed by problem shape. All tables share the JSON file named by
+ * {@link CoreSettings#getConvolutionTuningFile()}, each as its own section, which is read when a table is first used
+ * and rewritten whenever an entry is recorded.
+ *
+ * @param <T> the type of the recorded choice
+ */
+public final class TuningTable<T> {
+
+  private static final Logger log = LoggerFactory.getLogger(TuningTable.class);
+  private static final Object fileLock = new Object();
+
+  @Nonnull
+  private final String section;
+  @Nonnull
+  private final Function<JsonElement, T> fromJson;
+  @Nonnull
+  private final Function<T, JsonElement> toJson;
+  private final Map<String, T> entries = new ConcurrentHashMap<>();
+  private volatile boolean loaded = false;
+
+  /**
+   * Instantiates a new Tuning table.
+   *
+   * @param section  the name of this table's section of the tuning file
+   * @param fromJson reads an entry
+   * @param toJson   writes an entry
+   */
+  public TuningTable(@Nonnull final String section, @Nonnull final Function<JsonElement, T> fromJson, @Nonnull final Function<T, JsonElement> toJson) {
+    this.section = section;
+    this.fromJson = fromJson;
+    this.toJson = toJson;
+  }
+
+  /**
+   * Gets the entry for a shape.
+   *
+   * @param key the key
+   * @return the entry, or null if none is recorded
+   */
+  @Nullable
+  public T get(@Nonnull final String key) {
+    load();
+    return entries.get(key);
+  }
+
+  /**
+   * Records an entry and saves the table to the tuning file, if one is configured.
+   *
+   * @param key   the key
+   * @param value the value
+   */
+  public void put(@Nonnull final String key, @Nonnull final T value) {
+    load();
+    entries.put(key, value);
+    @Nullable final File file = getFile();
+    if (null == file) return;
+    try {
+      save(file);
+    } catch (@Nonnull final IOException e) {
+      log.warn("Could not write tuning table " + file, e);
+    }
+  }
+
+  /**
+   * Gets a copy of the entries, keyed by shape.
+   *
+   * @return the entries
+   */
+  @Nonnull
+  public Map<String, T> getEntries() {
+    load();
+    return Collections.unmodifiableMap(new TreeMap<>(entries));
+  }
+
+  /**
+   * Discards all entries.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Adds the entries of this table's section of a tuning file.
+   *
+   * @param file the file
+   * @throws IOException the io exception
+   */
+  public void load(@Nonnull final File file) throws IOException {
+    final JsonElement json = read(file).get(section);
+    if (null == json) return;
+    for (@Nonnull final Map.Entry<String, JsonElement> entry : json.getAsJsonObject().entrySet()) {
+      entries.put(entry.getKey(), fromJson.apply(entry.getValue()));
+    }
+  }
+
+  /**
+   * Writes the entries to this table's section of a tuning file, keeping the other sections.
+   *
+   * @param file the file
+   * @throws IOException the io exception
+   */
+  public void save(@Nonnull final File file) throws IOException {
+    synchronized (fileLock) {
+      @Nonnull final JsonObject json = file.exists() ? read(file) : new JsonObject();
+      @Nonnull final JsonObject table = new JsonObject();
+      getEntries().forEach((key, value) -> table.add(key, toJson.apply(value)));
+      json.add(section, table);
+      FileUtils.write(file, json.toString(), Charset.forName("UTF-8"));
+    }
+  }
+
+  /**
+   * Reads the tuning file on first use. The loaded flag is only raised once the file has been read, so a concurrent
+   * caller waits on the lock rather than seeing a partial table, retuning, and saving it over the recorded section.
+   */
+  private void load() {
+    if (loaded) return;
+    synchronized (entries) {
+      if (loaded) return;
+      @Nullable final File file = getFile();
+      try {
+        if (null != file && file.exists()) {
+          synchronized (fileLock) {
+            load(file);
+          }
+        }
+      } catch (@Nonnull final IOException | RuntimeException e) {
+        log.warn("Could not read tuning table " + file, e);
+      } finally {
+        loaded = true;
+      }
+    }
+  }
+
+  @Nonnull
+  private static JsonObject read(@Nonnull final File file) throws IOException {
+    final JsonElement json = new JsonParser().parse(FileUtils.readFileToString(file, Charset.forName("UTF-8")));
+    return json.isJsonNull() ? new JsonObject() : json.getAsJsonObject();
+  }
+
+  @Nullable
+  private static File getFile() {
+    final String path = CoreSettings.INSTANCE().getConvolutionTuningFile();
+    return null == path || path.isEmpty() ? null : new File(path);
+  }
+}
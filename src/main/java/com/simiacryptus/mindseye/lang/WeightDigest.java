@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Content hashes of layer weights. Layers update their weights in place, so neither the identity of a layer nor of its
+ * state arrays shows whether the weights changed; anything memoized from a layer's output is keyed on these hashes
+ * instead.
+ */
+public final class WeightDigest {
+
+  private WeightDigest() {
+  }
+
+  /**
+   * Gets the 128-bit murmur3 hash of a layer's id and the contents of all its children's state arrays, including any
+   * state which is not trained.
+   *
+   * @param layer the layer
+   * @return the hash code
+   */
+  @Nonnull
+  public static HashCode of(@Nonnull final Layer layer) {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    update(hasher, layer);
+    return hasher.hash();
+  }
+
+  /**
+   * Adds a layer's id and the contents of all its children's state arrays, including any state which is not trained,
+   * to a hash.
+   *
+   * @param hasher the hasher
+   * @param layer  the layer
+   */
+  public static void update(@Nonnull final Hasher hasher, @Nonnull final Layer layer) {
+    final UUID id = layer.getId();
+    if (null != id) hasher.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+    for (@Nonnull final Layer child : layer.getChildren()) {
+      update(hasher, child.state());
+      if (child instanceof UntrainedState) update(hasher, ((UntrainedState) child).untrainedState());
+    }
+  }
+
+  private static void update(@Nonnull final Hasher hasher, final List<double[]> state) {
+    if (null == state) return;
+    for (final double[] weights : state) {
+      if (null == weights) continue;
+      hasher.putInt(weights.length);
+      for (final double v : weights) hasher.putDouble(v);
+    }
+  }
+
+  /**
+   * A layer whose output also depends on values which are not trainable weights, such as running statistics, and so
+   * are not part of its state.
+   */
+  public interface UntrainedState {
+    /**
+     * Gets a snapshot of the values the layer's output depends on beyond its state.
+     *
+     * @return the list
+     */
+    @Nonnull
+    List<double[]> untrainedState();
+  }
+}
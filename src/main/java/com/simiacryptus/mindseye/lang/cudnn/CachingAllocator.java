@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A caching allocator which carves blocks out of large segments obtained from a {@link MemorySource}. Requests are
+ * rounded to a size class and served best-fit from free lists kept per stream and per pool (small blocks share
+ * {@link #SMALL_SEGMENT} segments, larger ones get their own), splitting blocks on allocation and coalescing free
+ * neighbours on release. Fully free segments are returned to the source when the reserved total would pass the high
+ * water mark, when the cache is emptied, or when the source fails an allocation.
+ *
+ * @param <T> the pointer type
+ */
+public class CachingAllocator<T> {
+
+  /**
+   * The allocation granularity; all block sizes are multiples of this.
+   */
+  public static final long GRANULARITY = 512;
+  /**
+   * The largest request served from the small pool.
+   */
+  public static final long SMALL_LIMIT = CudaMemory.MiB;
+  /**
+   * The segment size of the small pool.
+   */
+  public static final long SMALL_SEGMENT = 2 * CudaMemory.MiB;
+  /**
+   * The segment size for large requests under {@link #LARGE_LIMIT}.
+   */
+  public static final long LARGE_SEGMENT = 20 * CudaMemory.MiB;
+  /**
+   * Requests at or above this size get a segment of their own, rounded to {@link #SMALL_SEGMENT}.
+   */
+  public static final long LARGE_LIMIT = 10 * CudaMemory.MiB;
+  private static final Logger logger = LoggerFactory.getLogger(CachingAllocator.class);
+
+  private final MemorySource<T> source;
+  private final DeviceMetrics metrics;
+  private final long highWaterMark;
+  private final Comparator<Block> bestFit = Comparator.<Block>comparingLong(b -> b.size)
+      .thenComparingLong(b -> b.segment.id).thenComparingLong(b -> b.offset);
+  private final Map<Integer, TreeSet<Block>> smallPools = new HashMap<>();
+  private final Map<Integer, TreeSet<Block>> largePools = new HashMap<>();
+  private final Map<T, Block> allocated = new IdentityHashMap<>();
+  private final AtomicLong segmentIds = new AtomicLong(0);
+  private long reservedBytes = 0;
+  private long allocatedBytes = 0;
+  private long requestedBytes = 0;
+  private int segments = 0;
+
+  /**
+   * Instantiates a new Caching allocator.
+   *
+   * @param source        the memory source
+   * @param metrics       the metrics to report into
+   * @param highWaterMark the reserved byte count above which free segments are released
+   */
+  public CachingAllocator(@Nonnull final MemorySource<T> source, @Nonnull final DeviceMetrics metrics, final long highWaterMark) {
+    this.source = source;
+    this.metrics = metrics;
+    this.highWaterMark = highWaterMark;
+    metrics.allocators.add(this);
+  }
+
+  /**
+   * Rounds a request up to its size class.
+   *
+   * @param size the size
+   * @return the block size
+   */
+  public static long roundSize(final long size) {
+    return Math.max(GRANULARITY, (size + GRANULARITY - 1) / GRANULARITY * GRANULARITY);
+  }
+
+  /**
+   * Gets the segment size used to serve a block.
+   *
+   * @param blockSize the rounded block size
+   * @return the segment size
+   */
+  public static long segmentSize(final long blockSize) {
+    if (blockSize <= SMALL_LIMIT) return SMALL_SEGMENT;
+    if (blockSize < LARGE_LIMIT) return LARGE_SEGMENT;
+    return (blockSize + SMALL_SEGMENT - 1) / SMALL_SEGMENT * SMALL_SEGMENT;
+  }
+
+  /**
+   * Allocates a block on the default stream.
+   *
+   * @param size the size in bytes
+   * @return the pointer
+   */
+  @Nonnull
+  public T allocate(final long size) {
+    return allocate(size, 0);
+  }
+
+  /**
+   * Allocates a block. Blocks freed on a stream are only reused for requests on the same stream.
+   *
+   * @param size   the size in bytes
+   * @param stream the stream key
+   * @return the pointer
+   */
+  @Nonnull
+  public T allocate(final long size, final int stream) {
+    if (size <= 0) throw new IllegalArgumentException("size=" + size);
+    final long blockSize = roundSize(size);
+    final boolean small = blockSize <= SMALL_LIMIT;
+    synchronized (this) {
+      @Nullable final Block cached = pool(stream, small).ceiling(probe(blockSize));
+      if (null != cached) {
+        metrics.cacheHits.incrementAndGet();
+        return assign(cached, size, blockSize);
+      }
+    }
+    metrics.cacheMisses.incrementAndGet();
+    final long segmentSize = segmentSize(blockSize);
+    synchronized (this) {
+      if (reservedBytes + segmentSize > highWaterMark) release(collect(reservedBytes + segmentSize - highWaterMark));
+    }
+    T base;
+    try {
+      base = source.allocate(segmentSize);
+    } catch (@Nonnull final OutOfMemoryError | RuntimeException e) {
+      final long freed = emptyCache();
+      if (0 == freed) throw e;
+      logger.debug(String.format("Released %d cached bytes after failing to allocate %d", freed, segmentSize));
+      base = source.allocate(segmentSize);
+    }
+    synchronized (this) {
+      final Segment segment = new Segment(base, segmentSize, stream, small);
+      reservedBytes += segmentSize;
+      segments++;
+      metrics.usedMemory.addAndGet(segmentSize);
+      metrics.cachedMemory.addAndGet(segmentSize);
+      return assign(new Block(segment, 0, segmentSize), size, blockSize);
+    }
+  }
+
+  /**
+   * Returns a block to the cache, coalescing it with free neighbours in its segment.
+   *
+   * @param ptr the pointer returned by {@link #allocate(long, int)}
+   */
+  public void free(@Nonnull final T ptr) {
+    final List<Segment> released;
+    synchronized (this) {
+      @Nullable Block block = allocated.remove(ptr);
+      if (null == block) throw new IllegalArgumentException("Not allocated here: " + ptr);
+      allocatedBytes -= block.size;
+      requestedBytes -= block.requested;
+      metrics.cachedMemory.addAndGet(block.size);
+      block.free = true;
+      block.requested = 0;
+      final TreeSet<Block> pool = pool(block.segment.stream, block.segment.small);
+      @Nullable final Block prev = block.prev;
+      if (null != prev && prev.free) {
+        pool.remove(prev);
+        prev.size += block.size;
+        prev.next = block.next;
+        if (null != block.next) block.next.prev = prev;
+        block = prev;
+      }
+      @Nullable final Block next = block.next;
+      if (null != next && next.free) {
+        pool.remove(next);
+        block.size += next.size;
+        block.next = next.next;
+        if (null != next.next) next.next.prev = block;
+      }
+      pool.add(block);
+      released = reservedBytes > highWaterMark ? collect(reservedBytes - highWaterMark) : Collections.emptyList();
+    }
+    release(released);
+  }
+
+  /**
+   * Returns every fully free segment to the source.
+   *
+   * @return the bytes released
+   */
+  public long emptyCache() {
+    final List<Segment> released;
+    synchronized (this) {
+      released = collect(Long.MAX_VALUE);
+    }
+    return release(released);
+  }
+
+  @Nonnull
+  private T assign(@Nonnull final Block block, final long size, final long blockSize) {
+    final Segment segment = block.segment;
+    final TreeSet<Block> pool = pool(segment.stream, segment.small);
+    pool.remove(block);
+    final long remaining = block.size - blockSize;
+    if (segment.small ? remaining >= GRANULARITY : remaining > SMALL_LIMIT) {
+      final Block rest = new Block(segment, block.offset + blockSize, remaining);
+      rest.prev = block;
+      rest.next = block.next;
+      if (null != block.next) block.next.prev = rest;
+      block.next = rest;
+      block.size = blockSize;
+      pool.add(rest);
+    }
+    block.free = false;
+    block.requested = size;
+    allocatedBytes += block.size;
+    requestedBytes += size;
+    metrics.cachedMemory.addAndGet(-block.size);
+    final T ptr = source.offset(segment.base, block.offset);
+    allocated.put(ptr, block);
+    return ptr;
+  }
+
+  @Nonnull
+  private List<Segment> collect(final long target) {
+    final List<Segment> released = new ArrayList<>();
+    long freed = 0;
+    for (final Map<Integer, TreeSet<Block>> pools : Arrays.asList(largePools, smallPools)) {
+      for (final TreeSet<Block> pool : pools.values()) {
+        final Iterator<Block> iterator = pool.descendingIterator();
+        while (freed < target && iterator.hasNext()) {
+          final Block block = iterator.next();
+          if (null == block.prev && null == block.next) {
+            iterator.remove();
+            released.add(block.segment);
+            freed += block.size;
+            reservedBytes -= block.size;
+            segments--;
+            metrics.usedMemory.addAndGet(-block.size);
+            metrics.cachedMemory.addAndGet(-block.size);
+          }
+        }
+      }
+    }
+    return released;
+  }
+
+  private long release(@Nonnull final List<Segment> released) {
+    long freed = 0;
+    for (final Segment segment : released) {
+      source.free(segment.base);
+      freed += segment.size;
+    }
+    return freed;
+  }
+
+  @Nonnull
+  private TreeSet<Block> pool(final int stream, final boolean small) {
+    return (small ? smallPools : largePools).computeIfAbsent(stream, s -> new TreeSet<>(bestFit));
+  }
+
+  @Nonnull
+  private Block probe(final long size) {
+    return new Block(new Segment(null, 0, 0, false, -1), -1, size);
+  }
+
+  /**
+   * Gets the bytes held from the source.
+   *
+   * @return the reserved bytes
+   */
+  public synchronized long getReservedBytes() {
+    return reservedBytes;
+  }
+
+  /**
+   * Gets the bytes in blocks currently handed out, including rounding.
+   *
+   * @return the allocated bytes
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Gets the bytes actually requested for the blocks currently handed out.
+   *
+   * @return the requested bytes
+   */
+  public synchronized long getRequestedBytes() {
+    return requestedBytes;
+  }
+
+  /**
+   * Gets the free bytes held in the cache.
+   *
+   * @return the cached bytes
+   */
+  public synchronized long getCachedBytes() {
+    return reservedBytes - allocatedBytes;
+  }
+
+  /**
+   * Gets the largest free block in the cache.
+   *
+   * @return the largest free block size
+   */
+  public synchronized long getLargestFreeBlock() {
+    return Stream.concat(smallPools.values().stream(), largePools.values().stream())
+        .filter(pool -> !pool.isEmpty()).mapToLong(pool -> pool.last().size).max().orElse(0);
+  }
+
+  /**
+   * Gets the number of segments held from the source.
+   *
+   * @return the segment count
+   */
+  public synchronized int getSegments() {
+    return segments;
+  }
+
+  /**
+   * Gets the high water mark.
+   *
+   * @return the high water mark
+   */
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("CachingAllocator{reserved=%d, allocated=%d, requested=%d, segments=%d, largestFree=%d}",
+        reservedBytes, allocatedBytes, requestedBytes, segments, getLargestFreeBlock());
+  }
+
+  private final class Segment {
+    final T base;
+    final long size;
+    final int stream;
+    final boolean small;
+    final long id;
+
+    Segment(final T base, final long size, final int stream, final boolean small) {
+      this(base, size, stream, small, segmentIds.incrementAndGet());
+    }
+
+    Segment(final T base, final long size, final int stream, final boolean small, final long id) {
+      this.base = base;
+      this.size = size;
+      this.stream = stream;
+      this.small = small;
+      this.id = id;
+    }
+  }
+
+  private final class Block {
+    final Segment segment;
+    final long offset;
+    long size;
+    long requested;
+    boolean free = true;
+    @Nullable
+    Block prev;
+    @Nullable
+    Block next;
+
+    Block(final Segment segment, final long offset, final long size) {
+      this.segment = segment;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,1216 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import com.google.common.collect.MapMaker;
+import jcuda.Pointer;
+import jcuda.jcudnn.*;
+import jcuda.runtime.cudaDeviceProp;
+import jcuda.runtime.cudaError;
+import jcuda.runtime.cudaStream_t;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * A software emulation of the CUDA runtime and the cuDNN operations used by the layers, so GPU-designed networks and
+ * the memory management around them can run on machines without a device. Device memory is held in heap buffers
+ * referenced from {@link CudaPointer}, descriptors are recorded on the Java side, and each operation is computed in
+ * dense NCHW double precision across the common fork-join pool before being blended into its strided output as
+ * {@code alpha * result + beta * output}.
+ */
+public final class CpuBackend implements CudaBackend {
+
+  private final int deviceCount;
+  private final Map<Object, Object> descriptors = new MapMaker().weakKeys().makeMap();
+  private final Map<Integer, Long> limits = new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a new Cpu backend.
+   *
+   * @param deviceCount the number of emulated devices
+   */
+  public CpuBackend(final int deviceCount) {
+    if (deviceCount < 1) throw new IllegalArgumentException("deviceCount=" + deviceCount);
+    this.deviceCount = deviceCount;
+  }
+
+  @Nonnull
+  private static Buffer storage(@Nullable final Pointer pointer) {
+    if (pointer instanceof CudaPointer) {
+      @Nullable final Buffer buffer = ((CudaPointer) pointer).buffer;
+      if (null != buffer) return buffer;
+    }
+    throw new IllegalArgumentException("Pointer is not backed by emulated memory: " + pointer);
+  }
+
+  private static long offset(final Pointer pointer) {
+    return ((CudaPointer) pointer).getByteOffset();
+  }
+
+  @Nonnull
+  private static ByteBuffer bytes(@Nonnull final ByteBuffer buffer, final long position, final long count) {
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.limit(Math.toIntExact(position + count));
+    duplicate.position(Math.toIntExact(position));
+    return duplicate.slice().order(ByteOrder.nativeOrder());
+  }
+
+  @Nonnull
+  private static DoubleBuffer doubles(@Nonnull final Buffer buffer, final long position, final long count) {
+    if (buffer instanceof ByteBuffer) return bytes((ByteBuffer) buffer, position, count).asDoubleBuffer();
+    if (buffer instanceof DoubleBuffer) {
+      final DoubleBuffer duplicate = ((DoubleBuffer) buffer).duplicate();
+      duplicate.limit(Math.toIntExact((position + count) / Double.BYTES));
+      duplicate.position(Math.toIntExact(position / Double.BYTES));
+      return duplicate.slice();
+    }
+    throw new IllegalArgumentException("Cannot read doubles from " + buffer.getClass().getSimpleName());
+  }
+
+  @Nonnull
+  private static FloatBuffer floats(@Nonnull final Buffer buffer, final long position, final long count) {
+    if (buffer instanceof ByteBuffer) return bytes((ByteBuffer) buffer, position, count).asFloatBuffer();
+    if (buffer instanceof FloatBuffer) {
+      final FloatBuffer duplicate = ((FloatBuffer) buffer).duplicate();
+      duplicate.limit(Math.toIntExact((position + count) / Float.BYTES));
+      duplicate.position(Math.toIntExact(position / Float.BYTES));
+      return duplicate.slice();
+    }
+    throw new IllegalArgumentException("Cannot read floats from " + buffer.getClass().getSimpleName());
+  }
+
+  private static double scalar(final Pointer pointer, final int dataType) {
+    final Buffer buffer = storage(pointer);
+    if (buffer instanceof DoubleBuffer || (buffer instanceof ByteBuffer && dataType == cudnnDataType.CUDNN_DATA_DOUBLE)) {
+      return doubles(buffer, offset(pointer), Double.BYTES).get(0);
+    } else {
+      return floats(buffer, offset(pointer), Float.BYTES).get(0);
+    }
+  }
+
+  private static int allocate(@Nonnull final CudaPointer pointer, final long size) {
+    if (size < 0 || size > Integer.MAX_VALUE) return cudaError.cudaErrorMemoryAllocation;
+    try {
+      pointer.buffer = ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+      return cudaError.cudaSuccess;
+    } catch (@Nonnull final OutOfMemoryError e) {
+      return cudaError.cudaErrorMemoryAllocation;
+    }
+  }
+
+  private static boolean isActivationSupported(final int mode) {
+    return mode == cudnnActivationMode.CUDNN_ACTIVATION_SIGMOID || mode == cudnnActivationMode.CUDNN_ACTIVATION_RELU ||
+        mode == cudnnActivationMode.CUDNN_ACTIVATION_TANH || mode == cudnnActivationMode.CUDNN_ACTIVATION_CLIPPED_RELU;
+  }
+
+  private static double activate(final int mode, final double coef, final double x) {
+    switch (mode) {
+      case cudnnActivationMode.CUDNN_ACTIVATION_SIGMOID:
+        return 1 / (1 + Math.exp(-x));
+      case cudnnActivationMode.CUDNN_ACTIVATION_RELU:
+        return x > 0 ? x : 0;
+      case cudnnActivationMode.CUDNN_ACTIVATION_TANH:
+        return Math.tanh(x);
+      default:
+        return x > 0 ? Math.min(x, coef) : 0;
+    }
+  }
+
+  private static double derivative(final int mode, final double coef, final double x, final double y) {
+    switch (mode) {
+      case cudnnActivationMode.CUDNN_ACTIVATION_SIGMOID:
+        return y * (1 - y);
+      case cudnnActivationMode.CUDNN_ACTIVATION_RELU:
+        return x > 0 ? 1 : 0;
+      case cudnnActivationMode.CUDNN_ACTIVATION_TANH:
+        return 1 - y * y;
+      default:
+        return x > 0 && x < coef ? 1 : 0;
+    }
+  }
+
+  @Nonnull
+  private Tensor tensor(final cudnnTensorDescriptor desc, final Pointer pointer) {
+    final Object params = descriptors.get(desc);
+    if (!(params instanceof Tensor)) throw new IllegalArgumentException("Unknown tensor descriptor " + desc);
+    return ((Tensor) params).bind(pointer);
+  }
+
+  @Nonnull
+  private Tensor filter(final cudnnFilterDescriptor desc, final Pointer pointer) {
+    final Object params = descriptors.get(desc);
+    if (!(params instanceof Tensor)) throw new IllegalArgumentException("Unknown filter descriptor " + desc);
+    return ((Tensor) params).bind(pointer);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nonnull
+  private <T> T params(final Object desc, @Nonnull final Class<T> type) {
+    final Object params = descriptors.get(desc);
+    if (!type.isInstance(params)) throw new IllegalArgumentException("Unknown descriptor " + desc);
+    return (T) params;
+  }
+
+  private int status(@Nonnull final Runnable fn) {
+    try {
+      fn.run();
+      return cudnnStatus.CUDNN_STATUS_SUCCESS;
+    } catch (@Nonnull final UnsupportedOperationException e) {
+      logger.warn("Unsupported emulated operation", e);
+      return cudnnStatus.CUDNN_STATUS_NOT_SUPPORTED;
+    } catch (@Nonnull final IllegalArgumentException e) {
+      logger.warn("Invalid emulated operation", e);
+      return cudnnStatus.CUDNN_STATUS_BAD_PARAM;
+    }
+  }
+
+  private int cudaStatus(@Nonnull final Runnable fn) {
+    try {
+      fn.run();
+      return cudaError.cudaSuccess;
+    } catch (@Nonnull final IllegalArgumentException | IndexOutOfBoundsException | ArithmeticException e) {
+      logger.warn("Invalid emulated operation", e);
+      return cudaError.cudaErrorInvalidValue;
+    }
+  }
+
+  @Override
+  public boolean isEmulated() {
+    return true;
+  }
+
+  @Override
+  public String getVersion() {
+    return "cpu-emulation";
+  }
+
+  @Override
+  public int cudaRuntimeGetVersion(final int[] runtimeVersion) {
+    runtimeVersion[0] = 0;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaDriverGetVersion(final int[] driverVersion) {
+    driverVersion[0] = 0;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaMemGetInfo(final long[] free, final long[] total) {
+    final Runtime runtime = Runtime.getRuntime();
+    total[0] = runtime.maxMemory();
+    free[0] = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaGetDeviceCount(final int[] count) {
+    count[0] = deviceCount;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaGetDeviceProperties(final cudaDeviceProp prop, final int device) {
+    if (device < 0 || device >= deviceCount) return cudaError.cudaErrorInvalidDevice;
+    final byte[] name = ("CPU Emulation " + device).getBytes(Charset.forName("ASCII"));
+    prop.name = Arrays.copyOf(name, Math.max(name.length, null == prop.name ? 0 : prop.name.length));
+    prop.totalGlobalMem = (long) CudaSettings.INSTANCE().getMaxDeviceMemory();
+    prop.multiProcessorCount = Runtime.getRuntime().availableProcessors();
+    prop.canMapHostMemory = 1;
+    prop.managedMemory = 1;
+    prop.unifiedAddressing = 1;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaSetDevice(final int device) {
+    return device < 0 || device >= deviceCount ? cudaError.cudaErrorInvalidDevice : cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaSetDeviceFlags(final int flags) {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaDeviceReset() {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaDeviceSynchronize() {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaDeviceGetLimit(final long[] pValue, final int limit) {
+    pValue[0] = limits.getOrDefault(limit, 0L);
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaDeviceSetLimit(final int limit, final long value) {
+    limits.put(limit, value);
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaMalloc(final CudaPointer devPtr, final long size) {
+    return allocate(devPtr, size);
+  }
+
+  @Override
+  public int cudaMallocManaged(final CudaPointer devPtr, final long size, final int flags) {
+    return allocate(devPtr, size);
+  }
+
+  @Override
+  public int cudaHostAlloc(final CudaPointer devPtr, final long size, final int flags) {
+    return allocate(devPtr, size);
+  }
+
+  @Override
+  public int cudaFree(final CudaPointer devPtr) {
+    devPtr.buffer = null;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaFreeHost(final CudaPointer devPtr) {
+    devPtr.buffer = null;
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaMemcpy(final CudaPointer dst, final CudaPointer src, final long count, final int kind) {
+    return cudaStatus(() -> {
+      final Buffer to = storage(dst);
+      final Buffer from = storage(src);
+      if (to instanceof ByteBuffer && from instanceof ByteBuffer) {
+        bytes((ByteBuffer) to, offset(dst), count).put(bytes((ByteBuffer) from, offset(src), count));
+      } else if (to instanceof DoubleBuffer || from instanceof DoubleBuffer) {
+        doubles(to, offset(dst), count).put(doubles(from, offset(src), count));
+      } else {
+        floats(to, offset(dst), count).put(floats(from, offset(src), count));
+      }
+    });
+  }
+
+  @Override
+  public int cudaMemcpyAsync(final CudaPointer dst, final CudaPointer src, final long count, final int kind, final cudaStream_t stream) {
+    return cudaMemcpy(dst, src, count, kind);
+  }
+
+  @Override
+  public int cudaMemset(final CudaPointer mem, final int c, final long count) {
+    return cudaStatus(() -> {
+      final Buffer buffer = storage(mem);
+      if (buffer instanceof ByteBuffer && buffer.hasArray()) {
+        final int from = Math.toIntExact(buffer.arrayOffset() + offset(mem));
+        Arrays.fill((byte[]) buffer.array(), from, Math.toIntExact(from + count), (byte) c);
+      } else if (buffer instanceof ByteBuffer) {
+        final ByteBuffer bytes = bytes((ByteBuffer) buffer, offset(mem), count);
+        while (bytes.hasRemaining()) bytes.put((byte) c);
+      } else if (0 == c && buffer instanceof DoubleBuffer) {
+        final DoubleBuffer doubles = doubles(buffer, offset(mem), count);
+        while (doubles.hasRemaining()) doubles.put(0.0);
+      } else if (0 == c && buffer instanceof FloatBuffer) {
+        final FloatBuffer floats = floats(buffer, offset(mem), count);
+        while (floats.hasRemaining()) floats.put(0.0f);
+      } else {
+        throw new IllegalArgumentException("Cannot memset typed host memory to " + c);
+      }
+    });
+  }
+
+  @Override
+  public int cudaStreamCreate(final cudaStream_t stream) {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaStreamDestroy(final cudaStream_t stream) {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudaStreamSynchronize(final cudaStream_t stream) {
+    return cudaError.cudaSuccess;
+  }
+
+  @Override
+  public int cudnnCreate(final cudnnHandle handle) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnDestroy(final cudnnHandle handle) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateTensorDescriptor(final cudnnTensorDescriptor tensorDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetTensor4dDescriptorEx(final cudnnTensorDescriptor tensorDesc, final int dataType, final int n, final int c, final int h, final int w, final int nStride, final int cStride, final int hStride, final int wStride) {
+    return status(() -> descriptors.put(tensorDesc, new Tensor(dataType, n, c, h, w, nStride, cStride, hStride, wStride)));
+  }
+
+  @Override
+  public int cudnnDestroyTensorDescriptor(final cudnnTensorDescriptor tensorDesc) {
+    descriptors.remove(tensorDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateFilterDescriptor(final cudnnFilterDescriptor filterDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetFilter4dDescriptor(final cudnnFilterDescriptor filterDesc, final int dataType, final int format, final int k, final int c, final int h, final int w) {
+    return cudnnSetFilterNdDescriptor(filterDesc, dataType, format, 4, new int[]{k, c, h, w});
+  }
+
+  @Override
+  public int cudnnSetFilterNdDescriptor(final cudnnFilterDescriptor filterDesc, final int dataType, final int format, final int nbDims, final int[] filterDimA) {
+    return status(() -> {
+      if (format != cudnnTensorFormat.CUDNN_TENSOR_NCHW) throw new UnsupportedOperationException("format=" + format);
+      if (nbDims != 4) throw new UnsupportedOperationException("nbDims=" + nbDims);
+      final int k = filterDimA[0], c = filterDimA[1], h = filterDimA[2], w = filterDimA[3];
+      descriptors.put(filterDesc, new Tensor(dataType, k, c, h, w, c * h * w, h * w, w, 1));
+    });
+  }
+
+  @Override
+  public int cudnnDestroyFilterDescriptor(final cudnnFilterDescriptor filterDesc) {
+    descriptors.remove(filterDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateConvolutionDescriptor(final cudnnConvolutionDescriptor convDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetConvolution2dDescriptor(final cudnnConvolutionDescriptor convDesc, final int padH, final int padW, final int strideH, final int strideW, final int dilationH, final int dilationW, final int mode, final int computeType) {
+    return cudnnSetConvolutionNdDescriptor(convDesc, 2, new int[]{padH, padW}, new int[]{strideH, strideW}, new int[]{dilationH, dilationW}, mode, computeType);
+  }
+
+  @Override
+  public int cudnnSetConvolutionNdDescriptor(final cudnnConvolutionDescriptor convDesc, final int arrayLength, final int[] padA, final int[] strideA, final int[] dilationA, final int mode, final int computeType) {
+    return status(() -> {
+      if (arrayLength < 2) throw new UnsupportedOperationException("arrayLength=" + arrayLength);
+      descriptors.put(convDesc, new Convolution(
+          padA[arrayLength - 2], padA[arrayLength - 1],
+          strideA[arrayLength - 2], strideA[arrayLength - 1],
+          dilationA[arrayLength - 2], dilationA[arrayLength - 1],
+          mode == cudnnConvolutionMode.CUDNN_CONVOLUTION));
+    });
+  }
+
+  @Override
+  public int cudnnDestroyConvolutionDescriptor(final cudnnConvolutionDescriptor convDesc) {
+    descriptors.remove(convDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateActivationDescriptor(final cudnnActivationDescriptor activationDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetActivationDescriptor(final cudnnActivationDescriptor activationDesc, final int mode, final int reluNanOpt, final double coef) {
+    return status(() -> {
+      if (!isActivationSupported(mode)) throw new UnsupportedOperationException("mode=" + mode);
+      descriptors.put(activationDesc, new Activation(mode, coef));
+    });
+  }
+
+  @Override
+  public int cudnnDestroyActivationDescriptor(final cudnnActivationDescriptor activationDesc) {
+    descriptors.remove(activationDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreatePoolingDescriptor(final cudnnPoolingDescriptor poolingDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetPoolingNdDescriptor(final cudnnPoolingDescriptor poolingDesc, final int mode, final int nanOpt, final int nbDims, final int[] windowDimA, final int[] paddingA, final int[] strideA) {
+    return status(() -> {
+      if (nbDims != 2) throw new UnsupportedOperationException("nbDims=" + nbDims);
+      descriptors.put(poolingDesc, new Pooling(mode, windowDimA[0], windowDimA[1], paddingA[0], paddingA[1], strideA[0], strideA[1]));
+    });
+  }
+
+  @Override
+  public int cudnnDestroyPoolingDescriptor(final cudnnPoolingDescriptor poolingDesc) {
+    descriptors.remove(poolingDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc, final int opTensorOp, final int compType, final int nanOpt) {
+    descriptors.put(opTensorDesc, new int[]{opTensorOp});
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnDestroyOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc) {
+    descriptors.remove(opTensorDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnCreateReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc) {
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnSetReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc, final int reduceTensorOp, final int reduceTensorCompType, final int reduceTensorNanOpt, final int reduceTensorIndices, final int reduceTensorIndicesType) {
+    descriptors.put(reduceTensorDesc, new int[]{reduceTensorOp});
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnDestroyReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc) {
+    descriptors.remove(reduceTensorDesc);
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionNdForwardOutputDim(final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor inputTensorDesc, final cudnnFilterDescriptor filterDesc, final int nbDims, final int[] tensorOuputDimA) {
+    return status(() -> {
+      final Convolution conv = params(convDesc, Convolution.class);
+      final Tensor input = params(inputTensorDesc, Tensor.class);
+      final Tensor filter = params(filterDesc, Tensor.class);
+      tensorOuputDimA[0] = input.n;
+      tensorOuputDimA[1] = filter.n;
+      tensorOuputDimA[2] = conv.outputHeight(input.h, filter.h);
+      tensorOuputDimA[3] = conv.outputWidth(input.w, filter.w);
+    });
+  }
+
+  @Override
+  public int cudnnGetPoolingNdForwardOutputDim(final cudnnPoolingDescriptor poolingDesc, final cudnnTensorDescriptor inputTensorDesc, final int nbDims, final int[] outputTensorDimA) {
+    return status(() -> {
+      final Pooling pooling = params(poolingDesc, Pooling.class);
+      final Tensor input = params(inputTensorDesc, Tensor.class);
+      outputTensorDimA[0] = input.n;
+      outputTensorDimA[1] = input.c;
+      outputTensorDimA[2] = 1 + (input.h + 2 * pooling.padH - pooling.windowH) / pooling.strideH;
+      outputTensorDimA[3] = 1 + (input.w + 2 * pooling.padW - pooling.windowW) / pooling.strideW;
+    });
+  }
+
+  @Override
+  public int cudnnGetConvolutionForwardAlgorithm(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnFilterDescriptor wDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor yDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    algo[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardDataAlgorithm(final cudnnHandle handle, final cudnnFilterDescriptor wDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dxDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    algo[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardFilterAlgorithm(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnFilterDescriptor dwDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    algo[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionForwardWorkspaceSize(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnFilterDescriptor wDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor yDesc, final int algo, final long[] sizeInBytes) {
+    sizeInBytes[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardDataWorkspaceSize(final cudnnHandle handle, final cudnnFilterDescriptor wDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dxDesc, final int algo, final long[] sizeInBytes) {
+    sizeInBytes[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardFilterWorkspaceSize(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnFilterDescriptor gradDesc, final int algo, final long[] sizeInBytes) {
+    sizeInBytes[0] = 0;
+    return cudnnStatus.CUDNN_STATUS_SUCCESS;
+  }
+
+  @Override
+  public int cudnnActivationForward(final cudnnHandle handle, final cudnnActivationDescriptor activationDesc, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Activation activation = params(activationDesc, Activation.class);
+      final Tensor output = tensor(yDesc, y);
+      final double[] input = tensor(xDesc, x).read();
+      final double[] result = new double[input.length];
+      IntStream.range(0, input.length).parallel().forEach(i -> result[i] = activate(activation.mode, activation.coef, input[i]));
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnActivationBackward(final cudnnHandle handle, final cudnnActivationDescriptor activationDesc, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return status(() -> {
+      final Activation activation = params(activationDesc, Activation.class);
+      final Tensor output = tensor(dxDesc, dx);
+      final double[] outputs = tensor(yDesc, y).read();
+      final double[] deltas = tensor(dyDesc, dy).read();
+      final double[] inputs = tensor(xDesc, x).read();
+      final double[] result = new double[inputs.length];
+      IntStream.range(0, inputs.length).parallel().forEach(i ->
+          result[i] = deltas[i] * derivative(activation.mode, activation.coef, inputs[i], outputs[i]));
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnAddTensor(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor aDesc, final CudaPointer A, final CudaPointer beta, final cudnnTensorDescriptor cDesc, final CudaPointer C) {
+    return status(() -> {
+      final Tensor output = tensor(cDesc, C);
+      output.write(tensor(aDesc, A).broadcast(output), scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnOpTensor(final cudnnHandle handle, final cudnnOpTensorDescriptor opTensorDesc, final CudaPointer alpha1, final cudnnTensorDescriptor aDesc, final CudaPointer A, final CudaPointer alpha2, final cudnnTensorDescriptor bDesc, final CudaPointer B, final CudaPointer beta, final cudnnTensorDescriptor cDesc, final CudaPointer C) {
+    return status(() -> {
+      final int op = params(opTensorDesc, int[].class)[0];
+      final Tensor output = tensor(cDesc, C);
+      final double a1 = scalar(alpha1, output.dataType);
+      final double a2 = scalar(alpha2, output.dataType);
+      final double[] left = tensor(aDesc, A).broadcast(output);
+      final double[] right = tensor(bDesc, B).broadcast(output);
+      final double[] result = new double[left.length];
+      IntStream.range(0, result.length).parallel().forEach(i -> {
+        final double l = a1 * left[i];
+        final double r = a2 * right[i];
+        switch (op) {
+          case cudnnOpTensorOp.CUDNN_OP_TENSOR_ADD:
+            result[i] = l + r;
+            break;
+          case cudnnOpTensorOp.CUDNN_OP_TENSOR_MUL:
+            result[i] = l * r;
+            break;
+          case cudnnOpTensorOp.CUDNN_OP_TENSOR_MIN:
+            result[i] = Math.min(l, r);
+            break;
+          case cudnnOpTensorOp.CUDNN_OP_TENSOR_MAX:
+            result[i] = Math.max(l, r);
+            break;
+          default:
+            throw new UnsupportedOperationException("op=" + op);
+        }
+      });
+      output.write(result, 1.0, scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnReduceTensor(final cudnnHandle handle, final cudnnReduceTensorDescriptor reduceTensorDesc, final Pointer indices, final long indicesSizeInBytes, final Pointer workspace, final long workspaceSizeInBytes, final Pointer alpha, final cudnnTensorDescriptor aDesc, final Pointer A, final Pointer beta, final cudnnTensorDescriptor cDesc, final Pointer C) {
+    return status(() -> {
+      final int op = params(reduceTensorDesc, int[].class)[0];
+      final Tensor input = tensor(aDesc, A);
+      final Tensor output = tensor(cDesc, C);
+      if ((output.n != 1 && output.n != input.n) || (output.c != 1 && output.c != input.c) ||
+          (output.h != 1 && output.h != input.h) || (output.w != 1 && output.w != input.w)) {
+        throw new IllegalArgumentException("Incompatible reduction shape");
+      }
+      final double[] values = input.read();
+      final int rn = output.n == 1 ? input.n : 1, rc = output.c == 1 ? input.c : 1;
+      final int rh = output.h == 1 ? input.h : 1, rw = output.w == 1 ? input.w : 1;
+      final double[] result = new double[output.length()];
+      IntStream.range(0, result.length).parallel().forEach(o -> {
+        final int ow = o % output.w, oh = (o / output.w) % output.h, oc = (o / output.w / output.h) % output.c, on = o / output.w / output.h / output.c;
+        double acc = op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MUL || op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MUL_NO_ZEROS ? 1 :
+            op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MIN ? Double.POSITIVE_INFINITY :
+                op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MAX ? Double.NEGATIVE_INFINITY : 0;
+        for (int n = 0; n < rn; n++) {
+          for (int c = 0; c < rc; c++) {
+            for (int h = 0; h < rh; h++) {
+              for (int w = 0; w < rw; w++) {
+                final double v = values[input.dense(on + n, oc + c, oh + h, ow + w)];
+                switch (op) {
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_ADD:
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_AVG:
+                    acc += v;
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MUL:
+                    acc *= v;
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MUL_NO_ZEROS:
+                    if (v != 0) acc *= v;
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MIN:
+                    acc = Math.min(acc, v);
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_MAX:
+                    acc = Math.max(acc, v);
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_AMAX:
+                    acc = Math.max(acc, Math.abs(v));
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_NORM1:
+                    acc += Math.abs(v);
+                    break;
+                  case cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_NORM2:
+                    acc += v * v;
+                    break;
+                  default:
+                    throw new UnsupportedOperationException("op=" + op);
+                }
+              }
+            }
+          }
+        }
+        if (op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_AVG) acc /= (double) rn * rc * rh * rw;
+        if (op == cudnnReduceTensorOp.CUDNN_REDUCE_TENSOR_NORM2) acc = Math.sqrt(acc);
+        result[o] = acc;
+      });
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnTransformTensor(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Tensor input = tensor(xDesc, x);
+      final Tensor output = tensor(yDesc, y);
+      if (input.length() != output.length()) throw new IllegalArgumentException("Incompatible transform shape");
+      output.write(input.read(), scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnSetTensor(final cudnnHandle handle, final cudnnTensorDescriptor yDesc, final CudaPointer y, final CudaPointer valuePtr) {
+    return status(() -> {
+      final Tensor output = tensor(yDesc, y);
+      final double[] result = new double[output.length()];
+      Arrays.fill(result, scalar(valuePtr, output.dataType));
+      output.write(result, 1.0, 0.0);
+    });
+  }
+
+  @Override
+  public int cudnnConvolutionForward(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Tensor output = tensor(yDesc, y);
+      output.write(params(convDesc, Convolution.class).forward(tensor(xDesc, x), filter(wDesc, w), output),
+          scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnConvolutionBiasActivationForward(final cudnnHandle handle, final CudaPointer alpha1, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer alpha2, final cudnnTensorDescriptor zDesc, final CudaPointer z, final cudnnTensorDescriptor biasDesc, final CudaPointer bias, final cudnnActivationDescriptor activationDesc, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Activation activation = params(activationDesc, Activation.class);
+      final Tensor output = tensor(yDesc, y);
+      final double a1 = scalar(alpha1, output.dataType);
+      final double a2 = scalar(alpha2, output.dataType);
+      final double[] convolved = params(convDesc, Convolution.class).forward(tensor(xDesc, x), filter(wDesc, w), output);
+      final double[] residual = 0 == a2 ? null : tensor(zDesc, z).broadcast(output);
+      final double[] offsets = tensor(biasDesc, bias).broadcast(output);
+      IntStream.range(0, convolved.length).parallel().forEach(i -> {
+        final double v = a1 * convolved[i] + (null == residual ? 0 : a2 * residual[i]) + offsets[i];
+        convolved[i] = activate(activation.mode, activation.coef, v);
+      });
+      output.write(convolved, 1.0, 0.0);
+    });
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardData(final cudnnHandle handle, final CudaPointer alpha, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return status(() -> {
+      final Tensor output = tensor(dxDesc, dx);
+      output.write(params(convDesc, Convolution.class).backwardData(filter(wDesc, w), tensor(dyDesc, dy), output),
+          scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardFilter(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnFilterDescriptor dwDesc, final CudaPointer dw) {
+    return status(() -> {
+      final Tensor output = filter(dwDesc, dw);
+      output.write(params(convDesc, Convolution.class).backwardFilter(tensor(xDesc, x), tensor(dyDesc, dy), output),
+          scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardBias(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final CudaPointer beta, final cudnnTensorDescriptor dbDesc, final CudaPointer db) {
+    return status(() -> {
+      final Tensor delta = tensor(dyDesc, dy);
+      final Tensor output = tensor(dbDesc, db);
+      if (output.length() != delta.c) throw new IllegalArgumentException("Incompatible bias shape");
+      final double[] deltas = delta.read();
+      final int plane = delta.h * delta.w;
+      final double[] result = new double[delta.c];
+      IntStream.range(0, delta.c).parallel().forEach(c -> {
+        double sum = 0;
+        for (int n = 0; n < delta.n; n++) {
+          final int base = (n * delta.c + c) * plane;
+          for (int i = 0; i < plane; i++) sum += deltas[base + i];
+        }
+        result[c] = sum;
+      });
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnPoolingForward(final cudnnHandle handle, final cudnnPoolingDescriptor poolingDesc, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Tensor output = tensor(yDesc, y);
+      output.write(params(poolingDesc, Pooling.class).forward(tensor(xDesc, x), output),
+          scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnPoolingBackward(final cudnnHandle handle, final cudnnPoolingDescriptor poolingDesc, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return status(() -> {
+      final Tensor output = tensor(dxDesc, dx);
+      output.write(params(poolingDesc, Pooling.class).backward(tensor(dyDesc, dy), tensor(xDesc, x), output),
+          scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnSoftmaxForward(final cudnnHandle handle, final int algo, final int mode, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return status(() -> {
+      final Tensor input = tensor(xDesc, x);
+      final Tensor output = tensor(yDesc, y);
+      final double[] values = input.read();
+      final double[] result = new double[values.length];
+      final int plane = input.h * input.w;
+      final boolean channel = mode == cudnnSoftmaxMode.CUDNN_SOFTMAX_MODE_CHANNEL;
+      final int groups = channel ? input.n * plane : input.n;
+      final int size = channel ? input.c : input.c * plane;
+      final int step = channel ? plane : 1;
+      IntStream.range(0, groups).parallel().forEach(g -> {
+        final int base = channel ? (g / plane) * input.c * plane + g % plane : g * size;
+        double max = Double.NEGATIVE_INFINITY;
+        if (algo != cudnnSoftmaxAlgorithm.CUDNN_SOFTMAX_FAST) {
+          for (int i = 0; i < size; i++) max = Math.max(max, values[base + i * step]);
+        } else {
+          max = 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < size; i++) sum += Math.exp(values[base + i * step] - max);
+        final double logSum = Math.log(sum);
+        for (int i = 0; i < size; i++) {
+          final int index = base + i * step;
+          result[index] = algo == cudnnSoftmaxAlgorithm.CUDNN_SOFTMAX_LOG ?
+              values[index] - max - logSum : Math.exp(values[index] - max) / sum;
+        }
+      });
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  @Override
+  public int cudnnSoftmaxBackward(final cudnnHandle handle, final int algo, final int mode, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return status(() -> {
+      final Tensor input = tensor(yDesc, y);
+      final Tensor output = tensor(dxDesc, dx);
+      final double[] outputs = input.read();
+      final double[] deltas = tensor(dyDesc, dy).read();
+      final double[] result = new double[outputs.length];
+      final int plane = input.h * input.w;
+      final boolean channel = mode == cudnnSoftmaxMode.CUDNN_SOFTMAX_MODE_CHANNEL;
+      final boolean log = algo == cudnnSoftmaxAlgorithm.CUDNN_SOFTMAX_LOG;
+      final int groups = channel ? input.n * plane : input.n;
+      final int size = channel ? input.c : input.c * plane;
+      final int step = channel ? plane : 1;
+      IntStream.range(0, groups).parallel().forEach(g -> {
+        final int base = channel ? (g / plane) * input.c * plane + g % plane : g * size;
+        double dot = 0;
+        for (int i = 0; i < size; i++) {
+          final int index = base + i * step;
+          dot += log ? deltas[index] : deltas[index] * outputs[index];
+        }
+        for (int i = 0; i < size; i++) {
+          final int index = base + i * step;
+          result[index] = log ? deltas[index] - Math.exp(outputs[index]) * dot : outputs[index] * (deltas[index] - dot);
+        }
+      });
+      output.write(result, scalar(alpha, output.dataType), scalar(beta, output.dataType));
+    });
+  }
+
+  /**
+   * A 4d strided tensor layout, optionally bound to emulated memory.
+   */
+  private static final class Tensor {
+    final int dataType;
+    final int n, c, h, w;
+    final int nStride, cStride, hStride, wStride;
+    @Nullable
+    final DoubleBuffer doubles;
+    @Nullable
+    final FloatBuffer floats;
+
+    Tensor(final int dataType, final int n, final int c, final int h, final int w, final int nStride, final int cStride, final int hStride, final int wStride) {
+      this(dataType, n, c, h, w, nStride, cStride, hStride, wStride, null, null);
+    }
+
+    private Tensor(final int dataType, final int n, final int c, final int h, final int w, final int nStride, final int cStride, final int hStride, final int wStride,
+                   @Nullable final DoubleBuffer doubles, @Nullable final FloatBuffer floats) {
+      if (dataType != cudnnDataType.CUDNN_DATA_DOUBLE && dataType != cudnnDataType.CUDNN_DATA_FLOAT) {
+        throw new UnsupportedOperationException("dataType=" + dataType);
+      }
+      this.dataType = dataType;
+      this.n = n;
+      this.c = c;
+      this.h = h;
+      this.w = w;
+      this.nStride = nStride;
+      this.cStride = cStride;
+      this.hStride = hStride;
+      this.wStride = wStride;
+      this.doubles = doubles;
+      this.floats = floats;
+    }
+
+    Tensor bind(final Pointer pointer) {
+      final long span = (long) (n - 1) * nStride + (long) (c - 1) * cStride + (long) (h - 1) * hStride + (long) (w - 1) * wStride + 1;
+      final Buffer buffer = storage(pointer);
+      if (dataType == cudnnDataType.CUDNN_DATA_DOUBLE) {
+        return new Tensor(dataType, n, c, h, w, nStride, cStride, hStride, wStride, doubles(buffer, offset(pointer), span * Double.BYTES), null);
+      } else {
+        return new Tensor(dataType, n, c, h, w, nStride, cStride, hStride, wStride, null, floats(buffer, offset(pointer), span * Float.BYTES));
+      }
+    }
+
+    int length() {
+      return n * c * h * w;
+    }
+
+    int dense(final int n, final int c, final int h, final int w) {
+      return ((n * this.c + c) * this.h + h) * this.w + w;
+    }
+
+    private int index(final int n, final int c, final int h, final int w) {
+      return n * nStride + c * cStride + h * hStride + w * wStride;
+    }
+
+    private double get(final int index) {
+      return null != doubles ? doubles.get(index) : floats.get(index);
+    }
+
+    private void set(final int index, final double value) {
+      if (null != doubles) doubles.put(index, value);
+      else floats.put(index, (float) value);
+    }
+
+    double[] read() {
+      final double[] values = new double[length()];
+      IntStream.range(0, n * c).parallel().forEach(nc -> {
+        final int ni = nc / c, ci = nc % c;
+        int i = dense(ni, ci, 0, 0);
+        for (int y = 0; y < h; y++) {
+          for (int x = 0; x < w; x++) {
+            values[i++] = get(index(ni, ci, y, x));
+          }
+        }
+      });
+      return values;
+    }
+
+    double[] broadcast(@Nonnull final Tensor shape) {
+      if ((n != 1 && n != shape.n) || (c != 1 && c != shape.c) || (h != 1 && h != shape.h) || (w != 1 && w != shape.w)) {
+        throw new IllegalArgumentException("Incompatible broadcast shape");
+      }
+      final double[] values = new double[shape.length()];
+      IntStream.range(0, shape.n * shape.c).parallel().forEach(nc -> {
+        final int ni = nc / shape.c, ci = nc % shape.c;
+        int i = shape.dense(ni, ci, 0, 0);
+        for (int y = 0; y < shape.h; y++) {
+          for (int x = 0; x < shape.w; x++) {
+            values[i++] = get(index(n == 1 ? 0 : ni, c == 1 ? 0 : ci, h == 1 ? 0 : y, w == 1 ? 0 : x));
+          }
+        }
+      });
+      return values;
+    }
+
+    void write(@Nonnull final double[] values, final double alpha, final double beta) {
+      IntStream.range(0, n * c).parallel().forEach(nc -> {
+        final int ni = nc / c, ci = nc % c;
+        int i = dense(ni, ci, 0, 0);
+        for (int y = 0; y < h; y++) {
+          for (int x = 0; x < w; x++) {
+            final int index = index(ni, ci, y, x);
+            final double value = alpha * values[i++];
+            set(index, 0 == beta ? value : value + beta * get(index));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * A 2d convolution, with the kernel flipped unless configured as cross-correlation.
+   */
+  private static final class Convolution {
+    final int padH, padW, strideH, strideW, dilationH, dilationW;
+    final boolean flip;
+
+    Convolution(final int padH, final int padW, final int strideH, final int strideW, final int dilationH, final int dilationW, final boolean flip) {
+      this.padH = padH;
+      this.padW = padW;
+      this.strideH = strideH;
+      this.strideW = strideW;
+      this.dilationH = dilationH;
+      this.dilationW = dilationW;
+      this.flip = flip;
+    }
+
+    int outputHeight(final int inputHeight, final int kernelHeight) {
+      return 1 + (inputHeight + 2 * padH - ((kernelHeight - 1) * dilationH + 1)) / strideH;
+    }
+
+    int outputWidth(final int inputWidth, final int kernelWidth) {
+      return 1 + (inputWidth + 2 * padW - ((kernelWidth - 1) * dilationW + 1)) / strideW;
+    }
+
+    private void check(final Tensor input, final Tensor filter, final Tensor output) {
+      if (input.c != filter.c || output.c != filter.n || input.n != output.n) {
+        throw new IllegalArgumentException("Incompatible convolution shapes");
+      }
+    }
+
+    private int filterIndex(final Tensor filter, final int k, final int c, final int r, final int s) {
+      return filter.dense(k, c, flip ? filter.h - 1 - r : r, flip ? filter.w - 1 - s : s);
+    }
+
+    double[] forward(final Tensor input, final Tensor filter, final Tensor output) {
+      check(input, filter, output);
+      final double[] x = input.read();
+      final double[] kernel = filter.read();
+      final double[] y = new double[output.length()];
+      IntStream.range(0, output.n * output.c).parallel().forEach(nk -> {
+        final int n = nk / output.c, k = nk % output.c;
+        for (int p = 0; p < output.h; p++) {
+          for (int q = 0; q < output.w; q++) {
+            double sum = 0;
+            for (int c = 0; c < input.c; c++) {
+              for (int r = 0; r < filter.h; r++) {
+                final int i = p * strideH - padH + r * dilationH;
+                if (i < 0 || i >= input.h) continue;
+                for (int s = 0; s < filter.w; s++) {
+                  final int j = q * strideW - padW + s * dilationW;
+                  if (j < 0 || j >= input.w) continue;
+                  sum += x[input.dense(n, c, i, j)] * kernel[filterIndex(filter, k, c, r, s)];
+                }
+              }
+            }
+            y[output.dense(n, k, p, q)] = sum;
+          }
+        }
+      });
+      return y;
+    }
+
+    double[] backwardData(final Tensor filter, final Tensor delta, final Tensor output) {
+      check(output, filter, delta);
+      final double[] kernel = filter.read();
+      final double[] dy = delta.read();
+      final double[] dx = new double[output.length()];
+      IntStream.range(0, output.n * output.c).parallel().forEach(nc -> {
+        final int n = nc / output.c, c = nc % output.c;
+        for (int k = 0; k < delta.c; k++) {
+          for (int p = 0; p < delta.h; p++) {
+            for (int q = 0; q < delta.w; q++) {
+              final double d = dy[delta.dense(n, k, p, q)];
+              if (0 == d) continue;
+              for (int r = 0; r < filter.h; r++) {
+                final int i = p * strideH - padH + r * dilationH;
+                if (i < 0 || i >= output.h) continue;
+                for (int s = 0; s < filter.w; s++) {
+                  final int j = q * strideW - padW + s * dilationW;
+                  if (j < 0 || j >= output.w) continue;
+                  dx[output.dense(n, c, i, j)] += d * kernel[filterIndex(filter, k, c, r, s)];
+                }
+              }
+            }
+          }
+        }
+      });
+      return dx;
+    }
+
+    double[] backwardFilter(final Tensor input, final Tensor delta, final Tensor output) {
+      check(input, output, delta);
+      final double[] x = input.read();
+      final double[] dy = delta.read();
+      final double[] dw = new double[output.length()];
+      IntStream.range(0, output.n * output.c).parallel().forEach(kc -> {
+        final int k = kc / output.c, c = kc % output.c;
+        for (int r = 0; r < output.h; r++) {
+          for (int s = 0; s < output.w; s++) {
+            double sum = 0;
+            for (int n = 0; n < input.n; n++) {
+              for (int p = 0; p < delta.h; p++) {
+                final int i = p * strideH - padH + r * dilationH;
+                if (i < 0 || i >= input.h) continue;
+                for (int q = 0; q < delta.w; q++) {
+                  final int j = q * strideW - padW + s * dilationW;
+                  if (j < 0 || j >= input.w) continue;
+                  sum += x[input.dense(n, c, i, j)] * dy[delta.dense(n, k, p, q)];
+                }
+              }
+            }
+            dw[filterIndex(output, k, c, r, s)] = sum;
+          }
+        }
+      });
+      return dw;
+    }
+  }
+
+  /**
+   * A 2d pooling window.
+   */
+  private static final class Pooling {
+    final int mode, windowH, windowW, padH, padW, strideH, strideW;
+
+    Pooling(final int mode, final int windowH, final int windowW, final int padH, final int padW, final int strideH, final int strideW) {
+      if (mode != cudnnPoolingMode.CUDNN_POOLING_MAX && mode != cudnnPoolingMode.CUDNN_POOLING_AVERAGE_COUNT_INCLUDE_PADDING &&
+          mode != cudnnPoolingMode.CUDNN_POOLING_AVERAGE_COUNT_EXCLUDE_PADDING) {
+        throw new UnsupportedOperationException("mode=" + mode);
+      }
+      this.mode = mode;
+      this.windowH = windowH;
+      this.windowW = windowW;
+      this.padH = padH;
+      this.padW = padW;
+      this.strideH = strideH;
+      this.strideW = strideW;
+    }
+
+    private int count(final Tensor input, final int p, final int q) {
+      if (mode == cudnnPoolingMode.CUDNN_POOLING_AVERAGE_COUNT_INCLUDE_PADDING) return windowH * windowW;
+      final int i0 = p * strideH - padH, j0 = q * strideW - padW;
+      final int rows = Math.min(i0 + windowH, input.h) - Math.max(i0, 0);
+      final int cols = Math.min(j0 + windowW, input.w) - Math.max(j0, 0);
+      return Math.max(rows, 0) * Math.max(cols, 0);
+    }
+
+    private int argmax(final double[] x, final Tensor input, final int n, final int c, final int p, final int q) {
+      int best = -1;
+      for (int i = Math.max(p * strideH - padH, 0); i < Math.min(p * strideH - padH + windowH, input.h); i++) {
+        for (int j = Math.max(q * strideW - padW, 0); j < Math.min(q * strideW - padW + windowW, input.w); j++) {
+          final int index = input.dense(n, c, i, j);
+          if (best < 0 || x[index] > x[best]) best = index;
+        }
+      }
+      return best;
+    }
+
+    double[] forward(final Tensor input, final Tensor output) {
+      final double[] x = input.read();
+      final double[] y = new double[output.length()];
+      IntStream.range(0, output.n * output.c).parallel().forEach(nc -> {
+        final int n = nc / output.c, c = nc % output.c;
+        for (int p = 0; p < output.h; p++) {
+          for (int q = 0; q < output.w; q++) {
+            if (mode == cudnnPoolingMode.CUDNN_POOLING_MAX) {
+              final int best = argmax(x, input, n, c, p, q);
+              y[output.dense(n, c, p, q)] = best < 0 ? 0 : x[best];
+            } else {
+              double sum = 0;
+              for (int i = Math.max(p * strideH - padH, 0); i < Math.min(p * strideH - padH + windowH, input.h); i++) {
+                for (int j = Math.max(q * strideW - padW, 0); j < Math.min(q * strideW - padW + windowW, input.w); j++) {
+                  sum += x[input.dense(n, c, i, j)];
+                }
+              }
+              final int count = count(input, p, q);
+              y[output.dense(n, c, p, q)] = 0 == count ? 0 : sum / count;
+            }
+          }
+        }
+      });
+      return y;
+    }
+
+    double[] backward(final Tensor delta, final Tensor input, final Tensor output) {
+      final double[] x = input.read();
+      final double[] dy = delta.read();
+      final double[] dx = new double[output.length()];
+      IntStream.range(0, delta.n * delta.c).parallel().forEach(nc -> {
+        final int n = nc / delta.c, c = nc % delta.c;
+        for (int p = 0; p < delta.h; p++) {
+          for (int q = 0; q < delta.w; q++) {
+            final double d = dy[delta.dense(n, c, p, q)];
+            if (mode == cudnnPoolingMode.CUDNN_POOLING_MAX) {
+              final int best = argmax(x, input, n, c, p, q);
+              if (best >= 0) dx[best] += d;
+            } else {
+              final int count = count(input, p, q);
+              if (0 == count) continue;
+              for (int i = Math.max(p * strideH - padH, 0); i < Math.min(p * strideH - padH + windowH, input.h); i++) {
+                for (int j = Math.max(q * strideW - padW, 0); j < Math.min(q * strideW - padW + windowW, input.w); j++) {
+                  dx[output.dense(n, c, i, j)] += d / count;
+                }
+              }
+            }
+          }
+        }
+      });
+      return dx;
+    }
+  }
+
+  /**
+   * An activation function and its coefficient.
+   */
+  private static final class Activation {
+    final int mode;
+    final double coef;
+
+    Activation(final int mode, final double coef) {
+      this.mode = mode;
+      this.coef = coef;
+    }
+  }
+}
@@ -0,0 +1,931 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import jcuda.Pointer;
+import jcuda.jcudnn.*;
+import jcuda.runtime.cudaDeviceProp;
+import jcuda.runtime.cudaStream_t;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The device backend behind CudaSystem and CudnnHandle. Every runtime and cuDNN entry point used by this package is
+ * routed through one of these, so the same layers can run against the native JCuda bindings or against the
+ * multithreaded software emulation in {@link CpuBackend}. Methods mirror the JCuda/JCudnn signatures and return their
+ * status codes.
+ */
+public interface CudaBackend {
+
+  /**
+   * The constant logger.
+   */
+  Logger logger = LoggerFactory.getLogger(CudaBackend.class);
+
+  /**
+   * Creates the backend selected by the given type. {@link Type#AUTO} uses the native bindings when they report at
+   * least one device and falls back to the CPU emulation otherwise.
+   *
+   * @param type the type
+   * @return the cuda backend
+   */
+  @Nonnull
+  static CudaBackend create(@Nonnull final Type type) {
+    switch (type) {
+      case NATIVE:
+        return new NativeBackend();
+      case CPU:
+        return new CpuBackend(CudaSettings.INSTANCE().getEmulatedDevices());
+      default:
+        try {
+          @Nonnull final NativeBackend nativeBackend = new NativeBackend();
+          @Nonnull final int[] deviceCount = {0};
+          if (0 == nativeBackend.cudaGetDeviceCount(deviceCount) && 0 < deviceCount[0]) return nativeBackend;
+          logger.warn("No CUDA devices found; using CPU emulation");
+        } catch (@Nonnull final Throwable e) {
+          logger.warn("CUDA unavailable; using CPU emulation", e);
+        }
+        return new CpuBackend(CudaSettings.INSTANCE().getEmulatedDevices());
+    }
+  }
+
+  /**
+   * Is emulated boolean.
+   *
+   * @return the boolean
+   */
+  boolean isEmulated();
+
+  /**
+   * Gets version.
+   *
+   * @return the version
+   */
+  String getVersion();
+
+  /**
+   * Cuda runtime get version int.
+   *
+   * @param runtimeVersion the runtime version
+   * @return the int
+   */
+  int cudaRuntimeGetVersion(int[] runtimeVersion);
+
+  /**
+   * Cuda driver get version int.
+   *
+   * @param driverVersion the driver version
+   * @return the int
+   */
+  int cudaDriverGetVersion(int[] driverVersion);
+
+  /**
+   * Cuda mem get info int.
+   *
+   * @param free  the free
+   * @param total the total
+   * @return the int
+   */
+  int cudaMemGetInfo(long[] free, long[] total);
+
+  /**
+   * Cuda get device count int.
+   *
+   * @param count the count
+   * @return the int
+   */
+  int cudaGetDeviceCount(int[] count);
+
+  /**
+   * Cuda get device properties int.
+   *
+   * @param prop   the prop
+   * @param device the device
+   * @return the int
+   */
+  int cudaGetDeviceProperties(cudaDeviceProp prop, int device);
+
+  /**
+   * Cuda set device int.
+   *
+   * @param device the device
+   * @return the int
+   */
+  int cudaSetDevice(int device);
+
+  /**
+   * Cuda set device flags int.
+   *
+   * @param flags the flags
+   * @return the int
+   */
+  int cudaSetDeviceFlags(int flags);
+
+  /**
+   * Cuda device reset int.
+   *
+   * @return the int
+   */
+  int cudaDeviceReset();
+
+  /**
+   * Cuda device synchronize int.
+   *
+   * @return the int
+   */
+  int cudaDeviceSynchronize();
+
+  /**
+   * Cuda device get limit int.
+   *
+   * @param pValue the p value
+   * @param limit  the limit
+   * @return the int
+   */
+  int cudaDeviceGetLimit(long[] pValue, int limit);
+
+  /**
+   * Cuda device set limit int.
+   *
+   * @param limit the limit
+   * @param value the value
+   * @return the int
+   */
+  int cudaDeviceSetLimit(int limit, long value);
+
+  /**
+   * Cuda malloc int.
+   *
+   * @param devPtr the dev ptr
+   * @param size   the size
+   * @return the int
+   */
+  int cudaMalloc(CudaPointer devPtr, long size);
+
+  /**
+   * Cuda malloc managed int.
+   *
+   * @param devPtr the dev ptr
+   * @param size   the size
+   * @param flags  the flags
+   * @return the int
+   */
+  int cudaMallocManaged(CudaPointer devPtr, long size, int flags);
+
+  /**
+   * Cuda host alloc int.
+   *
+   * @param devPtr the dev ptr
+   * @param size   the size
+   * @param flags  the flags
+   * @return the int
+   */
+  int cudaHostAlloc(CudaPointer devPtr, long size, int flags);
+
+  /**
+   * Cuda free int.
+   *
+   * @param devPtr the dev ptr
+   * @return the int
+   */
+  int cudaFree(CudaPointer devPtr);
+
+  /**
+   * Cuda free host int.
+   *
+   * @param devPtr the dev ptr
+   * @return the int
+   */
+  int cudaFreeHost(CudaPointer devPtr);
+
+  /**
+   * Cuda memcpy int.
+   *
+   * @param dst   the dst
+   * @param src   the src
+   * @param count the count
+   * @param kind  the kind
+   * @return the int
+   */
+  int cudaMemcpy(CudaPointer dst, CudaPointer src, long count, int kind);
+
+  /**
+   * Cuda memcpy async int.
+   *
+   * @param dst    the dst
+   * @param src    the src
+   * @param count  the count
+   * @param kind   the kind
+   * @param stream the stream
+   * @return the int
+   */
+  int cudaMemcpyAsync(CudaPointer dst, CudaPointer src, long count, int kind, cudaStream_t stream);
+
+  /**
+   * Cuda memset int.
+   *
+   * @param mem   the mem
+   * @param c     the c
+   * @param count the count
+   * @return the int
+   */
+  int cudaMemset(CudaPointer mem, int c, long count);
+
+  /**
+   * Cuda stream create int.
+   *
+   * @param stream the stream
+   * @return the int
+   */
+  int cudaStreamCreate(cudaStream_t stream);
+
+  /**
+   * Cuda stream destroy int.
+   *
+   * @param stream the stream
+   * @return the int
+   */
+  int cudaStreamDestroy(cudaStream_t stream);
+
+  /**
+   * Cuda stream synchronize int.
+   *
+   * @param stream the stream
+   * @return the int
+   */
+  int cudaStreamSynchronize(cudaStream_t stream);
+
+  /**
+   * Cudnn create int.
+   *
+   * @param handle the handle
+   * @return the int
+   */
+  int cudnnCreate(cudnnHandle handle);
+
+  /**
+   * Cudnn destroy int.
+   *
+   * @param handle the handle
+   * @return the int
+   */
+  int cudnnDestroy(cudnnHandle handle);
+
+  /**
+   * Cudnn create tensor descriptor int.
+   *
+   * @param tensorDesc the tensor desc
+   * @return the int
+   */
+  int cudnnCreateTensorDescriptor(cudnnTensorDescriptor tensorDesc);
+
+  /**
+   * Cudnn set tensor 4 d descriptor ex int.
+   *
+   * @param tensorDesc the tensor desc
+   * @param dataType   the data type
+   * @param n          the n
+   * @param c          the c
+   * @param h          the h
+   * @param w          the w
+   * @param nStride    the n stride
+   * @param cStride    the c stride
+   * @param hStride    the h stride
+   * @param wStride    the w stride
+   * @return the int
+   */
+  int cudnnSetTensor4dDescriptorEx(cudnnTensorDescriptor tensorDesc, int dataType, int n, int c, int h, int w, int nStride, int cStride, int hStride, int wStride);
+
+  /**
+   * Cudnn destroy tensor descriptor int.
+   *
+   * @param tensorDesc the tensor desc
+   * @return the int
+   */
+  int cudnnDestroyTensorDescriptor(cudnnTensorDescriptor tensorDesc);
+
+  /**
+   * Cudnn create filter descriptor int.
+   *
+   * @param filterDesc the filter desc
+   * @return the int
+   */
+  int cudnnCreateFilterDescriptor(cudnnFilterDescriptor filterDesc);
+
+  /**
+   * Cudnn set filter 4 d descriptor int.
+   *
+   * @param filterDesc the filter desc
+   * @param dataType   the data type
+   * @param format     the format
+   * @param k          the k
+   * @param c          the c
+   * @param h          the h
+   * @param w          the w
+   * @return the int
+   */
+  int cudnnSetFilter4dDescriptor(cudnnFilterDescriptor filterDesc, int dataType, int format, int k, int c, int h, int w);
+
+  /**
+   * Cudnn set filter nd descriptor int.
+   *
+   * @param filterDesc the filter desc
+   * @param dataType   the data type
+   * @param format     the format
+   * @param nbDims     the nb dims
+   * @param filterDimA the filter dim a
+   * @return the int
+   */
+  int cudnnSetFilterNdDescriptor(cudnnFilterDescriptor filterDesc, int dataType, int format, int nbDims, int[] filterDimA);
+
+  /**
+   * Cudnn destroy filter descriptor int.
+   *
+   * @param filterDesc the filter desc
+   * @return the int
+   */
+  int cudnnDestroyFilterDescriptor(cudnnFilterDescriptor filterDesc);
+
+  /**
+   * Cudnn create convolution descriptor int.
+   *
+   * @param convDesc the conv desc
+   * @return the int
+   */
+  int cudnnCreateConvolutionDescriptor(cudnnConvolutionDescriptor convDesc);
+
+  /**
+   * Cudnn set convolution 2 d descriptor int.
+   *
+   * @param convDesc    the conv desc
+   * @param padH        the pad h
+   * @param padW        the pad w
+   * @param strideH     the stride h
+   * @param strideW     the stride w
+   * @param dilationH   the dilation h
+   * @param dilationW   the dilation w
+   * @param mode        the mode
+   * @param computeType the compute type
+   * @return the int
+   */
+  int cudnnSetConvolution2dDescriptor(cudnnConvolutionDescriptor convDesc, int padH, int padW, int strideH, int strideW, int dilationH, int dilationW, int mode, int computeType);
+
+  /**
+   * Cudnn set convolution nd descriptor int.
+   *
+   * @param convDesc    the conv desc
+   * @param arrayLength the array length
+   * @param padA        the pad a
+   * @param strideA     the stride a
+   * @param dilationA   the dilation a
+   * @param mode        the mode
+   * @param computeType the compute type
+   * @return the int
+   */
+  int cudnnSetConvolutionNdDescriptor(cudnnConvolutionDescriptor convDesc, int arrayLength, int[] padA, int[] strideA, int[] dilationA, int mode, int computeType);
+
+  /**
+   * Cudnn destroy convolution descriptor int.
+   *
+   * @param convDesc the conv desc
+   * @return the int
+   */
+  int cudnnDestroyConvolutionDescriptor(cudnnConvolutionDescriptor convDesc);
+
+  /**
+   * Cudnn create activation descriptor int.
+   *
+   * @param activationDesc the activation desc
+   * @return the int
+   */
+  int cudnnCreateActivationDescriptor(cudnnActivationDescriptor activationDesc);
+
+  /**
+   * Cudnn set activation descriptor int.
+   *
+   * @param activationDesc the activation desc
+   * @param mode           the mode
+   * @param reluNanOpt     the relu nan opt
+   * @param coef           the coef
+   * @return the int
+   */
+  int cudnnSetActivationDescriptor(cudnnActivationDescriptor activationDesc, int mode, int reluNanOpt, double coef);
+
+  /**
+   * Cudnn destroy activation descriptor int.
+   *
+   * @param activationDesc the activation desc
+   * @return the int
+   */
+  int cudnnDestroyActivationDescriptor(cudnnActivationDescriptor activationDesc);
+
+  /**
+   * Cudnn create pooling descriptor int.
+   *
+   * @param poolingDesc the pooling desc
+   * @return the int
+   */
+  int cudnnCreatePoolingDescriptor(cudnnPoolingDescriptor poolingDesc);
+
+  /**
+   * Cudnn set pooling nd descriptor int.
+   *
+   * @param poolingDesc   the pooling desc
+   * @param mode          the mode
+   * @param nanOpt        the nan opt
+   * @param nbDims        the nb dims
+   * @param windowDimA    the window dim a
+   * @param paddingA      the padding a
+   * @param strideA       the stride a
+   * @return the int
+   */
+  int cudnnSetPoolingNdDescriptor(cudnnPoolingDescriptor poolingDesc, int mode, int nanOpt, int nbDims, int[] windowDimA, int[] paddingA, int[] strideA);
+
+  /**
+   * Cudnn destroy pooling descriptor int.
+   *
+   * @param poolingDesc the pooling desc
+   * @return the int
+   */
+  int cudnnDestroyPoolingDescriptor(cudnnPoolingDescriptor poolingDesc);
+
+  /**
+   * Cudnn create op tensor descriptor int.
+   *
+   * @param opTensorDesc the op tensor desc
+   * @return the int
+   */
+  int cudnnCreateOpTensorDescriptor(cudnnOpTensorDescriptor opTensorDesc);
+
+  /**
+   * Cudnn set op tensor descriptor int.
+   *
+   * @param opTensorDesc    the op tensor desc
+   * @param opTensorOp      the op tensor op
+   * @param compType        the comp type
+   * @param nanOpt          the nan opt
+   * @return the int
+   */
+  int cudnnSetOpTensorDescriptor(cudnnOpTensorDescriptor opTensorDesc, int opTensorOp, int compType, int nanOpt);
+
+  /**
+   * Cudnn destroy op tensor descriptor int.
+   *
+   * @param opTensorDesc the op tensor desc
+   * @return the int
+   */
+  int cudnnDestroyOpTensorDescriptor(cudnnOpTensorDescriptor opTensorDesc);
+
+  /**
+   * Cudnn create reduce tensor descriptor int.
+   *
+   * @param reduceTensorDesc the reduce tensor desc
+   * @return the int
+   */
+  int cudnnCreateReduceTensorDescriptor(cudnnReduceTensorDescriptor reduceTensorDesc);
+
+  /**
+   * Cudnn set reduce tensor descriptor int.
+   *
+   * @param reduceTensorDesc        the reduce tensor desc
+   * @param reduceTensorOp          the reduce tensor op
+   * @param reduceTensorCompType    the reduce tensor comp type
+   * @param reduceTensorNanOpt      the reduce tensor nan opt
+   * @param reduceTensorIndices     the reduce tensor indices
+   * @param reduceTensorIndicesType the reduce tensor indices type
+   * @return the int
+   */
+  int cudnnSetReduceTensorDescriptor(cudnnReduceTensorDescriptor reduceTensorDesc, int reduceTensorOp, int reduceTensorCompType, int reduceTensorNanOpt, int reduceTensorIndices, int reduceTensorIndicesType);
+
+  /**
+   * Cudnn destroy reduce tensor descriptor int.
+   *
+   * @param reduceTensorDesc the reduce tensor desc
+   * @return the int
+   */
+  int cudnnDestroyReduceTensorDescriptor(cudnnReduceTensorDescriptor reduceTensorDesc);
+
+  /**
+   * Cudnn get convolution nd forward output dim int.
+   *
+   * @param convDesc        the conv desc
+   * @param inputTensorDesc the input tensor desc
+   * @param filterDesc      the filter desc
+   * @param nbDims          the nb dims
+   * @param tensorOuputDimA the tensor ouput dim a
+   * @return the int
+   */
+  int cudnnGetConvolutionNdForwardOutputDim(cudnnConvolutionDescriptor convDesc, cudnnTensorDescriptor inputTensorDesc, cudnnFilterDescriptor filterDesc, int nbDims, int[] tensorOuputDimA);
+
+  /**
+   * Cudnn get pooling nd forward output dim int.
+   *
+   * @param poolingDesc      the pooling desc
+   * @param inputTensorDesc  the input tensor desc
+   * @param nbDims           the nb dims
+   * @param outputTensorDimA the output tensor dim a
+   * @return the int
+   */
+  int cudnnGetPoolingNdForwardOutputDim(cudnnPoolingDescriptor poolingDesc, cudnnTensorDescriptor inputTensorDesc, int nbDims, int[] outputTensorDimA);
+
+  /**
+   * Cudnn get convolution forward algorithm int.
+   *
+   * @param handle             the handle
+   * @param xDesc              the x desc
+   * @param wDesc              the w desc
+   * @param convDesc           the conv desc
+   * @param yDesc              the y desc
+   * @param preference         the preference
+   * @param memoryLimitInBytes the memory limit in bytes
+   * @param algo               the algo
+   * @return the int
+   */
+  int cudnnGetConvolutionForwardAlgorithm(cudnnHandle handle, cudnnTensorDescriptor xDesc, cudnnFilterDescriptor wDesc, cudnnConvolutionDescriptor convDesc, cudnnTensorDescriptor yDesc, int preference, long memoryLimitInBytes, int[] algo);
+
+  /**
+   * Cudnn get convolution backward data algorithm int.
+   *
+   * @param handle             the handle
+   * @param wDesc              the w desc
+   * @param dyDesc             the dy desc
+   * @param convDesc           the conv desc
+   * @param dxDesc             the dx desc
+   * @param preference         the preference
+   * @param memoryLimitInBytes the memory limit in bytes
+   * @param algo               the algo
+   * @return the int
+   */
+  int cudnnGetConvolutionBackwardDataAlgorithm(cudnnHandle handle, cudnnFilterDescriptor wDesc, cudnnTensorDescriptor dyDesc, cudnnConvolutionDescriptor convDesc, cudnnTensorDescriptor dxDesc, int preference, long memoryLimitInBytes, int[] algo);
+
+  /**
+   * Cudnn get convolution backward filter algorithm int.
+   *
+   * @param handle             the handle
+   * @param xDesc              the x desc
+   * @param dyDesc             the dy desc
+   * @param convDesc           the conv desc
+   * @param dwDesc             the dw desc
+   * @param preference         the preference
+   * @param memoryLimitInBytes the memory limit in bytes
+   * @param algo               the algo
+   * @return the int
+   */
+  int cudnnGetConvolutionBackwardFilterAlgorithm(cudnnHandle handle, cudnnTensorDescriptor xDesc, cudnnTensorDescriptor dyDesc, cudnnConvolutionDescriptor convDesc, cudnnFilterDescriptor dwDesc, int preference, long memoryLimitInBytes, int[] algo);
+
+  /**
+   * Cudnn get convolution forward workspace size int.
+   *
+   * @param handle      the handle
+   * @param xDesc       the x desc
+   * @param wDesc       the w desc
+   * @param convDesc    the conv desc
+   * @param yDesc       the y desc
+   * @param algo        the algo
+   * @param sizeInBytes the size in bytes
+   * @return the int
+   */
+  int cudnnGetConvolutionForwardWorkspaceSize(cudnnHandle handle, cudnnTensorDescriptor xDesc, cudnnFilterDescriptor wDesc, cudnnConvolutionDescriptor convDesc, cudnnTensorDescriptor yDesc, int algo, long[] sizeInBytes);
+
+  /**
+   * Cudnn get convolution backward data workspace size int.
+   *
+   * @param handle      the handle
+   * @param wDesc       the w desc
+   * @param dyDesc      the dy desc
+   * @param convDesc    the conv desc
+   * @param dxDesc      the dx desc
+   * @param algo        the algo
+   * @param sizeInBytes the size in bytes
+   * @return the int
+   */
+  int cudnnGetConvolutionBackwardDataWorkspaceSize(cudnnHandle handle, cudnnFilterDescriptor wDesc, cudnnTensorDescriptor dyDesc, cudnnConvolutionDescriptor convDesc, cudnnTensorDescriptor dxDesc, int algo, long[] sizeInBytes);
+
+  /**
+   * Cudnn get convolution backward filter workspace size int.
+   *
+   * @param handle      the handle
+   * @param xDesc       the x desc
+   * @param dyDesc      the dy desc
+   * @param convDesc    the conv desc
+   * @param gradDesc    the grad desc
+   * @param algo        the algo
+   * @param sizeInBytes the size in bytes
+   * @return the int
+   */
+  int cudnnGetConvolutionBackwardFilterWorkspaceSize(cudnnHandle handle, cudnnTensorDescriptor xDesc, cudnnTensorDescriptor dyDesc, cudnnConvolutionDescriptor convDesc, cudnnFilterDescriptor gradDesc, int algo, long[] sizeInBytes);
+
+  /**
+   * Cudnn activation forward int.
+   *
+   * @param handle         the handle
+   * @param activationDesc the activation desc
+   * @param alpha          the alpha
+   * @param xDesc          the x desc
+   * @param x              the x
+   * @param beta           the beta
+   * @param yDesc          the y desc
+   * @param y              the y
+   * @return the int
+   */
+  int cudnnActivationForward(cudnnHandle handle, cudnnActivationDescriptor activationDesc, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn activation backward int.
+   *
+   * @param handle         the handle
+   * @param activationDesc the activation desc
+   * @param alpha          the alpha
+   * @param yDesc          the y desc
+   * @param y              the y
+   * @param dyDesc         the dy desc
+   * @param dy             the dy
+   * @param xDesc          the x desc
+   * @param x              the x
+   * @param beta           the beta
+   * @param dxDesc         the dx desc
+   * @param dx             the dx
+   * @return the int
+   */
+  int cudnnActivationBackward(cudnnHandle handle, cudnnActivationDescriptor activationDesc, CudaPointer alpha, cudnnTensorDescriptor yDesc, CudaPointer y, cudnnTensorDescriptor dyDesc, CudaPointer dy, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor dxDesc, CudaPointer dx);
+
+  /**
+   * Cudnn add tensor int.
+   *
+   * @param handle the handle
+   * @param alpha  the alpha
+   * @param aDesc  the a desc
+   * @param A      the a
+   * @param beta   the beta
+   * @param cDesc  the c desc
+   * @param C      the c
+   * @return the int
+   */
+  int cudnnAddTensor(cudnnHandle handle, CudaPointer alpha, cudnnTensorDescriptor aDesc, CudaPointer A, CudaPointer beta, cudnnTensorDescriptor cDesc, CudaPointer C);
+
+  /**
+   * Cudnn op tensor int.
+   *
+   * @param handle       the handle
+   * @param opTensorDesc the op tensor desc
+   * @param alpha1       the alpha 1
+   * @param aDesc        the a desc
+   * @param A            the a
+   * @param alpha2       the alpha 2
+   * @param bDesc        the b desc
+   * @param B            the b
+   * @param beta         the beta
+   * @param cDesc        the c desc
+   * @param C            the c
+   * @return the int
+   */
+  int cudnnOpTensor(cudnnHandle handle, cudnnOpTensorDescriptor opTensorDesc, CudaPointer alpha1, cudnnTensorDescriptor aDesc, CudaPointer A, CudaPointer alpha2, cudnnTensorDescriptor bDesc, CudaPointer B, CudaPointer beta, cudnnTensorDescriptor cDesc, CudaPointer C);
+
+  /**
+   * Cudnn reduce tensor int.
+   *
+   * @param handle               the handle
+   * @param reduceTensorDesc     the reduce tensor desc
+   * @param indices              the indices
+   * @param indicesSizeInBytes   the indices size in bytes
+   * @param workspace            the workspace
+   * @param workspaceSizeInBytes the workspace size in bytes
+   * @param alpha                the alpha
+   * @param aDesc                the a desc
+   * @param A                    the a
+   * @param beta                 the beta
+   * @param cDesc                the c desc
+   * @param C                    the c
+   * @return the int
+   */
+  int cudnnReduceTensor(cudnnHandle handle, cudnnReduceTensorDescriptor reduceTensorDesc, Pointer indices, long indicesSizeInBytes, Pointer workspace, long workspaceSizeInBytes, Pointer alpha, cudnnTensorDescriptor aDesc, Pointer A, Pointer beta, cudnnTensorDescriptor cDesc, Pointer C);
+
+  /**
+   * Cudnn transform tensor int.
+   *
+   * @param handle the handle
+   * @param alpha  the alpha
+   * @param xDesc  the x desc
+   * @param x      the x
+   * @param beta   the beta
+   * @param yDesc  the y desc
+   * @param y      the y
+   * @return the int
+   */
+  int cudnnTransformTensor(cudnnHandle handle, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn set tensor int.
+   *
+   * @param handle   the handle
+   * @param yDesc    the y desc
+   * @param y        the y
+   * @param valuePtr the value ptr
+   * @return the int
+   */
+  int cudnnSetTensor(cudnnHandle handle, cudnnTensorDescriptor yDesc, CudaPointer y, CudaPointer valuePtr);
+
+  /**
+   * Cudnn convolution forward int.
+   *
+   * @param handle               the handle
+   * @param alpha                the alpha
+   * @param xDesc                the x desc
+   * @param x                    the x
+   * @param wDesc                the w desc
+   * @param w                    the w
+   * @param convDesc             the conv desc
+   * @param algo                 the algo
+   * @param workSpace            the work space
+   * @param workSpaceSizeInBytes the work space size in bytes
+   * @param beta                 the beta
+   * @param yDesc                the y desc
+   * @param y                    the y
+   * @return the int
+   */
+  int cudnnConvolutionForward(cudnnHandle handle, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, cudnnFilterDescriptor wDesc, CudaPointer w, cudnnConvolutionDescriptor convDesc, int algo, CudaPointer workSpace, long workSpaceSizeInBytes, CudaPointer beta, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn convolution bias activation forward int.
+   *
+   * @param handle               the handle
+   * @param alpha1               the alpha 1
+   * @param xDesc                the x desc
+   * @param x                    the x
+   * @param wDesc                the w desc
+   * @param w                    the w
+   * @param convDesc             the conv desc
+   * @param algo                 the algo
+   * @param workSpace            the work space
+   * @param workSpaceSizeInBytes the work space size in bytes
+   * @param alpha2               the alpha 2
+   * @param zDesc                the z desc
+   * @param z                    the z
+   * @param biasDesc             the bias desc
+   * @param bias                 the bias
+   * @param activationDesc       the activation desc
+   * @param yDesc                the y desc
+   * @param y                    the y
+   * @return the int
+   */
+  int cudnnConvolutionBiasActivationForward(cudnnHandle handle, CudaPointer alpha1, cudnnTensorDescriptor xDesc, CudaPointer x, cudnnFilterDescriptor wDesc, CudaPointer w, cudnnConvolutionDescriptor convDesc, int algo, CudaPointer workSpace, long workSpaceSizeInBytes, CudaPointer alpha2, cudnnTensorDescriptor zDesc, CudaPointer z, cudnnTensorDescriptor biasDesc, CudaPointer bias, cudnnActivationDescriptor activationDesc, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn convolution backward data int.
+   *
+   * @param handle               the handle
+   * @param alpha                the alpha
+   * @param wDesc                the w desc
+   * @param w                    the w
+   * @param dyDesc               the dy desc
+   * @param dy                   the dy
+   * @param convDesc             the conv desc
+   * @param algo                 the algo
+   * @param workSpace            the work space
+   * @param workSpaceSizeInBytes the work space size in bytes
+   * @param beta                 the beta
+   * @param dxDesc               the dx desc
+   * @param dx                   the dx
+   * @return the int
+   */
+  int cudnnConvolutionBackwardData(cudnnHandle handle, CudaPointer alpha, cudnnFilterDescriptor wDesc, CudaPointer w, cudnnTensorDescriptor dyDesc, CudaPointer dy, cudnnConvolutionDescriptor convDesc, int algo, CudaPointer workSpace, long workSpaceSizeInBytes, CudaPointer beta, cudnnTensorDescriptor dxDesc, CudaPointer dx);
+
+  /**
+   * Cudnn convolution backward filter int.
+   *
+   * @param handle               the handle
+   * @param alpha                the alpha
+   * @param xDesc                the x desc
+   * @param x                    the x
+   * @param dyDesc               the dy desc
+   * @param dy                   the dy
+   * @param convDesc             the conv desc
+   * @param algo                 the algo
+   * @param workSpace            the work space
+   * @param workSpaceSizeInBytes the work space size in bytes
+   * @param beta                 the beta
+   * @param dwDesc               the dw desc
+   * @param dw                   the dw
+   * @return the int
+   */
+  int cudnnConvolutionBackwardFilter(cudnnHandle handle, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, cudnnTensorDescriptor dyDesc, CudaPointer dy, cudnnConvolutionDescriptor convDesc, int algo, CudaPointer workSpace, long workSpaceSizeInBytes, CudaPointer beta, cudnnFilterDescriptor dwDesc, CudaPointer dw);
+
+  /**
+   * Cudnn convolution backward bias int.
+   *
+   * @param handle the handle
+   * @param alpha  the alpha
+   * @param dyDesc the dy desc
+   * @param dy     the dy
+   * @param beta   the beta
+   * @param dbDesc the db desc
+   * @param db     the db
+   * @return the int
+   */
+  int cudnnConvolutionBackwardBias(cudnnHandle handle, CudaPointer alpha, cudnnTensorDescriptor dyDesc, CudaPointer dy, CudaPointer beta, cudnnTensorDescriptor dbDesc, CudaPointer db);
+
+  /**
+   * Cudnn pooling forward int.
+   *
+   * @param handle      the handle
+   * @param poolingDesc the pooling desc
+   * @param alpha       the alpha
+   * @param xDesc       the x desc
+   * @param x           the x
+   * @param beta        the beta
+   * @param yDesc       the y desc
+   * @param y           the y
+   * @return the int
+   */
+  int cudnnPoolingForward(cudnnHandle handle, cudnnPoolingDescriptor poolingDesc, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn pooling backward int.
+   *
+   * @param handle      the handle
+   * @param poolingDesc the pooling desc
+   * @param alpha       the alpha
+   * @param yDesc       the y desc
+   * @param y           the y
+   * @param dyDesc      the dy desc
+   * @param dy          the dy
+   * @param xDesc       the x desc
+   * @param x           the x
+   * @param beta        the beta
+   * @param dxDesc      the dx desc
+   * @param dx          the dx
+   * @return the int
+   */
+  int cudnnPoolingBackward(cudnnHandle handle, cudnnPoolingDescriptor poolingDesc, CudaPointer alpha, cudnnTensorDescriptor yDesc, CudaPointer y, cudnnTensorDescriptor dyDesc, CudaPointer dy, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor dxDesc, CudaPointer dx);
+
+  /**
+   * Cudnn softmax forward int.
+   *
+   * @param handle the handle
+   * @param algo   the algo
+   * @param mode   the mode
+   * @param alpha  the alpha
+   * @param xDesc  the x desc
+   * @param x      the x
+   * @param beta   the beta
+   * @param yDesc  the y desc
+   * @param y      the y
+   * @return the int
+   */
+  int cudnnSoftmaxForward(cudnnHandle handle, int algo, int mode, CudaPointer alpha, cudnnTensorDescriptor xDesc, CudaPointer x, CudaPointer beta, cudnnTensorDescriptor yDesc, CudaPointer y);
+
+  /**
+   * Cudnn softmax backward int.
+   *
+   * @param handle the handle
+   * @param algo   the algo
+   * @param mode   the mode
+   * @param alpha  the alpha
+   * @param yDesc  the y desc
+   * @param y      the y
+   * @param dyDesc the dy desc
+   * @param dy     the dy
+   * @param beta   the beta
+   * @param dxDesc the dx desc
+   * @param dx     the dx
+   * @return the int
+   */
+  int cudnnSoftmaxBackward(cudnnHandle handle, int algo, int mode, CudaPointer alpha, cudnnTensorDescriptor yDesc, CudaPointer y, cudnnTensorDescriptor dyDesc, CudaPointer dy, CudaPointer beta, cudnnTensorDescriptor dxDesc, CudaPointer dx);
+
+  /**
+   * The backend selection.
+   */
+  enum Type {
+    /**
+     * Native when a device is present, otherwise the CPU emulation.
+     */
+    AUTO,
+    /**
+     * The JCuda/JCudnn bindings.
+     */
+    NATIVE,
+    /**
+     * The software emulation.
+     */
+    CPU
+  }
+}
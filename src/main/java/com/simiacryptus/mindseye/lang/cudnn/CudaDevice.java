@@ -21,7 +21,6 @@ package com.simiacryptus.mindseye.lang.cudnn;
 
 import com.simiacryptus.lang.TimedResult;
 import jcuda.jcudnn.*;
-import jcuda.runtime.JCuda;
 import jcuda.runtime.cudaDeviceProp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,7 +79,7 @@ public class CudaDevice extends CudaSystem {
     long startTime = System.nanoTime();
     if (null == devPtr) return 0;
     Function<CudnnHandle, Integer> fn = dev -> {
-      final int result = JCuda.cudaFree(devPtr);
+      final int result = backend.cudaFree(devPtr);
       log("cudaFree", result, new Object[]{devPtr});
       cudaFree_execution.accept((System.nanoTime() - startTime) / 1e9);
       handle(result);
@@ -113,7 +112,7 @@ public class CudaDevice extends CudaSystem {
     return propertyCache.computeIfAbsent(device, deviceId -> {
       long startTime = System.nanoTime();
       @Nonnull final cudaDeviceProp deviceProp = new cudaDeviceProp();
-      final int result = JCuda.cudaGetDeviceProperties(deviceProp, device);
+      final int result = backend.cudaGetDeviceProperties(deviceProp, device);
       getDeviceProperties_execution.accept((System.nanoTime() - startTime) / 1e9);
       log("cudaGetDeviceProperties", result, new Object[]{deviceProp, device});
       return deviceProp;
@@ -129,7 +128,7 @@ public class CudaDevice extends CudaSystem {
     if (cudaDeviceId < 0) throw new IllegalArgumentException("cudaDeviceId=" + cudaDeviceId);
     if (!isThreadDeviceId(cudaDeviceId)) {
       long startTime = System.nanoTime();
-      final int result = JCuda.cudaSetDevice(cudaDeviceId);
+      final int result = backend.cudaSetDevice(cudaDeviceId);
       setDevice_execution.accept((System.nanoTime() - startTime) / 1e9);
       log("cudaSetDevice", result, new Object[]{cudaDeviceId});
       CudaSystem.handle(result);
@@ -230,11 +229,11 @@ public class CudaDevice extends CudaSystem {
     assert Arrays.stream(stride).allMatch(x -> x > 0);
     assert Arrays.stream(dilation).allMatch(x -> x > 0);
     @Nonnull final cudnnConvolutionDescriptor convDesc = new cudnnConvolutionDescriptor();
-    int result = JCudnn.cudnnCreateConvolutionDescriptor(convDesc);
+    int result = backend.cudnnCreateConvolutionDescriptor(convDesc);
     newConvolutionNdDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnCreateConvolutionDescriptor", result, new Object[]{convDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetConvolutionNdDescriptor(convDesc,
+    result = backend.cudnnSetConvolutionNdDescriptor(convDesc,
         3,
         padding,
         stride,
@@ -268,10 +267,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnFilterDescriptor> newFilterDescriptor(final int dataType, final int tensorLayout, @Nonnull final int[] dimensions) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnFilterDescriptor filterDesc = new cudnnFilterDescriptor();
-    int result = JCudnn.cudnnCreateFilterDescriptor(filterDesc);
+    int result = backend.cudnnCreateFilterDescriptor(filterDesc);
     log("cudnnCreateFilterDescriptor", result, new Object[]{filterDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetFilterNdDescriptor(filterDesc, dataType, tensorLayout, dimensions.length, dimensions);
+    result = backend.cudnnSetFilterNdDescriptor(filterDesc, dataType, tensorLayout, dimensions.length, dimensions);
     newFilterDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetFilterNdDescriptor", result, new Object[]{filterDesc, dataType, tensorLayout, dimensions.length, dimensions});
     CudaSystem.handle(result);
@@ -345,10 +344,10 @@ public class CudaDevice extends CudaSystem {
     assert wStride > 0;
     long startTime = System.nanoTime();
     @Nonnull final cudnnTensorDescriptor desc = new cudnnTensorDescriptor();
-    int result = JCudnn.cudnnCreateTensorDescriptor(desc);
+    int result = backend.cudnnCreateTensorDescriptor(desc);
     log("cudnnCreateTensorDescriptor", result, new Object[]{desc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetTensor4dDescriptorEx(desc, dataType.code, batchCount, channels, height, width, nStride, cStride, hStride, wStride);
+    result = backend.cudnnSetTensor4dDescriptorEx(desc, dataType.code, batchCount, channels, height, width, nStride, cStride, hStride, wStride);
     newTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetTensor4dDescriptorEx", result, new Object[]{desc, dataType, batchCount, channels, height, width, nStride, cStride, hStride, wStride});
     CudaSystem.handle(result);
@@ -365,10 +364,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnOpTensorDescriptor> newOpDescriptor(final int opType, final Precision dataType) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnOpTensorDescriptor opDesc = new cudnnOpTensorDescriptor();
-    int result = JCudnn.cudnnCreateOpTensorDescriptor(opDesc);
+    int result = backend.cudnnCreateOpTensorDescriptor(opDesc);
     log("cudnnCreateOpTensorDescriptor", result, new Object[]{opDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetOpTensorDescriptor(opDesc, opType, dataType.code, cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN);
+    result = backend.cudnnSetOpTensorDescriptor(opDesc, opType, dataType.code, cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN);
     newOpDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetOpTensorDescriptor", result, new Object[]{opDesc, opType, dataType, cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN});
     CudaSystem.handle(result);
@@ -389,10 +388,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnFilterDescriptor> newFilterDescriptor(final Precision dataType, final int tensorLayout, final int outputChannels, final int inputChannels, final int height, final int width) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnFilterDescriptor filterDesc = new cudnnFilterDescriptor();
-    int result = JCudnn.cudnnCreateFilterDescriptor(filterDesc);
+    int result = backend.cudnnCreateFilterDescriptor(filterDesc);
     log("cudnnCreateFilterDescriptor", result, new Object[]{filterDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetFilter4dDescriptor(filterDesc, dataType.code, tensorLayout, outputChannels, inputChannels, height, width);
+    result = backend.cudnnSetFilter4dDescriptor(filterDesc, dataType.code, tensorLayout, outputChannels, inputChannels, height, width);
     newFilterDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetFilter4dDescriptor", result, new Object[]{filterDesc, dataType, tensorLayout, outputChannels, inputChannels, height, width});
     CudaSystem.handle(result);
@@ -426,10 +425,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnConvolutionDescriptor> newConvolutions2dDescriptor(final int mode, final Precision dataType, final int paddingY, final int paddingX, final int strideHeight, final int strideWidth, int dilationY, int dilationX) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnConvolutionDescriptor convDesc = new cudnnConvolutionDescriptor();
-    int result = JCudnn.cudnnCreateConvolutionDescriptor(convDesc);
+    int result = backend.cudnnCreateConvolutionDescriptor(convDesc);
     log("cudnnCreateConvolutionDescriptor", result, new Object[]{convDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetConvolution2dDescriptor(
+    result = backend.cudnnSetConvolution2dDescriptor(
         convDesc,
         paddingY, // zero-padding height
         paddingX, // zero-padding width
@@ -457,10 +456,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnActivationDescriptor> newActivationDescriptor(final int mode, final int reluNan, final double reluCeil) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnActivationDescriptor desc = new cudnnActivationDescriptor();
-    int result = JCudnn.cudnnCreateActivationDescriptor(desc);
+    int result = backend.cudnnCreateActivationDescriptor(desc);
     log("cudnnCreateActivationDescriptor", result, new Object[]{desc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetActivationDescriptor(desc, mode, reluNan, reluCeil);
+    result = backend.cudnnSetActivationDescriptor(desc, mode, reluNan, reluCeil);
     newActivationDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetActivationDescriptor", result, new Object[]{desc, mode, reluNan, reluCeil});
     CudaSystem.handle(result);
@@ -480,10 +479,10 @@ public class CudaDevice extends CudaSystem {
   public CudaResource<cudnnPoolingDescriptor> createPoolingDescriptor(final int mode, final int poolDims, final int[] windowSize, final int[] padding, final int[] stride) {
     long startTime = System.nanoTime();
     @Nonnull final cudnnPoolingDescriptor poolingDesc = new cudnnPoolingDescriptor();
-    int result = JCudnn.cudnnCreatePoolingDescriptor(poolingDesc);
+    int result = backend.cudnnCreatePoolingDescriptor(poolingDesc);
     log("cudnnCreatePoolingDescriptor", result, new Object[]{poolingDesc});
     CudaSystem.handle(result);
-    result = JCudnn.cudnnSetPoolingNdDescriptor(poolingDesc,
+    result = backend.cudnnSetPoolingNdDescriptor(poolingDesc,
         mode, cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN, poolDims, windowSize,
         padding, stride);
     log("cudnnSetPoolingNdDescriptor", result, new Object[]{poolingDesc, mode, cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN, poolDims, windowSize, padding, stride});
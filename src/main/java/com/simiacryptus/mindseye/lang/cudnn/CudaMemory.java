@@ -209,7 +209,6 @@ public class CudaMemory extends CudaResourceBase<CudaPointer> {
    * Free.
    */
   protected void _free() {
-    if (ptr.getByteOffset() != 0) return;
     CudnnHandle threadHandle = CudaSystem.getThreadHandle();
     if (null != threadHandle) threadHandle.cleanupNative.add(this);
     else release();
@@ -217,7 +216,6 @@ public class CudaMemory extends CudaResourceBase<CudaPointer> {
 
   @Override
   public void release() {
-    if (ptr.getByteOffset() != 0) return;
     if (isActiveObj()) {
       synchronize();
       getType().recycle(ptr, deviceId, size);
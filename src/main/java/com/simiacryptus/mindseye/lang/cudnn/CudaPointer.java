@@ -21,6 +21,11 @@ package com.simiacryptus.mindseye.lang.cudnn;
 
 import jcuda.Pointer;
 
+import javax.annotation.Nullable;
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
 /**
  * The type Cuda pointer.
  */
@@ -30,6 +35,11 @@ public class CudaPointer extends Pointer {
    * The Device id.
    */
   public final int deviceId = CudaSystem.getThreadDeviceId();
+  /**
+   * The host storage behind this pointer when running on the {@link CpuBackend}; null for native memory.
+   */
+  @Nullable
+  volatile Buffer buffer;
 
   /**
    * Instantiates a new Cuda pointer.
@@ -38,6 +48,7 @@ public class CudaPointer extends Pointer {
    */
   public CudaPointer(final Pointer other) {
     super(other);
+    if (other instanceof CudaPointer) this.buffer = ((CudaPointer) other).buffer;
   }
 
   /**
@@ -48,6 +59,7 @@ public class CudaPointer extends Pointer {
    */
   public CudaPointer(final Pointer other, final long byteOffset) {
     super(other, byteOffset);
+    if (other instanceof CudaPointer) this.buffer = ((CudaPointer) other).buffer;
   }
 
   /**
@@ -64,7 +76,9 @@ public class CudaPointer extends Pointer {
    * @return the cuda pointer
    */
   public static CudaPointer to(float values[]) {
-    return new CudaPointer(Pointer.to(values));
+    final CudaPointer pointer = new CudaPointer(Pointer.to(values));
+    pointer.buffer = FloatBuffer.wrap(values);
+    return pointer;
   }
 
   /**
@@ -74,7 +88,9 @@ public class CudaPointer extends Pointer {
    * @return the cuda pointer
    */
   public static CudaPointer to(double values[]) {
-    return new CudaPointer(Pointer.to(values));
+    final CudaPointer pointer = new CudaPointer(Pointer.to(values));
+    pointer.buffer = DoubleBuffer.wrap(values);
+    return pointer;
   }
 
   @Override
@@ -64,6 +64,9 @@ public class CudaSettings implements Settings {
   private final boolean syncBeforeFree;
   private final int memoryCacheTTL;
   private final boolean convolutionCache;
+  private final CudaBackend.Type backend;
+  private final int emulatedDevices;
+  private final long memoryCacheHighWaterMark;
 
   /**
    * Instance cuda settings.
@@ -109,6 +112,9 @@ public class CudaSettings implements Settings {
     memoryCacheTTL = 5;
     convolutionCache = true;
     defaultDevices = Settings.get("CUDA_DEVICES", "");
+    backend = Settings.get("CUDA_BACKEND", CudaBackend.Type.AUTO);
+    emulatedDevices = Settings.get("CUDA_EMULATED_DEVICES", 1);
+    memoryCacheHighWaterMark = Settings.get("CUDA_CACHE_HIGH_WATER_MARK", maxDeviceMemory / 2);
   }
 
   /**
@@ -273,4 +279,31 @@ public class CudaSettings implements Settings {
     return convolutionCache;
   }
 
+  /**
+   * Gets the backend used for CUDA and cuDNN calls.
+   *
+   * @return the backend type
+   */
+  public CudaBackend.Type getBackend() {
+    return backend;
+  }
+
+  /**
+   * Gets the number of devices presented by the CPU emulation backend.
+   *
+   * @return the emulated device count
+   */
+  public int getEmulatedDevices() {
+    return emulatedDevices;
+  }
+
+  /**
+   * Gets the reserved bytes, per device and memory type, above which the caching allocator returns free segments.
+   *
+   * @return the memory cache high water mark
+   */
+  public long getMemoryCacheHighWaterMark() {
+    return memoryCacheHighWaterMark;
+  }
+
 }
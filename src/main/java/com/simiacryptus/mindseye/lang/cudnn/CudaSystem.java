@@ -30,7 +30,6 @@ import com.simiacryptus.mindseye.lang.TensorList;
 import com.simiacryptus.mindseye.test.TestUtil;
 import com.simiacryptus.util.data.DoubleStatistics;
 import jcuda.jcudnn.*;
-import jcuda.runtime.JCuda;
 import jcuda.runtime.cudaDeviceProp;
 import jcuda.runtime.cudaStream_t;
 import org.slf4j.Logger;
@@ -322,6 +321,10 @@ public class CudaSystem {
   private static final Map<Integer, Long> syncTimes = new HashMap<>();
   private static final Executor garbageTruck = MoreExecutors.directExecutor();
   //Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("gpu-free-%d").setDaemon(true).getNetwork());
+  /**
+   * The backend serving all CUDA and cuDNN calls; the CPU emulation when no device is available.
+   */
+  public static final CudaBackend backend = CudaBackend.create(CudaSettings.INSTANCE().getBackend());
   private static volatile Integer cachedDeviceCount = init();
   private static final HashMap<Integer, Object> deviceLocks = new HashMap<>();
 //  private final List<StackTraceElement[]> dirty = new ArrayList<>();
@@ -368,19 +371,19 @@ public class CudaSystem {
   public static void printHeader(@Nonnull PrintStream out) {
     @Nonnull int[] runtimeVersion = {0};
     @Nonnull int[] driverVersion = {0};
-    JCuda.cudaRuntimeGetVersion(runtimeVersion);
-    JCuda.cudaDriverGetVersion(driverVersion);
-    @Nonnull CharSequence jCudaVersion = JCuda.getJCudaVersion();
+    backend.cudaRuntimeGetVersion(runtimeVersion);
+    backend.cudaDriverGetVersion(driverVersion);
+    @Nonnull CharSequence jCudaVersion = backend.getVersion();
     out.printf("Time: %s; Driver %s; Runtime %s; Lib %s%n", new Date(), driverVersion[0], runtimeVersion[0], jCudaVersion);
     @Nonnull long[] free = {0};
     @Nonnull long[] total = {0};
-    JCuda.cudaMemGetInfo(free, total);
+    backend.cudaMemGetInfo(free, total);
     out.printf("Cuda Memory: %.1f freeRef, %.1f total%n", free[0] * 1.0 / (1024 * 1024), total[0] * 1.0 / (1024 * 1024));
     @Nonnull final int[] deviceCount = new int[1];
-    JCuda.cudaGetDeviceCount(deviceCount);
+    backend.cudaGetDeviceCount(deviceCount);
     IntStream.range(0, deviceCount[0]).forEach(device -> {
       @Nonnull final cudaDeviceProp deviceProp = new cudaDeviceProp();
-      JCuda.cudaGetDeviceProperties(deviceProp, device);
+      backend.cudaGetDeviceProperties(deviceProp, device);
       out.printf("Device %d = %s%n", device, deviceProp, free[0], total[0]);
     });
     System.getProperties().forEach((k, v) -> {
@@ -484,7 +487,7 @@ public class CudaSystem {
    */
   public static int cudaDeviceReset() {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaDeviceReset();
+    final int result = backend.cudaDeviceReset();
     log("cudaDeviceReset", result, new Object[]{});
     cudaDeviceReset_execution.accept((System.nanoTime() - startTime) / 1e9);
     handle(result);
@@ -500,7 +503,7 @@ public class CudaSystem {
    */
   public static int cudaMalloc(final CudaPointer devPtr, final long size) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaMalloc(devPtr, size);
+    final int result = backend.cudaMalloc(devPtr, size);
     log("cudaMalloc", result, new Object[]{devPtr, size});
     cudaMalloc_execution.accept((System.nanoTime() - startTime) / 1e9);
     handle(result);
@@ -517,7 +520,7 @@ public class CudaSystem {
    */
   public static int cudaMallocManaged(final CudaPointer devPtr, final long size, int flags) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaMallocManaged(devPtr, size, flags);
+    final int result = backend.cudaMallocManaged(devPtr, size, flags);
     log("cudaMallocManaged", result, new Object[]{devPtr, size, flags});
     cudaMallocManaged_execution.accept((System.nanoTime() - startTime) / 1e9);
     handle(result);
@@ -541,7 +544,7 @@ public class CudaSystem {
    */
   public static int cudaSetDeviceFlags(int flags) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaSetDeviceFlags(flags);
+    final int result = backend.cudaSetDeviceFlags(flags);
     log("cudaSetDeviceFlags", result, new Object[]{flags});
     cudaDeviceSynchronize_execution.accept((System.nanoTime() - startTime) / 1e9);
     handle(result);
@@ -558,7 +561,7 @@ public class CudaSystem {
    */
   public static int cudaHostAlloc(final CudaPointer devPtr, final long size, int flags) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaHostAlloc(devPtr, size, flags);
+    final int result = backend.cudaHostAlloc(devPtr, size, flags);
     cudaHostAlloc_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaHostAlloc", result, new Object[]{devPtr, size, flags});
     handle(result);
@@ -573,7 +576,7 @@ public class CudaSystem {
    */
   public static int cudaFreeHost(final CudaPointer devPtr) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaFreeHost(devPtr);
+    final int result = backend.cudaFreeHost(devPtr);
     cudaFreeHost_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaFreeHost", result, new Object[]{devPtr});
     handle(result);
@@ -589,7 +592,7 @@ public class CudaSystem {
   public static long cudaDeviceGetLimit(final int limit) {
     long startTime = System.nanoTime();
     @Nonnull long[] pValue = new long[1];
-    final int result = JCuda.cudaDeviceGetLimit(pValue, limit);
+    final int result = backend.cudaDeviceGetLimit(pValue, limit);
     cudaDeviceGetLimit_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaDeviceGetLimit(", result, new Object[]{pValue, limit});
     return pValue[0];
@@ -603,7 +606,7 @@ public class CudaSystem {
    */
   public static void cudaDeviceSetLimit(final int limit, long value) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaDeviceSetLimit(limit, value);
+    final int result = backend.cudaDeviceSetLimit(limit, value);
     cudaDeviceSetLimit_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaDeviceSetLimit(", result, new Object[]{limit, value});
     handle(result);
@@ -619,7 +622,7 @@ public class CudaSystem {
    */
   public static void cudaMemcpy(final CudaPointer dst, final CudaPointer src, final long count, final int cudaMemcpyKind_kind) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaMemcpy(dst, src, count, cudaMemcpyKind_kind);
+    final int result = backend.cudaMemcpy(dst, src, count, cudaMemcpyKind_kind);
     cudaMemcpy_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaMemcpy", result, new Object[]{dst, src, count, cudaMemcpyKind_kind});
     handle(result);
@@ -636,7 +639,7 @@ public class CudaSystem {
    */
   public static void cudaMemcpyAsync(final CudaPointer dst, final CudaPointer src, final long count, final int cudaMemcpyKind_kind, cudaStream_t stream) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaMemcpyAsync(dst, src, count, cudaMemcpyKind_kind, stream);
+    final int result = backend.cudaMemcpyAsync(dst, src, count, cudaMemcpyKind_kind, stream);
     cudaMemcpyAsync_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaMemcpyAsync", result, new Object[]{dst, src, count, cudaMemcpyKind_kind, stream});
     handle(result);
@@ -650,7 +653,7 @@ public class CudaSystem {
   public static CudaResource<cudaStream_t> cudaStreamCreate() {
     long startTime = System.nanoTime();
     @Nonnull cudaStream_t stream = new cudaStream_t();
-    int result = JCuda.cudaStreamCreate(stream);
+    int result = backend.cudaStreamCreate(stream);
     cudaStreamCreate_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaStreamCreate", result, new Object[]{stream});
     handle(result);
@@ -665,7 +668,7 @@ public class CudaSystem {
    */
   public static int cudaStreamDestroy(cudaStream_t stream) {
     long startTime = System.nanoTime();
-    int result = JCuda.cudaStreamDestroy(stream);
+    int result = backend.cudaStreamDestroy(stream);
     cudaStreamDestroy_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaStreamDestroy", result, new Object[]{stream});
     handle(result);
@@ -679,7 +682,7 @@ public class CudaSystem {
    */
   public static void cudaStreamSynchronize(cudaStream_t stream) {
     long startTime = System.nanoTime();
-    int result = JCuda.cudaStreamSynchronize(stream);
+    int result = backend.cudaStreamSynchronize(stream);
     cudaStreamSynchronize_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaStreamSynchronize", result, new Object[]{stream});
     handle(result);
@@ -694,7 +697,7 @@ public class CudaSystem {
    */
   public static void cudaMemset(final CudaPointer mem, final int c, final long count) {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaMemset(mem, c, count);
+    final int result = backend.cudaMemset(mem, c, count);
     //cudaDeviceSynchronize();
     cudaMemset_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudaMemset", result, new Object[]{mem, c, count});
@@ -709,7 +712,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyActivationDescriptor(final cudnnActivationDescriptor activationDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyActivationDescriptor(activationDesc);
+    final int result = backend.cudnnDestroyActivationDescriptor(activationDesc);
     cudnnDestroyActivationDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyActivationDescriptor", result, new Object[]{activationDesc});
     return result;
@@ -723,7 +726,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyConvolutionDescriptor(final cudnnConvolutionDescriptor convDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyConvolutionDescriptor(convDesc);
+    final int result = backend.cudnnDestroyConvolutionDescriptor(convDesc);
     cudnnDestroyConvolutionDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyConvolutionDescriptor", result, new Object[]{convDesc});
     return result;
@@ -737,7 +740,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyFilterDescriptor(final cudnnFilterDescriptor filterDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyFilterDescriptor(filterDesc);
+    final int result = backend.cudnnDestroyFilterDescriptor(filterDesc);
     cudnnDestroyFilterDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyFilterDescriptor", result, new Object[]{filterDesc});
     return result;
@@ -751,7 +754,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyOpTensorDescriptor(opTensorDesc);
+    final int result = backend.cudnnDestroyOpTensorDescriptor(opTensorDesc);
     cudnnDestroyOpTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyOpTensorDescriptor", result, new Object[]{opTensorDesc});
     return result;
@@ -765,7 +768,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyPoolingDescriptor(final cudnnPoolingDescriptor poolingDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyPoolingDescriptor(poolingDesc);
+    final int result = backend.cudnnDestroyPoolingDescriptor(poolingDesc);
     cudnnDestroyPoolingDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyPoolingDescriptor", result, new Object[]{poolingDesc});
     return result;
@@ -779,7 +782,7 @@ public class CudaSystem {
    */
   public static int cudnnDestroyTensorDescriptor(final cudnnTensorDescriptor tensorDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyTensorDescriptor(tensorDesc);
+    final int result = backend.cudnnDestroyTensorDescriptor(tensorDesc);
     cudnnDestroyTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyTensorDescriptor", result, new Object[]{tensorDesc});
     return result;
@@ -800,7 +803,7 @@ public class CudaSystem {
       final int nbDims,
       final int[] outputTensorDimA) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnGetPoolingNdForwardOutputDim(poolingDesc, inputTensorDesc, nbDims, outputTensorDimA);
+    final int result = backend.cudnnGetPoolingNdForwardOutputDim(poolingDesc, inputTensorDesc, nbDims, outputTensorDimA);
     cudnnGetPoolingNdForwardOutputDim_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnGetPoolingNdForwardOutputDim", result, new Object[]{poolingDesc, inputTensorDesc, nbDims, outputTensorDimA});
     return result;
@@ -814,7 +817,7 @@ public class CudaSystem {
   public static int deviceCount() {
     long startTime = System.nanoTime();
     @Nonnull final int[] deviceCount = new int[1];
-    final int returnCode = JCuda.cudaGetDeviceCount(deviceCount);
+    final int returnCode = backend.cudaGetDeviceCount(deviceCount);
     log("cudaGetDeviceCount", returnCode, new Object[]{deviceCount});
     deviceCount_execution.accept((System.nanoTime() - startTime) / 1e9);
     CudaSystem.handle(returnCode);
@@ -899,7 +902,7 @@ public class CudaSystem {
   public static int[] getOutputDims(final cudnnTensorDescriptor srcTensorDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc) {
     long startTime = System.nanoTime();
     @Nonnull final int[] tensorOuputDims = new int[4];
-    final int result = JCudnn.cudnnGetConvolutionNdForwardOutputDim(convDesc, srcTensorDesc, filterDesc, tensorOuputDims.length, tensorOuputDims);
+    final int result = backend.cudnnGetConvolutionNdForwardOutputDim(convDesc, srcTensorDesc, filterDesc, tensorOuputDims.length, tensorOuputDims);
     getOutputDims_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnGetConvolutionNdForwardOutputDim", result, new Object[]{convDesc, srcTensorDesc, filterDesc, tensorOuputDims.length, tensorOuputDims});
     CudaSystem.handle(result);
@@ -1234,7 +1237,7 @@ public class CudaSystem {
    */
   public static long cudaDeviceSynchronize() {
     long startTime = System.nanoTime();
-    final int result = JCuda.cudaDeviceSynchronize();
+    final int result = backend.cudaDeviceSynchronize();
     log("cudaDeviceSynchronize", result, new Object[]{});
     cudaDeviceSynchronize_execution.accept((System.nanoTime() - startTime) / 1e9);
     handle(result);
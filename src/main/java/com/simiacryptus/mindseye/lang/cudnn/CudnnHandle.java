@@ -66,7 +66,7 @@ public class CudnnHandle extends CudaDevice {
     if (0 <= this.deviceId) {
       initThread();
       handle = new cudnnHandle();
-      JCudnn.cudnnCreate(handle);
+      backend.cudnnCreate(handle);
     } else {
       handle = null;
     }
@@ -104,7 +104,7 @@ public class CudnnHandle extends CudaDevice {
    */
   public static int cudnnDestroyReduceTensorDescriptor(final cudnnReduceTensorDescriptor obj) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnDestroyReduceTensorDescriptor(obj);
+    final int result = backend.cudnnDestroyReduceTensorDescriptor(obj);
     cudnnDestroyOpTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnDestroyOpTensorDescriptor", result, new Object[]{obj});
     return result;
@@ -406,7 +406,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer y) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnActivationForward(this.handle, activationDesc, alpha, xDesc, x, beta, yDesc, y);
+    final int result = backend.cudnnActivationForward(this.handle, activationDesc, alpha, xDesc, x, beta, yDesc, y);
     cudnnActivationForward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnActivationForward", result, new Object[]{this, activationDesc, alpha, xDesc, x, beta, yDesc, y});
     return result;
@@ -432,7 +432,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer C) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnAddTensor(this.handle, alpha, aDesc, A, beta, cDesc, C);
+    final int result = backend.cudnnAddTensor(this.handle, alpha, aDesc, A, beta, cDesc, C);
     cudnnAddTensor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnAddTensor", result, new Object[]{this, alpha, aDesc, A, beta, cDesc, C});
     CudaSystem.handle(result);
@@ -459,7 +459,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer db) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnConvolutionBackwardBias(this.handle, alpha, dyDesc, dy, beta, dbDesc, db);
+    final int result = backend.cudnnConvolutionBackwardBias(this.handle, alpha, dyDesc, dy, beta, dbDesc, db);
     cudnnConvolutionBackwardBias_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnConvolutionBackwardBias", result, new Object[]{this, alpha, dyDesc, dy, beta, dbDesc, db});
     return result;
@@ -497,7 +497,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer dx) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnConvolutionBackwardData(this.handle, alpha, wDesc, w, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dxDesc, dx);
+    final int result = backend.cudnnConvolutionBackwardData(this.handle, alpha, wDesc, w, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dxDesc, dx);
     cudnnConvolutionBackwardData_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnConvolutionBackwardData", result, new Object[]{this, alpha, wDesc, w, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dxDesc, dx});
     return result;
@@ -535,7 +535,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer dw) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnConvolutionBackwardFilter(this.handle, alpha, xDesc, x, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dwDesc, dw);
+    final int result = backend.cudnnConvolutionBackwardFilter(this.handle, alpha, xDesc, x, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dwDesc, dw);
     cudnnConvolutionBackwardFilter_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnConvolutionBackwardFilter", result, new Object[]{this, alpha, xDesc, x, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dwDesc, dw});
     return result;
@@ -573,7 +573,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer y) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnConvolutionForward(this.handle, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, yDesc, y);
+    final int result = backend.cudnnConvolutionForward(this.handle, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, yDesc, y);
     cudnnConvolutionForward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnConvolutionForward", result, new Object[]{this, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, yDesc, y});
     return result;
@@ -623,7 +623,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer y) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnConvolutionBiasActivationForward(this.handle, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, zDesc, z, biasDesc, bias, activationDesc, yDesc, y);
+    final int result = backend.cudnnConvolutionBiasActivationForward(this.handle, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, zDesc, z, biasDesc, bias, activationDesc, yDesc, y);
     cudnnConvolutionBiasActivationForward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnConvolutionBiasActivationForward", result, new Object[]{this, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, zDesc, z, biasDesc, bias, activationDesc, yDesc, y});
     return result;
@@ -657,7 +657,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer C) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnOpTensor(this.handle, opTensorDesc, alpha1, aDesc, A, alpha2, bDesc, B, beta, cDesc, C);
+    final int result = backend.cudnnOpTensor(this.handle, opTensorDesc, alpha1, aDesc, A, alpha2, bDesc, B, beta, cDesc, C);
     cudnnOpTensor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnOpTensor", result, new Object[]{this, opTensorDesc, alpha1, aDesc, A, alpha2, bDesc, B, beta, cDesc, C});
     return result;
@@ -693,7 +693,7 @@ public class CudnnHandle extends CudaDevice {
       Pointer C) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnReduceTensor(this.handle, reduceTensorDesc, indices, indicesSizeInBytes, workspace, workspaceSizeInBytes, alpha, aDesc, A, beta, cDesc, C);
+    final int result = backend.cudnnReduceTensor(this.handle, reduceTensorDesc, indices, indicesSizeInBytes, workspace, workspaceSizeInBytes, alpha, aDesc, A, beta, cDesc, C);
     cudnnReduceTensor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnReduceTensor", result, new Object[]{this, reduceTensorDesc, indices, indicesSizeInBytes, workspace, workspaceSizeInBytes, alpha, aDesc, A, beta, cDesc, C});
     return result;
@@ -729,7 +729,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer dx) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnPoolingBackward(this.handle, poolingDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
+    final int result = backend.cudnnPoolingBackward(this.handle, poolingDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
     cudnnPoolingBackward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnPoolingBackward", result, new Object[]{this, poolingDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx});
     return result;
@@ -757,7 +757,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer y) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnPoolingForward(this.handle, poolingDesc, alpha, xDesc, x, beta, yDesc, y);
+    final int result = backend.cudnnPoolingForward(this.handle, poolingDesc, alpha, xDesc, x, beta, yDesc, y);
     cudnnPoolingForward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnPoolingForward", result, new Object[]{this, poolingDesc, alpha, xDesc, x, beta, yDesc, y});
     return result;
@@ -777,7 +777,7 @@ public class CudnnHandle extends CudaDevice {
   public CudaMemory allocateBackwardFilterWorkspace(final cudnnTensorDescriptor srcTensorDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dstTensorDesc, final int algorithm, final long minSize) {
     long startTime = System.nanoTime();
     @Nonnull final long sizeInBytesArray[] = {0};
-    final int result = JCudnn.cudnnGetConvolutionBackwardFilterWorkspaceSize(handle,
+    final int result = backend.cudnnGetConvolutionBackwardFilterWorkspaceSize(handle,
         srcTensorDesc, dstTensorDesc, convDesc, filterDesc,
         algorithm, sizeInBytesArray);
     allocateBackwardFilterWorkspace_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -801,7 +801,7 @@ public class CudnnHandle extends CudaDevice {
   public CudaMemory allocateForwardWorkspace(final cudnnTensorDescriptor srcTensorDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dstTensorDesc, final int algorithm, final long minSize) {
     long startTime = System.nanoTime();
     @Nonnull final long sizeInBytesArray[] = {0};
-    final int result = JCudnn.cudnnGetConvolutionForwardWorkspaceSize(handle,
+    final int result = backend.cudnnGetConvolutionForwardWorkspaceSize(handle,
         srcTensorDesc, filterDesc, convDesc, dstTensorDesc,
         algorithm, sizeInBytesArray);
     allocateForwardWorkspace_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -824,7 +824,7 @@ public class CudnnHandle extends CudaDevice {
   public int getBackwardDataAlgorithm(final cudnnTensorDescriptor inputDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor outputDesc, final long memoryLimitInBytes) {
     long startTime = System.nanoTime();
     @Nonnull final int algoArray[] = {-1};
-    final int result = JCudnn.cudnnGetConvolutionBackwardDataAlgorithm(handle,
+    final int result = backend.cudnnGetConvolutionBackwardDataAlgorithm(handle,
         filterDesc, inputDesc, convDesc, outputDesc,
         cudnnConvolutionBwdDataPreference.CUDNN_CONVOLUTION_BWD_DATA_PREFER_FASTEST, memoryLimitInBytes, algoArray);
     getBackwardDataAlgorithm_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -846,7 +846,7 @@ public class CudnnHandle extends CudaDevice {
   public int getBackwardFilterAlgorithm(final cudnnTensorDescriptor inputDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor outputDesc, final long memoryLimitInBytes) {
     long startTime = System.nanoTime();
     @Nonnull final int algoArray[] = {-1};
-    final int result = JCudnn.cudnnGetConvolutionBackwardFilterAlgorithm(handle,
+    final int result = backend.cudnnGetConvolutionBackwardFilterAlgorithm(handle,
         inputDesc, outputDesc, convDesc, filterDesc,
         cudnnConvolutionBwdFilterPreference.CUDNN_CONVOLUTION_BWD_FILTER_PREFER_FASTEST, memoryLimitInBytes, algoArray);
     getBackwardFilterAlgorithm_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -868,7 +868,7 @@ public class CudnnHandle extends CudaDevice {
   public int getForwardAlgorithm(final cudnnTensorDescriptor srcTensorDesc, final cudnnFilterDescriptor filterDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dstTensorDesc, final long memoryLimitInBytes) {
     long startTime = System.nanoTime();
     @Nonnull final int algoArray[] = {-1};
-    final int result = JCudnn.cudnnGetConvolutionForwardAlgorithm(handle,
+    final int result = backend.cudnnGetConvolutionForwardAlgorithm(handle,
         srcTensorDesc, filterDesc, convDesc, dstTensorDesc,
         cudnnConvolutionFwdPreference.CUDNN_CONVOLUTION_FWD_PREFER_FASTEST, memoryLimitInBytes, algoArray);
     getForwardAlgorithm_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -906,7 +906,7 @@ public class CudnnHandle extends CudaDevice {
       final cudnnTensorDescriptor dxDesc,
       final CudaPointer dx) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnActivationBackward(this.handle, activationDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
+    final int result = backend.cudnnActivationBackward(this.handle, activationDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
     cudnnActivationBackward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnActivationBackward", result, new Object[]{this, activationDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx});
     return result;
@@ -937,7 +937,7 @@ public class CudnnHandle extends CudaDevice {
       cudnnTensorDescriptor yDesc,
       CudaPointer y) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnSoftmaxForward(this.handle, algo, mode, alpha, xDesc, x, beta, yDesc, y);
+    final int result = backend.cudnnSoftmaxForward(this.handle, algo, mode, alpha, xDesc, x, beta, yDesc, y);
     cudnnSoftmaxForward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSoftmaxForward", result, new Object[]{this, algo, mode, alpha, xDesc, x, beta, yDesc, y});
     return result;
@@ -971,7 +971,7 @@ public class CudnnHandle extends CudaDevice {
       cudnnTensorDescriptor dxDesc,
       CudaPointer dx) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnSoftmaxBackward(this.handle, algo, mode, alpha, yDesc, y, dyDesc, dy, beta, dxDesc, dx);
+    final int result = backend.cudnnSoftmaxBackward(this.handle, algo, mode, alpha, yDesc, y, dyDesc, dy, beta, dxDesc, dx);
     cudnnSoftmaxBackward_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSoftmaxBackward", result, new Object[]{this, algo, mode, alpha, yDesc, y, dyDesc, dy, beta, dxDesc, dx});
     return result;
@@ -997,7 +997,7 @@ public class CudnnHandle extends CudaDevice {
       final CudaPointer y) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnTransformTensor(this.handle, alpha, xDesc, x, beta, yDesc, y);
+    final int result = backend.cudnnTransformTensor(this.handle, alpha, xDesc, x, beta, yDesc, y);
     cudnnTransformTensor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnTransformTensor", result, new Object[]{this, alpha, xDesc, x, beta, yDesc, y});
     return result;
@@ -1017,7 +1017,7 @@ public class CudnnHandle extends CudaDevice {
       CudaPointer valuePtr) {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnSetTensor(this.handle, yDesc, y, valuePtr);
+    final int result = backend.cudnnSetTensor(this.handle, yDesc, y, valuePtr);
     cudnnSetTensor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnSetTensor", result, new Object[]{this, yDesc, y, valuePtr});
     return result;
@@ -1038,7 +1038,7 @@ public class CudnnHandle extends CudaDevice {
     assert CudaDevice.isThreadDeviceId(getDeviceId());
     long startTime = System.nanoTime();
     @Nonnull final long sizeInBytesArray[] = {0};
-    final int result = JCudnn.cudnnGetConvolutionBackwardDataWorkspaceSize(handle,
+    final int result = backend.cudnnGetConvolutionBackwardDataWorkspaceSize(handle,
         filterDesc, outputDesc, convDesc, inputDesc,
         algorithm, sizeInBytesArray);
     allocateBackwardDataWorkspace_execution.accept((System.nanoTime() - startTime) / 1e9);
@@ -1057,7 +1057,7 @@ public class CudnnHandle extends CudaDevice {
    */
   public int cudnnCreateReduceTensorDescriptor(cudnnReduceTensorDescriptor reduceTensorDesc) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnCreateReduceTensorDescriptor(reduceTensorDesc);
+    final int result = backend.cudnnCreateReduceTensorDescriptor(reduceTensorDesc);
     cudnnCreateReduceTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnCreateReduceTensorDescriptor", result, new Object[]{reduceTensorDesc});
     return result;
@@ -1081,7 +1081,7 @@ public class CudnnHandle extends CudaDevice {
                                             int reduceTensorIndices,
                                             int reduceTensorIndicesType) {
     long startTime = System.nanoTime();
-    final int result = JCudnn.cudnnSetReduceTensorDescriptor(reduceTensorDesc, reduceTensorOp, reduceTensorCompType, reduceTensorNanOpt, reduceTensorIndices, reduceTensorIndicesType);
+    final int result = backend.cudnnSetReduceTensorDescriptor(reduceTensorDesc, reduceTensorOp, reduceTensorCompType, reduceTensorNanOpt, reduceTensorIndices, reduceTensorIndicesType);
     cudnnSetReduceTensorDescriptor_execution.accept((System.nanoTime() - startTime) / 1e9);
     log("cudnnCreateReduceTensorDescriptor", result, new Object[]{reduceTensorDesc});
     return result;
@@ -1095,7 +1095,7 @@ public class CudnnHandle extends CudaDevice {
 
   @Override
   public void finalize() {
-    final int result = JCudnn.cudnnDestroy(handle);
+    final int result = backend.cudnnDestroy(handle);
     log("cudnnDestroy", result, new Object[]{handle});
     CudaSystem.handle(result);
   }
@@ -19,6 +19,8 @@
 
 package com.simiacryptus.mindseye.lang.cudnn;
 
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -46,4 +48,54 @@ public class DeviceMetrics {
    * The Used memory.
    */
   public final AtomicLong usedMemory = new AtomicLong(0);
+
+  /**
+   * The Cached memory; free bytes held by the caching allocators.
+   */
+  public final AtomicLong cachedMemory = new AtomicLong(0);
+  /**
+   * The Cache hits.
+   */
+  public final AtomicLong cacheHits = new AtomicLong(0);
+  /**
+   * The Cache misses.
+   */
+  public final AtomicLong cacheMisses = new AtomicLong(0);
+  /**
+   * The caching allocators reporting into these metrics.
+   */
+  final Collection<CachingAllocator<?>> allocators = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Gets the fraction of allocations served from the cache.
+   *
+   * @return the hit rate
+   */
+  public double getHitRate() {
+    final long hits = cacheHits.get();
+    final long total = hits + cacheMisses.get();
+    return 0 == total ? 0 : (double) hits / total;
+  }
+
+  /**
+   * Gets the external fragmentation of the cache: the share of free cached bytes outside the largest free block.
+   *
+   * @return the fragmentation, between 0 and 1
+   */
+  public double getFragmentation() {
+    final long free = allocators.stream().mapToLong(CachingAllocator::getCachedBytes).sum();
+    final long largest = allocators.stream().mapToLong(CachingAllocator::getLargestFreeBlock).max().orElse(0);
+    return 0 == free ? 0 : 1 - (double) largest / free;
+  }
+
+  /**
+   * Gets the internal fragmentation of the cache: the share of allocated block bytes lost to size-class rounding.
+   *
+   * @return the fragmentation, between 0 and 1
+   */
+  public double getInternalFragmentation() {
+    final long allocated = allocators.stream().mapToLong(CachingAllocator::getAllocatedBytes).sum();
+    final long requested = allocators.stream().mapToLong(CachingAllocator::getRequestedBytes).sum();
+    return 0 == allocated ? 0 : 1 - (double) requested / allocated;
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A heap-backed {@link MemorySource} with a fixed capacity, standing in for device memory so the caching allocator's
+ * policy can be tested and benchmarked on machines without a GPU.
+ */
+public class HostMemorySource implements MemorySource<ByteBuffer> {
+
+  private final long capacity;
+  private final AtomicLong allocated = new AtomicLong(0);
+  private final AtomicLong allocations = new AtomicLong(0);
+  private final AtomicLong frees = new AtomicLong(0);
+
+  /**
+   * Instantiates a new Host memory source.
+   *
+   * @param capacity the capacity in bytes; allocations beyond it fail with an {@link OutOfMemoryError}
+   */
+  public HostMemorySource(final long capacity) {
+    this.capacity = capacity;
+  }
+
+  @Nonnull
+  @Override
+  public ByteBuffer allocate(final long size) {
+    if (size > Integer.MAX_VALUE) throw new OutOfMemoryError("Allocated block is too large: " + size);
+    final long total = allocated.addAndGet(size);
+    if (total > capacity) {
+      allocated.addAndGet(-size);
+      throw new OutOfMemoryError(String.format("Cannot allocate %d bytes; %d of %d in use", size, total - size, capacity));
+    }
+    allocations.incrementAndGet();
+    return ByteBuffer.allocate((int) size);
+  }
+
+  @Nonnull
+  @Override
+  public ByteBuffer offset(@Nonnull final ByteBuffer segment, final long byteOffset) {
+    final ByteBuffer duplicate = segment.duplicate();
+    duplicate.position(Math.toIntExact(byteOffset));
+    return duplicate.slice();
+  }
+
+  @Override
+  public void free(@Nonnull final ByteBuffer segment) {
+    allocated.addAndGet(-segment.capacity());
+    frees.incrementAndGet();
+  }
+
+  /**
+   * Gets the bytes currently allocated.
+   *
+   * @return the allocated bytes
+   */
+  public long getAllocated() {
+    return allocated.get();
+  }
+
+  /**
+   * Gets the number of segments allocated so far.
+   *
+   * @return the allocation count
+   */
+  public long getAllocations() {
+    return allocations.get();
+  }
+
+  /**
+   * Gets the number of segments freed so far.
+   *
+   * @return the free count
+   */
+  public long getFrees() {
+    return frees.get();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+/**
+ * The raw memory segments a {@link CachingAllocator} carves blocks from. Implementations wrap the driver calls for
+ * one device and memory type, or host memory when exercising the allocator policy without a GPU.
+ *
+ * @param <T> the pointer type
+ */
+public interface MemorySource<T> {
+
+  /**
+   * Allocates a new segment.
+   *
+   * @param size the size in bytes
+   * @return the segment base pointer
+   * @throws OutOfMemoryError if the segment cannot be allocated
+   */
+  T allocate(long size);
+
+  /**
+   * Gets a pointer into a segment.
+   *
+   * @param segment    the segment base pointer
+   * @param byteOffset the byte offset
+   * @return the offset pointer
+   */
+  T offset(T segment, long byteOffset);
+
+  /**
+   * Frees a segment previously returned by {@link #allocate(long)}.
+   *
+   * @param segment the segment base pointer
+   */
+  void free(T segment);
+}
@@ -19,8 +19,6 @@
 
 package com.simiacryptus.mindseye.lang.cudnn;
 
-import com.simiacryptus.mindseye.lang.RecycleBin;
-import com.simiacryptus.mindseye.lang.ReferenceWrapper;
 import com.simiacryptus.mindseye.test.TestUtil;
 import jcuda.runtime.cudaDeviceProp;
 import org.slf4j.Logger;
@@ -134,7 +132,7 @@ public enum MemoryType {
    * The constant logger.
    */
   protected static final Logger logger = LoggerFactory.getLogger(MemoryType.class);
-  private final Map<Integer, RecycleBin<ReferenceWrapper<CudaPointer>>> cache = new ConcurrentHashMap<>();
+  private final Map<Integer, CachingAllocator<CudaPointer>> cache = new ConcurrentHashMap<>();
 
   /**
    * Free.
@@ -153,62 +151,42 @@ public enum MemoryType {
    */
   public void recycle(CudaPointer ptr, int deviceId, final long length) {
     logger.debug(String.format("Recycle %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(ptr)), length, deviceId, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
-    get(deviceId).recycle(new ReferenceWrapper<>(ptr, x -> {
-      logger.debug(String.format("Freed %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(ptr)), length, deviceId, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
-      CudaMemory.getGpuStats(deviceId).usedMemory.addAndGet(-length);
-      MemoryType.this.free(x, deviceId);
-    }), length);
+    get(deviceId).free(ptr);
   }
 
   /**
-   * Get recycle bin.
+   * Get the caching allocator.
    *
    * @param device the device
-   * @return the recycle bin
+   * @return the caching allocator
    */
-  protected RecycleBin<ReferenceWrapper<CudaPointer>> get(int device) {
+  protected CachingAllocator<CudaPointer> get(int device) {
     return cache.computeIfAbsent(device, d -> {
-      logger.info(String.format("Initialize recycle bin %s (device %s)", this, device));
-      return new RecycleBin<ReferenceWrapper<CudaPointer>>() {
-        @Override
-        protected void free(final ReferenceWrapper<CudaPointer> obj) {
-          MemoryType.logger.debug(String.format("Freed %s %s in device %s at %s", name(), Integer.toHexString(System.identityHashCode(obj.peek())), device, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
-          obj.destroy();
-        }
-
-        @Override
-        public ReferenceWrapper<CudaPointer> obtain(final long length) {
-          assert -1 == device || CudaSystem.getThreadDeviceId() == device;
-          ReferenceWrapper<CudaPointer> referenceWrapper = super.obtain(length);
-          MemoryType.logger.debug(String.format("Obtained %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(referenceWrapper.peek())), length, device, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
-          return referenceWrapper;
-        }
-
+      logger.info(String.format("Initialize caching allocator %s (device %s)", this, device));
+      return new CachingAllocator<>(new MemorySource<CudaPointer>() {
         @Nonnull
         @Override
-        public ReferenceWrapper<CudaPointer> create(final long length) {
+        public CudaPointer allocate(final long size) {
           assert -1 == device || CudaSystem.getThreadDeviceId() == device;
           CharSequence caller = !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller();
           return CudaDevice.run(gpu -> {
-            CudaPointer alloc = MemoryType.this.alloc(length, gpu);
-            MemoryType.logger.debug(String.format("Created %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(alloc)), length, device, caller));
-            CudaMemory.getGpuStats(device).usedMemory.addAndGet(length);
-            return new ReferenceWrapper<>(alloc, x -> {
-              MemoryType.logger.debug(String.format("Freed %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(alloc)), length, device, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
-              CudaMemory.getGpuStats(device).usedMemory.addAndGet(-length);
-              MemoryType.this.free(x, device);
-            });
+            CudaPointer alloc = MemoryType.this.alloc(size, gpu);
+            MemoryType.logger.debug(String.format("Created %s %s (%s bytes) in device %s via %s", name(), Integer.toHexString(System.identityHashCode(alloc)), size, device, caller));
+            return alloc;
           });
         }
 
         @Override
-        public void reset(final ReferenceWrapper<CudaPointer> data, final long size) {
-          // There is no need to clean new objects - native memory system doesn't either.
+        public CudaPointer offset(final CudaPointer segment, final long byteOffset) {
+          return segment.withByteOffset(byteOffset);
+        }
+
+        @Override
+        public void free(final CudaPointer segment) {
+          MemoryType.logger.debug(String.format("Freed %s %s in device %s via %s", name(), Integer.toHexString(System.identityHashCode(segment)), device, !CudaSettings.INSTANCE().isProfileMemoryIO() ? "" : TestUtil.getCaller()));
+          MemoryType.this.free(segment, device);
         }
-      }.setPersistanceMode(CudaSettings.INSTANCE().memoryCacheMode)
-          .setMinLengthPerBuffer(1)
-          .setMaxItemsPerBuffer(5)
-          .setPurgeFreq(CudaSettings.INSTANCE().getMemoryCacheTTL());
+      }, CudaMemory.getGpuStats(device), CudaSettings.INSTANCE().getMemoryCacheHighWaterMark());
     });
   }
 
@@ -228,7 +206,7 @@ public enum MemoryType {
    * @return the double
    */
   public double purge(final int device) {
-    double clear = get(device).clear();
+    double clear = get(device).emptyCache();
     logger.info(String.format("Purged %e bytes from pool for %s (device %s)", clear, this, device));
     return clear;
   }
@@ -241,10 +219,7 @@ public enum MemoryType {
    * @return the pointer
    */
   public CudaPointer allocCached(final long size, final CudaDevice cudaDevice) {
-    RecycleBin<ReferenceWrapper<CudaPointer>> recycleBin = get(cudaDevice.deviceId);
-    ReferenceWrapper<CudaPointer> wrapper = recycleBin.obtain(size);
-    CudaPointer ptr = wrapper.unwrap();
-    return ptr;
+    return get(cudaDevice.deviceId).allocate(size);
   }
 
 
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import jcuda.Pointer;
+import jcuda.jcudnn.*;
+import jcuda.runtime.JCuda;
+import jcuda.runtime.cudaDeviceProp;
+import jcuda.runtime.cudaStream_t;
+
+/**
+ * The backend backed by the JCuda and JCudnn native bindings.
+ */
+final class NativeBackend implements CudaBackend {
+
+  @Override
+  public boolean isEmulated() {
+    return false;
+  }
+
+  @Override
+  public String getVersion() {
+    return JCuda.getJCudaVersion();
+  }
+
+  @Override
+  public int cudaRuntimeGetVersion(final int[] runtimeVersion) {
+    return JCuda.cudaRuntimeGetVersion(runtimeVersion);
+  }
+
+  @Override
+  public int cudaDriverGetVersion(final int[] driverVersion) {
+    return JCuda.cudaDriverGetVersion(driverVersion);
+  }
+
+  @Override
+  public int cudaMemGetInfo(final long[] free, final long[] total) {
+    return JCuda.cudaMemGetInfo(free, total);
+  }
+
+  @Override
+  public int cudaGetDeviceCount(final int[] count) {
+    return JCuda.cudaGetDeviceCount(count);
+  }
+
+  @Override
+  public int cudaGetDeviceProperties(final cudaDeviceProp prop, final int device) {
+    return JCuda.cudaGetDeviceProperties(prop, device);
+  }
+
+  @Override
+  public int cudaSetDevice(final int device) {
+    return JCuda.cudaSetDevice(device);
+  }
+
+  @Override
+  public int cudaSetDeviceFlags(final int flags) {
+    return JCuda.cudaSetDeviceFlags(flags);
+  }
+
+  @Override
+  public int cudaDeviceReset() {
+    return JCuda.cudaDeviceReset();
+  }
+
+  @Override
+  public int cudaDeviceSynchronize() {
+    return JCuda.cudaDeviceSynchronize();
+  }
+
+  @Override
+  public int cudaDeviceGetLimit(final long[] pValue, final int limit) {
+    return JCuda.cudaDeviceGetLimit(pValue, limit);
+  }
+
+  @Override
+  public int cudaDeviceSetLimit(final int limit, final long value) {
+    return JCuda.cudaDeviceSetLimit(limit, value);
+  }
+
+  @Override
+  public int cudaMalloc(final CudaPointer devPtr, final long size) {
+    return JCuda.cudaMalloc(devPtr, size);
+  }
+
+  @Override
+  public int cudaMallocManaged(final CudaPointer devPtr, final long size, final int flags) {
+    return JCuda.cudaMallocManaged(devPtr, size, flags);
+  }
+
+  @Override
+  public int cudaHostAlloc(final CudaPointer devPtr, final long size, final int flags) {
+    return JCuda.cudaHostAlloc(devPtr, size, flags);
+  }
+
+  @Override
+  public int cudaFree(final CudaPointer devPtr) {
+    return JCuda.cudaFree(devPtr);
+  }
+
+  @Override
+  public int cudaFreeHost(final CudaPointer devPtr) {
+    return JCuda.cudaFreeHost(devPtr);
+  }
+
+  @Override
+  public int cudaMemcpy(final CudaPointer dst, final CudaPointer src, final long count, final int kind) {
+    return JCuda.cudaMemcpy(dst, src, count, kind);
+  }
+
+  @Override
+  public int cudaMemcpyAsync(final CudaPointer dst, final CudaPointer src, final long count, final int kind, final cudaStream_t stream) {
+    return JCuda.cudaMemcpyAsync(dst, src, count, kind, stream);
+  }
+
+  @Override
+  public int cudaMemset(final CudaPointer mem, final int c, final long count) {
+    return JCuda.cudaMemset(mem, c, count);
+  }
+
+  @Override
+  public int cudaStreamCreate(final cudaStream_t stream) {
+    return JCuda.cudaStreamCreate(stream);
+  }
+
+  @Override
+  public int cudaStreamDestroy(final cudaStream_t stream) {
+    return JCuda.cudaStreamDestroy(stream);
+  }
+
+  @Override
+  public int cudaStreamSynchronize(final cudaStream_t stream) {
+    return JCuda.cudaStreamSynchronize(stream);
+  }
+
+  @Override
+  public int cudnnCreate(final cudnnHandle handle) {
+    return JCudnn.cudnnCreate(handle);
+  }
+
+  @Override
+  public int cudnnDestroy(final cudnnHandle handle) {
+    return JCudnn.cudnnDestroy(handle);
+  }
+
+  @Override
+  public int cudnnCreateTensorDescriptor(final cudnnTensorDescriptor tensorDesc) {
+    return JCudnn.cudnnCreateTensorDescriptor(tensorDesc);
+  }
+
+  @Override
+  public int cudnnSetTensor4dDescriptorEx(final cudnnTensorDescriptor tensorDesc, final int dataType, final int n, final int c, final int h, final int w, final int nStride, final int cStride, final int hStride, final int wStride) {
+    return JCudnn.cudnnSetTensor4dDescriptorEx(tensorDesc, dataType, n, c, h, w, nStride, cStride, hStride, wStride);
+  }
+
+  @Override
+  public int cudnnDestroyTensorDescriptor(final cudnnTensorDescriptor tensorDesc) {
+    return JCudnn.cudnnDestroyTensorDescriptor(tensorDesc);
+  }
+
+  @Override
+  public int cudnnCreateFilterDescriptor(final cudnnFilterDescriptor filterDesc) {
+    return JCudnn.cudnnCreateFilterDescriptor(filterDesc);
+  }
+
+  @Override
+  public int cudnnSetFilter4dDescriptor(final cudnnFilterDescriptor filterDesc, final int dataType, final int format, final int k, final int c, final int h, final int w) {
+    return JCudnn.cudnnSetFilter4dDescriptor(filterDesc, dataType, format, k, c, h, w);
+  }
+
+  @Override
+  public int cudnnSetFilterNdDescriptor(final cudnnFilterDescriptor filterDesc, final int dataType, final int format, final int nbDims, final int[] filterDimA) {
+    return JCudnn.cudnnSetFilterNdDescriptor(filterDesc, dataType, format, nbDims, filterDimA);
+  }
+
+  @Override
+  public int cudnnDestroyFilterDescriptor(final cudnnFilterDescriptor filterDesc) {
+    return JCudnn.cudnnDestroyFilterDescriptor(filterDesc);
+  }
+
+  @Override
+  public int cudnnCreateConvolutionDescriptor(final cudnnConvolutionDescriptor convDesc) {
+    return JCudnn.cudnnCreateConvolutionDescriptor(convDesc);
+  }
+
+  @Override
+  public int cudnnSetConvolution2dDescriptor(final cudnnConvolutionDescriptor convDesc, final int padH, final int padW, final int strideH, final int strideW, final int dilationH, final int dilationW, final int mode, final int computeType) {
+    return JCudnn.cudnnSetConvolution2dDescriptor(convDesc, padH, padW, strideH, strideW, dilationH, dilationW, mode, computeType);
+  }
+
+  @Override
+  public int cudnnSetConvolutionNdDescriptor(final cudnnConvolutionDescriptor convDesc, final int arrayLength, final int[] padA, final int[] strideA, final int[] dilationA, final int mode, final int computeType) {
+    return JCudnn.cudnnSetConvolutionNdDescriptor(convDesc, arrayLength, padA, strideA, dilationA, mode, computeType);
+  }
+
+  @Override
+  public int cudnnDestroyConvolutionDescriptor(final cudnnConvolutionDescriptor convDesc) {
+    return JCudnn.cudnnDestroyConvolutionDescriptor(convDesc);
+  }
+
+  @Override
+  public int cudnnCreateActivationDescriptor(final cudnnActivationDescriptor activationDesc) {
+    return JCudnn.cudnnCreateActivationDescriptor(activationDesc);
+  }
+
+  @Override
+  public int cudnnSetActivationDescriptor(final cudnnActivationDescriptor activationDesc, final int mode, final int reluNanOpt, final double coef) {
+    return JCudnn.cudnnSetActivationDescriptor(activationDesc, mode, reluNanOpt, coef);
+  }
+
+  @Override
+  public int cudnnDestroyActivationDescriptor(final cudnnActivationDescriptor activationDesc) {
+    return JCudnn.cudnnDestroyActivationDescriptor(activationDesc);
+  }
+
+  @Override
+  public int cudnnCreatePoolingDescriptor(final cudnnPoolingDescriptor poolingDesc) {
+    return JCudnn.cudnnCreatePoolingDescriptor(poolingDesc);
+  }
+
+  @Override
+  public int cudnnSetPoolingNdDescriptor(final cudnnPoolingDescriptor poolingDesc, final int mode, final int nanOpt, final int nbDims, final int[] windowDimA, final int[] paddingA, final int[] strideA) {
+    return JCudnn.cudnnSetPoolingNdDescriptor(poolingDesc, mode, nanOpt, nbDims, windowDimA, paddingA, strideA);
+  }
+
+  @Override
+  public int cudnnDestroyPoolingDescriptor(final cudnnPoolingDescriptor poolingDesc) {
+    return JCudnn.cudnnDestroyPoolingDescriptor(poolingDesc);
+  }
+
+  @Override
+  public int cudnnCreateOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc) {
+    return JCudnn.cudnnCreateOpTensorDescriptor(opTensorDesc);
+  }
+
+  @Override
+  public int cudnnSetOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc, final int opTensorOp, final int compType, final int nanOpt) {
+    return JCudnn.cudnnSetOpTensorDescriptor(opTensorDesc, opTensorOp, compType, nanOpt);
+  }
+
+  @Override
+  public int cudnnDestroyOpTensorDescriptor(final cudnnOpTensorDescriptor opTensorDesc) {
+    return JCudnn.cudnnDestroyOpTensorDescriptor(opTensorDesc);
+  }
+
+  @Override
+  public int cudnnCreateReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc) {
+    return JCudnn.cudnnCreateReduceTensorDescriptor(reduceTensorDesc);
+  }
+
+  @Override
+  public int cudnnSetReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc, final int reduceTensorOp, final int reduceTensorCompType, final int reduceTensorNanOpt, final int reduceTensorIndices, final int reduceTensorIndicesType) {
+    return JCudnn.cudnnSetReduceTensorDescriptor(reduceTensorDesc, reduceTensorOp, reduceTensorCompType, reduceTensorNanOpt, reduceTensorIndices, reduceTensorIndicesType);
+  }
+
+  @Override
+  public int cudnnDestroyReduceTensorDescriptor(final cudnnReduceTensorDescriptor reduceTensorDesc) {
+    return JCudnn.cudnnDestroyReduceTensorDescriptor(reduceTensorDesc);
+  }
+
+  @Override
+  public int cudnnGetConvolutionNdForwardOutputDim(final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor inputTensorDesc, final cudnnFilterDescriptor filterDesc, final int nbDims, final int[] tensorOuputDimA) {
+    return JCudnn.cudnnGetConvolutionNdForwardOutputDim(convDesc, inputTensorDesc, filterDesc, nbDims, tensorOuputDimA);
+  }
+
+  @Override
+  public int cudnnGetPoolingNdForwardOutputDim(final cudnnPoolingDescriptor poolingDesc, final cudnnTensorDescriptor inputTensorDesc, final int nbDims, final int[] outputTensorDimA) {
+    return JCudnn.cudnnGetPoolingNdForwardOutputDim(poolingDesc, inputTensorDesc, nbDims, outputTensorDimA);
+  }
+
+  @Override
+  public int cudnnGetConvolutionForwardAlgorithm(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnFilterDescriptor wDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor yDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    return JCudnn.cudnnGetConvolutionForwardAlgorithm(handle, xDesc, wDesc, convDesc, yDesc, preference, memoryLimitInBytes, algo);
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardDataAlgorithm(final cudnnHandle handle, final cudnnFilterDescriptor wDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dxDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    return JCudnn.cudnnGetConvolutionBackwardDataAlgorithm(handle, wDesc, dyDesc, convDesc, dxDesc, preference, memoryLimitInBytes, algo);
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardFilterAlgorithm(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnFilterDescriptor dwDesc, final int preference, final long memoryLimitInBytes, final int[] algo) {
+    return JCudnn.cudnnGetConvolutionBackwardFilterAlgorithm(handle, xDesc, dyDesc, convDesc, dwDesc, preference, memoryLimitInBytes, algo);
+  }
+
+  @Override
+  public int cudnnGetConvolutionForwardWorkspaceSize(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnFilterDescriptor wDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor yDesc, final int algo, final long[] sizeInBytes) {
+    return JCudnn.cudnnGetConvolutionForwardWorkspaceSize(handle, xDesc, wDesc, convDesc, yDesc, algo, sizeInBytes);
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardDataWorkspaceSize(final cudnnHandle handle, final cudnnFilterDescriptor wDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnTensorDescriptor dxDesc, final int algo, final long[] sizeInBytes) {
+    return JCudnn.cudnnGetConvolutionBackwardDataWorkspaceSize(handle, wDesc, dyDesc, convDesc, dxDesc, algo, sizeInBytes);
+  }
+
+  @Override
+  public int cudnnGetConvolutionBackwardFilterWorkspaceSize(final cudnnHandle handle, final cudnnTensorDescriptor xDesc, final cudnnTensorDescriptor dyDesc, final cudnnConvolutionDescriptor convDesc, final cudnnFilterDescriptor gradDesc, final int algo, final long[] sizeInBytes) {
+    return JCudnn.cudnnGetConvolutionBackwardFilterWorkspaceSize(handle, xDesc, dyDesc, convDesc, gradDesc, algo, sizeInBytes);
+  }
+
+  @Override
+  public int cudnnActivationForward(final cudnnHandle handle, final cudnnActivationDescriptor activationDesc, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnActivationForward(handle, activationDesc, alpha, xDesc, x, beta, yDesc, y);
+  }
+
+  @Override
+  public int cudnnActivationBackward(final cudnnHandle handle, final cudnnActivationDescriptor activationDesc, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return JCudnn.cudnnActivationBackward(handle, activationDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
+  }
+
+  @Override
+  public int cudnnAddTensor(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor aDesc, final CudaPointer A, final CudaPointer beta, final cudnnTensorDescriptor cDesc, final CudaPointer C) {
+    return JCudnn.cudnnAddTensor(handle, alpha, aDesc, A, beta, cDesc, C);
+  }
+
+  @Override
+  public int cudnnOpTensor(final cudnnHandle handle, final cudnnOpTensorDescriptor opTensorDesc, final CudaPointer alpha1, final cudnnTensorDescriptor aDesc, final CudaPointer A, final CudaPointer alpha2, final cudnnTensorDescriptor bDesc, final CudaPointer B, final CudaPointer beta, final cudnnTensorDescriptor cDesc, final CudaPointer C) {
+    return JCudnn.cudnnOpTensor(handle, opTensorDesc, alpha1, aDesc, A, alpha2, bDesc, B, beta, cDesc, C);
+  }
+
+  @Override
+  public int cudnnReduceTensor(final cudnnHandle handle, final cudnnReduceTensorDescriptor reduceTensorDesc, final Pointer indices, final long indicesSizeInBytes, final Pointer workspace, final long workspaceSizeInBytes, final Pointer alpha, final cudnnTensorDescriptor aDesc, final Pointer A, final Pointer beta, final cudnnTensorDescriptor cDesc, final Pointer C) {
+    return JCudnn.cudnnReduceTensor(handle, reduceTensorDesc, indices, indicesSizeInBytes, workspace, workspaceSizeInBytes, alpha, aDesc, A, beta, cDesc, C);
+  }
+
+  @Override
+  public int cudnnTransformTensor(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnTransformTensor(handle, alpha, xDesc, x, beta, yDesc, y);
+  }
+
+  @Override
+  public int cudnnSetTensor(final cudnnHandle handle, final cudnnTensorDescriptor yDesc, final CudaPointer y, final CudaPointer valuePtr) {
+    return JCudnn.cudnnSetTensor(handle, yDesc, y, valuePtr);
+  }
+
+  @Override
+  public int cudnnConvolutionForward(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnConvolutionForward(handle, alpha, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, yDesc, y);
+  }
+
+  @Override
+  public int cudnnConvolutionBiasActivationForward(final cudnnHandle handle, final CudaPointer alpha1, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer alpha2, final cudnnTensorDescriptor zDesc, final CudaPointer z, final cudnnTensorDescriptor biasDesc, final CudaPointer bias, final cudnnActivationDescriptor activationDesc, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnConvolutionBiasActivationForward(handle, alpha1, xDesc, x, wDesc, w, convDesc, algo, workSpace, workSpaceSizeInBytes, alpha2, zDesc, z, biasDesc, bias, activationDesc, yDesc, y);
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardData(final cudnnHandle handle, final CudaPointer alpha, final cudnnFilterDescriptor wDesc, final CudaPointer w, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return JCudnn.cudnnConvolutionBackwardData(handle, alpha, wDesc, w, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dxDesc, dx);
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardFilter(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnConvolutionDescriptor convDesc, final int algo, final CudaPointer workSpace, final long workSpaceSizeInBytes, final CudaPointer beta, final cudnnFilterDescriptor dwDesc, final CudaPointer dw) {
+    return JCudnn.cudnnConvolutionBackwardFilter(handle, alpha, xDesc, x, dyDesc, dy, convDesc, algo, workSpace, workSpaceSizeInBytes, beta, dwDesc, dw);
+  }
+
+  @Override
+  public int cudnnConvolutionBackwardBias(final cudnnHandle handle, final CudaPointer alpha, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final CudaPointer beta, final cudnnTensorDescriptor dbDesc, final CudaPointer db) {
+    return JCudnn.cudnnConvolutionBackwardBias(handle, alpha, dyDesc, dy, beta, dbDesc, db);
+  }
+
+  @Override
+  public int cudnnPoolingForward(final cudnnHandle handle, final cudnnPoolingDescriptor poolingDesc, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnPoolingForward(handle, poolingDesc, alpha, xDesc, x, beta, yDesc, y);
+  }
+
+  @Override
+  public int cudnnPoolingBackward(final cudnnHandle handle, final cudnnPoolingDescriptor poolingDesc, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return JCudnn.cudnnPoolingBackward(handle, poolingDesc, alpha, yDesc, y, dyDesc, dy, xDesc, x, beta, dxDesc, dx);
+  }
+
+  @Override
+  public int cudnnSoftmaxForward(final cudnnHandle handle, final int algo, final int mode, final CudaPointer alpha, final cudnnTensorDescriptor xDesc, final CudaPointer x, final CudaPointer beta, final cudnnTensorDescriptor yDesc, final CudaPointer y) {
+    return JCudnn.cudnnSoftmaxForward(handle, algo, mode, alpha, xDesc, x, beta, yDesc, y);
+  }
+
+  @Override
+  public int cudnnSoftmaxBackward(final cudnnHandle handle, final int algo, final int mode, final CudaPointer alpha, final cudnnTensorDescriptor yDesc, final CudaPointer y, final cudnnTensorDescriptor dyDesc, final CudaPointer dy, final CudaPointer beta, final cudnnTensorDescriptor dxDesc, final CudaPointer dx) {
+    return JCudnn.cudnnSoftmaxBackward(handle, algo, mode, alpha, yDesc, y, dyDesc, dy, beta, dxDesc, dx);
+  }
+}
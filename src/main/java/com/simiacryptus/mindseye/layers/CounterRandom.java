@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A stateless, counter-based random number generator for noise layers. Each value is a SplitMix64 hash of a (seed,
+ * sample, index) key, so masks are reproducible, can be generated in any order or in parallel, and can be regenerated
+ * during backprop instead of being stored. Masks are packed 64 entries per long.
+ */
+public final class CounterRandom {
+
+  private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+  private CounterRandom() {
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Gets the key of the stream of values for one sample.
+   *
+   * @param seed   the seed
+   * @param sample the sample
+   * @return the stream key
+   */
+  public static long stream(final long seed, final long sample) {
+    return mix(seed ^ mix((sample + 1) * GAMMA));
+  }
+
+  /**
+   * Gets a uniformly distributed long.
+   *
+   * @param stream the stream key
+   * @param index  the index
+   * @return the long
+   */
+  public static long nextLong(final long stream, final long index) {
+    return mix(stream + (index + 1) * GAMMA);
+  }
+
+  /**
+   * Gets a uniformly distributed double in [0, 1).
+   *
+   * @param stream the stream key
+   * @param index  the index
+   * @return the double
+   */
+  public static double uniform(final long stream, final long index) {
+    return (nextLong(stream, index) >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Generates a bit mask in which entry i is set when uniform(stream, i) &lt; probability.
+   *
+   * @param stream      the stream key
+   * @param length      the length
+   * @param probability the probability
+   * @return the mask
+   */
+  @Nonnull
+  public static long[] bernoulli(final long stream, final int length, final double probability) {
+    @Nonnull final long[] mask = new long[words(length)];
+    for (int i = 0; i < length; i++) {
+      if (uniform(stream, i) < probability) mask[i >>> 6] |= 1L << i;
+    }
+    return mask;
+  }
+
+  /**
+   * Gets the number of longs needed for a mask.
+   *
+   * @param length the length
+   * @return the int
+   */
+  public static int words(final int length) {
+    return (length + 63) >>> 6;
+  }
+
+  /**
+   * Tests an entry of a mask.
+   *
+   * @param mask  the mask
+   * @param index the index
+   * @return the boolean
+   */
+  public static boolean get(@Nonnull final long[] mask, final int index) {
+    return 0 != (mask[index >>> 6] & (1L << index));
+  }
+
+  /**
+   * Sets an entry of a mask.
+   *
+   * @param mask  the mask
+   * @param index the index
+   */
+  public static void set(@Nonnull final long[] mask, final int index) {
+    mask[index >>> 6] |= 1L << index;
+  }
+}
@@ -19,6 +19,7 @@
 
 package com.simiacryptus.mindseye.layers.aparapi;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.simiacryptus.mindseye.lang.ComponentException;
 import com.simiacryptus.mindseye.lang.RecycleBin;
 import org.slf4j.Logger;
@@ -27,19 +28,22 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 
 /**
- * The type Convolution controller.
+ * The type Convolution controller. Each call runs on one entry of {@link ConvolutionKernels#pool}, so calls on
+ * different pooled devices proceed concurrently. Batches larger than {@link #MAX_BUFFER_SIZE} are split into chunks
+ * which are double-buffered: the next chunk is copied in and the previous one copied out while the current one runs.
+ * In {@link OpenCL#cpuMode} the batch is instead evaluated in place by {@link CpuConvolution}.
  */
 public final class ConvolutionController {
 
-  private static final BackpropKernel backpropTask = new BackpropKernel();
-  private static final ConvolveKernel convolveTask = new ConvolveKernel();
-  private static final GradientKernel kernelTask = new GradientKernel();
-
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(ConvolutionController.class);
+  private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("aparapi-stage-%d").setDaemon(true).build());
   /**
    * The constant MAX_BUFFER_SIZE.
    */
@@ -91,6 +95,69 @@ public final class ConvolutionController {
     assert this.inputSize.length == 3;
   }
 
+  private static void pipeline(final int length, final int inputsPerRun, @Nonnull final Stage load, @Nonnull final Stage execute, @Nonnull final Stage store) {
+    final int runs = (length + inputsPerRun - 1) / inputsPerRun;
+    if (1 == runs) {
+      load.apply(0, 0, length);
+      execute.apply(0, 0, length);
+      store.apply(0, 0, length);
+      return;
+    }
+    @Nonnull CompletableFuture<?> loaded = CompletableFuture.runAsync(() -> load.apply(0, 0, inputsPerRun), pool);
+    @Nonnull final CompletableFuture<?>[] stored = new CompletableFuture<?>[]{CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(null)};
+    for (int run = 0; run < runs; run++) {
+      final int slot = run % 2;
+      final int offset = run * inputsPerRun;
+      final int count = Math.min(inputsPerRun, length - offset);
+      loaded.join();
+      if (run + 1 < runs) {
+        final int nextOffset = offset + inputsPerRun;
+        loaded = CompletableFuture.runAsync(() -> load.apply(1 - slot, nextOffset, Math.min(inputsPerRun, length - nextOffset)), pool);
+      }
+      stored[slot].join();
+      execute.apply(slot, offset, count);
+      stored[slot] = CompletableFuture.runAsync(() -> store.apply(slot, offset, count), pool);
+    }
+    CompletableFuture.allOf(stored).join();
+  }
+
+  @Nonnull
+  private static double[][] obtain(final int length, final int inputsPerRun, final int runLength) {
+    return new double[][]{
+        RecycleBin.DOUBLES.obtain(inputsPerRun * runLength),
+        inputsPerRun < length ? RecycleBin.DOUBLES.obtain(inputsPerRun * runLength) : null
+    };
+  }
+
+  private static void recycle(@Nonnull final double[]... buffers) {
+    for (final double[] buffer : buffers) {
+      if (null != buffer) RecycleBin.DOUBLES.recycle(buffer, buffer.length);
+    }
+  }
+
+  private static void pack(@Nonnull final double[][] items, final int offset, final int count, @Nonnull final double[] buffer, final int itemLength) {
+    for (int i = 0; i < count; i++) {
+      assert itemLength == items[offset + i].length;
+      System.arraycopy(items[offset + i], 0, buffer, i * itemLength, itemLength);
+    }
+    Arrays.fill(buffer, count * itemLength, buffer.length, 0.0);
+  }
+
+  private static void unpack(@Nonnull final double[] buffer, @Nonnull final double[][] items, final int offset, final int count, final int itemLength) {
+    for (int i = 0; i < count; i++) {
+      assert itemLength == items[offset + i].length;
+      System.arraycopy(buffer, i * itemLength, items[offset + i], 0, itemLength);
+    }
+  }
+
+  @Nonnull
+  private int[] getKernelOffset() {
+    return new int[]{
+        null == paddingY ? (kernelSize[1] - 1) / 2 : paddingY,
+        null == paddingX ? (kernelSize[0] - 1) / 2 : paddingX
+    };
+  }
+
   /**
    * Backprop.
    *
@@ -99,75 +166,42 @@ public final class ConvolutionController {
    * @param output  the output
    */
   public void backprop(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    if (OpenCL.cpuMode) {
+      new CpuConvolution(inputSize, kernelSize, getKernelOffset(), outputSize).backprop(input, weights, output);
+      return;
+    }
     final int length = input.length;
     assert length == output.length;
+    assert 0 < weights.length;
+    assert kernelSize[0] * kernelSize[1] * kernelSize[2] == weights.length;
     final int inLength = input[0].length;
     final int outLength = output[0].length;
     final int inputsPerRun = Math.min(Math.floorDiv(ConvolutionController.MAX_BUFFER_SIZE, inLength), length);
-    final int runs = length / inputsPerRun;
-    final int leftover = length - runs * inputsPerRun;
-    OpenCL.devicePool.apply(device -> {
+    assert 0 < inputsPerRun : "Requested buffer is over max of " + ConvolutionController.MAX_BUFFER_SIZE;
+    ConvolutionKernels.pool.apply(kernels -> {
+      @Nonnull final double[][] inputBuffers = obtain(length, inputsPerRun, inLength);
+      @Nonnull final double[][] outputBuffers = obtain(length, inputsPerRun, outLength);
+      @Nonnull final BackpropKernel task = kernels.backprop(inputSize, kernelSize, getKernelOffset(), outputSize, weights);
       try {
-        synchronized (ConvolutionController.backpropTask) {
-          assert 0 < weights.length;
-          assert kernelSize[0] * kernelSize[1] * kernelSize[2] == weights.length;
-          ConvolutionController.backpropTask.setExplicit(true);
-          ConvolutionController.backpropTask.weights = weights;
-          ConvolutionController.backpropTask.put(ConvolutionController.backpropTask.weights);
-          ConvolutionController.backpropTask.kernelSize = kernelSize;
-          ConvolutionController.backpropTask.put(ConvolutionController.backpropTask.kernelSize);
-          ConvolutionController.backpropTask.kernelOffset = new int[]{
-              null == paddingY ? (kernelSize[1] - 1) / 2 : paddingY,
-              null == paddingX ? (kernelSize[0] - 1) / 2 : paddingX
-          };
-          ConvolutionController.backpropTask.put(ConvolutionController.convolveTask.kernelOffset);
-          @Nullable double[] inputBuffer = null;
-          @Nullable double[] outputBuffer = null;
-          for (int run = 0; run < runs; run++) {
-            final int currentIndexOffset = run * inputsPerRun;
-            final int currentNumItems = run < run - 1 ? inputsPerRun : leftover == 0 ? inputsPerRun : leftover;
-            if (null == inputBuffer || inputBuffer.length != inLength * currentNumItems) {
-              if (null != inputBuffer) RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-              inputBuffer = RecycleBin.DOUBLES.obtain(inLength * currentNumItems);
-            }
-            if (null == outputBuffer || outputBuffer.length != outLength * currentNumItems) {
-              if (null != outputBuffer) RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
-              outputBuffer = RecycleBin.DOUBLES.obtain(outLength * currentNumItems);
-            }
-            for (int i = 0; i < currentNumItems; i++) {
-              assert outLength == output[currentIndexOffset + i].length;
-              System.arraycopy(output[currentIndexOffset + i], 0, outputBuffer, i * outLength, outLength);
-            }
-            assert 0 < inputBuffer.length;
-            assert 0 < outputBuffer.length;
-            ConvolutionController.backpropTask.input = inputBuffer;
-            ConvolutionController.backpropTask.output = outputBuffer;
-            ConvolutionController.backpropTask.outputSize = outputSize;
-            ConvolutionController.backpropTask.inputSize = inputSize;
-            ConvolutionController.backpropTask.put(ConvolutionController.backpropTask.outputSize);
-            ConvolutionController.backpropTask.put(ConvolutionController.backpropTask.inputSize);
-            ConvolutionController.backpropTask.put(ConvolutionController.backpropTask.output);
-            ConvolutionController.backpropTask.exe(device);
-            ConvolutionController.backpropTask.get(ConvolutionController.backpropTask.input);
-            ConvolutionController.backpropTask.input = null;
-            ConvolutionController.backpropTask.output = null;
-            ConvolutionController.backpropTask.outputSize = null;
-            ConvolutionController.backpropTask.inputSize = null;
-            for (int i = 0; i < currentNumItems; i++) {
-              assert inLength == input[currentIndexOffset + i].length;
-              System.arraycopy(inputBuffer, i * inLength, input[currentIndexOffset + i], 0, inLength);
-            }
-          }
-          RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-          RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
-          ConvolutionController.backpropTask.kernelSize = null;
-          ConvolutionController.backpropTask.weights = null;
-        }
+        pipeline(length, inputsPerRun,
+            (slot, offset, count) -> pack(output, offset, count, outputBuffers[slot], outLength),
+            (slot, offset, count) -> {
+              task.input = inputBuffers[slot];
+              task.output = outputBuffers[slot];
+              task.put(task.output);
+              task.exe(kernels.device);
+              task.get(task.input);
+            },
+            (slot, offset, count) -> unpack(inputBuffers[slot], input, offset, count, inLength));
       } catch (@Nonnull final Throwable e) {
         throw new ComponentException("Error apply " + this, e);
+      } finally {
+        task.input = null;
+        task.output = null;
+        recycle(inputBuffers);
+        recycle(outputBuffers);
       }
     });
-
   }
 
   /**
@@ -178,76 +212,39 @@ public final class ConvolutionController {
    * @param output  the output
    */
   public void convolve(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    if (OpenCL.cpuMode) {
+      new CpuConvolution(inputSize, kernelSize, getKernelOffset(), outputSize).convolve(input, weights, output);
+      return;
+    }
     final int length = input.length;
     assert length == output.length;
+    assert 0 < weights.length;
     final int inLength = input[0].length;
     final int outLength = output[0].length;
     final int inputsPerRun = Math.min(Math.floorDiv(ConvolutionController.MAX_BUFFER_SIZE, inLength), length);
     assert 0 < inputsPerRun : "Requested buffer is over max of " + ConvolutionController.MAX_BUFFER_SIZE;
-    final int runs = length / inputsPerRun;
-    final int leftover = length - runs * inputsPerRun;
-    OpenCL.devicePool.apply(device -> {
+    ConvolutionKernels.pool.apply(kernels -> {
+      @Nonnull final double[][] inputBuffers = obtain(length, inputsPerRun, inLength);
+      @Nonnull final double[][] outputBuffers = obtain(length, inputsPerRun, outLength);
+      @Nonnull final ConvolveKernel task = kernels.convolve(inputSize, kernelSize, getKernelOffset(), outputSize, weights);
       try {
-        synchronized (ConvolutionController.convolveTask) {
-          assert null != weights;
-          assert 0 < weights.length;
-          ConvolutionController.convolveTask.setExplicit(true);
-          ConvolutionController.convolveTask.weights = weights;
-          ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.weights);
-          ConvolutionController.convolveTask.kernelSize = kernelSize;
-          ConvolutionController.convolveTask.kernelOffset = new int[]{
-              null == paddingY ? (kernelSize[1] - 1) / 2 : paddingY,
-              null == paddingX ? (kernelSize[0] - 1) / 2 : paddingX
-          };
-          ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.kernelOffset);
-          ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.kernelSize);
-          @Nullable double[] inputBuffer = null;
-          @Nullable double[] outputBuffer = null;
-          for (int run = 0; run <= runs; run++) {
-            final int currentIndexOffset = run * inputsPerRun;
-            final int currentNumItems = run < runs ? inputsPerRun : leftover;
-            if (0 == currentNumItems) {
-              continue;
-            }
-            if (null == inputBuffer || inputBuffer.length != inLength * currentNumItems) {
-              if (null != inputBuffer) RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-              inputBuffer = RecycleBin.DOUBLES.obtain(inLength * currentNumItems);
-            }
-            if (null == outputBuffer || outputBuffer.length != outLength * currentNumItems) {
-              if (null != outputBuffer) RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
-              outputBuffer = RecycleBin.DOUBLES.obtain(outLength * currentNumItems);
-            }
-            for (int i = 0; i < currentNumItems; i++) {
-              assert inLength == input[currentIndexOffset + i].length;
-              System.arraycopy(input[currentIndexOffset + i], 0, inputBuffer, i * inLength, inLength);
-            }
-            assert 0 < inputBuffer.length;
-            assert 0 < outputBuffer.length;
-            ConvolutionController.convolveTask.input = inputBuffer;
-            ConvolutionController.convolveTask.output = outputBuffer;
-            ConvolutionController.convolveTask.outputSize = outputSize;
-            ConvolutionController.convolveTask.inputSize = inputSize;
-            ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.outputSize);
-            ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.inputSize);
-            ConvolutionController.convolveTask.put(ConvolutionController.convolveTask.input);
-            ConvolutionController.convolveTask.exe(device);
-            ConvolutionController.convolveTask.get(ConvolutionController.convolveTask.output);
-            ConvolutionController.convolveTask.input = null;
-            ConvolutionController.convolveTask.output = null;
-            ConvolutionController.convolveTask.outputSize = null;
-            ConvolutionController.convolveTask.inputSize = null;
-            for (int i = 0; i < currentNumItems; i++) {
-              assert outLength == output[currentIndexOffset + i].length;
-              System.arraycopy(outputBuffer, i * outLength, output[currentIndexOffset + i], 0, outLength);
-            }
-          }
-          RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-          RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
-          ConvolutionController.convolveTask.kernelSize = null;
-          ConvolutionController.convolveTask.weights = null;
-        }
+        pipeline(length, inputsPerRun,
+            (slot, offset, count) -> pack(input, offset, count, inputBuffers[slot], inLength),
+            (slot, offset, count) -> {
+              task.input = inputBuffers[slot];
+              task.output = outputBuffers[slot];
+              task.put(task.input);
+              task.exe(kernels.device);
+              task.get(task.output);
+            },
+            (slot, offset, count) -> unpack(outputBuffers[slot], output, offset, count, outLength));
       } catch (@Nonnull final Throwable e) {
         throw new ComponentException("Error apply " + this, e);
+      } finally {
+        task.input = null;
+        task.output = null;
+        recycle(inputBuffers);
+        recycle(outputBuffers);
       }
     });
   }
@@ -261,47 +258,6 @@ public final class ConvolutionController {
     return outputSize;
   }
 
-  private void gradient(@Nonnull final double[] input, @Nonnull final double[] weights, final int weightSize, @Nonnull final double[] output) {
-    assert 0 < input.length;
-    assert 0 < weights.length;
-    assert 0 < output.length;
-    OpenCL.devicePool.apply(device -> {
-      try {
-        synchronized (ConvolutionController.kernelTask) {
-          ConvolutionController.kernelTask.input = input;
-          ConvolutionController.kernelTask.weights = weights;
-          ConvolutionController.kernelTask.output = output;
-          ConvolutionController.kernelTask.outputSize = outputSize;
-          ConvolutionController.kernelTask.inputSize = inputSize;
-          ConvolutionController.kernelTask.kernelSize = kernelSize;
-          ConvolutionController.kernelTask.weightSize = weightSize;
-          ConvolutionController.kernelTask.paralellism = weights.length / weightSize;
-          ConvolutionController.kernelTask.kernelOffset = new int[]{
-              paddingY == null ? (kernelSize[1] - 1) / 2 : paddingY,
-              paddingX == null ? (kernelSize[0] - 1) / 2 : paddingX
-          };
-          ConvolutionController.kernelTask.setExplicit(true);
-          ConvolutionController.kernelTask.put(ConvolutionController.convolveTask.kernelOffset);
-          ConvolutionController.kernelTask.put(ConvolutionController.kernelTask.outputSize);
-          ConvolutionController.kernelTask.put(ConvolutionController.kernelTask.inputSize);
-          ConvolutionController.kernelTask.put(ConvolutionController.kernelTask.kernelSize);
-          ConvolutionController.kernelTask.put(ConvolutionController.kernelTask.input);
-          ConvolutionController.kernelTask.put(ConvolutionController.kernelTask.output);
-          ConvolutionController.kernelTask.exe(device);
-          ConvolutionController.kernelTask.get(ConvolutionController.kernelTask.weights);
-          ConvolutionController.kernelTask.input = null;
-          ConvolutionController.kernelTask.weights = null;
-          ConvolutionController.kernelTask.output = null;
-          ConvolutionController.kernelTask.outputSize = null;
-          ConvolutionController.kernelTask.inputSize = null;
-          ConvolutionController.kernelTask.kernelSize = null;
-        }
-      } catch (@Nonnull final Throwable e) {
-        throw new ComponentException("Error apply " + this, e);
-      }
-    });
-  }
-
   /**
    * Gradient.
    *
@@ -310,44 +266,53 @@ public final class ConvolutionController {
    * @param output  the output
    */
   public void gradient(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    if (OpenCL.cpuMode) {
+      new CpuConvolution(inputSize, kernelSize, getKernelOffset(), outputSize).gradient(input, weights, output);
+      return;
+    }
     final int length = input.length;
     assert length == output.length;
+    assert 0 < weights.length;
     final int inLength = input[0].length;
     final int outLength = output[0].length;
     final int inputsPerRun = Math.min(Math.floorDiv(ConvolutionController.MAX_BUFFER_SIZE, Math.max(inLength, outLength)), length);
-    final int runs = length / inputsPerRun;
-    final int leftover = length - runs * inputsPerRun;
-    @Nullable double[] inputBuffer = null;
-    @Nullable double[] outputBuffer = null;
-    for (int run = 0; run < runs; run++) {
-      final int currentIndexOffset = run * inputsPerRun;
-      final int currentNumItems = run < run - 1 ? inputsPerRun : leftover == 0 ? inputsPerRun : leftover;
-      if (null == inputBuffer || inputBuffer.length != inLength * currentNumItems) {
-        if (null != inputBuffer) RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-        inputBuffer = RecycleBin.DOUBLES.obtain(inLength * currentNumItems);
-      }
-      if (null == outputBuffer || outputBuffer.length != outLength * currentNumItems) {
-        if (null != outputBuffer) RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
-        outputBuffer = RecycleBin.DOUBLES.obtain(outLength * currentNumItems);
-      }
-      for (int i = 0; i < currentNumItems; i++) {
-        assert inLength == input[currentIndexOffset + i].length;
-        assert outLength == output[currentIndexOffset + i].length;
-        System.arraycopy(input[currentIndexOffset + i], 0, inputBuffer, i * inLength, inLength);
-        System.arraycopy(output[currentIndexOffset + i], 0, outputBuffer, i * outLength, outLength);
+    assert 0 < inputsPerRun : "Requested buffer is over max of " + ConvolutionController.MAX_BUFFER_SIZE;
+    final int parallelism = Math.min(16, inLength);
+    ConvolutionKernels.pool.apply(kernels -> {
+      @Nonnull final double[][] inputBuffers = obtain(length, inputsPerRun, inLength);
+      @Nonnull final double[][] outputBuffers = obtain(length, inputsPerRun, outLength);
+      @Nonnull final GradientKernel task = kernels.gradient(inputSize, kernelSize, getKernelOffset(), outputSize, weights.length, parallelism);
+      try {
+        pipeline(length, inputsPerRun,
+            (slot, offset, count) -> {
+              pack(input, offset, count, inputBuffers[slot], inLength);
+              pack(output, offset, count, outputBuffers[slot], outLength);
+            },
+            (slot, offset, count) -> {
+              task.input = inputBuffers[slot];
+              task.output = outputBuffers[slot];
+              task.put(task.input);
+              task.put(task.output);
+              task.exe(kernels.device);
+              task.get(task.weights);
+              final double[] buffer = task.weights;
+              for (int weightIndex = 0; weightIndex < weights.length; weightIndex++) {
+                for (int i = weightIndex; i < buffer.length; i += weights.length) {
+                  weights[weightIndex] += buffer[i];
+                }
+              }
+            },
+            (slot, offset, count) -> {
+            });
+      } catch (@Nonnull final Throwable e) {
+        throw new ComponentException("Error apply " + this, e);
+      } finally {
+        task.input = null;
+        task.output = null;
+        recycle(inputBuffers);
+        recycle(outputBuffers);
       }
-      final int parallelism = Math.min(16, inLength);
-      final double[] buffer = RecycleBin.DOUBLES.obtain(weights.length * parallelism);
-      gradient(inputBuffer, buffer, weights.length, outputBuffer);
-      IntStream.range(0, weights.length).forEach(weightIndex -> {
-        for (int i = weightIndex; i < buffer.length; i += weights.length) {
-          weights[weightIndex] += buffer[i];
-        }
-      });
-      RecycleBin.DOUBLES.recycle(buffer, buffer.length);
-    }
-    RecycleBin.DOUBLES.recycle(inputBuffer, inputBuffer.length);
-    RecycleBin.DOUBLES.recycle(outputBuffer, outputBuffer.length);
+    });
   }
 
   @Override
@@ -400,4 +365,8 @@ public final class ConvolutionController {
   public void setPaddingY(Integer paddingY) {
     this.paddingY = paddingY;
   }
+
+  private interface Stage {
+    void apply(int slot, int offset, int count);
+  }
 }
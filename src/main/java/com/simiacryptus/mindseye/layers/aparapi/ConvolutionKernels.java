@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.aparapi;
+
+import com.aparapi.Kernel;
+import com.aparapi.device.Device;
+import com.simiacryptus.lang.ResourcePool;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The convolution kernels owned by one pooled device. Each pool entry has its own kernel instances, so convolutions on
+ * different entries run concurrently, and the weights and geometry stay resident on the device between calls: they are
+ * only transferred again when their values change.
+ */
+final class ConvolutionKernels {
+
+  /**
+   * The pool, with one entry per pooled device.
+   */
+  static final ResourcePool<ConvolutionKernels> pool = new ResourcePool<ConvolutionKernels>(OpenCL.deviceCount) {
+    @Override
+    public ConvolutionKernels create() {
+      return new ConvolutionKernels(OpenCL.devicePool.apply(device -> device));
+    }
+  };
+
+  /**
+   * The device.
+   */
+  @Nonnull
+  final Device device;
+  private final ConvolveKernel convolve = new ConvolveKernel();
+  private final BackpropKernel backprop = new BackpropKernel();
+  private final GradientKernel gradient = new GradientKernel();
+
+  private ConvolutionKernels(@Nonnull final Device device) {
+    this.device = device;
+    convolve.setExplicit(true);
+    backprop.setExplicit(true);
+    gradient.setExplicit(true);
+  }
+
+  @Nonnull
+  private static int[] resident(@Nonnull final Kernel kernel, @Nullable final int[] current, @Nonnull final int[] values) {
+    if (null != current && Arrays.equals(current, values)) return current;
+    @Nonnull final int[] copy = values.clone();
+    kernel.put(copy);
+    return copy;
+  }
+
+  @Nonnull
+  private static double[] resident(@Nonnull final Kernel kernel, @Nullable final double[] current, @Nonnull final double[] values) {
+    if (null != current && current.length == values.length) {
+      if (Arrays.equals(current, values)) return current;
+      System.arraycopy(values, 0, current, 0, values.length);
+      kernel.put(current);
+      return current;
+    }
+    @Nonnull final double[] copy = values.clone();
+    kernel.put(copy);
+    return copy;
+  }
+
+  /**
+   * Gets the convolution kernel, uploading any weights or geometry that changed since the last call.
+   *
+   * @param inputSize    the input size
+   * @param kernelSize   the kernel size
+   * @param kernelOffset the kernel offset
+   * @param outputSize   the output size
+   * @param weights      the weights
+   * @return the convolve kernel
+   */
+  @Nonnull
+  ConvolveKernel convolve(@Nonnull final int[] inputSize, @Nonnull final int[] kernelSize, @Nonnull final int[] kernelOffset, @Nonnull final int[] outputSize, @Nonnull final double[] weights) {
+    convolve.inputSize = resident(convolve, convolve.inputSize, inputSize);
+    convolve.kernelSize = resident(convolve, convolve.kernelSize, kernelSize);
+    convolve.kernelOffset = resident(convolve, convolve.kernelOffset, kernelOffset);
+    convolve.outputSize = resident(convolve, convolve.outputSize, outputSize);
+    convolve.weights = resident(convolve, convolve.weights, weights);
+    return convolve;
+  }
+
+  /**
+   * Gets the backpropagation kernel, uploading any weights or geometry that changed since the last call.
+   *
+   * @param inputSize    the input size
+   * @param kernelSize   the kernel size
+   * @param kernelOffset the kernel offset
+   * @param outputSize   the output size
+   * @param weights      the weights
+   * @return the backprop kernel
+   */
+  @Nonnull
+  BackpropKernel backprop(@Nonnull final int[] inputSize, @Nonnull final int[] kernelSize, @Nonnull final int[] kernelOffset, @Nonnull final int[] outputSize, @Nonnull final double[] weights) {
+    backprop.inputSize = resident(backprop, backprop.inputSize, inputSize);
+    backprop.kernelSize = resident(backprop, backprop.kernelSize, kernelSize);
+    backprop.kernelOffset = resident(backprop, backprop.kernelOffset, kernelOffset);
+    backprop.outputSize = resident(backprop, backprop.outputSize, outputSize);
+    backprop.weights = resident(backprop, backprop.weights, weights);
+    return backprop;
+  }
+
+  /**
+   * Gets the weight gradient kernel, uploading any geometry that changed since the last call. Its weights are written
+   * by the kernel, so only their buffer is kept.
+   *
+   * @param inputSize    the input size
+   * @param kernelSize   the kernel size
+   * @param kernelOffset the kernel offset
+   * @param outputSize   the output size
+   * @param weightSize   the number of weights
+   * @param parallelism  the number of partial sums per weight
+   * @return the gradient kernel
+   */
+  @Nonnull
+  GradientKernel gradient(@Nonnull final int[] inputSize, @Nonnull final int[] kernelSize, @Nonnull final int[] kernelOffset, @Nonnull final int[] outputSize, final int weightSize, final int parallelism) {
+    gradient.inputSize = resident(gradient, gradient.inputSize, inputSize);
+    gradient.kernelSize = resident(gradient, gradient.kernelSize, kernelSize);
+    gradient.kernelOffset = resident(gradient, gradient.kernelOffset, kernelOffset);
+    gradient.outputSize = resident(gradient, gradient.outputSize, outputSize);
+    if (null == gradient.weights || gradient.weights.length != weightSize * parallelism) {
+      gradient.weights = new double[weightSize * parallelism];
+    }
+    gradient.weightSize = weightSize;
+    gradient.paralellism = parallelism;
+    return gradient;
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.aparapi;
+
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
+import com.simiacryptus.mindseye.lang.Settings;
+import com.simiacryptus.mindseye.lang.TuningTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates the same convolutions as {@link ConvolveKernel}, {@link BackpropKernel} and {@link GradientKernel} as
+ * blocked Java loops, for use without an OpenCL device. Work is split into tasks of a few batch items, one band and a
+ * tile of rows, and within a task each filter tap is applied to a whole row at a time, so the inner loops are
+ * contiguous and a tile's rows stay in cache across taps. The tile height and items per task default to values sized to
+ * the L2 cache and core count; if autotuning is enabled in {@link CoreSettings}, the first call for each shape instead
+ * times a set of candidates and records the fastest in a {@link TuningTable}, which can be persisted to a JSON file.
+ */
+public final class CpuConvolution {
+
+  /**
+   * The L2 cache size in bytes that default tile sizes target.
+   */
+  public static final int L2_CACHE = Settings.get("L2_CACHE", 256 * 1024);
+  private static final Logger log = LoggerFactory.getLogger(CpuConvolution.class);
+  private static final TuningTable<Tiling> tuningTable = new TuningTable<>("tilings", json -> {
+    final JsonObject tiling = json.getAsJsonObject();
+    return new Tiling(tiling.get("rows").getAsInt(), tiling.get("items").getAsInt());
+  }, tiling -> {
+    @Nonnull final JsonObject json = new JsonObject();
+    json.addProperty("rows", tiling.rows);
+    json.addProperty("items", tiling.items);
+    return json;
+  });
+
+  private final int[] inputSize;
+  private final int[] kernelSize;
+  private final int[] kernelOffset;
+  private final int[] outputSize;
+
+  /**
+   * Instantiates a new Cpu convolution.
+   *
+   * @param inputSize    the input size
+   * @param kernelSize   the kernel size
+   * @param kernelOffset the kernel offset
+   * @param outputSize   the output size
+   */
+  CpuConvolution(@Nonnull final int[] inputSize, @Nonnull final int[] kernelSize, @Nonnull final int[] kernelOffset, @Nonnull final int[] outputSize) {
+    this.inputSize = inputSize;
+    this.kernelSize = kernelSize;
+    this.kernelOffset = kernelOffset;
+    this.outputSize = outputSize;
+  }
+
+  /**
+   * Convolves a batch.
+   *
+   * @param input   the input
+   * @param weights the weights
+   * @param output  the output, which is overwritten
+   */
+  void convolve(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    convolve(input, weights, output, getTiling(input, weights));
+  }
+
+  /**
+   * Backpropagates a batch of output deltas to the input.
+   *
+   * @param input   the input delta, which is overwritten
+   * @param weights the weights
+   * @param output  the output delta
+   */
+  void backprop(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    final Tiling tiling = getTiling(null, weights);
+    final int iw = inputSize[0], ih = inputSize[1], ib = inputSize[2];
+    final int kw = kernelSize[0], kh = kernelSize[1];
+    final int ow = outputSize[0], oh = outputSize[1], ob = outputSize[2];
+    final int rows = Math.min(tiling.rows, ih);
+    final int tiles = (ih + rows - 1) / rows;
+    final int chunks = (input.length + tiling.items - 1) / tiling.items;
+    IntStream.range(0, chunks * ib * tiles).parallel().forEach(task -> {
+      final int y0 = task % tiles * rows;
+      final int y1 = Math.min(ih, y0 + rows);
+      final int i2 = task / tiles % ib;
+      final int chunk = task / (tiles * ib);
+      for (int item = chunk * tiling.items; item < Math.min(input.length, (chunk + 1) * tiling.items); item++) {
+        final double[] in = input[item];
+        final double[] out = output[item];
+        Arrays.fill(in, iw * (y0 + ih * i2), iw * (y1 + ih * i2), 0.0);
+        for (int o2 = 0; o2 < ob; o2++) {
+          final int k2 = o2 + i2 * ob;
+          for (int k1 = 0; k1 < kh; k1++) {
+            for (int k0 = 0; k0 < kw; k0++) {
+              final double w = weights[k0 + kw * (k1 + kh * k2)];
+              if (0. == w) continue;
+              final int shift = k0 - kernelOffset[0];
+              final int lo = Math.max(0, -shift);
+              final int hi = Math.min(iw, ow - shift);
+              for (int i1 = y0; i1 < y1; i1++) {
+                final int o1 = i1 + k1 - kernelOffset[1];
+                if (o1 < 0 || o1 >= oh) continue;
+                final int inBase = iw * (i1 + ih * i2);
+                final int outBase = ow * (o1 + oh * o2) + shift;
+                for (int i0 = lo; i0 < hi; i0++) {
+                  in[inBase + i0] += w * out[outBase + i0];
+                }
+              }
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds the weight gradient of a batch.
+   *
+   * @param input   the input
+   * @param weights the weight gradient, which is added to
+   * @param output  the output delta
+   */
+  void gradient(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output) {
+    final Tiling tiling = getTiling(null, weights);
+    final int iw = inputSize[0], ih = inputSize[1], ib = inputSize[2];
+    final int kw = kernelSize[0], kh = kernelSize[1], kb = kernelSize[2];
+    final int ow = outputSize[0], oh = outputSize[1], ob = outputSize[2];
+    final int taps = kw * kh;
+    final int rows = Math.min(tiling.rows, ih);
+    final int chunks = (input.length + tiling.items - 1) / tiling.items;
+    final double[][] partials = new double[chunks * kb][];
+    IntStream.range(0, chunks * kb).parallel().forEach(task -> {
+      final int k2 = task % kb;
+      final int chunk = task / kb;
+      final int i2 = k2 / ob;
+      final int o2 = k2 % ob;
+      final double[] partial = new double[taps];
+      for (int item = chunk * tiling.items; item < Math.min(input.length, (chunk + 1) * tiling.items); item++) {
+        final double[] in = input[item];
+        final double[] out = output[item];
+        for (int y0 = 0; y0 < ih; y0 += rows) {
+          final int y1 = Math.min(ih, y0 + rows);
+          for (int k1 = 0; k1 < kh; k1++) {
+            for (int k0 = 0; k0 < kw; k0++) {
+              final int shift = k0 - kernelOffset[0];
+              final int lo = Math.max(0, -shift);
+              final int hi = Math.min(iw, ow - shift);
+              double sum = 0;
+              for (int i1 = y0; i1 < y1; i1++) {
+                final int o1 = i1 + k1 - kernelOffset[1];
+                if (o1 < 0 || o1 >= oh) continue;
+                final int inBase = iw * (i1 + ih * i2);
+                final int outBase = ow * (o1 + oh * o2) + shift;
+                for (int i0 = lo; i0 < hi; i0++) {
+                  sum += in[inBase + i0] * out[outBase + i0];
+                }
+              }
+              partial[k0 + kw * k1] += sum;
+            }
+          }
+        }
+      }
+      partials[task] = partial;
+    });
+    for (int task = 0; task < partials.length; task++) {
+      final int offset = taps * (task % kb);
+      for (int tap = 0; tap < taps; tap++) weights[offset + tap] += partials[task][tap];
+    }
+  }
+
+  private void convolve(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output, @Nonnull final Tiling tiling) {
+    final int iw = inputSize[0], ih = inputSize[1], ib = inputSize[2];
+    final int kw = kernelSize[0], kh = kernelSize[1];
+    final int ow = outputSize[0], oh = outputSize[1], ob = outputSize[2];
+    final int rows = Math.min(tiling.rows, oh);
+    final int tiles = (oh + rows - 1) / rows;
+    final int chunks = (input.length + tiling.items - 1) / tiling.items;
+    IntStream.range(0, chunks * ob * tiles).parallel().forEach(task -> {
+      final int y0 = task % tiles * rows;
+      final int y1 = Math.min(oh, y0 + rows);
+      final int o2 = task / tiles % ob;
+      final int chunk = task / (tiles * ob);
+      for (int item = chunk * tiling.items; item < Math.min(input.length, (chunk + 1) * tiling.items); item++) {
+        final double[] in = input[item];
+        final double[] out = output[item];
+        Arrays.fill(out, ow * (y0 + oh * o2), ow * (y1 + oh * o2), 0.0);
+        for (int i2 = 0; i2 < ib; i2++) {
+          final int k2 = o2 + i2 * ob;
+          for (int k1 = 0; k1 < kh; k1++) {
+            for (int k0 = 0; k0 < kw; k0++) {
+              final double w = weights[k0 + kw * (k1 + kh * k2)];
+              if (0. == w) continue;
+              final int shift = kernelOffset[0] - k0;
+              final int lo = Math.max(0, -shift);
+              final int hi = Math.min(ow, iw - shift);
+              for (int o1 = y0; o1 < y1; o1++) {
+                final int i1 = o1 - k1 + kernelOffset[1];
+                if (i1 < 0 || i1 >= ih) continue;
+                final int outBase = ow * (o1 + oh * o2);
+                final int inBase = iw * (i1 + ih * i2) + shift;
+                for (int o0 = lo; o0 < hi; o0++) {
+                  out[outBase + o0] += w * in[inBase + o0];
+                }
+              }
+            }
+          }
+        }
+      }
+    });
+  }
+
+  @Nonnull
+  String getKey() {
+    return Arrays.toString(inputSize) + " x " + Arrays.toString(kernelSize) + " @ " + Arrays.toString(kernelOffset) + " => " + Arrays.toString(outputSize);
+  }
+
+  /**
+   * Gets the tiling for this shape, autotuning it on the given batch if enabled and none is recorded yet.
+   */
+  @Nonnull
+  private Tiling getTiling(@Nullable final double[][] sample, @Nonnull final double[] weights) {
+    final String key = getKey();
+    final Tiling tuned = tuningTable.get(key);
+    if (null != tuned) return tuned;
+    if (null == sample || 0 == sample.length || !CoreSettings.INSTANCE().isConvolutionAutotune()) return getDefault();
+    final Tiling fastest = autotune(sample, weights);
+    tuningTable.put(key, fastest);
+    return fastest;
+  }
+
+  /**
+   * Gets the tiling chosen by shape alone: tiles of rows whose input and output rows fit in half of the L2 cache, small
+   * enough that a single image gives every core a task, with items grouped until a task does at least 64k
+   * multiply-adds.
+   *
+   * @return the default
+   */
+  @Nonnull
+  Tiling getDefault() {
+    final int rowBytes = 8 * (inputSize[0] + outputSize[0]);
+    final int cacheRows = (L2_CACHE / 2) / rowBytes - kernelSize[1] + 1;
+    final int coreRows = outputSize[1] * outputSize[2] / Runtime.getRuntime().availableProcessors();
+    final int rows = Math.max(1, Math.min(outputSize[1], Math.min(cacheRows, coreRows)));
+    final long work = (long) rows * outputSize[0] * kernelSize[0] * kernelSize[1] * inputSize[2];
+    final int items = (int) Math.max(1, Math.min(16, (64 * 1024) / Math.max(1, work)));
+    return new Tiling(rows, items);
+  }
+
+  @Nonnull
+  private Tiling autotune(@Nonnull final double[][] input, @Nonnull final double[] weights) {
+    final double[][] output = new double[input.length][outputSize[0] * outputSize[1] * outputSize[2]];
+    Tiling fastest = getDefault();
+    long fastestNanos = time(input, weights, output, fastest);
+    for (final int rows : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+      if (rows >= outputSize[1] * 2) break;
+      final Tiling candidate = new Tiling(rows, fastest.items);
+      final long nanos = time(input, weights, output, candidate);
+      if (nanos < fastestNanos) {
+        fastestNanos = nanos;
+        fastest = candidate;
+      }
+    }
+    for (final int items : new int[]{1, 2, 4, 8, 16}) {
+      if (items > input.length) break;
+      final Tiling candidate = new Tiling(fastest.rows, items);
+      final long nanos = time(input, weights, output, candidate);
+      if (nanos < fastestNanos) {
+        fastestNanos = nanos;
+        fastest = candidate;
+      }
+    }
+    log.info(String.format("Selected %s for convolution %s (%.3fms)", fastest, getKey(), fastestNanos / 1e6));
+    return fastest;
+  }
+
+  private long time(@Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] output, @Nonnull final Tiling tiling) {
+    long nanos = Long.MAX_VALUE;
+    for (int trial = 0; trial < 3; trial++) {
+      final long start = System.nanoTime();
+      convolve(input, weights, output, tiling);
+      nanos = Math.min(nanos, System.nanoTime() - start);
+    }
+    return nanos;
+  }
+
+  /**
+   * Gets the tuning table, keyed by convolution shape.
+   *
+   * @return the tuning table
+   */
+  @Nonnull
+  public static TuningTable<Tiling> getTuningTable() {
+    return tuningTable;
+  }
+
+  /**
+   * The work split of a CPU convolution.
+   */
+  public static final class Tiling {
+    /**
+     * The number of rows per tile.
+     */
+    public final int rows;
+    /**
+     * The number of batch items per task.
+     */
+    public final int items;
+
+    /**
+     * Instantiates a new Tiling.
+     *
+     * @param rows  the rows
+     * @param items the items
+     */
+    public Tiling(final int rows, final int items) {
+      this.rows = rows;
+      this.items = items;
+    }
+
+    @Override
+    public String toString() {
+      return "Tiling{rows=" + rows + ", items=" + items + '}';
+    }
+  }
+}
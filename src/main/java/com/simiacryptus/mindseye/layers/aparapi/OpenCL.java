@@ -20,21 +20,47 @@
 package com.simiacryptus.mindseye.layers.aparapi;
 
 import com.aparapi.device.Device;
+import com.aparapi.device.OpenCLDevice;
 import com.aparapi.internal.kernel.KernelManager;
 import com.simiacryptus.lang.ResourcePool;
+import com.simiacryptus.mindseye.lang.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
 
 /**
  * The type Open cl.
  */
 public final class OpenCL {
 
+  private static final Logger log = LoggerFactory.getLogger(OpenCL.class);
+
+  /**
+   * The number of pooled devices, set by the num_gpus system property.
+   */
+  public static final int deviceCount = Integer.parseInt(System.getProperty("num_gpus", "1"));
   /**
    * The constant devicePool.
    */
-  public static final ResourcePool<Device> devicePool = new ResourcePool<Device>(Integer.parseInt(System.getProperty("num_gpus", "1"))) {
+  public static final ResourcePool<Device> devicePool = new ResourcePool<Device>(deviceCount) {
     @Override
     public Device create() {
       return KernelManager.instance().bestDevice();
     }
   };
-}
\ No newline at end of file
+  /**
+   * Whether convolutions run as blocked Java loops (see {@link CpuConvolution}) rather than as Aparapi kernels. Defaults
+   * to true when no OpenCL device is available, where Aparapi would fall back to its thread-pool emulation.
+   */
+  public static volatile boolean cpuMode = Settings.get("APARAPI_CPU", !hasOpenCLDevice());
+
+  private static boolean hasOpenCLDevice() {
+    try {
+      return KernelManager.instance().bestDevice() instanceof OpenCLDevice;
+    } catch (@Nonnull final Throwable e) {
+      log.info("Aparapi is unavailable: " + e);
+      return false;
+    }
+  }
+}
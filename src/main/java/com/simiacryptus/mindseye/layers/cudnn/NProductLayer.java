@@ -23,7 +23,6 @@ import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.mindseye.lang.cudnn.*;
 import com.simiacryptus.mindseye.layers.java.ProductInputsLayer;
-import jcuda.jcudnn.JCudnn;
 import jcuda.jcudnn.cudnnOpTensorDescriptor;
 import jcuda.jcudnn.cudnnOpTensorOp;
 
@@ -117,7 +116,7 @@ public class NProductLayer extends LayerBase implements MultiPrecision<NProductL
         @Nonnull final CudaMemory outputPtr = gpu.allocate((long) outputDescriptor.nStride * length * precision.size, MemoryType.Device, true);
         CudaMemory lPtrMemory = lPtr.getMemory(gpu);
         CudaMemory rPtrMemory = rPtr.getMemory(gpu);
-        CudaSystem.handle(JCudnn.cudnnOpTensor(gpu.handle, opDescriptor.getPtr(),
+        CudaSystem.handle(CudaSystem.backend.cudnnOpTensor(gpu.handle, opDescriptor.getPtr(),
             precision.getPointer(1.0), lPtr.descriptor.getPtr(), lPtrMemory.getPtr(),
             precision.getPointer(1.0), rPtr.descriptor.getPtr(), rPtrMemory.getPtr(),
             precision.getPointer(0.0), outputDescriptor.getPtr(), outputPtr.getPtr()));
@@ -152,7 +151,7 @@ public class NProductLayer extends LayerBase implements MultiPrecision<NProductL
               @Nonnull final CudaMemory outputPtr = gpu.allocate((long) outputDescriptor.nStride * length * precision.size, MemoryType.Device, true);
               CudaMemory lPtrMemory = lPtr.getMemory(gpu);
               CudaMemory rPtrMemory = rPtr.getMemory(gpu);
-              CudaSystem.handle(JCudnn.cudnnOpTensor(gpu.handle, opDescriptor.getPtr(),
+              CudaSystem.handle(CudaSystem.backend.cudnnOpTensor(gpu.handle, opDescriptor.getPtr(),
                   precision.getPointer(1.0), lPtr.descriptor.getPtr(), lPtrMemory.getPtr(),
                   precision.getPointer(1.0), rPtr.descriptor.getPtr(), rPtrMemory.getPtr(),
                   precision.getPointer(0.0), outputDescriptor.getPtr(), outputPtr.getPtr()));
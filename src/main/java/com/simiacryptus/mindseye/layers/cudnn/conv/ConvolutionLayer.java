@@ -173,7 +173,10 @@ public class ConvolutionLayer extends LayerBase implements MultiPrecision<Convol
    */
   @Nonnull
   public Layer getCompatibilityLayer() {
-    return this.as(com.simiacryptus.mindseye.layers.aparapi.ConvolutionLayer.class);
+    return new com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer(getId(), getName(), kernel, inputBands, outputBands)
+        .setStrideX(strideX).setStrideY(strideY)
+        .setPaddingX(paddingX).setPaddingY(paddingY)
+        .setFrozen(isFrozen());
   }
 
   /**
@@ -226,12 +229,19 @@ public class ConvolutionLayer extends LayerBase implements MultiPrecision<Convol
   @Override
   public Result evalAndFree(@Nonnull final Result... inObj) {
     final Tensor kernel = getKernel();
-    kernel.addRef();
     assert kernel.isValid();
     assert 1 == inObj.length;
     assert 3 == inObj[0].getData().getDimensions().length;
     assert inputBands == inObj[0].getData().getDimensions()[2] : Arrays.toString(inObj[0].getData().getDimensions()) + "[2] != " + inputBands;
-    if (!CudaSystem.isEnabled()) return getCompatibilityLayer().evalAndFree(inObj);
+    if (!CudaSystem.isEnabled()) {
+      final Layer compatibilityLayer = getCompatibilityLayer();
+      try {
+        return compatibilityLayer.evalAndFree(inObj);
+      } finally {
+        compatibilityLayer.freeRef();
+      }
+    }
+    kernel.addRef();
     @Nonnull ExplodedConvolutionGrid grid = getExplodedNetwork();
     @Nonnull PipelineNetwork network = grid.getNetwork();
     final Result result;
@@ -277,6 +287,30 @@ public class ConvolutionLayer extends LayerBase implements MultiPrecision<Convol
     };
   }
 
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    assert 1 == inObj.length;
+    assert 3 == inObj[0].getData().getDimensions().length;
+    assert inputBands == inObj[0].getData().getDimensions()[2] : Arrays.toString(inObj[0].getData().getDimensions()) + "[2] != " + inputBands;
+    if (!CudaSystem.isEnabled()) {
+      final Layer compatibilityLayer = getCompatibilityLayer();
+      try {
+        return compatibilityLayer.evalInferenceAndFree(inObj);
+      } finally {
+        compatibilityLayer.freeRef();
+      }
+    }
+    @Nonnull ExplodedConvolutionGrid grid = getExplodedNetwork();
+    @Nonnull PipelineNetwork network = grid.getNetwork();
+    try {
+      return network.evalInferenceAndFree(inObj);
+    } finally {
+      network.freeRef();
+      grid.freeRef();
+    }
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
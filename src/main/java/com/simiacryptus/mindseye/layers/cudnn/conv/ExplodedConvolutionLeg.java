@@ -227,7 +227,7 @@ class ExplodedConvolutionLeg extends ReferenceCountingBase {
   @Nonnull
   public Tensor read(@Nonnull DeltaSet<UUID> deltaSet, boolean remove) {
     return read((sublayer) -> {
-      final Delta<UUID> subnetDelta = remove ? deltaSet.getMap().remove(sublayer) : deltaSet.getMap().get(sublayer.getId());
+      final Delta<UUID> subnetDelta = remove ? deltaSet.getMap().remove(sublayer.getId()) : deltaSet.getMap().get(sublayer.getId());
       if (null == subnetDelta) throw new RuntimeException("No Delta for " + sublayer);
       double[] delta = subnetDelta.getDelta();
       return new Tensor(delta, sublayer.kernel.getDimensions());
@@ -267,7 +267,11 @@ class ExplodedConvolutionLeg extends ReferenceCountingBase {
               .setMaxBands(this.convolutionParams.outputBands)
               .setPrecision(this.convolutionParams.precision)
               .setParallel(CudaSettings.INSTANCE().isConv_para_2()),
-          subLayers.stream().map(l -> network.add(l, input)).toArray(i -> new DAGNode[i])).setParallel(CudaSettings.INSTANCE().isConv_para_2());
+          subLayers.stream().map(l -> {
+            input.addRef();
+            return network.add(l, input);
+          }).toArray(i -> new DAGNode[i])).setParallel(CudaSettings.INSTANCE().isConv_para_2());
+      input.freeRef();
     }
     return head;
   }
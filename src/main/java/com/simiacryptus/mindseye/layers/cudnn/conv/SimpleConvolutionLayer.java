@@ -484,7 +484,10 @@ public class SimpleConvolutionLayer extends LayerBase implements MultiPrecision<
   public Layer getCompatibilityLayer() {
     log.info(String.format("Using compatibility key for %s", this));
     int bands = (int) Math.sqrt(this.kernel.getDimensions()[2]);
-    @Nonnull final com.simiacryptus.mindseye.layers.aparapi.ConvolutionLayer convolutionLayer = new com.simiacryptus.mindseye.layers.aparapi.ConvolutionLayer(this.kernel.getDimensions()[0], this.kernel.getDimensions()[1], this.kernel.getDimensions()[2], true);
+    @Nonnull final int[] kernelDims = this.kernel.getDimensions();
+    @Nonnull final com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer convolutionLayer = new com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer(kernelDims[0], kernelDims[1], bands, bands)
+        .setStrideX(strideX).setStrideY(strideY)
+        .setPaddingX(paddingX - (kernelDims[0] - 1) / 2).setPaddingY(paddingY - (kernelDims[1] - 1) / 2);
     @Nonnull final Tensor tensor = new Tensor(kernel.getDimensions());
     tensor.setByCoord(c -> {
       final int band = c.getCoords()[2];
@@ -494,7 +497,8 @@ public class SimpleConvolutionLayer extends LayerBase implements MultiPrecision<
       final int bandT = bandY + bandX * bands;
       return kernel.get(c.getCoords()[0], c.getCoords()[1], bandT);
     });
-    convolutionLayer.kernel.set(tensor);
+    convolutionLayer.getKernel().set(tensor);
+    tensor.freeRef();
     return new LayerBase() {
       @Nonnull
       @Override
@@ -30,8 +30,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.ToDoubleFunction;
-import java.util.stream.IntStream;
 
 /**
  * Computes the average value for each element across all elements of an execution batch. The output batch size will
@@ -95,18 +93,7 @@ public class AvgMetaLayer extends LayerBase {
     @Nullable Tensor thisResult;
     boolean passback;
     if (null == lastResult || inputData.length() > minBatchCount) {
-      @Nonnull final ToDoubleFunction<Coordinate> f = (c) ->
-          IntStream.range(0, itemCnt)
-              .mapToDouble(dataIndex -> {
-                Tensor tensor = inputData.get(dataIndex);
-                double v = tensor.get(c);
-                tensor.freeRef();
-                return v;
-              })
-              .sum() / itemCnt;
-      Tensor tensor = inputData.get(0);
-      thisResult = tensor.mapCoords(f);
-      tensor.freeRef();
+      thisResult = new Tensor(BatchMoments.compute(inputData).getMean(), inputData.getDimensions());
       passback = true;
       if (null != lastResult) lastResult.freeRef();
       lastResult = thisResult;
@@ -114,18 +101,15 @@ public class AvgMetaLayer extends LayerBase {
     } else {
       passback = false;
       thisResult = lastResult;
-      thisResult.freeRef();
+      thisResult.addRef();
     }
     return new Result(TensorArray.create(thisResult), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (passback && input.isAlive()) {
         @Nullable final Tensor delta = data.get(0);
+        @Nonnull final double[] scaled = delta.getData().clone();
+        for (int i = 0; i < scaled.length; i++) scaled[i] /= itemCnt;
         @Nonnull final Tensor feedback[] = new Tensor[itemCnt];
-        Arrays.parallelSetAll(feedback, i -> new Tensor(delta.getDimensions()));
-        thisResult.coordStream(true).forEach((inputCoord) -> {
-          for (int inputItem = 0; inputItem < itemCnt; inputItem++) {
-            feedback[inputItem].add(inputCoord, delta.get(inputCoord) / itemCnt);
-          }
-        });
+        Arrays.parallelSetAll(feedback, i -> new Tensor(scaled, delta.getDimensions()));
         delta.freeRef();
         @Nonnull TensorArray tensorArray = TensorArray.wrap(feedback);
         input.accumulate(buffer, tensorArray);
@@ -19,9 +19,6 @@
 
 package com.simiacryptus.mindseye.layers.java;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.util.JsonUtil;
@@ -33,26 +30,22 @@ import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
- * A local-pooling key which sets all elements to the average value.
+ * A local-pooling key which sets all elements to the average value. Padding is excluded from the average.
  */
 @SuppressWarnings("serial")
 public class AvgPoolingLayer extends LayerBase {
 
-  /**
-   * The constant indexMapCache.
-   */
-  public static final LoadingCache<AvgPoolingLayer.IndexMapKey, Map<Coordinate, List<int[]>>> indexMapCache = CacheBuilder.newBuilder()
-      .build(new LayerCacheLoader());
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(AvgPoolingLayer.class);
   private int[] kernelDims;
+  @Nullable
+  private int[] strides = null;
+  @Nullable
+  private int[] paddings = null;
 
 
   /**
@@ -84,44 +77,48 @@ public class AvgPoolingLayer extends LayerBase {
   }
 
   /**
-   * From json avg subsample key.
+   * From json avg subsample key. Also accepts the json of the cudnn PoolingLayer.
    *
    * @param json the json
    * @param rs   the rs
    * @return the avg subsample key
    */
   public static AvgPoolingLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
-    return new AvgPoolingLayer(json,
-        JsonUtil.getIntArray(json.getAsJsonArray("heapCopy")));
-  }
-
-  private static synchronized Map<Coordinate, List<int[]>> getCoordMap(final int[] kernelDims, final int[] outDims) {
-    try {
-      return AvgPoolingLayer.indexMapCache.get(new AvgPoolingLayer.IndexMapKey(kernelDims, outDims));
-    } catch (@Nonnull final ExecutionException e) {
-      throw new RuntimeException(e);
+    if (!json.has("heapCopy")) {
+      return new AvgPoolingLayer(json, json.get("windowX").getAsInt(), json.get("windowY").getAsInt(), 1)
+          .setStrides(json.get("strideX").getAsInt(), json.get("strideY").getAsInt(), 1)
+          .setPaddings(json.get("paddingX").getAsInt(), json.get("paddingY").getAsInt(), 0);
     }
+    @Nonnull final AvgPoolingLayer layer = new AvgPoolingLayer(json, JsonUtil.getIntArray(json.getAsJsonArray("heapCopy")));
+    if (json.has("strides")) layer.setStrides(JsonUtil.getIntArray(json.getAsJsonArray("strides")));
+    if (json.has("paddings")) layer.setPaddings(JsonUtil.getIntArray(json.getAsJsonArray("paddings")));
+    return layer;
   }
 
   @Nonnull
-  @SuppressWarnings("unchecked")
   @Override
   public Result eval(@Nonnull final Result... inObj) {
-    final int kernelSize = Tensor.length(kernelDims);
     final TensorList data = inObj[0].getData();
     @Nonnull final int[] inputDims = data.getDimensions();
-    final int[] newDims = IntStream.range(0, inputDims.length).map(i -> {
-      assert 0 == inputDims[i] % kernelDims[i] : inputDims[i] + ":" + kernelDims[i];
-      return inputDims[i] / kernelDims[i];
-    }).toArray();
-    final Map<Coordinate, List<int[]>> coordMap = AvgPoolingLayer.getCoordMap(kernelDims, newDims);
-    final Tensor[] outputValues = IntStream.range(0, data.length()).mapToObj(dataIndex -> {
+    final PoolingRegions regions = PoolingRegions.get(inputDims, kernelDims, strides, paddings);
+    final int window = regions.window;
+    final int[] indices = regions.indices;
+    final Tensor[] outputValues = IntStream.range(0, data.length()).parallel().mapToObj(dataIndex -> {
       @Nullable final Tensor input = data.get(dataIndex);
-      @Nonnull final Tensor output = new Tensor(newDims);
-      for (@Nonnull final Entry<Coordinate, List<int[]>> entry : coordMap.entrySet()) {
-        double sum = entry.getValue().stream().mapToDouble(inputCoord -> input.get(inputCoord)).sum();
-        if (Double.isFinite(sum)) {
-          output.add(entry.getKey(), sum / kernelSize);
+      final double[] inputData = input.getData();
+      @Nonnull final Tensor output = new Tensor(regions.outputDims);
+      final double[] outputData = output.getData();
+      for (int outputIndex = 0; outputIndex < outputData.length; outputIndex++) {
+        double sum = 0;
+        int count = 0;
+        for (int position = outputIndex * window; position < (outputIndex + 1) * window; position++) {
+          final int inputIndex = indices[position];
+          if (inputIndex < 0) continue;
+          sum += inputData[inputIndex];
+          count++;
+        }
+        if (0 < count && Double.isFinite(sum)) {
+          outputData[outputIndex] = sum / count;
         }
       }
       input.freeRef();
@@ -130,13 +127,22 @@ public class AvgPoolingLayer extends LayerBase {
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
     return new Result(TensorArray.wrap(outputValues), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (inObj[0].isAlive()) {
-        final Tensor[] passback = IntStream.range(0, delta.length()).mapToObj(dataIndex -> {
+        final Tensor[] passback = IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
           @Nullable Tensor tensor = delta.get(dataIndex);
+          final double[] deltaData = tensor.getData();
           @Nonnull final Tensor backSignal = new Tensor(inputDims);
-          for (@Nonnull final Entry<Coordinate, List<int[]>> outputMapping : coordMap.entrySet()) {
-            final double outputValue = tensor.get(outputMapping.getKey());
-            for (@Nonnull final int[] inputCoord : outputMapping.getValue()) {
-              backSignal.add(inputCoord, outputValue / kernelSize);
+          final double[] backSignalData = backSignal.getData();
+          for (int outputIndex = 0; outputIndex < deltaData.length; outputIndex++) {
+            final int start = outputIndex * window;
+            int count = 0;
+            for (int position = start; position < start + window; position++) {
+              if (indices[position] >= 0) count++;
+            }
+            if (0 == count) continue;
+            final double value = deltaData[outputIndex] / count;
+            for (int position = start; position < start + window; position++) {
+              final int inputIndex = indices[position];
+              if (inputIndex >= 0) backSignalData[inputIndex] += value;
             }
           }
           tensor.freeRef();
@@ -164,6 +170,8 @@ public class AvgPoolingLayer extends LayerBase {
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
     @Nonnull final JsonObject json = super.getJsonStub();
     json.add("heapCopy", JsonUtil.getJson(kernelDims));
+    if (null != strides) json.add("strides", JsonUtil.getJson(strides));
+    if (null != paddings) json.add("paddings", JsonUtil.getJson(paddings));
     return json;
   }
 
@@ -174,91 +182,47 @@ public class AvgPoolingLayer extends LayerBase {
   }
 
   /**
-   * The type Index buildMap key.
+   * Gets strides. If null, the windows do not overlap and cover the whole input, the last window being shifted back
+   * inside the input when the size is not a multiple of the kernel.
+   *
+   * @return the strides
    */
-  public static final class IndexMapKey {
-    /**
-     * The Kernel.
-     */
-    int[] kernel;
-    /**
-     * The Output.
-     */
-    int[] output;
-
-    /**
-     * Instantiates a new Index buildMap key.
-     *
-     * @param kernel the kernel
-     * @param output the output
-     */
-    public IndexMapKey(final int[] kernel, final int[] output) {
-      super();
-      this.kernel = kernel;
-      this.output = output;
-    }
-
-    /**
-     * Instantiates a new Index buildMap key.
-     *
-     * @param kernel the kernel
-     * @param input  the input
-     * @param output the output
-     */
-    public IndexMapKey(@Nonnull final Tensor kernel, final Tensor input, @Nonnull final Tensor output) {
-      super();
-      this.kernel = kernel.getDimensions();
-      this.output = output.getDimensions();
-    }
+  @Nullable
+  public int[] getStrides() {
+    return strides;
+  }
 
-    @Override
-    public boolean equals(@Nullable final Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      @Nullable final AvgPoolingLayer.IndexMapKey other = (AvgPoolingLayer.IndexMapKey) obj;
-      if (!Arrays.equals(kernel, other.kernel)) {
-        return false;
-      }
-      return Arrays.equals(output, other.output);
-    }
+  /**
+   * Sets strides.
+   *
+   * @param strides the strides
+   * @return the strides
+   */
+  @Nonnull
+  public AvgPoolingLayer setStrides(@Nullable final int... strides) {
+    this.strides = null == strides ? null : Arrays.copyOf(strides, strides.length);
+    return this;
+  }
 
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + Arrays.hashCode(kernel);
-      result = prime * result + Arrays.hashCode(output);
-      return result;
-    }
+  /**
+   * Gets paddings, which are applied to both edges of each dimension when strides are set.
+   *
+   * @return the paddings
+   */
+  @Nullable
+  public int[] getPaddings() {
+    return paddings;
   }
 
-  private static class LayerCacheLoader extends CacheLoader<IndexMapKey, Map<Coordinate, List<int[]>>> {
-    @Override
-    public Map<Coordinate, List<int[]>> load(final IndexMapKey key) {
-      final int[] ksize = key.kernel;
-      Tensor tensor = new Tensor(key.output);
-      final Map<Coordinate, List<int[]>> coordMap = tensor.coordStream(true).collect(Collectors.toMap(o -> o, o -> {
-        @Nonnull Tensor blank = new Tensor(ksize);
-        List<int[]> collect = blank.coordStream(true).map(kernelCoord -> {
-          int[] coords = o.getCoords();
-          @Nonnull final int[] r = new int[coords.length];
-          for (int i = 0; i < coords.length; i++) {
-            r[i] = coords[i] * ksize[i] + kernelCoord.getCoords()[i];
-          }
-          return r;
-        }).collect(Collectors.toList());
-        blank.freeRef();
-        return collect;
-      }));
-      tensor.freeRef();
-      return coordMap;
-    }
+  /**
+   * Sets paddings.
+   *
+   * @param paddings the paddings
+   * @return the paddings
+   */
+  @Nonnull
+  public AvgPoolingLayer setPaddings(@Nullable final int... paddings) {
+    this.paddings = null == paddings ? null : Arrays.copyOf(paddings, paddings.length);
+    return this;
   }
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+
+import javax.annotation.Nonnull;
+import java.util.stream.IntStream;
+
+/**
+ * Per-element mean and variance of an execution batch, computed in a single pass with Welford's update. The batch is
+ * split into chunks which are reduced in parallel and merged pairwise (Chan et al.), so the result is numerically
+ * stable regardless of the batch size or the magnitude of the values.
+ */
+public final class BatchMoments {
+
+  /**
+   * The number of samples reduced sequentially before merging.
+   */
+  static final int CHUNK = 16;
+
+  private final int count;
+  @Nonnull
+  private final double[] mean;
+  @Nonnull
+  private final double[] m2;
+
+  private BatchMoments(final int count, @Nonnull final double[] mean, @Nonnull final double[] m2) {
+    this.count = count;
+    this.mean = mean;
+    this.m2 = m2;
+  }
+
+  /**
+   * Computes the moments of each element across a batch.
+   *
+   * @param data the data
+   * @return the batch moments
+   */
+  @Nonnull
+  public static BatchMoments compute(@Nonnull final TensorList data) {
+    final int items = data.length();
+    if (0 == items) throw new IllegalArgumentException("Empty batch");
+    final int length = Tensor.length(data.getDimensions());
+    return IntStream.range(0, (items + CHUNK - 1) / CHUNK).parallel().mapToObj(chunk -> {
+      final double[] mean = new double[length];
+      final double[] m2 = new double[length];
+      final int end = Math.min(items, (chunk + 1) * CHUNK);
+      int n = 0;
+      for (int i = chunk * CHUNK; i < end; i++) {
+        final Tensor tensor = data.get(i);
+        final double[] values = tensor.getData();
+        n++;
+        for (int j = 0; j < length; j++) {
+          final double delta = values[j] - mean[j];
+          mean[j] += delta / n;
+          m2[j] += delta * (values[j] - mean[j]);
+        }
+        tensor.freeRef();
+      }
+      return new BatchMoments(n, mean, m2);
+    }).reduce(BatchMoments::merge).get();
+  }
+
+  /**
+   * Merges the moments of two disjoint batches.
+   *
+   * @param left  the left
+   * @param right the right
+   * @return the batch moments
+   */
+  @Nonnull
+  public static BatchMoments merge(@Nonnull final BatchMoments left, @Nonnull final BatchMoments right) {
+    final int count = left.count + right.count;
+    final double weight = (double) right.count / count;
+    final double cross = (double) left.count * right.count / count;
+    final double[] mean = new double[left.mean.length];
+    final double[] m2 = new double[left.mean.length];
+    for (int j = 0; j < mean.length; j++) {
+      final double delta = right.mean[j] - left.mean[j];
+      mean[j] = left.mean[j] + delta * weight;
+      m2[j] = left.m2[j] + right.m2[j] + delta * delta * cross;
+    }
+    return new BatchMoments(count, mean, m2);
+  }
+
+  /**
+   * Gets the number of samples.
+   *
+   * @return the count
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the mean of each element. The returned array is owned by this instance.
+   *
+   * @return the double [ ]
+   */
+  @Nonnull
+  public double[] getMean() {
+    return mean;
+  }
+
+  /**
+   * Gets the sum of each element.
+   *
+   * @return the double [ ]
+   */
+  @Nonnull
+  public double[] getSum() {
+    final double[] sum = new double[mean.length];
+    for (int j = 0; j < sum.length; j++) sum[j] = mean[j] * count;
+    return sum;
+  }
+
+  /**
+   * Gets the population variance of each element.
+   *
+   * @return the double [ ]
+   */
+  @Nonnull
+  public double[] getVariance() {
+    final double[] variance = new double[m2.length];
+    for (int j = 0; j < variance.length; j++) variance[j] = m2[j] / count;
+    return variance;
+  }
+
+  /**
+   * Gets the unbiased sample variance of each element, or the population variance of a single sample.
+   *
+   * @return the double [ ]
+   */
+  @Nonnull
+  public double[] getSampleVariance() {
+    final double[] variance = new double[m2.length];
+    final int n = Math.max(1, count - 1);
+    for (int j = 0; j < variance.length; j++) variance[j] = m2[j] / n;
+    return variance;
+  }
+
+  /**
+   * Gets the mean over all elements of all samples.
+   *
+   * @return the double
+   */
+  public double getTotalMean() {
+    double sum = 0;
+    for (final double v : mean) sum += v;
+    return sum / mean.length;
+  }
+
+  /**
+   * Gets the population variance over all elements of all samples, i.e. the average element variance plus the
+   * variance of the element means.
+   *
+   * @return the double
+   */
+  public double getTotalVariance() {
+    final double totalMean = getTotalMean();
+    double sum = 0;
+    for (int j = 0; j < mean.length; j++) {
+      final double delta = mean[j] - totalMean;
+      sum += m2[j] / count + delta * delta;
+    }
+    return sum / mean.length;
+  }
+
+  /**
+   * Gets the mean square over all elements of all samples.
+   *
+   * @return the double
+   */
+  public double getTotalMeanSquare() {
+    double sum = 0;
+    for (int j = 0; j < mean.length; j++) sum += m2[j] / count + mean[j] * mean[j];
+    return sum / mean.length;
+  }
+}
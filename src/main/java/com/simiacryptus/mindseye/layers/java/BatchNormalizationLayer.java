@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.JsonUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Normalizes each element to zero mean and unit variance across the execution batch. The batch statistics are computed
+ * in one {@link BatchMoments} pass and differentiated in closed form. Each training batch also updates exponential
+ * running averages of the mean and variance, which are used instead of batch statistics in inference mode, during
+ * {@link #evalInferenceAndFree}, or when the batch is no larger than the min batch count, so single samples can be
+ * evaluated. The running averages are part of the layer's weight digest, so cached outputs follow them.
+ */
+@SuppressWarnings("serial")
+public class BatchNormalizationLayer extends LayerBase implements WeightDigest.UntrainedState {
+
+  @SuppressWarnings("unused")
+  private static final Logger log = LoggerFactory.getLogger(BatchNormalizationLayer.class);
+  private double epsilon = 1e-5;
+  private double momentum = 0.9;
+  private int minBatchCount = 1;
+  private boolean inference = false;
+  @Nullable
+  private double[] runningMean;
+  @Nullable
+  private double[] runningVariance;
+
+  /**
+   * Instantiates a new Batch normalization key.
+   */
+  public BatchNormalizationLayer() {
+  }
+
+  /**
+   * Instantiates a new Batch normalization key.
+   *
+   * @param json the json
+   */
+  protected BatchNormalizationLayer(@Nonnull final JsonObject json) {
+    super(json);
+    epsilon = json.get("epsilon").getAsDouble();
+    momentum = json.get("momentum").getAsDouble();
+    minBatchCount = json.get("minBatchCount").getAsInt();
+    inference = json.get("inference").getAsBoolean();
+    if (json.has("runningMean")) {
+      runningMean = JsonUtil.getDoubleArray(json.getAsJsonArray("runningMean"));
+      runningVariance = JsonUtil.getDoubleArray(json.getAsJsonArray("runningVariance"));
+    }
+  }
+
+  /**
+   * From json batch normalization key.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the batch normalization key
+   */
+  public static BatchNormalizationLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new BatchNormalizationLayer(json);
+  }
+
+  @Nullable
+  @Override
+  public Result evalAndFree(@Nonnull final Result... inObj) {
+    if (1 != inObj.length) throw new IllegalArgumentException();
+    final Result input = inObj[0];
+    final TensorList inputData = input.getData();
+    final int[] dimensions = inputData.getDimensions();
+    final int itemCnt = inputData.length();
+    @Nonnull final Statistics statistics = getStatistics(inputData, inference);
+    final boolean batchStatistics = statistics.batch;
+    final double[] mean = statistics.mean;
+    final double[] invStdDev = statistics.invStdDev;
+    final double[][] normalized = normalize(inputData, statistics);
+    inputData.freeRef();
+    return new Result(TensorArray.wrap(Arrays.stream(normalized).map(x -> new Tensor(x, dimensions)).toArray(i -> new Tensor[i])),
+        (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+          if (input.isAlive()) {
+            final double[][] deltas = data.stream().map(tensor -> {
+              final double[] values = tensor.getData().clone();
+              tensor.freeRef();
+              return values;
+            }).toArray(i -> new double[i][]);
+            final double[] meanDelta = new double[mean.length];
+            final double[] meanProduct = new double[mean.length];
+            if (batchStatistics) {
+              for (int i = 0; i < itemCnt; i++) {
+                for (int j = 0; j < mean.length; j++) {
+                  meanDelta[j] += deltas[i][j] / itemCnt;
+                  meanProduct[j] += deltas[i][j] * normalized[i][j] / itemCnt;
+                }
+              }
+            }
+            @Nonnull final Tensor feedback[] = IntStream.range(0, itemCnt).parallel().mapToObj(i -> {
+              final double[] gradient = deltas[i];
+              for (int j = 0; j < gradient.length; j++) {
+                gradient[j] = (gradient[j] - meanDelta[j] - normalized[i][j] * meanProduct[j]) * invStdDev[j];
+              }
+              return new Tensor(gradient, dimensions);
+            }).toArray(i -> new Tensor[i]);
+            input.accumulate(buffer, TensorArray.wrap(feedback));
+          }
+        }) {
+
+      @Override
+      protected void _free() {
+        input.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return input.isAlive();
+      }
+
+    };
+  }
+
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    if (1 != inObj.length) throw new IllegalArgumentException();
+    final TensorList inputData = inObj[0].getData();
+    final int[] dimensions = inputData.getDimensions();
+    final double[][] normalized = normalize(inputData, getStatistics(inputData, true));
+    Arrays.stream(inObj).map(Result::getData).forEach(ReferenceCounting::freeRef);
+    Arrays.stream(inObj).forEach(ReferenceCounting::freeRef);
+    return new ConstantResult(TensorArray.wrap(Arrays.stream(normalized).map(x -> new Tensor(x, dimensions)).toArray(i -> new Tensor[i])));
+  }
+
+  /**
+   * Selects the statistics to normalize a batch with. Batch statistics are used, and folded into the running averages,
+   * only when training on a batch larger than the min batch count; otherwise the running averages are used unchanged,
+   * falling back to the batch statistics before the first training batch.
+   *
+   * @param inputData the input data
+   * @param inference whether the running averages should be used and left unchanged
+   * @return the statistics
+   */
+  @Nonnull
+  private synchronized Statistics getStatistics(@Nonnull final TensorList inputData, final boolean inference) {
+    final int[] dimensions = inputData.getDimensions();
+    final boolean batchStatistics = null == runningMean || !inference && inputData.length() > minBatchCount;
+    final double[] mean;
+    final double[] variance;
+    if (batchStatistics) {
+      @Nonnull final BatchMoments moments = BatchMoments.compute(inputData);
+      mean = moments.getMean().clone();
+      variance = moments.getVariance();
+      if (!inference) update(mean, moments.getSampleVariance());
+    } else {
+      if (runningMean.length != Tensor.length(dimensions)) throw new IllegalArgumentException(Arrays.toString(dimensions));
+      mean = runningMean.clone();
+      variance = runningVariance;
+    }
+    final double[] invStdDev = new double[variance.length];
+    for (int j = 0; j < invStdDev.length; j++) invStdDev[j] = 1 / Math.sqrt(variance[j] + epsilon);
+    return new Statistics(batchStatistics, mean, invStdDev);
+  }
+
+  @Nonnull
+  private static double[][] normalize(@Nonnull final TensorList inputData, @Nonnull final Statistics statistics) {
+    final double[] mean = statistics.mean;
+    final double[] invStdDev = statistics.invStdDev;
+    return IntStream.range(0, inputData.length()).parallel().mapToObj(i -> {
+      final Tensor tensor = inputData.get(i);
+      final double[] values = tensor.getData();
+      final double[] result = new double[values.length];
+      for (int j = 0; j < result.length; j++) result[j] = (values[j] - mean[j]) * invStdDev[j];
+      tensor.freeRef();
+      return result;
+    }).toArray(i -> new double[i][]);
+  }
+
+  private void update(@Nonnull final double[] mean, @Nonnull final double[] variance) {
+    if (null == runningMean) {
+      runningMean = mean.clone();
+      runningVariance = variance.clone();
+    } else {
+      for (int j = 0; j < mean.length; j++) {
+        runningMean[j] = momentum * runningMean[j] + (1 - momentum) * mean[j];
+        runningVariance[j] = momentum * runningVariance[j] + (1 - momentum) * variance[j];
+      }
+    }
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    json.addProperty("epsilon", epsilon);
+    json.addProperty("momentum", momentum);
+    json.addProperty("minBatchCount", minBatchCount);
+    json.addProperty("inference", inference);
+    synchronized (this) {
+      if (null != runningMean) {
+        json.add("runningMean", JsonUtil.getJson(runningMean));
+        json.add("runningVariance", JsonUtil.getJson(runningVariance));
+      }
+    }
+    return json;
+  }
+
+  /**
+   * Gets the running mean, or null before the first training batch.
+   *
+   * @return the double [ ]
+   */
+  @Nullable
+  public synchronized double[] getRunningMean() {
+    return null == runningMean ? null : runningMean.clone();
+  }
+
+  /**
+   * Gets the running variance, or null before the first training batch.
+   *
+   * @return the double [ ]
+   */
+  @Nullable
+  public synchronized double[] getRunningVariance() {
+    return null == runningVariance ? null : runningVariance.clone();
+  }
+
+  /**
+   * Gets epsilon.
+   *
+   * @return the epsilon
+   */
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  /**
+   * Sets epsilon, which is added to the variance before taking the square root.
+   *
+   * @param epsilon the epsilon
+   * @return the epsilon
+   */
+  @Nonnull
+  public BatchNormalizationLayer setEpsilon(final double epsilon) {
+    this.epsilon = epsilon;
+    return this;
+  }
+
+  /**
+   * Gets momentum.
+   *
+   * @return the momentum
+   */
+  public double getMomentum() {
+    return momentum;
+  }
+
+  /**
+   * Sets momentum, the weight kept by the running averages at each training batch.
+   *
+   * @param momentum the momentum
+   * @return the momentum
+   */
+  @Nonnull
+  public BatchNormalizationLayer setMomentum(final double momentum) {
+    this.momentum = momentum;
+    return this;
+  }
+
+  /**
+   * Gets min batch count.
+   *
+   * @return the min batch count
+   */
+  public int getMinBatchCount() {
+    return minBatchCount;
+  }
+
+  /**
+   * Sets min batch count.
+   *
+   * @param minBatchCount the min batch count
+   * @return the min batch count
+   */
+  @Nonnull
+  public BatchNormalizationLayer setMinBatchCount(final int minBatchCount) {
+    this.minBatchCount = minBatchCount;
+    return this;
+  }
+
+  /**
+   * Is inference boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isInference() {
+    return inference;
+  }
+
+  /**
+   * Sets inference mode, in which the running averages are used and never updated.
+   *
+   * @param inference the inference
+   * @return the inference
+   */
+  @Nonnull
+  public BatchNormalizationLayer setInference(final boolean inference) {
+    this.inference = inference;
+    return this;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
+
+  @Nonnull
+  @Override
+  public synchronized List<double[]> untrainedState() {
+    if (null == runningMean) return Arrays.asList();
+    return Arrays.asList(runningMean.clone(), runningVariance.clone());
+  }
+
+  private static final class Statistics {
+    private final boolean batch;
+    private final double[] mean;
+    private final double[] invStdDev;
+
+    private Statistics(final boolean batch, final double[] mean, final double[] invStdDev) {
+      this.batch = batch;
+      this.mean = mean;
+      this.invStdDev = invStdDev;
+    }
+  }
+}
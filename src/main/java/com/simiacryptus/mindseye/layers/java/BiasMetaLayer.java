@@ -30,7 +30,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.ToDoubleFunction;
 import java.util.stream.IntStream;
 
 /**
@@ -73,21 +72,24 @@ public class BiasMetaLayer extends LayerBase {
   @Override
   public Result eval(@Nonnull final Result... inObj) {
     final int itemCnt = inObj[0].getData().length();
-    Tensor tensor1 = inObj[1].getData().get(0);
+    @Nonnull final int[] dims = inObj[0].getData().getDimensions();
+    final int length = Tensor.length(dims);
+    final int parameterCnt = inObj[1].getData().length();
+    final Tensor tensor1 = inObj[1].getData().get(0);
+    @Nonnull final double[] bias = tensor1.getData();
     final Tensor[] tensors = IntStream.range(0, itemCnt)
         .parallel()
         .mapToObj(dataIndex -> {
-          Tensor tensor = inObj[0].getData().get(dataIndex);
-          Tensor mapIndex = tensor.mapIndex((v, c) -> {
-            return v + tensor1.get(c);
-          });
+          final Tensor tensor = inObj[0].getData().get(dataIndex);
+          @Nonnull final double[] values = tensor.getData();
+          @Nonnull final Tensor output = new Tensor(dims);
+          @Nonnull final double[] outputData = output.getData();
+          for (int i = 0; i < length; i++) outputData[i] = values[i] + bias[i];
           tensor.freeRef();
-          return mapIndex;
+          return output;
         })
         .toArray(i -> new Tensor[i]);
     tensor1.freeRef();
-    Tensor tensor0 = tensors[0];
-    tensor0.addRef();
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
     return new Result(TensorArray.wrap(tensors), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (inObj[0].isAlive()) {
@@ -95,31 +97,15 @@ public class BiasMetaLayer extends LayerBase {
         inObj[0].accumulate(buffer, data);
       }
       if (inObj[1].isAlive()) {
-        @Nonnull final ToDoubleFunction<Coordinate> f = (c) -> {
-          return IntStream.range(0, itemCnt).mapToDouble(i -> {
-            Tensor tensor = data.get(i);
-            double v = tensor.get(c);
-            tensor.freeRef();
-            return v;
-          }).sum();
-        };
-        @Nullable final Tensor passback = tensor0.mapCoords(f);
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, inObj[1].getData().length())
-            .mapToObj(i -> {
-              if (i == 0) return passback;
-              else {
-                @Nullable Tensor map = passback.map(v -> 0);
-                passback.freeRef();
-                return map;
-              }
-            }).toArray(i -> new Tensor[i]));
+        @Nonnull final Tensor passback = new Tensor(BatchMoments.compute(data).getSum(), dims);
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, parameterCnt)
+            .mapToObj(i -> i == 0 ? passback : new Tensor(dims)).toArray(i -> new Tensor[i]));
         inObj[1].accumulate(buffer, tensorArray);
       }
     }) {
 
       @Override
       protected void _free() {
-        tensor0.freeRef();
         Arrays.stream(inObj).forEach(nnResult -> nnResult.freeRef());
       }
 
@@ -22,13 +22,14 @@ package com.simiacryptus.mindseye.layers.java;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.CounterRandom;
 import com.simiacryptus.mindseye.layers.StochasticComponent;
-import com.simiacryptus.util.FastRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * The type Binary noise key.
@@ -48,11 +49,7 @@ public class BinaryNoiseLayer extends LayerBase implements StochasticComponent {
   };
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(BinaryNoiseLayer.class);
-  /**
-   * The Mask list.
-   */
-  @Nonnull
-  List<Tensor> maskList = new ArrayList<>();
+  private long seed = StochasticComponent.random.get().nextLong();
   private double value;
   private boolean enabled = true;
 
@@ -102,15 +99,19 @@ public class BinaryNoiseLayer extends LayerBase implements StochasticComponent {
     final Result input = inObj[0];
     if (!enabled) return input;
     @Nonnull final int[] dimensions = input.getData().getDimensions();
-    if (maskList.size() > 1 && !Arrays.equals(maskList.get(0).getDimensions(), dimensions)) {
-      maskList.clear();
-    }
     final int length = input.getData().length();
-    @Nonnull final Tensor tensorPrototype = new Tensor(dimensions);
-    while (length > maskList.size()) {
-      maskList.add(tensorPrototype.map(v -> FastRandom.INSTANCE.random() < getValue() ? 0 : (1.0 / getValue())));
-    }
-    @Nonnull final TensorList mask = TensorArray.create(maskList.stream().limit(length).toArray(i -> new Tensor[i]));
+    final long seed = this.seed;
+    final double value = getValue();
+    // Masks are a pure function of (seed, sample, index), so they are stable until the next shuffle
+    @Nonnull final TensorList mask = TensorArray.wrap(IntStream.range(0, length).parallel().mapToObj(dataIndex -> {
+      final long stream = CounterRandom.stream(seed, dataIndex);
+      @Nonnull final Tensor tensor = new Tensor(dimensions);
+      final double[] data = tensor.getData();
+      for (int i = 0; i < data.length; i++) {
+        data[i] = CounterRandom.uniform(stream, i) < value ? 0 : (1.0 / value);
+      }
+      return tensor;
+    }).toArray(i -> new Tensor[i]));
     return new Result(mask, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       data.addRef();
       input.accumulate(buffer, data);
@@ -162,12 +163,11 @@ public class BinaryNoiseLayer extends LayerBase implements StochasticComponent {
 
   @Override
   public void shuffle(final long seed) {
-    maskList.clear();
+    this.seed = seed;
   }
 
   @Override
   public void clearNoise() {
-    maskList.clear();
     this.enabled = false;
   }
 
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.network.DAGNetwork;
+import com.simiacryptus.mindseye.network.InnerNode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This wrapper memoizes the output of its inner layer in a {@link ResultCache}, keyed by a 128-bit content hash of the
+ * inputs and of the inner layer's weights. Inference evaluations are always served from the cache when possible;
+ * training evaluations only when the inner layer is frozen and no input needs a gradient, since a cached output
+ * carries no backpropagation. Wrapping every node of a network lets requests which share a prefix, such as the same
+ * background image under different overlays, reuse the shared part of the graph. Stochastic layers, such as dropout,
+ * are never cached, since their output changes with each shuffle of their noise.
+ */
+@SuppressWarnings("serial")
+public final class CachingWrapperLayer extends WrapperLayer {
+
+  private final ResultCache cache;
+
+  /**
+   * Instantiates a new Caching wrapper layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   */
+  protected CachingWrapperLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    super(json, rs);
+    cache = new ResultCache(json.get("maxBytes").getAsLong());
+  }
+
+  /**
+   * Instantiates a new Caching wrapper layer.
+   *
+   * @param inner the inner
+   * @param cache the cache, which may be shared between wrappers
+   */
+  public CachingWrapperLayer(final Layer inner, @Nonnull final ResultCache cache) {
+    super(inner);
+    this.cache = cache;
+  }
+
+  /**
+   * From json caching wrapper layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the caching wrapper layer
+   */
+  public static CachingWrapperLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new CachingWrapperLayer(json, rs);
+  }
+
+  /**
+   * Wraps the layer of every deterministic inner node of a network, including nested networks, so all node outputs
+   * share one cache.
+   *
+   * @param network the network
+   * @param cache   the cache
+   * @return the network
+   */
+  @Nonnull
+  public static DAGNetwork wrapNodes(@Nonnull final DAGNetwork network, @Nonnull final ResultCache cache) {
+    network.visitNodes(node -> {
+      if (!(node instanceof InnerNode)) return;
+      final Layer layer = node.getLayer();
+      if (null == layer || layer instanceof CachingWrapperLayer || DAGNetwork.isStochastic(layer)) return;
+      final CachingWrapperLayer wrapper = new CachingWrapperLayer(layer, cache);
+      node.setLayer(wrapper);
+      wrapper.freeRef();
+    });
+    return network;
+  }
+
+  @Override
+  public Result eval(@Nonnull final Result... inObj) {
+    if (!getInner().isFrozen() || DAGNetwork.isStochastic(getInner()) || Arrays.stream(inObj).anyMatch(Result::isAlive)) {
+      return getInner().eval(inObj);
+    }
+    final HashCode key = key(inObj);
+    @Nullable final TensorList cached = cache.get(key);
+    if (null != cached) return new ConstantResult(cached);
+    @Nullable final Result result = getInner().eval(inObj);
+    if (null != result) cache.put(key, result.getData());
+    return result;
+  }
+
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    if (DAGNetwork.isStochastic(getInner())) return getInner().evalInferenceAndFree(inObj);
+    final HashCode key = key(inObj);
+    @Nullable final TensorList cached = cache.get(key);
+    if (null != cached) {
+      Arrays.stream(inObj).map(Result::getData).forEach(ReferenceCounting::freeRef);
+      Arrays.stream(inObj).forEach(ReferenceCounting::freeRef);
+      return new ConstantResult(cached);
+    }
+    @Nonnull final Result result = getInner().evalInferenceAndFree(inObj);
+    cache.put(key, result.getData());
+    return result;
+  }
+
+  /**
+   * Hashes the inputs together with the weight digest.
+   */
+  @Nonnull
+  private HashCode key(@Nonnull final Result[] inObj) {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    WeightDigest.update(hasher, getInner());
+    for (@Nonnull final Result input : inObj) {
+      final TensorList data = input.getData();
+      hasher.putInt(data.length());
+      for (final int dim : data.getDimensions()) hasher.putInt(dim);
+      for (int i = 0; i < data.length(); i++) {
+        final Tensor tensor = data.get(i);
+        for (final double v : tensor.getData()) hasher.putDouble(v);
+        tensor.freeRef();
+      }
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Gets the digest of the inner layer's id and weight contents. It is recomputed on every evaluation, so weights
+   * updated in place, frozen or not, never serve outputs computed from their old values.
+   *
+   * @return the weight digest
+   */
+  @Nonnull
+  public HashCode getWeightDigest() {
+    return WeightDigest.of(getInner());
+  }
+
+  /**
+   * Gets cache.
+   *
+   * @return the cache
+   */
+  @Nonnull
+  public ResultCache getCache() {
+    return cache;
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJson(resources, dataSerializer);
+    json.addProperty("maxBytes", cache.getMaxBytes());
+    return json;
+  }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.hash.HashCode;
+import com.google.gson.JsonPrimitive;
+import com.simiacryptus.mindseye.lang.Blas;
+import com.simiacryptus.mindseye.lang.CoreSettings;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.lang.TuningTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * CPU algorithms for evaluating a single-image convolution, as used by {@link ImgConvolutionLayer}. Unless a layer
+ * requests a specific algorithm, one is chosen per convolution shape: an entry in the tuning table takes precedence,
+ * then (if enabled in {@link CoreSettings}) the supported algorithms are timed and the fastest is recorded, and
+ * otherwise a heuristic picks Winograd for unit-stride 3x3 filters, FFT for filters of size 7 or more, and im2col for
+ * everything else. The tuning table is a {@link TuningTable}, so it can be persisted to a JSON file.
+ */
+public enum ConvolutionAlgorithm {
+  /**
+   * Lowers the image to a patch matrix and multiplies it by the filter matrix. Supports all shapes.
+   */
+  IM2COL {
+    @Override
+    boolean supports(@Nonnull final ConvolutionGeometry geometry) {
+      return true;
+    }
+
+    @Nonnull
+    @Override
+    Plan plan(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel) {
+      final double[] filter = geometry.toMatrix(kernel);
+      final Blas blas = CoreSettings.INSTANCE().getBlas();
+      return (input, output) -> {
+        final double[] columns = geometry.im2col(input);
+        blas.gemm(true, false, geometry.pixels, geometry.outputBands, geometry.patch, 1.0, columns, filter, 0.0, output);
+        geometry.recycle(columns);
+      };
+    }
+  },
+  /**
+   * Winograd minimal filtering F(2x2, 3x3): each 4x4 input tile and 3x3 filter is transformed so that a 2x2 output tile
+   * costs 16 rather than 36 multiplications, with the sum over input bands done as 16 matrix products. Supports
+   * unit-stride 3x3 filters.
+   */
+  WINOGRAD {
+    @Override
+    boolean supports(@Nonnull final ConvolutionGeometry geometry) {
+      return 3 == geometry.kernelDims[0] && 3 == geometry.kernelDims[1] && 1 == geometry.strideX && 1 == geometry.strideY;
+    }
+
+    @Nonnull
+    @Override
+    Plan plan(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel) {
+      return Winograd.plan(geometry, kernel);
+    }
+  },
+  /**
+   * Frequency-domain convolution: each input band and filter is zero-padded to a power-of-two size and transformed, so
+   * the cost is independent of the filter size. Supports all shapes, but is only efficient for large filters.
+   */
+  FFT {
+    @Override
+    boolean supports(@Nonnull final ConvolutionGeometry geometry) {
+      return true;
+    }
+
+    @Nonnull
+    @Override
+    Plan plan(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel) {
+      return FourierConvolution.plan(geometry, kernel);
+    }
+  };
+
+  private static final Logger log = LoggerFactory.getLogger(ConvolutionAlgorithm.class);
+  private static final TuningTable<ConvolutionAlgorithm> tuningTable = new TuningTable<>("algorithms",
+      json -> ConvolutionAlgorithm.valueOf(json.getAsString()), algorithm -> new JsonPrimitive(algorithm.name()));
+
+  /**
+   * Whether this algorithm can evaluate the given convolution.
+   *
+   * @param geometry the geometry
+   * @return the boolean
+   */
+  abstract boolean supports(@Nonnull ConvolutionGeometry geometry);
+
+  /**
+   * Prepares the filter for repeated evaluation.
+   *
+   * @param geometry the geometry
+   * @param kernel   the kernel
+   * @return the plan
+   */
+  @Nonnull
+  abstract Plan plan(@Nonnull ConvolutionGeometry geometry, @Nonnull double[] kernel);
+
+  /**
+   * Selects the algorithm for a convolution.
+   *
+   * @param geometry the geometry
+   * @param kernel   the kernel
+   * @param data     the batch to be convolved, whose first item is used as the benchmark input when autotuning
+   * @return the convolution algorithm
+   */
+  @Nonnull
+  static ConvolutionAlgorithm select(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel, @Nonnull final TensorList data) {
+    final String key = geometry.toString();
+    final ConvolutionAlgorithm tuned = tuningTable.get(key);
+    if (null != tuned && tuned.supports(geometry)) return tuned;
+    if (!CoreSettings.INSTANCE().isConvolutionAutotune() || 0 == data.length()) return getDefault(geometry);
+    final Tensor sample = data.get(0);
+    try {
+      final ConvolutionAlgorithm fastest = autotune(geometry, kernel, sample.getData());
+      tuningTable.put(key, fastest);
+      return fastest;
+    } finally {
+      sample.freeRef();
+    }
+  }
+
+  /**
+   * Gets the algorithm chosen by shape alone.
+   *
+   * @param geometry the geometry
+   * @return the default
+   */
+  @Nonnull
+  static ConvolutionAlgorithm getDefault(@Nonnull final ConvolutionGeometry geometry) {
+    if (WINOGRAD.supports(geometry)) return WINOGRAD;
+    if (Math.max(geometry.kernelDims[0], geometry.kernelDims[1]) >= 7) return FFT;
+    return IM2COL;
+  }
+
+  @Nonnull
+  private static ConvolutionAlgorithm autotune(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel, @Nonnull final double[] input) {
+    ConvolutionAlgorithm fastest = IM2COL;
+    long fastestNanos = Long.MAX_VALUE;
+    final double[] output = new double[Tensor.length(geometry.outputDims)];
+    for (@Nonnull final ConvolutionAlgorithm algorithm : values()) {
+      if (!algorithm.supports(geometry)) continue;
+      final Plan plan = algorithm.plan(geometry, kernel);
+      long nanos = Long.MAX_VALUE;
+      for (int trial = 0; trial < 3; trial++) {
+        final long start = System.nanoTime();
+        plan.apply(input, output);
+        nanos = Math.min(nanos, System.nanoTime() - start);
+      }
+      if (nanos < fastestNanos) {
+        fastestNanos = nanos;
+        fastest = algorithm;
+      }
+    }
+    log.info(String.format("Selected %s for convolution %s (%.3fms)", fastest, geometry, fastestNanos / 1e6));
+    return fastest;
+  }
+
+  /**
+   * Gets the tuning table, keyed by convolution shape.
+   *
+   * @return the tuning table
+   */
+  @Nonnull
+  public static TuningTable<ConvolutionAlgorithm> getTuningTable() {
+    return tuningTable;
+  }
+
+  /**
+   * A convolution with a fixed filter.
+   */
+  interface Plan {
+    /**
+     * Convolves one image.
+     *
+     * @param input  the input image
+     * @param output the output image, which is overwritten
+     */
+    void apply(@Nonnull double[] input, @Nonnull double[] output);
+  }
+
+  /**
+   * Holds the most recent plan of one convolution, so that the filter is only transformed again when the algorithm,
+   * the shape or the weights change.
+   */
+  static final class PlanCache {
+    @Nullable
+    private String key = null;
+    @Nullable
+    private Plan plan = null;
+
+    /**
+     * Gets the cached plan, or prepares and caches a new one if the key differs.
+     *
+     * @param algorithm the algorithm
+     * @param geometry  the geometry
+     * @param weights   a digest of the weights the kernel is derived from
+     * @param kernel    supplies the kernel, called only when a new plan is prepared
+     * @return the plan
+     */
+    @Nonnull
+    synchronized Plan get(@Nonnull final ConvolutionAlgorithm algorithm, @Nonnull final ConvolutionGeometry geometry, @Nonnull final HashCode weights, @Nonnull final Supplier<double[]> kernel) {
+      final String key = algorithm + " " + geometry + " " + weights;
+      if (null == plan || !key.equals(this.key)) {
+        plan = algorithm.plan(geometry, kernel.get());
+        this.key = key;
+      }
+      return plan;
+    }
+  }
+
+  private static final class Winograd {
+    private static Plan plan(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel) {
+      final int inputBands = geometry.inputBands;
+      final int outputBands = geometry.outputBands;
+      final int[] inputDims = geometry.inputDims;
+      final int[] outputDims = geometry.outputDims;
+      final int tilesX = (outputDims[0] + 1) / 2;
+      final int tilesY = (outputDims[1] + 1) / 2;
+      final int tiles = tilesX * tilesY;
+      // The filter is applied as a correlation with the reversed kernel, reading inputs from (p + base) onwards
+      final int baseX = geometry.offsetX - 2;
+      final int baseY = geometry.offsetY - 2;
+      final double[][] transformedFilter = new double[16][inputBands * outputBands];
+      final double[] tap = new double[9];
+      final double[] transformed = new double[16];
+      for (int inputBand = 0; inputBand < inputBands; inputBand++) {
+        for (int outputBand = 0; outputBand < outputBands; outputBand++) {
+          final int offset = geometry.taps * (outputBand + inputBand * outputBands);
+          for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+              tap[x + 3 * y] = kernel[offset + (2 - x) + 3 * (2 - y)];
+            }
+          }
+          transformFilter(tap, transformed);
+          for (int xi = 0; xi < 16; xi++) {
+            transformedFilter[xi][inputBand + inputBands * outputBand] = transformed[xi];
+          }
+        }
+      }
+      final Blas blas = CoreSettings.INSTANCE().getBlas();
+      return (input, output) -> {
+        final double[][] transformedInput = new double[16][tiles * inputBands];
+        IntStream.range(0, inputBands).parallel().forEach(band -> {
+          final double[] tile = new double[16];
+          final double[] tileTransform = new double[16];
+          for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+              for (int y = 0; y < 4; y++) {
+                final int iy = 2 * ty + baseY + y;
+                for (int x = 0; x < 4; x++) {
+                  final int ix = 2 * tx + baseX + x;
+                  final boolean inBounds = ix >= 0 && ix < inputDims[0] && iy >= 0 && iy < inputDims[1];
+                  tile[x + 4 * y] = inBounds ? input[ix + inputDims[0] * (iy + inputDims[1] * band)] : 0.0;
+                }
+              }
+              transformInput(tile, tileTransform);
+              final int index = (tx + tilesX * ty) + tiles * band;
+              for (int xi = 0; xi < 16; xi++) {
+                transformedInput[xi][index] = tileTransform[xi];
+              }
+            }
+          }
+        });
+        final double[][] products = new double[16][];
+        IntStream.range(0, 16).parallel().forEach(xi -> {
+          products[xi] = new double[tiles * outputBands];
+          blas.gemm(false, false, tiles, outputBands, inputBands, 1.0, transformedInput[xi], transformedFilter[xi], 0.0, products[xi]);
+        });
+        IntStream.range(0, outputBands).parallel().forEach(band -> {
+          final double[] product = new double[16];
+          final double[] result = new double[4];
+          for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+              final int index = (tx + tilesX * ty) + tiles * band;
+              for (int xi = 0; xi < 16; xi++) {
+                product[xi] = products[xi][index];
+              }
+              transformOutput(product, result);
+              for (int y = 0; y < 2; y++) {
+                final int oy = 2 * ty + y;
+                if (oy >= outputDims[1]) continue;
+                for (int x = 0; x < 2; x++) {
+                  final int ox = 2 * tx + x;
+                  if (ox >= outputDims[0]) continue;
+                  output[ox + outputDims[0] * (oy + outputDims[1] * band)] = result[x + 2 * y];
+                }
+              }
+            }
+          }
+        });
+      };
+    }
+
+    /**
+     * Computes G g G^T for a 3x3 filter g.
+     */
+    private static void transformFilter(@Nonnull final double[] g, @Nonnull final double[] u) {
+      final double[] rows = new double[12];
+      for (int y = 0; y < 3; y++) {
+        final double g0 = g[3 * y];
+        final double g1 = g[1 + 3 * y];
+        final double g2 = g[2 + 3 * y];
+        rows[4 * y] = g0;
+        rows[1 + 4 * y] = (g0 + g1 + g2) / 2;
+        rows[2 + 4 * y] = (g0 - g1 + g2) / 2;
+        rows[3 + 4 * y] = g2;
+      }
+      for (int x = 0; x < 4; x++) {
+        final double g0 = rows[x];
+        final double g1 = rows[x + 4];
+        final double g2 = rows[x + 8];
+        u[x] = g0;
+        u[x + 4] = (g0 + g1 + g2) / 2;
+        u[x + 8] = (g0 - g1 + g2) / 2;
+        u[x + 12] = g2;
+      }
+    }
+
+    /**
+     * Computes B^T d B for a 4x4 input tile d.
+     */
+    private static void transformInput(@Nonnull final double[] d, @Nonnull final double[] v) {
+      final double[] rows = new double[16];
+      for (int y = 0; y < 4; y++) {
+        final int o = 4 * y;
+        rows[o] = d[o] - d[o + 2];
+        rows[o + 1] = d[o + 1] + d[o + 2];
+        rows[o + 2] = d[o + 2] - d[o + 1];
+        rows[o + 3] = d[o + 1] - d[o + 3];
+      }
+      for (int x = 0; x < 4; x++) {
+        v[x] = rows[x] - rows[x + 8];
+        v[x + 4] = rows[x + 4] + rows[x + 8];
+        v[x + 8] = rows[x + 8] - rows[x + 4];
+        v[x + 12] = rows[x + 4] - rows[x + 12];
+      }
+    }
+
+    /**
+     * Computes A^T m A for a 4x4 product tile m.
+     */
+    private static void transformOutput(@Nonnull final double[] m, @Nonnull final double[] y) {
+      final double[] rows = new double[8];
+      for (int r = 0; r < 4; r++) {
+        final int o = 4 * r;
+        rows[2 * r] = m[o] + m[o + 1] + m[o + 2];
+        rows[1 + 2 * r] = m[o + 1] - m[o + 2] - m[o + 3];
+      }
+      for (int x = 0; x < 2; x++) {
+        y[x] = rows[x] + rows[x + 2] + rows[x + 4];
+        y[x + 2] = rows[x + 2] - rows[x + 4] - rows[x + 6];
+      }
+    }
+  }
+
+  private static final class FourierConvolution {
+    private static Plan plan(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernel) {
+      final int inputBands = geometry.inputBands;
+      final int outputBands = geometry.outputBands;
+      final int[] inputDims = geometry.inputDims;
+      final int[] kernelDims = geometry.kernelDims;
+      final int[] outputDims = geometry.outputDims;
+      // Linear convolution has support [0, input + kernel - 1), which must not wrap around
+      final int supportX = inputDims[0] + kernelDims[0] - 1;
+      final int supportY = inputDims[1] + kernelDims[1] - 1;
+      final int width = transformSize(supportX);
+      final int height = transformSize(supportY);
+      final int size = width * height;
+      final double[][] filterReal = new double[inputBands * outputBands][];
+      final double[][] filterImag = new double[inputBands * outputBands][];
+      IntStream.range(0, inputBands * outputBands).parallel().forEach(index -> {
+        final int inputBand = index % inputBands;
+        final int outputBand = index / inputBands;
+        final int offset = geometry.taps * (outputBand + inputBand * outputBands);
+        final double[] real = new double[size];
+        final double[] imag = new double[size];
+        for (int y = 0; y < kernelDims[1]; y++) {
+          System.arraycopy(kernel, offset + kernelDims[0] * y, real, width * y, kernelDims[0]);
+        }
+        fft2(real, imag, width, height, false);
+        filterReal[index] = real;
+        filterImag[index] = imag;
+      });
+      return (input, output) -> {
+        final double[][] inputReal = new double[inputBands][];
+        final double[][] inputImag = new double[inputBands][];
+        IntStream.range(0, inputBands).parallel().forEach(band -> {
+          final double[] real = new double[size];
+          final double[] imag = new double[size];
+          final int offset = inputDims[0] * inputDims[1] * band;
+          for (int y = 0; y < inputDims[1]; y++) {
+            System.arraycopy(input, offset + inputDims[0] * y, real, width * y, inputDims[0]);
+          }
+          fft2(real, imag, width, height, false);
+          inputReal[band] = real;
+          inputImag[band] = imag;
+        });
+        IntStream.range(0, outputBands).parallel().forEach(band -> {
+          final double[] real = new double[size];
+          final double[] imag = new double[size];
+          for (int inputBand = 0; inputBand < inputBands; inputBand++) {
+            final double[] xr = inputReal[inputBand];
+            final double[] xi = inputImag[inputBand];
+            final double[] kr = filterReal[inputBand + inputBands * band];
+            final double[] ki = filterImag[inputBand + inputBands * band];
+            for (int i = 0; i < size; i++) {
+              real[i] += xr[i] * kr[i] - xi[i] * ki[i];
+              imag[i] += xr[i] * ki[i] + xi[i] * kr[i];
+            }
+          }
+          fft2(real, imag, width, height, true);
+          for (int oy = 0; oy < outputDims[1]; oy++) {
+            final int qy = oy * geometry.strideY + geometry.offsetY;
+            for (int ox = 0; ox < outputDims[0]; ox++) {
+              final int qx = ox * geometry.strideX + geometry.offsetX;
+              final boolean inSupport = qx >= 0 && qx < supportX && qy >= 0 && qy < supportY;
+              output[ox + outputDims[0] * (oy + outputDims[1] * band)] = inSupport ? real[qx + width * qy] / size : 0.0;
+            }
+          }
+        });
+      };
+    }
+
+    /**
+     * Gets the smallest power of two (at least 1) not less than the support.
+     */
+    private static int transformSize(final int support) {
+      return support <= 1 ? 1 : Integer.highestOneBit(support - 1) << 1;
+    }
+
+    private static void fft2(@Nonnull final double[] real, @Nonnull final double[] imag, final int width, final int height, final boolean inverse) {
+      final double[] rowReal = new double[width];
+      final double[] rowImag = new double[width];
+      for (int y = 0; y < height; y++) {
+        System.arraycopy(real, width * y, rowReal, 0, width);
+        System.arraycopy(imag, width * y, rowImag, 0, width);
+        fft(rowReal, rowImag, inverse);
+        System.arraycopy(rowReal, 0, real, width * y, width);
+        System.arraycopy(rowImag, 0, imag, width * y, width);
+      }
+      final double[] columnReal = new double[height];
+      final double[] columnImag = new double[height];
+      for (int x = 0; x < width; x++) {
+        for (int y = 0; y < height; y++) {
+          columnReal[y] = real[x + width * y];
+          columnImag[y] = imag[x + width * y];
+        }
+        fft(columnReal, columnImag, inverse);
+        for (int y = 0; y < height; y++) {
+          real[x + width * y] = columnReal[y];
+          imag[x + width * y] = columnImag[y];
+        }
+      }
+    }
+
+    /**
+     * In-place iterative radix-2 transform. The inverse is unnormalized.
+     */
+    private static void fft(@Nonnull final double[] real, @Nonnull final double[] imag, final boolean inverse) {
+      final int n = real.length;
+      for (int i = 1, j = 0; i < n; i++) {
+        int bit = n >> 1;
+        for (; 0 != (j & bit); bit >>= 1) j ^= bit;
+        j ^= bit;
+        if (i < j) {
+          double t = real[i];
+          real[i] = real[j];
+          real[j] = t;
+          t = imag[i];
+          imag[i] = imag[j];
+          imag[j] = t;
+        }
+      }
+      for (int length = 2; length <= n; length <<= 1) {
+        final int half = length >> 1;
+        final double angle = (inverse ? 2 : -2) * Math.PI / length;
+        for (int j = 0; j < half; j++) {
+          final double wr = Math.cos(angle * j);
+          final double wi = Math.sin(angle * j);
+          for (int i = j; i < n; i += length) {
+            final int k = i + half;
+            final double vr = real[k] * wr - imag[k] * wi;
+            final double vi = real[k] * wi + imag[k] * wr;
+            real[k] = real[i] - vr;
+            imag[k] = imag[i] - vi;
+            real[i] += vr;
+            imag[i] += vi;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.RecycleBin;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Index arithmetic for a single-image convolution y(p, o) = sum over k, i of x(p * stride + offset - k, i) * w(k, o, i),
+ * where samples outside the input are zero. Filters are stored as [width, height, outputBand + inputBand *
+ * outputBands], the layout used by the convolution layers.
+ */
+final class ConvolutionGeometry {
+  /**
+   * The Input dims.
+   */
+  final int[] inputDims;
+  /**
+   * The Kernel dims.
+   */
+  final int[] kernelDims;
+  /**
+   * The Output dims.
+   */
+  final int[] outputDims;
+  /**
+   * The Input bands.
+   */
+  final int inputBands;
+  /**
+   * The Output bands.
+   */
+  final int outputBands;
+  /**
+   * The Stride x.
+   */
+  final int strideX;
+  /**
+   * The Stride y.
+   */
+  final int strideY;
+  /**
+   * The Offset x.
+   */
+  final int offsetX;
+  /**
+   * The Offset y.
+   */
+  final int offsetY;
+  /**
+   * The number of spatial filter taps.
+   */
+  final int taps;
+  /**
+   * The rows of the patch matrix: one per filter tap and input band.
+   */
+  final int patch;
+  /**
+   * The columns of the patch matrix: one per output pixel.
+   */
+  final int pixels;
+
+  /**
+   * Instantiates a new Convolution geometry.
+   *
+   * @param inputDims  the input dims
+   * @param kernelDims the kernel dims
+   * @param outputDims the output dims
+   * @param strideX    the stride x
+   * @param strideY    the stride y
+   * @param offsetX    the offset x
+   * @param offsetY    the offset y
+   */
+  ConvolutionGeometry(@Nonnull final int[] inputDims, @Nonnull final int[] kernelDims, @Nonnull final int[] outputDims,
+                      final int strideX, final int strideY, final int offsetX, final int offsetY) {
+    this.inputDims = inputDims;
+    this.kernelDims = kernelDims;
+    this.outputDims = outputDims;
+    this.inputBands = inputDims[2];
+    this.outputBands = outputDims[2];
+    assert kernelDims[2] == inputBands * outputBands;
+    this.strideX = strideX;
+    this.strideY = strideY;
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+    this.taps = kernelDims[0] * kernelDims[1];
+    this.patch = taps * inputBands;
+    this.pixels = outputDims[0] * outputDims[1];
+  }
+
+  /**
+   * Creates the geometry of a convolution layer. The implicit padding of (kernelSize - 1) / 2 preserves the image size
+   * for odd kernels at unit stride; the given padding is added to (or, if negative, removed from) each edge beyond that.
+   *
+   * @param inputDims   the input dims
+   * @param kernelDims  the kernel dims
+   * @param outputBands the output bands
+   * @param strideX     the stride x
+   * @param strideY     the stride y
+   * @param paddingX    the padding x
+   * @param paddingY    the padding y
+   * @return the convolution geometry
+   */
+  @Nonnull
+  static ConvolutionGeometry create(@Nonnull final int[] inputDims, @Nonnull final int[] kernelDims, final int outputBands,
+                                    final int strideX, final int strideY,
+                                    @Nullable final Integer paddingX, @Nullable final Integer paddingY) {
+    final int totalPaddingX = (kernelDims[0] - 1) / 2 + (null == paddingX ? 0 : paddingX);
+    final int totalPaddingY = (kernelDims[1] - 1) / 2 + (null == paddingY ? 0 : paddingY);
+    @Nonnull final int[] outputDims = {
+        (inputDims[0] + 2 * totalPaddingX - kernelDims[0]) / strideX + 1,
+        (inputDims[1] + 2 * totalPaddingY - kernelDims[1]) / strideY + 1,
+        outputBands
+    };
+    return new ConvolutionGeometry(inputDims, kernelDims, outputDims, strideX, strideY,
+        kernelDims[0] - 1 - totalPaddingX, kernelDims[1] - 1 - totalPaddingY);
+  }
+
+  /**
+   * Gets the geometry of the input gradient of a unit-stride convolution, which is itself a convolution of the output
+   * gradient with the spatially reversed, band-transposed filter (see {@link #transposeKernel(double[])}).
+   *
+   * @return the convolution geometry
+   */
+  @Nonnull
+  ConvolutionGeometry transpose() {
+    assert 1 == strideX && 1 == strideY;
+    return new ConvolutionGeometry(outputDims, new int[]{kernelDims[0], kernelDims[1], kernelDims[2]}, inputDims,
+        1, 1, kernelDims[0] - 1 - offsetX, kernelDims[1] - 1 - offsetY);
+  }
+
+  /**
+   * Converts a filter to the filter of the {@link #transpose()} geometry.
+   *
+   * @param kernel the kernel
+   * @return the transposed kernel
+   */
+  @Nonnull
+  double[] transposeKernel(@Nonnull final double[] kernel) {
+    final int width = kernelDims[0];
+    final int height = kernelDims[1];
+    final double[] transposed = new double[kernel.length];
+    for (int inputBand = 0; inputBand < inputBands; inputBand++) {
+      for (int outputBand = 0; outputBand < outputBands; outputBand++) {
+        final int from = taps * (outputBand + inputBand * outputBands);
+        final int to = taps * (inputBand + outputBand * inputBands);
+        for (int ky = 0; ky < height; ky++) {
+          for (int kx = 0; kx < width; kx++) {
+            transposed[to + kx + width * ky] = kernel[from + (width - 1 - kx) + width * (height - 1 - ky)];
+          }
+        }
+      }
+    }
+    return transposed;
+  }
+
+  /**
+   * Reorders a filter into a patch x outputBands matrix.
+   *
+   * @param kernel the kernel
+   * @return the matrix
+   */
+  @Nonnull
+  double[] toMatrix(@Nonnull final double[] kernel) {
+    return toMatrix(kernel, taps, inputBands, outputBands);
+  }
+
+  /**
+   * Reorders a filter into a patch x outputBands matrix, with one contiguous row of patch entries per output band in
+   * im2col row order, without needing an input size.
+   *
+   * @param kernel      the kernel
+   * @param kernelDims  the kernel dims
+   * @param outputBands the output bands
+   * @return the matrix
+   */
+  @Nonnull
+  static double[] toMatrix(@Nonnull final double[] kernel, @Nonnull final int[] kernelDims, final int outputBands) {
+    return toMatrix(kernel, kernelDims[0] * kernelDims[1], kernelDims[2] / outputBands, outputBands);
+  }
+
+  @Nonnull
+  private static double[] toMatrix(@Nonnull final double[] kernel, final int taps, final int inputBands, final int outputBands) {
+    final int patch = taps * inputBands;
+    final double[] matrix = new double[patch * outputBands];
+    for (int inputBand = 0; inputBand < inputBands; inputBand++) {
+      for (int outputBand = 0; outputBand < outputBands; outputBand++) {
+        System.arraycopy(kernel, taps * (outputBand + inputBand * outputBands), matrix, taps * inputBand + patch * outputBand, taps);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Reorders a patch x outputBands matrix into a filter.
+   *
+   * @param matrix the matrix
+   * @return the kernel
+   */
+  @Nonnull
+  double[] fromMatrix(@Nonnull final double[] matrix) {
+    final double[] kernel = new double[patch * outputBands];
+    for (int inputBand = 0; inputBand < inputBands; inputBand++) {
+      for (int outputBand = 0; outputBand < outputBands; outputBand++) {
+        System.arraycopy(matrix, taps * inputBand + patch * outputBand, kernel, taps * (outputBand + inputBand * outputBands), taps);
+      }
+    }
+    return kernel;
+  }
+
+  /**
+   * Builds the patch x pixels matrix of an image.
+   *
+   * @param image the image
+   * @return the matrix, obtained from {@link RecycleBin#DOUBLES}
+   */
+  @Nonnull
+  double[] im2col(@Nonnull final double[] image) {
+    final double[] columns = RecycleBin.DOUBLES.obtain((long) patch * pixels);
+    for (int oy = 0; oy < outputDims[1]; oy++) {
+      for (int ox = 0; ox < outputDims[0]; ox++) {
+        int row = patch * (ox + outputDims[0] * oy);
+        for (int band = 0; band < inputBands; band++) {
+          for (int ky = 0; ky < kernelDims[1]; ky++) {
+            final int iy = oy * strideY + offsetY - ky;
+            for (int kx = 0; kx < kernelDims[0]; kx++) {
+              final int ix = ox * strideX + offsetX - kx;
+              final boolean inBounds = ix >= 0 && ix < inputDims[0] && iy >= 0 && iy < inputDims[1];
+              columns[row++] = inBounds ? image[ix + inputDims[0] * (iy + inputDims[1] * band)] : 0.0;
+            }
+          }
+        }
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Builds the patch x pixels matrix of a quantized image; samples outside the input are zero.
+   *
+   * @param image the image
+   * @return the matrix
+   */
+  @Nonnull
+  byte[] im2col(@Nonnull final byte[] image) {
+    final byte[] columns = new byte[patch * pixels];
+    for (int oy = 0; oy < outputDims[1]; oy++) {
+      for (int ox = 0; ox < outputDims[0]; ox++) {
+        int row = patch * (ox + outputDims[0] * oy);
+        for (int band = 0; band < inputBands; band++) {
+          for (int ky = 0; ky < kernelDims[1]; ky++) {
+            final int iy = oy * strideY + offsetY - ky;
+            for (int kx = 0; kx < kernelDims[0]; kx++) {
+              final int ix = ox * strideX + offsetX - kx;
+              if (ix >= 0 && ix < inputDims[0] && iy >= 0 && iy < inputDims[1]) {
+                columns[row] = image[ix + inputDims[0] * (iy + inputDims[1] * band)];
+              }
+              row++;
+            }
+          }
+        }
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Adds each entry of a patch x pixels matrix into the image sample it was read from.
+   *
+   * @param columns the columns
+   * @param image   the image
+   */
+  void col2im(@Nonnull final double[] columns, @Nonnull final double[] image) {
+    for (int oy = 0; oy < outputDims[1]; oy++) {
+      for (int ox = 0; ox < outputDims[0]; ox++) {
+        int row = patch * (ox + outputDims[0] * oy);
+        for (int band = 0; band < inputBands; band++) {
+          for (int ky = 0; ky < kernelDims[1]; ky++) {
+            final int iy = oy * strideY + offsetY - ky;
+            for (int kx = 0; kx < kernelDims[0]; kx++) {
+              final int ix = ox * strideX + offsetX - kx;
+              final double value = columns[row++];
+              if (ix >= 0 && ix < inputDims[0] && iy >= 0 && iy < inputDims[1]) {
+                image[ix + inputDims[0] * (iy + inputDims[1] * band)] += value;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases a matrix obtained from {@link #im2col(double[])}.
+   *
+   * @param columns the columns
+   */
+  void recycle(@Nonnull final double[] columns) {
+    RecycleBin.DOUBLES.recycle(columns, (long) patch * pixels);
+  }
+
+  @Nonnull
+  @Override
+  public String toString() {
+    return String.format("%dx%dx%d->%dx%dx%d k%dx%d s%dx%d o%dx%d",
+        inputDims[0], inputDims[1], inputBands, outputDims[0], outputDims[1], outputBands,
+        kernelDims[0], kernelDims[1], strideX, strideY, offsetX, offsetY);
+  }
+}
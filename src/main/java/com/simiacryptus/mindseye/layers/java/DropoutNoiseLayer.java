@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.CounterRandom;
 import com.simiacryptus.mindseye.layers.StochasticComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +32,8 @@ import java.util.*;
 import java.util.stream.IntStream;
 
 /**
- * Randomly selects a fraction of the inputs and sets all other elements to zero.
+ * Randomly selects a fraction of the inputs and sets all other elements to zero. The mask of each sample is derived
+ * from the current seed and the sample's position in the batch, and is kept as a bitset for backprop.
  */
 @SuppressWarnings("serial")
 public class DropoutNoiseLayer extends LayerBase implements StochasticComponent {
@@ -90,36 +92,35 @@ public class DropoutNoiseLayer extends LayerBase implements StochasticComponent
     inputResult.addRef();
     final TensorList inputData = inputResult.getData();
     final int itemCnt = inputData.length();
-    final Tensor[] mask = IntStream.range(0, itemCnt).mapToObj(dataIndex -> {
-      @Nonnull final Random random = new Random(seed);
-      @Nullable final Tensor input = inputData.get(dataIndex);
-      @Nullable final Tensor output = input.map(x -> {
-        if (seed == -1) return 1;
-        return random.nextDouble() < getValue() ? 0 : (1.0 / getValue());
-      });
-      input.freeRef();
-      return output;
-    }).toArray(i -> new Tensor[i]);
-    return new Result(TensorArray.wrap(IntStream.range(0, itemCnt).mapToObj(dataIndex -> {
+    final long seed = this.seed;
+    final double value = getValue();
+    // Bit i of the mask is set when element i is dropped. Like the seeded Random it replaces, the mask depends only on
+    // the seed, so every item of the batch is masked alike and an item's output does not depend on its batch position
+    @Nullable final long[] mask = seed == -1 ? null : CounterRandom.bernoulli(CounterRandom.stream(seed, 0), Tensor.length(inputData.getDimensions()), value);
+    return new Result(SparseTensorList.compressAndFree(TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
       Tensor inputTensor = inputData.get(dataIndex);
       @Nullable final double[] input = inputTensor.getData();
-      @Nullable final double[] maskT = mask[dataIndex].getData();
       @Nonnull final Tensor output = new Tensor(inputTensor.getDimensions());
       @Nullable final double[] outputData = output.getData();
-      for (int i = 0; i < outputData.length; i++) {
-        outputData[i] = input[i] * maskT[i];
+      if (null == mask) {
+        System.arraycopy(input, 0, outputData, 0, input.length);
+      } else {
+        for (int i = 0; i < outputData.length; i++) {
+          outputData[i] = CounterRandom.get(mask, i) ? 0 : input[i] / value;
+        }
       }
       inputTensor.freeRef();
       return output;
-    }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+    }).toArray(i -> new Tensor[i]))), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (inputResult.isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).mapToObj(dataIndex -> {
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
           Tensor deltaTensor = delta.get(dataIndex);
           @Nullable final double[] deltaData = deltaTensor.getData();
-          @Nullable final double[] maskData = mask[dataIndex].getData();
           @Nonnull final Tensor passback = new Tensor(deltaTensor.getDimensions());
-          for (int i = 0; i < passback.length(); i++) {
-            passback.set(i, maskData[i] * deltaData[i]);
+          @Nullable final double[] passbackData = passback.getData();
+          for (int i = 0; i < passbackData.length; i++) {
+            if (null == mask) passbackData[i] = deltaData[i];
+            else if (!CounterRandom.get(mask, i)) passbackData[i] = deltaData[i] / value;
           }
           deltaTensor.freeRef();
           return passback;
@@ -131,7 +132,6 @@ public class DropoutNoiseLayer extends LayerBase implements StochasticComponent
       @Override
       protected void _free() {
         inputResult.freeRef();
-        Arrays.stream(mask).forEach(ReferenceCounting::freeRef);
       }
 
       @Override
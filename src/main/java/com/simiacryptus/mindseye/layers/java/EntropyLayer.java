@@ -20,9 +20,12 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
 import com.simiacryptus.mindseye.lang.DataSerializer;
+import com.simiacryptus.mindseye.lang.MathMode;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 
 /**
@@ -67,7 +70,7 @@ public class EntropyLayer extends SimpleActivationLayer<EntropyLayer> {
       d = 0;
       f = 0;
     } else {
-      final double log = Math.log(Math.abs(x));
+      final double log = CoreSettings.INSTANCE().getMath().log(Math.abs(x));
       d = -(1 + log);
       f = -x * log;
     }
@@ -77,6 +80,34 @@ public class EntropyLayer extends SimpleActivationLayer<EntropyLayer> {
     results[1] = d;
   }
 
+  @Override
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double x = input[i];
+      if (0. == x) {
+        output[i] = 0;
+        if (null != derivative) derivative[i] = 0;
+      } else {
+        final double log = math.log(Math.abs(x));
+        output[i] = -x * log;
+        if (null != derivative) derivative[i] = -(1 + log);
+      }
+    }
+  }
+
+  @Override
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double x = input[i];
+      if (0. != x) {
+        final double d = -(1 + math.log(Math.abs(x)));
+        if (Double.isFinite(d)) passback[i] = delta[i] * d;
+      }
+    }
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
@@ -39,7 +39,6 @@ import java.util.function.IntToDoubleFunction;
 import java.util.function.ToDoubleBiFunction;
 import java.util.function.ToDoubleFunction;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * A dense matrix operator using vector-matrix multiplication. Represents a fully connected key of synapses, where all
@@ -158,8 +157,7 @@ public class FullyConnectedLayer extends LayerBase {
    * @param out    the out
    */
   public static void multiply(final double[] matrix, @Nonnull final double[] in, @Nonnull final double[] out) {
-    @Nonnull final DoubleMatrix matrixObj = new DoubleMatrix(out.length, in.length, matrix);
-    matrixObj.mmuli(new DoubleMatrix(in.length, 1, in), new DoubleMatrix(out.length, 1, out));
+    CoreSettings.INSTANCE().getBlas().gemv(false, out.length, in.length, 1.0, matrix, in, 0.0, out);
   }
 
   /**
@@ -170,10 +168,7 @@ public class FullyConnectedLayer extends LayerBase {
    * @param out    the out
    */
   public static void multiplyT(final double[] matrix, @Nonnull final double[] in, @Nonnull final double[] out) {
-    @Nonnull DoubleMatrix doubleMatrix = new DoubleMatrix(in.length, out.length, matrix);
-    @Nonnull final DoubleMatrix matrixObj = FullyConnectedLayer.transpose(doubleMatrix);
-    matrixObj.mmuli(new DoubleMatrix(in.length, 1, in), new DoubleMatrix(out.length, 1, out));
-    RecycleBin.DOUBLES.recycle(matrixObj.data, matrixObj.data.length);
+    CoreSettings.INSTANCE().getBlas().gemv(true, out.length, in.length, 1.0, matrix, in, 0.0, out);
   }
 
   /**
@@ -193,6 +188,97 @@ public class FullyConnectedLayer extends LayerBase {
     return result;
   }
 
+  /**
+   * Copies a batch into a single column-major matrix with one column per item.
+   *
+   * @param data   the data
+   * @param length the length of each item
+   * @return the matrix, obtained from {@link RecycleBin#DOUBLES}
+   */
+  @Nonnull
+  private static double[] pack(@Nonnull final TensorList data, final int length) {
+    final double[] matrix = RecycleBin.DOUBLES.obtain((long) data.length() * length);
+    IntStream.range(0, data.length()).parallel().forEach(dataIndex -> {
+      Tensor tensor = data.get(dataIndex);
+      System.arraycopy(tensor.getData(), 0, matrix, dataIndex * length, length);
+      tensor.freeRef();
+    });
+    return matrix;
+  }
+
+  /**
+   * Splits the columns of a column-major matrix into a batch of tensors.
+   *
+   * @param matrix the matrix
+   * @param batch  the number of columns
+   * @param dims   the dimensions of each item
+   * @return the tensor array
+   */
+  @Nonnull
+  private static TensorArray unpack(@Nonnull final double[] matrix, final int batch, @Nonnull final int[] dims) {
+    final int length = Tensor.length(dims);
+    return TensorArray.wrap(IntStream.range(0, batch).parallel().mapToObj(dataIndex -> {
+      @Nonnull final Tensor tensor = new Tensor(dims);
+      System.arraycopy(matrix, dataIndex * length, tensor.getData(), 0, length);
+      return tensor;
+    }).toArray(i -> new Tensor[i]));
+  }
+
+  /**
+   * Computes Y (outputs x batch) = W^T (outputs x inputs) * X (inputs x batch) for a sparse batch, visiting only the
+   * nonzeros of X.
+   *
+   * @param weights      the weights
+   * @param data         the data
+   * @param inputLength  the input length
+   * @param outputLength the output length
+   * @param outputMatrix the output matrix
+   */
+  private static void multiplySparse(@Nonnull final double[] weights, @Nonnull final SparseTensorList data, final int inputLength, final int outputLength, @Nonnull final double[] outputMatrix) {
+    final int[] rowPointers = data.getRowPointers();
+    final int[] indices = data.getIndices();
+    final double[] values = data.getValues();
+    IntStream.range(0, data.length()).parallel().forEach(dataIndex -> {
+      final int start = rowPointers[dataIndex];
+      final int end = rowPointers[dataIndex + 1];
+      for (int o = 0; o < outputLength; o++) {
+        final int column = o * inputLength;
+        double sum = 0;
+        for (int j = start; j < end; j++) {
+          sum += weights[column + indices[j]] * values[j];
+        }
+        outputMatrix[dataIndex * outputLength + o] = sum;
+      }
+    });
+  }
+
+  /**
+   * Computes dW (inputs x outputs) = X (inputs x batch) * D^T (batch x outputs) for a sparse batch, so only the weight
+   * rows of inputs which were nonzero somewhere in the batch are written.
+   *
+   * @param data         the data
+   * @param deltaMatrix  the delta matrix
+   * @param inputLength  the input length
+   * @param outputLength the output length
+   * @param weightDelta  the zeroed weight delta
+   */
+  private static void crossMultiplySparse(@Nonnull final SparseTensorList data, @Nonnull final double[] deltaMatrix, final int inputLength, final int outputLength, @Nonnull final double[] weightDelta) {
+    final int[] rowPointers = data.getRowPointers();
+    final int[] indices = data.getIndices();
+    final double[] values = data.getValues();
+    final int batch = data.length();
+    IntStream.range(0, outputLength).parallel().forEach(o -> {
+      final int column = o * inputLength;
+      for (int dataIndex = 0; dataIndex < batch; dataIndex++) {
+        final double d = deltaMatrix[dataIndex * outputLength + o];
+        if (d == 0) continue;
+        for (int j = rowPointers[dataIndex]; j < rowPointers[dataIndex + 1]; j++) {
+          weightDelta[column + indices[j]] += values[j] * d;
+        }
+      }
+    });
+  }
+
   @Override
   protected void _free() {
     weights.freeRef();
@@ -209,58 +295,44 @@ public class FullyConnectedLayer extends LayerBase {
     }
     FullyConnectedLayer.this.addRef();
     assert Tensor.length(indata.getDimensions()) == Tensor.length(this.inputDims) : Arrays.toString(indata.getDimensions()) + " == " + Arrays.toString(this.inputDims);
-    @Nonnull DoubleMatrix doubleMatrix = new DoubleMatrix(Tensor.length(indata.getDimensions()), Tensor.length(outputDims), this.weights.getData());
-    @Nonnull final DoubleMatrix matrixObj = FullyConnectedLayer.transpose(doubleMatrix);
-    @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
-      @Nullable final Tensor input = indata.get(dataIndex);
-      @Nullable final Tensor output = new Tensor(outputDims);
-      matrixObj.mmuli(new DoubleMatrix(input.length(), 1, input.getData()), new DoubleMatrix(output.length(), 1, output.getData()));
-      input.freeRef();
-      return output;
-    }).toArray(i -> new Tensor[i]));
-    RecycleBin.DOUBLES.recycle(matrixObj.data, matrixObj.data.length);
+    final int inputLength = Tensor.length(inputDims);
+    final int outputLength = Tensor.length(outputDims);
+    final int batch = indata.length();
+    // A sparse batch is read in place rather than packed into a dense matrix
+    @Nullable final SparseTensorList sparse = indata instanceof SparseTensorList ? (SparseTensorList) indata : null;
+    @Nullable final double[] inputMatrix = null == sparse ? FullyConnectedLayer.pack(indata, inputLength) : null;
+    @Nonnull TensorArray tensorArray = forward(sparse, inputMatrix, batch);
     this.weights.addRef();
     return new Result(tensorArray, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      final double[] deltaMatrix = FullyConnectedLayer.pack(delta, outputLength);
       if (!isFrozen()) {
         final Delta<UUID> deltaBuffer = buffer.get(FullyConnectedLayer.this.getId(), this.weights.getData());
-        final int threads = 4;
-        IntStream.range(0, threads).parallel().mapToObj(x -> x).flatMap(thread -> {
-          @Nullable Stream<Tensor> stream = IntStream.range(0, indata.length()).filter(i -> thread == i % threads).mapToObj(dataIndex -> {
-            @Nonnull final Tensor weightDelta = new Tensor(Tensor.length(inputDims), Tensor.length(outputDims));
-            Tensor deltaTensor = delta.get(dataIndex);
-            Tensor inputTensor = indata.get(dataIndex);
-            FullyConnectedLayer.crossMultiplyT(deltaTensor.getData(), inputTensor.getData(), weightDelta.getData());
-            inputTensor.freeRef();
-            deltaTensor.freeRef();
-            return weightDelta;
-          });
-          return stream;
-        }).reduce((a, b) -> {
-          @Nullable Tensor c = a.addAndFree(b);
-          b.freeRef();
-          return c;
-        }).map(data -> {
-          @Nonnull Delta<UUID> layerDelta = deltaBuffer.addInPlace(data.getData());
-          data.freeRef();
-          return layerDelta;
-        });
+        final double[] weightDelta = RecycleBin.DOUBLES.obtain((long) inputLength * outputLength);
+        if (null != sparse) {
+          FullyConnectedLayer.crossMultiplySparse(sparse, deltaMatrix, inputLength, outputLength, weightDelta);
+        } else {
+          // dW (inputs x outputs) = X (inputs x batch) * D^T (batch x outputs)
+          CoreSettings.INSTANCE().getBlas().gemm(false, true, inputLength, outputLength, batch, 1.0, inputMatrix, deltaMatrix, 0.0, weightDelta);
+        }
+        deltaBuffer.addInPlace(weightDelta);
+        RecycleBin.DOUBLES.recycle(weightDelta, (long) inputLength * outputLength);
         deltaBuffer.freeRef();
       }
       if (inObj[0].isAlive()) {
-        @Nonnull final TensorList tensorList = TensorArray.wrap(IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
-          Tensor deltaTensor = delta.get(dataIndex);
-          @Nonnull final Tensor passback = new Tensor(indata.getDimensions());
-          FullyConnectedLayer.multiply(this.weights.getData(), deltaTensor.getData(), passback.getData());
-          deltaTensor.freeRef();
-          return passback;
-        }).toArray(i -> new Tensor[i]));
+        final double[] passbackMatrix = RecycleBin.DOUBLES.obtain((long) batch * inputLength);
+        // dX (inputs x batch) = W (inputs x outputs) * D (outputs x batch)
+        CoreSettings.INSTANCE().getBlas().gemm(false, false, inputLength, batch, outputLength, 1.0, this.weights.getData(), deltaMatrix, 0.0, passbackMatrix);
+        @Nonnull final TensorList tensorList = FullyConnectedLayer.unpack(passbackMatrix, batch, indata.getDimensions());
+        RecycleBin.DOUBLES.recycle(passbackMatrix, (long) batch * inputLength);
         inObj[0].accumulate(buffer, tensorList);
       }
+      RecycleBin.DOUBLES.recycle(deltaMatrix, (long) batch * outputLength);
     }) {
 
       @Override
       protected void _free() {
         indata.freeRef();
+        if (null != inputMatrix) RecycleBin.DOUBLES.recycle(inputMatrix, (long) batch * inputLength);
         FullyConnectedLayer.this.freeRef();
         for (@Nonnull Result result : inObj) {
           result.freeRef();
@@ -276,6 +348,50 @@ public class FullyConnectedLayer extends LayerBase {
     };
   }
 
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    final TensorList indata = inObj[0].getData();
+    assert Tensor.length(indata.getDimensions()) == Tensor.length(this.inputDims) : Arrays.toString(indata.getDimensions()) + " == " + Arrays.toString(this.inputDims);
+    final int inputLength = Tensor.length(inputDims);
+    final int batch = indata.length();
+    @Nonnull final TensorArray tensorArray;
+    if (indata instanceof SparseTensorList) {
+      tensorArray = forward((SparseTensorList) indata, null, batch);
+    } else {
+      final double[] inputMatrix = FullyConnectedLayer.pack(indata, inputLength);
+      tensorArray = forward(null, inputMatrix, batch);
+      RecycleBin.DOUBLES.recycle(inputMatrix, (long) batch * inputLength);
+    }
+    Arrays.stream(inObj).map(Result::getData).forEach(ReferenceCounting::freeRef);
+    Arrays.stream(inObj).forEach(ReferenceCounting::freeRef);
+    return new ConstantResult(tensorArray);
+  }
+
+  /**
+   * Computes the output batch from either a sparse batch or a packed input matrix.
+   *
+   * @param sparse      the sparse input, or null
+   * @param inputMatrix the packed input (inputs x batch), used when the input is dense
+   * @param batch       the batch size
+   * @return the output
+   */
+  @Nonnull
+  private TensorArray forward(@Nullable final SparseTensorList sparse, @Nullable final double[] inputMatrix, final int batch) {
+    final int inputLength = Tensor.length(inputDims);
+    final int outputLength = Tensor.length(outputDims);
+    final double[] outputMatrix = RecycleBin.DOUBLES.obtain((long) batch * outputLength);
+    if (null != sparse) {
+      FullyConnectedLayer.multiplySparse(this.weights.getData(), sparse, inputLength, outputLength, outputMatrix);
+    } else {
+      // Y (outputs x batch) = W^T (outputs x inputs) * X (inputs x batch)
+      CoreSettings.INSTANCE().getBlas().gemm(true, false, outputLength, batch, inputLength, 1.0, this.weights.getData(), inputMatrix, 0.0, outputMatrix);
+    }
+    @Nonnull TensorArray tensorArray = FullyConnectedLayer.unpack(outputMatrix, batch, outputDims);
+    RecycleBin.DOUBLES.recycle(outputMatrix, (long) batch * outputLength);
+    return tensorArray;
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
@@ -20,9 +20,12 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
 import com.simiacryptus.mindseye.lang.DataSerializer;
+import com.simiacryptus.mindseye.lang.MathMode;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 
 /**
@@ -79,7 +82,7 @@ public final class GaussianActivationLayer extends SimpleActivationLayer<Gaussia
     final double s2 = stddev * stddev;
     final double s3 = stddev * s2;
     final double k = Math.sqrt(2 * Math.PI);
-    final double e = exp(-(c * c / (2 * s2)));
+    final double e = exp(CoreSettings.INSTANCE().getMath(), -(c * c / (2 * s2)));
     double d = e * c / (s3 * k);
     final double f = e / (stddev * k);
     // double d = f * (1 - f);
@@ -92,14 +95,44 @@ public final class GaussianActivationLayer extends SimpleActivationLayer<Gaussia
     results[1] = -d;
   }
 
-  private double exp(final double x) {
+  @Override
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    final double s2 = stddev * stddev;
+    final double k = Math.sqrt(2 * Math.PI);
+    final double fScale = 1 / (stddev * k);
+    final double dScale = -1 / (stddev * s2 * k);
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double c = input[i] - mean;
+      final double e = exp(math, -(c * c / (2 * s2)));
+      output[i] = e * fScale;
+      if (null != derivative) {
+        final double d = e * c * dScale;
+        derivative[i] = Double.isFinite(d) ? d : 0;
+      }
+    }
+  }
+
+  @Override
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    final double s2 = stddev * stddev;
+    final double dScale = -1 / (stddev * s2 * Math.sqrt(2 * Math.PI));
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double c = input[i] - mean;
+      final double d = exp(math, -(c * c / (2 * s2))) * c * dScale;
+      if (Double.isFinite(d)) passback[i] = delta[i] * d;
+    }
+  }
+
+  private static double exp(@Nonnull final MathMode math, final double x) {
     if (x < GaussianActivationLayer.MIN_X) {
       return GaussianActivationLayer.MIN_F;
     }
     if (x > GaussianActivationLayer.MAX_X) {
       return GaussianActivationLayer.MAX_F;
     }
-    return Math.exp(x);
+    return math.exp(x);
   }
 
   @Nonnull
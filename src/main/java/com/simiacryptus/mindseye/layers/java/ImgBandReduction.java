@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Reductions over the bands of each pixel of an image stored band-major, i.e. at x + width * (y + height * band). The
+ * pixels are processed in blocks, each visited once per band, so all inner loops are contiguous and no intermediate
+ * tensors are needed. {@link #forEachBlock} parallelizes over the batch and over the pixel blocks of each item, fetching
+ * each item once, since lists such as region views and sparse lists copy an item on every get.
+ */
+final class ImgBandReduction {
+
+  /**
+   * The number of pixels per block.
+   */
+  static final int BLOCK = 256;
+
+  private ImgBandReduction() {
+  }
+
+  /**
+   * Gets the number of blocks covering an image.
+   *
+   * @param pixels the pixels
+   * @return the int
+   */
+  static int blocks(final int pixels) {
+    return (pixels + BLOCK - 1) / BLOCK;
+  }
+
+  /**
+   * Runs a task for every pixel block of every item of a batch, fetching each item from the list once.
+   *
+   * @param data   the batch
+   * @param pixels the number of pixels per band
+   * @param task   the task
+   */
+  static void forEachBlock(@Nonnull final TensorList data, final int pixels, @Nonnull final BlockTask task) {
+    final int blocks = blocks(pixels);
+    IntStream.range(0, data.length()).parallel().forEach(index -> {
+      final Tensor tensor = data.get(index);
+      final double[] values = tensor.getData();
+      IntStream.range(0, blocks).parallel().forEach(block -> task.apply(index, values, block));
+      tensor.freeRef();
+    });
+  }
+
+  /**
+   * Computes the softmax over the bands of each pixel in a block, shifting by the pixel maximum for stability.
+   *
+   * @param input  the input
+   * @param output the output
+   * @param pixels the number of pixels per band
+   * @param bands  the bands
+   * @param block  the block
+   */
+  static void softmax(@Nonnull final double[] input, @Nonnull final double[] output, final int pixels, final int bands, final int block) {
+    final int start = block * BLOCK;
+    final int size = Math.min(BLOCK, pixels - start);
+    final double[] max = new double[size];
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (int band = 0; band < bands; band++) {
+      final int offset = start + band * pixels;
+      for (int j = 0; j < size; j++) max[j] = Math.max(max[j], input[offset + j]);
+    }
+    final double[] sum = new double[size];
+    for (int band = 0; band < bands; band++) {
+      final int offset = start + band * pixels;
+      for (int j = 0; j < size; j++) {
+        final double e = Math.exp(input[offset + j] - max[j]);
+        output[offset + j] = e;
+        sum[j] += e;
+      }
+    }
+    for (int j = 0; j < size; j++) sum[j] = 1 / sum[j];
+    for (int band = 0; band < bands; band++) {
+      final int offset = start + band * pixels;
+      for (int j = 0; j < size; j++) output[offset + j] *= sum[j];
+    }
+  }
+
+  /**
+   * Computes the softmax input gradient p * (dy - sum(p * dy)) for a block, from the softmax output p.
+   *
+   * @param softmax  the softmax output
+   * @param delta    the output gradient
+   * @param passback the input gradient
+   * @param pixels   the number of pixels per band
+   * @param bands    the bands
+   * @param block    the block
+   */
+  static void softmaxBackward(@Nonnull final double[] softmax, @Nonnull final double[] delta, @Nonnull final double[] passback, final int pixels, final int bands, final int block) {
+    final int start = block * BLOCK;
+    final int size = Math.min(BLOCK, pixels - start);
+    final double[] dot = new double[size];
+    for (int band = 0; band < bands; band++) {
+      final int offset = start + band * pixels;
+      for (int j = 0; j < size; j++) dot[j] += softmax[offset + j] * delta[offset + j];
+    }
+    for (int band = 0; band < bands; band++) {
+      final int offset = start + band * pixels;
+      for (int j = 0; j < size; j++) passback[offset + j] = softmax[offset + j] * (delta[offset + j] - dot[j]);
+    }
+  }
+
+  /**
+   * Sums the bands of each pixel in a block into a single-band output.
+   *
+   * @param input  the input
+   * @param output the output
+   * @param pixels the number of pixels per band
+   * @param bands  the bands
+   * @param block  the block
+   */
+  static void sum(@Nonnull final double[] input, @Nonnull final double[] output, final int pixels, final int bands, final int block) {
+    final int start = block * BLOCK;
+    final int end = Math.min(start + BLOCK, pixels);
+    for (int band = 0; band < bands; band++) {
+      final int offset = band * pixels;
+      for (int p = start; p < end; p++) output[p] += input[offset + p];
+    }
+  }
+
+  /**
+   * Broadcasts a single-band gradient to every band of a block.
+   *
+   * @param delta    the output gradient
+   * @param passback the input gradient
+   * @param pixels   the number of pixels per band
+   * @param bands    the bands
+   * @param block    the block
+   */
+  static void sumBackward(@Nonnull final double[] delta, @Nonnull final double[] passback, final int pixels, final int bands, final int block) {
+    final int start = block * BLOCK;
+    final int size = Math.min(BLOCK, pixels - start);
+    for (int band = 0; band < bands; band++) {
+      System.arraycopy(delta, start, passback, start + band * pixels, size);
+    }
+  }
+
+  /**
+   * Finds, for each band, the index of its first maximal pixel.
+   *
+   * @param input  the input
+   * @param pixels the number of pixels per band
+   * @param bands  the bands
+   * @return the indices into the input
+   */
+  @Nonnull
+  static int[] bandArgmax(@Nonnull final double[] input, final int pixels, final int bands) {
+    @Nonnull final int[] argmax = new int[bands];
+    for (int band = 0; band < bands; band++) {
+      final int offset = band * pixels;
+      int best = offset;
+      for (int i = offset + 1; i < offset + pixels; i++) {
+        if (input[i] > input[best]) best = i;
+      }
+      argmax[band] = best;
+    }
+    return argmax;
+  }
+
+  /**
+   * A task over one pixel block of one batch item.
+   */
+  @FunctionalInterface
+  interface BlockTask {
+    /**
+     * Processes a block.
+     *
+     * @param index the batch index
+     * @param data  the item's data
+     * @param block the block
+     */
+    void apply(int index, @Nonnull double[] data, int block);
+  }
+}
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Concatenates two or more images apply the same resolution so the output contains all input color bands.
@@ -81,52 +82,23 @@ public class ImgConcatLayer extends LayerBase {
     assert Arrays.stream(inObj).allMatch(x -> x.getData().getDimensions()[0] == outputDims[0]) : "Inputs must be same size";
     assert Arrays.stream(inObj).allMatch(x -> x.getData().getDimensions()[1] == outputDims[1]) : "Inputs must be same size";
 
-    @Nonnull final List<Tensor> outputTensors = new ArrayList<>();
-    for (int b = 0; b < numBatches; b++) {
+    @Nonnull final int[] bandOffsets = new int[inObj.length];
+    for (int i = 1; i < inObj.length; i++) {
+      bandOffsets[i] = bandOffsets[i - 1] + inObj[i - 1].getData().getDimensions()[2];
+    }
+    // Each input, read through any crop or padding views, is written straight into its bands of the output
+    @Nonnull final Tensor[] outputTensors = IntStream.range(0, numBatches).parallel().mapToObj(b -> {
       @Nonnull final Tensor outputTensor = new Tensor(outputDims);
-      int pos = 0;
-      @Nullable final double[] outputTensorData = outputTensor.getData();
       for (int i = 0; i < inObj.length; i++) {
-        @Nullable Tensor tensor = inObj[i].getData().get(b);
-        @Nullable final double[] data = tensor.getData();
-        System.arraycopy(data, 0, outputTensorData, pos, Math.min(data.length, outputTensorData.length - pos));
-        pos += data.length;
-        tensor.freeRef();
+        ImgRegionTensorList.copy(inObj[i].getData(), b, outputTensor.getData(), 0, outputDims, 0, 0, bandOffsets[i]);
       }
-      outputTensors.add(outputTensor);
-    }
-    return new Result(TensorArray.wrap(outputTensors.toArray(new Tensor[]{})), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      return outputTensor;
+    }).toArray(i -> new Tensor[i]);
+    return new Result(TensorArray.wrap(outputTensors), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       assert numBatches == data.length();
-
-      @Nonnull final List<Tensor[]> splitBatches = new ArrayList<>();
-      for (int b = 0; b < numBatches; b++) {
-        @Nullable final Tensor tensor = data.get(b);
-        @Nonnull final Tensor[] outputTensors2 = new Tensor[inObj.length];
-        int pos = 0;
-        for (int i = 0; i < inObj.length; i++) {
-          @Nonnull final Tensor dest = new Tensor(inObj[i].getData().getDimensions());
-          @Nullable double[] tensorData = tensor.getData();
-          System.arraycopy(tensorData, pos, dest.getData(), 0, Math.min(dest.length(), tensorData.length - pos));
-          pos += dest.length();
-          outputTensors2[i] = dest;
-        }
-        tensor.freeRef();
-        splitBatches.add(outputTensors2);
-      }
-
-      @Nonnull final Tensor[][] splitData = new Tensor[inObj.length][];
-      for (int i = 0; i < splitData.length; i++) {
-        splitData[i] = new Tensor[numBatches];
-      }
-      for (int i = 0; i < inObj.length; i++) {
-        for (int b = 0; b < numBatches; b++) {
-          splitData[i][b] = splitBatches.get(b)[i];
-        }
-      }
-
+      // Each input's gradient is a band slice of the output gradient; bands dropped by maxBands read as zero
       for (int i = 0; i < inObj.length; i++) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(splitData[i]);
-        inObj[i].accumulate(buffer, tensorArray);
+        inObj[i].accumulate(buffer, ImgRegionTensorList.create(data, inObj[i].getData().getDimensions(), 0, 0, bandOffsets[i]));
       }
     }) {
 
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.hash.HashCode;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A native-free convolution layer. The forward pass and, at unit stride, the input gradient are evaluated with a
+ * {@link ConvolutionAlgorithm} chosen by shape (im2col, Winograd or FFT); the weight gradient is computed from the
+ * im2col patch matrix using the configured {@link Blas} backend. The filter layout, padding and stride semantics match
+ * the cudnn ConvolutionLayer, so this layer can stand in for it on hosts without CUDA.
+ */
+@SuppressWarnings("serial")
+public class ImgConvolutionLayer extends LayerBase {
+
+  @SuppressWarnings("unused")
+  private static final Logger log = LoggerFactory.getLogger(ImgConvolutionLayer.class);
+  @Nullable
+  private final Tensor kernel;
+  private final int inputBands;
+  private final int outputBands;
+  private int strideX = 1;
+  private int strideY = 1;
+  @Nullable
+  private Integer paddingX = null;
+  @Nullable
+  private Integer paddingY = null;
+  @Nullable
+  private ConvolutionAlgorithm algorithm = null;
+  private transient final ConvolutionAlgorithm.PlanCache forwardPlans = new ConvolutionAlgorithm.PlanCache();
+  private transient final ConvolutionAlgorithm.PlanCache backwardPlans = new ConvolutionAlgorithm.PlanCache();
+
+  /**
+   * Instantiates a new Img convolution layer.
+   *
+   * @param width       the width
+   * @param height      the height
+   * @param inputBands  the input bands
+   * @param outputBands the output bands
+   */
+  public ImgConvolutionLayer(final int width, final int height, final int inputBands, final int outputBands) {
+    super();
+    assert 0 < width;
+    assert 0 < height;
+    assert 0 < inputBands;
+    assert 0 < outputBands;
+    this.kernel = new Tensor(width, height, inputBands * outputBands);
+    this.inputBands = inputBands;
+    this.outputBands = outputBands;
+  }
+
+  /**
+   * Instantiates a layer which shares the identity and filter of another layer, so that weight gradients are reported
+   * against the original.
+   *
+   * @param id          the id
+   * @param name        the name
+   * @param kernel      the kernel, which is retained rather than copied
+   * @param inputBands  the input bands
+   * @param outputBands the output bands
+   */
+  public ImgConvolutionLayer(@Nonnull final UUID id, @Nonnull final String name, @Nonnull final Tensor kernel, final int inputBands, final int outputBands) {
+    super(id, name);
+    if (3 != kernel.getDimensions().length) throw new IllegalArgumentException(Arrays.toString(kernel.getDimensions()));
+    if (inputBands * outputBands != kernel.getDimensions()[2]) throw new IllegalArgumentException(Arrays.toString(kernel.getDimensions()));
+    kernel.addRef();
+    this.kernel = kernel;
+    this.inputBands = inputBands;
+    this.outputBands = outputBands;
+  }
+
+  /**
+   * Instantiates a new Img convolution layer.
+   *
+   * @param json      the json
+   * @param resources the resources
+   */
+  protected ImgConvolutionLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> resources) {
+    super(json);
+    this.kernel = Tensor.fromJson(json.get("filter"), resources);
+    this.inputBands = json.get("inputBands").getAsInt();
+    this.outputBands = json.get("outputBands").getAsInt();
+    if (json.has("strideX")) this.strideX = json.get("strideX").getAsInt();
+    if (json.has("strideY")) this.strideY = json.get("strideY").getAsInt();
+    JsonElement paddingX = json.get("paddingX");
+    if (null != paddingX && paddingX.isJsonPrimitive()) this.paddingX = paddingX.getAsInt();
+    JsonElement paddingY = json.get("paddingY");
+    if (null != paddingY && paddingY.isJsonPrimitive()) this.paddingY = paddingY.getAsInt();
+    if (json.has("algorithm")) this.algorithm = ConvolutionAlgorithm.valueOf(json.get("algorithm").getAsString());
+  }
+
+  /**
+   * From json img convolution layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the img convolution layer
+   */
+  public static ImgConvolutionLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new ImgConvolutionLayer(json, rs);
+  }
+
+  @Nonnull
+  @Override
+  public Result eval(@Nonnull final Result... inObj) {
+    final Result input = inObj[0];
+    final TensorList indata = input.getData();
+    @Nonnull final int[] inputDims = indata.getDimensions();
+    assert 3 == inputDims.length;
+    assert inputBands == inputDims[2] : Arrays.toString(inputDims) + "[2] != " + inputBands;
+    final ConvolutionGeometry geometry = getGeometry(inputDims);
+    indata.addRef();
+    input.addRef();
+    kernel.addRef();
+    ImgConvolutionLayer.this.addRef();
+    final HashCode weights = WeightDigest.of(this);
+    @Nonnull final TensorArray output = forward(geometry, indata, weights);
+    final Blas blas = CoreSettings.INSTANCE().getBlas();
+    return new Result(output, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      if (!isFrozen()) {
+        final int filterLength = geometry.patch * outputBands;
+        final double[] filterGradient = IntStream.range(0, delta.length()).parallel().collect(() -> new double[filterLength], (sum, dataIndex) -> {
+          final Tensor inputTensor = indata.get(dataIndex);
+          final double[] columns = geometry.im2col(inputTensor.getData());
+          inputTensor.freeRef();
+          final Tensor deltaTensor = delta.get(dataIndex);
+          // dF (patch x outputBands) += C (patch x pixels) * dY (pixels x outputBands)
+          blas.gemm(false, false, geometry.patch, outputBands, geometry.pixels, 1.0, columns, deltaTensor.getData(), 1.0, sum);
+          deltaTensor.freeRef();
+          geometry.recycle(columns);
+        }, (a, b) -> {
+          for (int i = 0; i < a.length; i++) a[i] += b[i];
+        });
+        final Delta<UUID> deltaBuffer = buffer.get(ImgConvolutionLayer.this.getId(), kernel.getData());
+        deltaBuffer.addInPlace(geometry.fromMatrix(filterGradient));
+        deltaBuffer.freeRef();
+      }
+      if (input.isAlive()) {
+        @Nonnull final TensorArray passback;
+        if (1 == strideX && 1 == strideY) {
+          // At unit stride the input gradient is itself a convolution, so it can use the fast algorithms
+          final ConvolutionGeometry transpose = geometry.transpose();
+          // The transposed kernel is only built when the plan is; the kernel has the same length for autotune timing
+          final ConvolutionAlgorithm transposeAlgorithm = selectAlgorithm(transpose, kernel.getData(), delta);
+          final ConvolutionAlgorithm.Plan backward = backwardPlans.get(transposeAlgorithm, transpose, weights, () -> geometry.transposeKernel(kernel.getData()));
+          passback = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
+            final Tensor deltaTensor = delta.get(dataIndex);
+            @Nonnull final Tensor tensor = new Tensor(inputDims);
+            backward.apply(deltaTensor.getData(), tensor.getData());
+            deltaTensor.freeRef();
+            return tensor;
+          }).toArray(i -> new Tensor[i]));
+        } else {
+          final double[] filter = geometry.toMatrix(kernel.getData());
+          passback = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
+            final Tensor deltaTensor = delta.get(dataIndex);
+            final double[] columns = RecycleBin.DOUBLES.obtain((long) geometry.patch * geometry.pixels);
+            // dC (patch x pixels) = F (patch x outputBands) * dY^T (outputBands x pixels)
+            blas.gemm(false, true, geometry.patch, geometry.pixels, outputBands, 1.0, filter, deltaTensor.getData(), 0.0, columns);
+            deltaTensor.freeRef();
+            @Nonnull final Tensor tensor = new Tensor(inputDims);
+            geometry.col2im(columns, tensor.getData());
+            geometry.recycle(columns);
+            return tensor;
+          }).toArray(i -> new Tensor[i]));
+        }
+        input.accumulate(buffer, passback);
+      }
+    }) {
+
+      @Override
+      protected void _free() {
+        indata.freeRef();
+        input.freeRef();
+        kernel.freeRef();
+        ImgConvolutionLayer.this.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return input.isAlive() || !isFrozen();
+      }
+    };
+  }
+
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    final TensorList indata = inObj[0].getData();
+    @Nonnull final int[] inputDims = indata.getDimensions();
+    assert 3 == inputDims.length;
+    assert inputBands == inputDims[2] : Arrays.toString(inputDims) + "[2] != " + inputBands;
+    @Nonnull final TensorArray output = forward(getGeometry(inputDims), indata, WeightDigest.of(this));
+    Arrays.stream(inObj).map(Result::getData).forEach(ReferenceCounting::freeRef);
+    Arrays.stream(inObj).forEach(ReferenceCounting::freeRef);
+    return new ConstantResult(output);
+  }
+
+  /**
+   * Convolves each item of the batch using the cached forward plan for the current weights.
+   *
+   * @param geometry the geometry
+   * @param indata   the input batch
+   * @param weights  the weight digest
+   * @return the output
+   */
+  @Nonnull
+  private TensorArray forward(@Nonnull final ConvolutionGeometry geometry, @Nonnull final TensorList indata, @Nonnull final HashCode weights) {
+    final double[] kernelData = kernel.getData();
+    final ConvolutionAlgorithm.Plan forward = forwardPlans.get(selectAlgorithm(geometry, kernelData, indata), geometry, weights, () -> kernelData);
+    return TensorArray.wrap(IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
+      final Tensor inputTensor = indata.get(dataIndex);
+      @Nonnull final Tensor tensor = new Tensor(geometry.outputDims);
+      forward.apply(inputTensor.getData(), tensor.getData());
+      inputTensor.freeRef();
+      return tensor;
+    }).toArray(i -> new Tensor[i]));
+  }
+
+  @Nonnull
+  private ConvolutionAlgorithm selectAlgorithm(@Nonnull final ConvolutionGeometry geometry, @Nonnull final double[] kernelData, @Nonnull final TensorList data) {
+    if (null != algorithm && algorithm.supports(geometry)) return algorithm;
+    return ConvolutionAlgorithm.select(geometry, kernelData, data);
+  }
+
+  @Nonnull
+  private ConvolutionGeometry getGeometry(@Nonnull final int[] inputDims) {
+    return ConvolutionGeometry.create(inputDims, kernel.getDimensions(), outputBands, strideX, strideY, paddingX, paddingY);
+  }
+
+  /**
+   * Computes the output dimensions for a given input size. The implicit padding of (kernelSize - 1) / 2 preserves the
+   * image size for odd kernels at unit stride; the configured padding is added to (or, if negative, removed from) each
+   * edge beyond that.
+   *
+   * @param inputDims the input dims
+   * @return the output dims
+   */
+  @Nonnull
+  public int[] getOutputDims(@Nonnull final int... inputDims) {
+    return getGeometry(inputDims).outputDims;
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    json.add("filter", kernel.toJson(resources, dataSerializer));
+    json.addProperty("strideX", strideX);
+    json.addProperty("strideY", strideY);
+    json.addProperty("paddingX", paddingX);
+    json.addProperty("paddingY", paddingY);
+    json.addProperty("inputBands", inputBands);
+    json.addProperty("outputBands", outputBands);
+    if (null != algorithm) json.addProperty("algorithm", algorithm.name());
+    return json;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList(kernel.getData());
+  }
+
+  /**
+   * Gets kernel.
+   *
+   * @return the kernel
+   */
+  @Nullable
+  public Tensor getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Add weights img convolution layer.
+   *
+   * @param f the f
+   * @return the img convolution layer
+   */
+  @Nonnull
+  public ImgConvolutionLayer addWeights(@Nonnull final DoubleSupplier f) {
+    Util.add(f, kernel.getData());
+    return this;
+  }
+
+  /**
+   * Sets weights.
+   *
+   * @param f the f
+   * @return the weights
+   */
+  @Nonnull
+  public ImgConvolutionLayer setWeights(@Nonnull final DoubleSupplier f) {
+    kernel.coordStream(true).forEach(c -> {
+      kernel.set(c, f.getAsDouble());
+    });
+    return this;
+  }
+
+  /**
+   * Sets weights.
+   *
+   * @param f the f
+   * @return the weights
+   */
+  @Nonnull
+  public ImgConvolutionLayer setWeights(@Nonnull final ToDoubleFunction<Coordinate> f) {
+    kernel.coordStream(true).forEach(c -> {
+      kernel.set(c, f.applyAsDouble(c));
+    });
+    return this;
+  }
+
+  /**
+   * Gets input bands.
+   *
+   * @return the input bands
+   */
+  public int getInputBands() {
+    return inputBands;
+  }
+
+  /**
+   * Gets output bands.
+   *
+   * @return the output bands
+   */
+  public int getOutputBands() {
+    return outputBands;
+  }
+
+  /**
+   * Gets stride x.
+   *
+   * @return the stride x
+   */
+  public int getStrideX() {
+    return strideX;
+  }
+
+  /**
+   * Sets stride x.
+   *
+   * @param strideX the stride x
+   * @return the stride x
+   */
+  @Nonnull
+  public ImgConvolutionLayer setStrideX(final int strideX) {
+    this.strideX = strideX;
+    return this;
+  }
+
+  /**
+   * Gets stride y.
+   *
+   * @return the stride y
+   */
+  public int getStrideY() {
+    return strideY;
+  }
+
+  /**
+   * Sets stride y.
+   *
+   * @param strideY the stride y
+   * @return the stride y
+   */
+  @Nonnull
+  public ImgConvolutionLayer setStrideY(final int strideY) {
+    this.strideY = strideY;
+    return this;
+  }
+
+  /**
+   * Gets padding x.
+   *
+   * @return the padding x
+   */
+  @Nullable
+  public Integer getPaddingX() {
+    return paddingX;
+  }
+
+  /**
+   * Sets padding x.
+   *
+   * @param paddingX the padding x
+   * @return the padding x
+   */
+  @Nonnull
+  public ImgConvolutionLayer setPaddingX(@Nullable final Integer paddingX) {
+    this.paddingX = paddingX;
+    return this;
+  }
+
+  /**
+   * Gets padding y.
+   *
+   * @return the padding y
+   */
+  @Nullable
+  public Integer getPaddingY() {
+    return paddingY;
+  }
+
+  /**
+   * Sets padding y.
+   *
+   * @param paddingY the padding y
+   * @return the padding y
+   */
+  @Nonnull
+  public ImgConvolutionLayer setPaddingY(@Nullable final Integer paddingY) {
+    this.paddingY = paddingY;
+    return this;
+  }
+
+  /**
+   * Gets the algorithm used for the forward pass and the unit-stride input gradient; null selects one automatically by
+   * shape.
+   *
+   * @return the algorithm
+   */
+  @Nullable
+  public ConvolutionAlgorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Sets algorithm. An algorithm which does not support a given shape is replaced by automatic selection.
+   *
+   * @param algorithm the algorithm
+   * @return the algorithm
+   */
+  @Nonnull
+  public ImgConvolutionLayer setAlgorithm(@Nullable final ConvolutionAlgorithm algorithm) {
+    this.algorithm = algorithm;
+    return this;
+  }
+
+  @Override
+  protected void _free() {
+    kernel.freeRef();
+    super._free();
+  }
+}
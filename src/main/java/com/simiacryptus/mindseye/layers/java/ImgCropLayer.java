@@ -75,10 +75,8 @@ public class ImgCropLayer extends LayerBase {
     assert 3 == inDim.length;
     assert 3 == outDim.length;
     assert inDim[2] == outDim[2] : Arrays.toString(inDim) + "; " + Arrays.toString(outDim);
-    double fx = (inDim[0] - outDim[0]) / 2.0;
-    double fy = (inDim[1] - outDim[1]) / 2.0;
-    final int paddingX = (int) (fx < 0 ? Math.ceil(fx) : Math.floor(fx));
-    final int paddingY = (int) (fy < 0 ? Math.ceil(fy) : Math.floor(fy));
+    final int paddingX = getOffset(inDim[0], outDim[0]);
+    final int paddingY = getOffset(inDim[1], outDim[1]);
     outputData.coordStream(true).forEach((c) -> {
       int x = c.getCoords()[0] + paddingX;
       int y = c.getCoords()[1] + paddingY;
@@ -113,6 +111,18 @@ public class ImgCropLayer extends LayerBase {
     return new ImgCropLayer(json);
   }
 
+  /**
+   * Gets the offset of a centered window of one size within another, as used by {@link #copy(Tensor, Tensor)}.
+   *
+   * @param inputSize  the input size
+   * @param outputSize the output size
+   * @return the offset of the window in the input
+   */
+  static int getOffset(final int inputSize, final int outputSize) {
+    final double f = (inputSize - outputSize) / 2.0;
+    return (int) (f < 0 ? Math.ceil(f) : Math.floor(f));
+  }
+
   @Nonnull
   @Override
   public Result eval(@Nonnull final Result... inObj) {
@@ -121,25 +131,12 @@ public class ImgCropLayer extends LayerBase {
     final TensorList batch = input.getData();
     @Nonnull final int[] inputDims = batch.getDimensions();
     assert 3 == inputDims.length;
-    return new Result(TensorArray.wrap(IntStream.range(0, batch.length()).parallel()
-        .mapToObj(dataIndex -> {
-          @Nonnull final Tensor outputData = new Tensor(sizeX, sizeY, inputDims[2]);
-          Tensor inputData = batch.get(dataIndex);
-          ImgCropLayer.copy(inputData, outputData);
-          inputData.freeRef();
-          return outputData;
-        })
-        .toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList error) -> {
+    final int offsetX = getOffset(inputDims[0], sizeX);
+    final int offsetY = getOffset(inputDims[1], sizeY);
+    // Both passes are views; the window is only copied when a consumer reads it
+    return new Result(ImgRegionTensorList.create(batch, new int[]{sizeX, sizeY, inputDims[2]}, offsetX, offsetY, 0), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList error) -> {
       if (input.isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, error.length()).parallel()
-            .mapToObj(dataIndex -> {
-              @Nullable final Tensor err = error.get(dataIndex);
-              @Nonnull final Tensor passback = new Tensor(inputDims);
-              copy(err, passback);
-              err.freeRef();
-              return passback;
-            }).toArray(i -> new Tensor[i]));
-        input.accumulate(buffer, tensorArray);
+        input.accumulate(buffer, ImgRegionTensorList.create(error, inputDims, -offsetX, -offsetY, 0));
       }
     }) {
 
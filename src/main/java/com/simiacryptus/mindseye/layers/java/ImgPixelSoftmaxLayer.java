@@ -32,7 +32,7 @@ import java.util.UUID;
 import java.util.stream.IntStream;
 
 /**
- * Scales the input using per-color-band coefficients
+ * Computes the softmax over the bands of each pixel.
  */
 @SuppressWarnings("serial")
 public class ImgPixelSoftmaxLayer extends LayerBase {
@@ -89,102 +89,19 @@ public class ImgPixelSoftmaxLayer extends LayerBase {
     int[] inputDims = inputData.getDimensions();
     assert 3 == inputDims.length;
     final int inputBands = inputDims[2];
-    final int width = inputDims[0];
-    final int height = inputDims[1];
-    TensorArray maxima = TensorArray.wrap(inputData.stream().map(inputTensor -> {
-      try {
-        return new Tensor(width, height, 1).setByCoord(c -> {
-          return IntStream.range(0, inputBands).mapToDouble(band -> {
-            int[] coords = c.getCoords();
-            return inputTensor.get(coords[0], coords[1], band);
-          }).max().getAsDouble();
-        });
-      } finally {
-        inputTensor.freeRef();
-      }
-    }).toArray(i -> new Tensor[i]));
-    TensorArray exps = TensorArray.wrap(IntStream.range(0, inputData.length()).mapToObj(index -> {
-      final Tensor inputTensor = inputData.get(index);
-      Tensor maxTensor = maxima.get(index);
-      try {
-        return new Tensor(inputDims).setByCoord(c -> {
-          int[] coords = c.getCoords();
-          return Math.exp(inputTensor.get(c) - maxTensor.get(coords[0], coords[1], 0));
-        });
-      } finally {
-        inputTensor.freeRef();
-        maxTensor.freeRef();
-      }
-    }).toArray(i -> new Tensor[i]));
-    maxima.freeRef();
-    TensorArray sums = TensorArray.wrap(exps.stream().map(expTensor -> {
-      try {
-        return new Tensor(width, height, 1).setByCoord(c -> {
-          return IntStream.range(0, inputBands).mapToDouble(band -> {
-            int[] coords = c.getCoords();
-            return expTensor.get(coords[0], coords[1], band);
-          }).sum();
-        });
-      } finally {
-        expTensor.freeRef();
-      }
-    }).toArray(i -> new Tensor[i]));
-    TensorArray output = TensorArray.wrap(IntStream.range(0, inputData.length()).mapToObj(index -> {
-      Tensor sumTensor = sums.get(index);
-      Tensor expTensor = exps.get(index);
-      try {
-        return new Tensor(inputDims).setByCoord(c -> {
-          int[] coords = c.getCoords();
-          return (expTensor.get(c) / sumTensor.get(coords[0], coords[1], 0));
-        });
-      } finally {
-        sumTensor.freeRef();
-        expTensor.freeRef();
-      }
-    }).toArray(i -> new Tensor[i]));
+    final int pixels = inputDims[0] * inputDims[1];
+    final Tensor[] outputA = IntStream.range(0, inputData.length()).mapToObj(index -> new Tensor(inputDims)).toArray(i -> new Tensor[i]);
+    ImgBandReduction.forEachBlock(inputData, pixels, (index, data, block) ->
+        ImgBandReduction.softmax(data, outputA[index].getData(), pixels, inputBands, block));
+    // The softmax output is all that backprop needs
+    TensorArray output = TensorArray.wrap(outputA);
+    output.addRef();
     return new Result(output, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (input.isAlive()) {
-
-        TensorArray dots = TensorArray.wrap(IntStream.range(0, inputData.length()).mapToObj(index -> {
-          final Tensor deltaTensor = delta.get(index);
-          Tensor expTensor = exps.get(index);
-          try {
-            return new Tensor(width, height, 1).setByCoord(c -> {
-              return IntStream.range(0, inputBands).mapToDouble(band -> {
-                int[] coords = c.getCoords();
-                return expTensor.get(coords[0], coords[1], band) * deltaTensor.get(coords[0], coords[1], band);
-              }).sum();
-            });
-          } finally {
-            expTensor.freeRef();
-            deltaTensor.freeRef();
-          }
-        }).toArray(i -> new Tensor[i]));
-
-        TensorArray passback = TensorArray.wrap(IntStream.range(0, inputData.length()).mapToObj(index -> {
-          final Tensor deltaTensor = delta.get(index);
-          final Tensor expTensor = exps.get(index);
-          Tensor sumTensor = sums.get(index);
-          Tensor dotTensor = dots.get(index);
-          try {
-            return new Tensor(inputDims).setByCoord(c -> {
-              int[] coords = c.getCoords();
-              double sum = sumTensor.get(coords[0], coords[1], 0);
-              double dot = dotTensor.get(coords[0], coords[1], 0);
-              double deltaValue = deltaTensor.get(c);
-              double expValue = expTensor.get(c);
-              return (sum * deltaValue - dot) * expValue / (sum * sum);
-            });
-          } finally {
-            deltaTensor.freeRef();
-            expTensor.freeRef();
-            sumTensor.freeRef();
-            dotTensor.freeRef();
-          }
-        }).toArray(i -> new Tensor[i]));
-
-        input.accumulate(buffer, passback);
-        dots.freeRef();
+        final Tensor[] passbackA = IntStream.range(0, delta.length()).mapToObj(index -> new Tensor(inputDims)).toArray(i -> new Tensor[i]);
+        ImgBandReduction.forEachBlock(delta, pixels, (index, data, block) ->
+            ImgBandReduction.softmaxBackward(outputA[index].getData(), data, passbackA[index].getData(), pixels, inputBands, block));
+        input.accumulate(buffer, TensorArray.wrap(passbackA));
       }
     }) {
 
@@ -192,8 +109,7 @@ public class ImgPixelSoftmaxLayer extends LayerBase {
       protected void _free() {
         inputData.freeRef();
         input.freeRef();
-        sums.freeRef();
-        exps.freeRef();
+        output.freeRef();
       }
 
 
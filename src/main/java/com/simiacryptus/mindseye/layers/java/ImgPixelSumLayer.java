@@ -86,28 +86,16 @@ public class ImgPixelSumLayer extends LayerBase {
     final TensorList inputData = input.getData();
     int[] inputDims = inputData.getDimensions();
     assert 3 == inputDims.length;
-    return new Result(TensorArray.wrap(inputData.stream().map(tensor -> {
-      Tensor result = new Tensor(inputDims[0], inputDims[1], 1).setByCoord(c -> {
-        return IntStream.range(0, inputDims[2]).mapToDouble(i -> {
-          int[] coords = c.getCoords();
-          return tensor.get(coords[0], coords[1], i);
-        }).sum();
-      });
-      tensor.freeRef();
-      return result;
-    }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+    final int pixels = inputDims[0] * inputDims[1];
+    final Tensor[] outputA = IntStream.range(0, inputData.length()).mapToObj(index -> new Tensor(inputDims[0], inputDims[1], 1)).toArray(i -> new Tensor[i]);
+    ImgBandReduction.forEachBlock(inputData, pixels, (index, data, block) ->
+        ImgBandReduction.sum(data, outputA[index].getData(), pixels, inputDims[2], block));
+    return new Result(TensorArray.wrap(outputA), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (input.isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(delta.stream().map(deltaTensor -> {
-          int[] deltaDims = deltaTensor.getDimensions();
-          Tensor result = new Tensor(deltaDims[0], deltaDims[1], inputDims[2])
-              .setByCoord(c -> {
-                int[] coords = c.getCoords();
-                return deltaTensor.get(coords[0], coords[1], 0);
-              });
-          deltaTensor.freeRef();
-          return result;
-        }).toArray(i -> new Tensor[i]));
-        input.accumulate(buffer, tensorArray);
+        final Tensor[] passbackA = IntStream.range(0, delta.length()).mapToObj(index -> new Tensor(inputDims)).toArray(i -> new Tensor[i]);
+        ImgBandReduction.forEachBlock(delta, pixels, (index, data, block) ->
+            ImgBandReduction.sumBackward(data, passbackA[index].getData(), pixels, inputDims[2], block));
+        input.accumulate(buffer, TensorArray.wrap(passbackA));
       }
     }) {
 
@@ -174,6 +174,7 @@ public class ImgTileAssemblyLayer extends LayerBase {
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
     assert 3 == inObj[0].getData().getDimensions().length;
     int[] outputDims = getOutputDims(inObj);
+    if (0 == getPaddingX() && 0 == getPaddingY() && offsetX >= 0 && offsetY >= 0) return evalRegions(outputDims, inObj);
     return new Result(TensorArray.wrap(IntStream.range(0, inObj[0].getData().length()).parallel()
         .mapToObj(dataIndex -> {
           @Nonnull final Tensor outputData = new Tensor(outputDims);
@@ -259,6 +260,61 @@ public class ImgTileAssemblyLayer extends LayerBase {
     };
   }
 
+  /**
+   * Assembles tiles which neither overlap through padding nor wrap around: each tile, read through any views, is
+   * written straight into its region of the output, and each tile's gradient is a view of the output gradient.
+   *
+   * @param outputDims the output dims
+   * @param inObj      the tiles, already referenced
+   * @return the result
+   */
+  @Nonnull
+  private Result evalRegions(@Nonnull final int[] outputDims, @Nonnull final Result[] inObj) {
+    final int[] positionX = new int[inObj.length];
+    final int[] positionY = new int[inObj.length];
+    int y = offsetY;
+    for (int row = 0; row < rows; row++) {
+      int x = offsetX;
+      int rowHeight = 0;
+      for (int col = 0; col < columns; col++) {
+        final int index = row * columns + col;
+        @Nonnull final int[] tileDimensions = inObj[index].getData().getDimensions();
+        positionX[index] = x;
+        positionY[index] = y;
+        x += tileDimensions[0];
+        rowHeight = Math.max(rowHeight, tileDimensions[1]);
+      }
+      y += rowHeight;
+    }
+    return new Result(TensorArray.wrap(IntStream.range(0, inObj[0].getData().length()).parallel()
+        .mapToObj(dataIndex -> {
+          @Nonnull final Tensor outputData = new Tensor(outputDims);
+          for (int index = 0; index < inObj.length; index++) {
+            ImgRegionTensorList.copy(inObj[index].getData(), dataIndex, outputData.getData(), 0, outputDims, positionX[index], positionY[index], 0);
+          }
+          return outputData;
+        })
+        .toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      for (int index = 0; index < inObj.length; index++) {
+        final Result in = inObj[index];
+        if (in.isAlive()) {
+          in.accumulate(buffer, ImgRegionTensorList.create(delta, in.getData().getDimensions(), positionX[index], positionY[index], 0));
+        }
+      }
+    }) {
+
+      @Override
+      protected void _free() {
+        Arrays.stream(inObj).forEach(nnResult -> nnResult.freeRef());
+      }
+
+      @Override
+      public boolean isAlive() {
+        return inObj[0].isAlive() || !isFrozen();
+      }
+    };
+  }
+
   private int[] getOutputDims(@Nonnull final Result[] inObj) {
     int[] dimensions1 = inObj[0].getData().getDimensions();
     int bands = dimensions1.length < 2 ? 1 : dimensions1[2];
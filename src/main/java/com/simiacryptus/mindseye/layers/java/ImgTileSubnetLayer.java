@@ -20,10 +20,7 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
-import com.simiacryptus.mindseye.lang.DataSerializer;
-import com.simiacryptus.mindseye.lang.Layer;
-import com.simiacryptus.mindseye.lang.Result;
-import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.lang.*;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,11 +28,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * This key works as a scaling function, similar to a father wavelet. Allows convolutional and pooling layers to work
  * across larger png regions.
+ * <p>
+ * Tiles are evaluated by a {@link TileExecutor} with at most {@link #getMaxConcurrency()} tiles in flight, and each
+ * tile's output is copied straight into a preallocated output image, tiles placed side by side in grid order. A tile
+ * result which needs no backpropagation, and every tile during inference, is freed as soon as it is copied, so memory is
+ * bounded by the in-flight tiles rather than the whole image. Each tile may be extended by a halo of neighbouring input
+ * on every side, zero beyond the image, which is cropped from the tile's output in proportion to the output size; a
+ * halo of at least the subnetwork's receptive field radius makes the tile edges seamless.
  */
 @SuppressWarnings("serial")
 public class ImgTileSubnetLayer extends WrapperLayer {
@@ -44,6 +51,9 @@ public class ImgTileSubnetLayer extends WrapperLayer {
   private final int width;
   private final int strideX;
   private final int strideY;
+  private int haloX = 0;
+  private int haloY = 0;
+  private int maxConcurrency = 0;
 
   /**
    * Instantiates a new Rescaled subnet key.
@@ -85,7 +95,9 @@ public class ImgTileSubnetLayer extends WrapperLayer {
     width = json.getAsJsonPrimitive("width").getAsInt();
     strideX = json.getAsJsonPrimitive("strideX").getAsInt();
     strideY = json.getAsJsonPrimitive("strideY").getAsInt();
-    JsonObject subnetwork = json.getAsJsonObject("subnetwork");
+    if (json.has("haloX")) haloX = json.getAsJsonPrimitive("haloX").getAsInt();
+    if (json.has("haloY")) haloY = json.getAsJsonPrimitive("haloY").getAsInt();
+    if (json.has("maxConcurrency")) maxConcurrency = json.getAsJsonPrimitive("maxConcurrency").getAsInt();
   }
 
   /**
@@ -99,61 +111,182 @@ public class ImgTileSubnetLayer extends WrapperLayer {
     return new ImgTileSubnetLayer(json, rs);
   }
 
+  /**
+   * Copies a region of w x h pixels, in every band, between two images, skipping pixels outside either image.
+   *
+   * @param src     the source data
+   * @param srcDims the source dims
+   * @param srcX    the source x
+   * @param srcY    the source y
+   * @param dst     the destination data
+   * @param dstDims the destination dims
+   * @param dstX    the destination x
+   * @param dstY    the destination y
+   * @param w       the region width
+   * @param h       the region height
+   * @param add     whether to add into the destination rather than overwrite it
+   */
+  static void copyRegion(@Nonnull final double[] src, @Nonnull final int[] srcDims, final int srcX, final int srcY,
+                         @Nonnull final double[] dst, @Nonnull final int[] dstDims, final int dstX, final int dstY,
+                         final int w, final int h, final boolean add) {
+    final int x0 = Math.max(0, Math.max(-srcX, -dstX));
+    final int x1 = Math.min(w, Math.min(srcDims[0] - srcX, dstDims[0] - dstX));
+    if (x0 >= x1) return;
+    for (int band = 0; band < srcDims[2]; band++) {
+      for (int y = 0; y < h; y++) {
+        final int sy = srcY + y;
+        final int dy = dstY + y;
+        if (sy < 0 || sy >= srcDims[1] || dy < 0 || dy >= dstDims[1]) continue;
+        final int from = srcX + x0 + srcDims[0] * (sy + srcDims[1] * band);
+        final int to = dstX + x0 + dstDims[0] * (dy + dstDims[1] * band);
+        if (add) {
+          for (int x = 0; x < x1 - x0; x++) {
+            dst[to + x] += src[from + x];
+          }
+        } else {
+          System.arraycopy(src, from, dst, to, x1 - x0);
+        }
+      }
+    }
+  }
+
+  private static int getMargin(final int halo, final int size, final int outputSize) {
+    final int inputSize = size + 2 * halo;
+    if (0 != (long) halo * outputSize % inputSize) {
+      throw new IllegalStateException(String.format("Halo %d of a %d pixel tile does not map onto its %d pixel output", halo, inputSize, outputSize));
+    }
+    return halo * outputSize / inputSize;
+  }
+
   @Nullable
   @Override
   public Result evalAndFree(@Nonnull final Result... inObj) {
+    return evalTiles(false, inObj);
+  }
+
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(@Nonnull final Result... inObj) {
+    return evalTiles(true, inObj);
+  }
+
+  /**
+   * Evaluates the subnetwork tile by tile. During inference each tile runs through the subnetwork's forward-only path
+   * and is freed as soon as it is copied into the output, whether or not the subnetwork has trainable weights.
+   *
+   * @param inference whether to evaluate the forward pass only
+   * @param inObj     the input
+   * @return the result
+   */
+  private Result evalTiles(final boolean inference, @Nonnull final Result... inObj) {
     assert 1 == inObj.length;
-    Result input = inObj[0];
+    final Result input = inObj[0];
     final TensorList inputData = input.getData();
     @Nonnull final int[] inputDims = inputData.getDimensions();
     assert 3 == inputDims.length;
-    int cols = (int) (Math.ceil((inputDims[0] - width) * 1.0 / strideX) + 1);
-    int rows = (int) (Math.ceil((inputDims[1] - height) * 1.0 / strideY) + 1);
-    if (cols == 1 && rows == 1) return getInner().evalAndFree(inObj);
-    Result[] results = new Result[rows * cols];
-    TensorList[] passback = new TensorList[rows * cols];
-    int index = 0;
-    AtomicInteger passbacks = new AtomicInteger(0);
-    for (int row = 0; row < rows; row++) {
-      for (int col = 0; col < cols; col++) {
-        input.addRef();
-        inputData.addRef();
-        int positionX = col * strideX;
-        int positionY = row * strideY;
-        assert positionX >= 0;
-        assert positionY >= 0;
-        assert positionX < inputDims[0];
-        assert positionY < inputDims[1];
-        final int finalIndex = index;
-        ImgTileSelectLayer tileSelectLayer = new ImgTileSelectLayer(width, height, positionX, positionY);
-        Result selectedTile = tileSelectLayer.evalAndFree(new Result(inputData, (ctx, delta) -> {
-          passback[finalIndex] = delta;
-          if (passbacks.incrementAndGet() == rows * cols) {
-            passbacks.set(0);
-            ImgTileAssemblyLayer imgTileAssemblyLayer = new ImgTileAssemblyLayer(cols, rows);
-            TensorList reassembled = imgTileAssemblyLayer.evalAndFree(Arrays.stream(passback).map(t -> new Result(t, (c2, d2) -> {
-            })).toArray(i -> new Result[i])).getDataAndFree();
-            imgTileAssemblyLayer.freeRef();
-            input.accumulate(ctx, reassembled);
-          }
-        }) {
-          @Override
-          protected void _free() {
-            input.freeRef();
-            super._free();
+    final int cols = (int) (Math.ceil((inputDims[0] - width) * 1.0 / strideX) + 1);
+    final int rows = (int) (Math.ceil((inputDims[1] - height) * 1.0 / strideY) + 1);
+    if (cols == 1 && rows == 1 && 0 == haloX && 0 == haloY) {
+      return inference ? getInner().evalInferenceAndFree(inObj) : getInner().evalAndFree(inObj);
+    }
+    final int length = inputData.length();
+    final boolean inputAlive = input.isAlive();
+    @Nonnull final int[] tileDims = {width + 2 * haloX, height + 2 * haloY, inputDims[2]};
+    // Input gradients of the current backward pass, summed over overlapping tiles
+    @Nonnull final Tensor[][] passback = new Tensor[1][];
+    @Nonnull final Result[] retained = new Result[rows * cols];
+    @Nonnull final IntFunction<Result> evalTile = index -> {
+      final int positionX = (index % cols) * strideX - haloX;
+      final int positionY = (index / cols) * strideY - haloY;
+      @Nonnull final TensorArray tileData = TensorArray.wrap(IntStream.range(0, length).mapToObj(dataIndex -> {
+        @Nullable final Tensor image = inputData.get(dataIndex);
+        @Nonnull final Tensor tile = new Tensor(tileDims);
+        copyRegion(image.getData(), inputDims, positionX, positionY, tile.getData(), tileDims, 0, 0, tileDims[0], tileDims[1], false);
+        image.freeRef();
+        return tile;
+      }).toArray(i -> new Tensor[i]));
+      if (inference) return getInner().evalInferenceAndFree(new ConstantResult(tileData));
+      if (!inputAlive) return getInner().evalAndFree(new ConstantResult(tileData));
+      return getInner().evalAndFree(new Result(tileData, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+        synchronized (passback) {
+          for (int dataIndex = 0; dataIndex < length; dataIndex++) {
+            @Nullable final Tensor tileDelta = delta.get(dataIndex);
+            copyRegion(tileDelta.getData(), tileDims, 0, 0, passback[0][dataIndex].getData(), inputDims, positionX, positionY, tileDims[0], tileDims[1], true);
+            tileDelta.freeRef();
           }
-        });
-        tileSelectLayer.freeRef();
-        results[index] = getInner().evalAndFree(selectedTile);
-        index = index + 1;
+        }
+      }));
+    };
+    // The first tile fixes the output geometry
+    final Result first = evalTile.apply(0);
+    @Nonnull final int[] tileOutputDims = first.getData().getDimensions();
+    final int marginX = getMargin(haloX, width, tileOutputDims[0]);
+    final int marginY = getMargin(haloY, height, tileOutputDims[1]);
+    final int keepX = tileOutputDims[0] - 2 * marginX;
+    final int keepY = tileOutputDims[1] - 2 * marginY;
+    @Nonnull final int[] outputDims = {cols * keepX, rows * keepY, tileOutputDims[2]};
+    @Nonnull final Tensor[] output = IntStream.range(0, length).mapToObj(i -> new Tensor(outputDims)).toArray(i -> new Tensor[i]);
+    @Nonnull final ObjIntConsumer<Result> place = (result, index) -> {
+      final TensorList tileOutput = result.getData();
+      assert Arrays.equals(tileOutputDims, tileOutput.getDimensions()) : Arrays.toString(tileOutput.getDimensions());
+      for (int dataIndex = 0; dataIndex < length; dataIndex++) {
+        @Nullable final Tensor tile = tileOutput.get(dataIndex);
+        copyRegion(tile.getData(), tileOutputDims, marginX, marginY, output[dataIndex].getData(), outputDims,
+            (index % cols) * keepX, (index / cols) * keepY, keepX, keepY, false);
+        tile.freeRef();
       }
-    }
-    input.freeRef();
+      if (!inference && result.isAlive()) {
+        retained[index] = result;
+      } else {
+        tileOutput.freeRef();
+        result.freeRef();
+      }
+    };
+    place.accept(first, 0);
+    TileExecutor.run(rows * cols - 1, maxConcurrency, i -> place.accept(evalTile.apply(i + 1), i + 1));
     inputData.freeRef();
-    ImgTileAssemblyLayer imgTileAssemblyLayer = new ImgTileAssemblyLayer(cols, rows);
-    Result result = imgTileAssemblyLayer.evalAndFree(results);
-    imgTileAssemblyLayer.freeRef();
-    return result;
+    if (Arrays.stream(retained).allMatch(x -> null == x)) {
+      input.freeRef();
+      return new ConstantResult(TensorArray.wrap(output));
+    }
+    return new Result(TensorArray.wrap(output), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      if (inputAlive) {
+        synchronized (passback) {
+          passback[0] = IntStream.range(0, length).mapToObj(i -> new Tensor(inputDims)).toArray(i -> new Tensor[i]);
+        }
+      }
+      TileExecutor.run(rows * cols, maxConcurrency, index -> {
+        final Result tileResult = retained[index];
+        if (null == tileResult) return;
+        tileResult.accumulate(buffer, TensorArray.wrap(IntStream.range(0, length).mapToObj(dataIndex -> {
+          @Nullable final Tensor outputDelta = delta.get(dataIndex);
+          @Nonnull final Tensor tileDelta = new Tensor(tileOutputDims);
+          copyRegion(outputDelta.getData(), outputDims, (index % cols) * keepX, (index / cols) * keepY,
+              tileDelta.getData(), tileOutputDims, marginX, marginY, keepX, keepY, false);
+          outputDelta.freeRef();
+          return tileDelta;
+        }).toArray(i -> new Tensor[i])));
+      });
+      if (inputAlive) {
+        final Tensor[] inputDelta;
+        synchronized (passback) {
+          inputDelta = passback[0];
+          passback[0] = null;
+        }
+        input.accumulate(buffer, TensorArray.wrap(inputDelta));
+      }
+    }) {
+      @Override
+      protected void _free() {
+        for (@Nullable final Result tileResult : retained) {
+          if (null == tileResult) continue;
+          tileResult.getData().freeRef();
+          tileResult.freeRef();
+        }
+        input.freeRef();
+        super._free();
+      }
+    };
   }
 
   @Nonnull
@@ -164,6 +297,9 @@ public class ImgTileSubnetLayer extends WrapperLayer {
     json.addProperty("width", width);
     json.addProperty("strideX", strideX);
     json.addProperty("strideY", strideY);
+    json.addProperty("haloX", haloX);
+    json.addProperty("haloY", haloY);
+    json.addProperty("maxConcurrency", maxConcurrency);
     return json;
   }
 
@@ -174,4 +310,66 @@ public class ImgTileSubnetLayer extends WrapperLayer {
     return new ArrayList<>();
   }
 
+  /**
+   * Gets halo x, the number of input pixels each tile is extended by on its left and right edges.
+   *
+   * @return the halo x
+   */
+  public int getHaloX() {
+    return haloX;
+  }
+
+  /**
+   * Sets halo x.
+   *
+   * @param haloX the halo x
+   * @return the halo x
+   */
+  @Nonnull
+  public ImgTileSubnetLayer setHaloX(final int haloX) {
+    this.haloX = haloX;
+    return this;
+  }
+
+  /**
+   * Gets halo y, the number of input pixels each tile is extended by on its top and bottom edges.
+   *
+   * @return the halo y
+   */
+  public int getHaloY() {
+    return haloY;
+  }
+
+  /**
+   * Sets halo y.
+   *
+   * @param haloY the halo y
+   * @return the halo y
+   */
+  @Nonnull
+  public ImgTileSubnetLayer setHaloY(final int haloY) {
+    this.haloY = haloY;
+    return this;
+  }
+
+  /**
+   * Gets the maximum number of tiles evaluated at once; 0 uses one per available processor.
+   *
+   * @return the max concurrency
+   */
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  /**
+   * Sets max concurrency.
+   *
+   * @param maxConcurrency the max concurrency
+   * @return the max concurrency
+   */
+  @Nonnull
+  public ImgTileSubnetLayer setMaxConcurrency(final int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Symmetric linear int8 quantization, q = clamp(round(x / scale), -127, 127). Weight matrices are quantized per row,
+ * i.e. per output channel, so that each channel keeps its own dynamic range; activations use one scale per tensor.
+ * Products are accumulated in 32-bit integers, which cannot overflow for fewer than 2^17 terms.
+ */
+final class Int8Quantization {
+
+  /**
+   * The largest quantized magnitude.
+   */
+  static final int RANGE = 127;
+
+  private Int8Quantization() {
+  }
+
+  /**
+   * Computes the scale mapping a range of magnitudes onto the quantized range.
+   *
+   * @param range the largest magnitude to represent
+   * @return the scale
+   */
+  static double scale(final double range) {
+    return range > 0 && Double.isFinite(range) ? range / RANGE : 1.0;
+  }
+
+  /**
+   * Computes the per-row scales of a row-major matrix.
+   *
+   * @param matrix    the matrix
+   * @param rowLength the row length
+   * @return the scales
+   */
+  @Nonnull
+  static double[] rowScales(@Nonnull final double[] matrix, final int rowLength) {
+    final double[] scales = new double[matrix.length / rowLength];
+    for (int row = 0; row < scales.length; row++) {
+      double max = 0;
+      for (int i = row * rowLength; i < (row + 1) * rowLength; i++) {
+        max = Math.max(max, Math.abs(matrix[i]));
+      }
+      scales[row] = scale(max);
+    }
+    return scales;
+  }
+
+  /**
+   * Quantizes a row-major matrix using per-row scales.
+   *
+   * @param matrix    the matrix
+   * @param rowLength the row length
+   * @param scales    the row scales
+   * @return the quantized matrix
+   */
+  @Nonnull
+  static byte[] quantizeRows(@Nonnull final double[] matrix, final int rowLength, @Nonnull final double[] scales) {
+    final byte[] quantized = new byte[matrix.length];
+    for (int i = 0; i < matrix.length; i++) {
+      quantized[i] = quantize(matrix[i], scales[i / rowLength]);
+    }
+    return quantized;
+  }
+
+  /**
+   * Quantizes an activation tensor using a single scale; values beyond the calibrated range saturate.
+   *
+   * @param data  the data
+   * @param scale the scale
+   * @return the quantized data
+   */
+  @Nonnull
+  static byte[] quantize(@Nonnull final double[] data, final double scale) {
+    final byte[] quantized = new byte[data.length];
+    for (int i = 0; i < data.length; i++) {
+      quantized[i] = quantize(data[i], scale);
+    }
+    return quantized;
+  }
+
+  /**
+   * Quantizes a value.
+   *
+   * @param value the value
+   * @param scale the scale
+   * @return the quantized value
+   */
+  static byte quantize(final double value, final double scale) {
+    final long q = Math.round(value / scale);
+    return (byte) Math.max(-RANGE, Math.min(RANGE, q));
+  }
+
+  /**
+   * Computes the integer dot product of two quantized vectors.
+   *
+   * @param a       the first vector
+   * @param aOffset the first vector offset
+   * @param b       the second vector
+   * @param bOffset the second vector offset
+   * @param length  the length
+   * @return the dot product
+   */
+  static int dot(@Nonnull final byte[] a, final int aOffset, @Nonnull final byte[] b, final int bOffset, final int length) {
+    int sum = 0;
+    for (int i = 0; i < length; i++) {
+      sum += a[aOffset + i] * b[bOffset + i];
+    }
+    return sum;
+  }
+
+  /**
+   * Serializes quantized data, as a resource when a resource map is given and inline otherwise.
+   *
+   * @param data      the data
+   * @param resources the resources
+   * @return the json
+   */
+  @Nonnull
+  static JsonObject toJson(@Nonnull final byte[] data, @Nullable final Map<CharSequence, byte[]> resources) {
+    @Nonnull final JsonObject json = new JsonObject();
+    if (null != resources) {
+      @Nonnull final String id = UUID.randomUUID().toString();
+      json.addProperty("resource", id);
+      resources.put(id, data);
+    } else {
+      json.addProperty("base64", Base64.getEncoder().encodeToString(data));
+    }
+    return json;
+  }
+
+  /**
+   * Deserializes quantized data written by {@link #toJson(byte[], Map)}.
+   *
+   * @param json      the json
+   * @param resources the resources
+   * @return the data
+   */
+  @Nonnull
+  static byte[] fromJson(@Nonnull final JsonElement json, @Nullable final Map<CharSequence, byte[]> resources) {
+    @Nonnull final JsonObject jsonObject = json.getAsJsonObject();
+    if (jsonObject.has("resource")) {
+      if (null == resources) throw new IllegalArgumentException("No Data Resources");
+      return resources.get(jsonObject.get("resource").getAsString());
+    }
+    return Base64.getDecoder().decode(jsonObject.get("base64").getAsString());
+  }
+}
@@ -20,9 +20,12 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
 import com.simiacryptus.mindseye.lang.DataSerializer;
+import com.simiacryptus.mindseye.lang.MathMode;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 
 /**
@@ -66,7 +69,7 @@ public final class LogActivationLayer extends SimpleActivationLayer<LogActivatio
     } else if (x > 0) {
       final double minDeriv = 0;
       final double d = 0 == x ? Double.NaN : 1 / x;
-      final double f = 0 == x ? Double.NEGATIVE_INFINITY : Math.log(Math.abs(x));
+      final double f = 0 == x ? Double.NEGATIVE_INFINITY : CoreSettings.INSTANCE().getMath().log(Math.abs(x));
       assert Double.isFinite(d);
       assert minDeriv <= Math.abs(d);
       results[0] = f;
@@ -77,6 +80,25 @@ public final class LogActivationLayer extends SimpleActivationLayer<LogActivatio
     }
   }
 
+  @Override
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double x = input[i];
+      final boolean nonzero = x < 0 || x > 0;
+      output[i] = nonzero ? math.log(Math.abs(x)) : 0;
+      if (null != derivative) derivative[i] = nonzero ? 1 / x : 0;
+    }
+  }
+
+  @Override
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    for (int i = 0; i < input.length; i++) {
+      final double x = input[i];
+      if (x < 0 || x > 0) passback[i] = delta[i] / x;
+    }
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.CounterRandom;
 import com.simiacryptus.util.JsonUtil;
 import com.simiacryptus.util.Util;
 import com.simiacryptus.util.data.IntArray;
@@ -31,7 +32,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -45,7 +45,7 @@ public class MaxDropoutNoiseLayer extends LayerBase {
   private static final Logger log = LoggerFactory.getLogger(MaxDropoutNoiseLayer.class);
   @Nullable
   private final int[] kernelSize;
-  private final Function<IntArray, List<List<Coordinate>>> getCellMap_cached = Util.cache(this::getCellMap);
+  private final Function<IntArray, int[]> getCellMap_cached = Util.cache(this::getCellMap);
 
   /**
    * Instantiates a new Max dropout noise key.
@@ -93,37 +93,42 @@ public class MaxDropoutNoiseLayer extends LayerBase {
     final int itemCnt = data0.length();
     in0.addRef();
     data0.addRef();
-    final Tensor[] mask = IntStream.range(0, itemCnt).mapToObj(dataIndex -> {
-      @Nullable final Tensor input = data0.get(dataIndex);
-      @Nullable final Tensor output = input.map(x -> 0);
-      final List<List<Coordinate>> cells = getCellMap_cached.apply(new IntArray(output.getDimensions()));
-      cells.forEach(cell -> {
-        output.set(cell.stream().max(Comparator.comparingDouble(c -> input.get(c))).get(), 1);
-      });
-      input.freeRef();
-      return output;
-    }).toArray(i -> new Tensor[i]);
-    return new Result(TensorArray.wrap(IntStream.range(0, itemCnt).mapToObj(dataIndex -> {
+    @Nonnull final int[] dims = data0.getDimensions();
+    final int[] cellMap = getCellMap_cached.apply(new IntArray(dims));
+    final int cellCount = Arrays.stream(cellMap).max().orElse(-1) + 1;
+    // Bit i of a sample's mask is set when element i is the (first) maximum of its cell
+    @Nonnull final long[][] mask = new long[itemCnt][];
+    return new Result(SparseTensorList.compressAndFree(TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
       Tensor inputData = data0.get(dataIndex);
       @Nullable final double[] input = inputData.getData();
-      @Nullable final double[] maskT = mask[dataIndex].getData();
+      @Nonnull final int[] best = new int[cellCount];
+      Arrays.fill(best, -1);
+      for (int i = 0; i < input.length; i++) {
+        final int cell = cellMap[i];
+        if (-1 == best[cell] || input[i] > input[best[cell]]) best[cell] = i;
+      }
+      @Nonnull final long[] maxima = new long[CounterRandom.words(input.length)];
+      for (final int i : best) {
+        if (-1 != i) CounterRandom.set(maxima, i);
+      }
+      mask[dataIndex] = maxima;
       @Nonnull final Tensor output = new Tensor(inputData.getDimensions());
       @Nullable final double[] outputData = output.getData();
       for (int i = 0; i < outputData.length; i++) {
-        outputData[i] = input[i] * maskT[i];
+        if (CounterRandom.get(maxima, i)) outputData[i] = input[i];
       }
       inputData.freeRef();
       return output;
-    }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+    }).toArray(i -> new Tensor[i]))), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (in0.isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).mapToObj(dataIndex -> {
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
           Tensor deltaTensor = delta.get(dataIndex);
           @Nullable final double[] deltaData = deltaTensor.getData();
-          @Nonnull final int[] dims = data0.getDimensions();
-          @Nullable final double[] maskData = mask[dataIndex].getData();
+          @Nonnull final long[] maxima = mask[dataIndex];
           @Nonnull final Tensor passback = new Tensor(dims);
-          for (int i = 0; i < passback.length(); i++) {
-            passback.set(i, maskData[i] * deltaData[i]);
+          @Nullable final double[] passbackData = passback.getData();
+          for (int i = 0; i < passbackData.length; i++) {
+            if (CounterRandom.get(maxima, i)) passbackData[i] = deltaData[i];
           }
           deltaTensor.freeRef();
           return passback;
@@ -136,7 +141,6 @@ public class MaxDropoutNoiseLayer extends LayerBase {
       protected void _free() {
         in0.freeRef();
         data0.freeRef();
-        Arrays.stream(mask).forEach(ReferenceCounting::freeRef);
       }
 
       @Override
@@ -147,20 +151,28 @@ public class MaxDropoutNoiseLayer extends LayerBase {
     };
   }
 
-  private List<List<Coordinate>> getCellMap(@Nonnull final IntArray dims) {
-    Tensor tensor = new Tensor(dims.data);
-    ArrayList<List<Coordinate>> lists = new ArrayList<>(tensor.coordStream(true).collect(Collectors.groupingBy((@Nonnull final Coordinate c) -> {
+  /**
+   * Assigns each element to the kernel-sized cell containing it; dimensions beyond the kernel are not divided.
+   */
+  @Nonnull
+  private int[] getCellMap(@Nonnull final IntArray dims) {
+    final int[] cellMap = new int[Tensor.length(dims.data)];
+    final int[] coords = new int[dims.size()];
+    for (int index = 0; index < cellMap.length; index++) {
       int cellId = 0;
-      int max = 0;
-      for (int dim = 0; dim < dims.size(); dim++) {
-        final int pos = c.getCoords()[dim] / kernelSize[dim];
-        cellId = cellId * max + pos;
-        max = dims.get(dim) / kernelSize[dim];
+      int cellStride = 1;
+      for (int dim = 0; dim < coords.length; dim++) {
+        final int kernel = dim < kernelSize.length ? kernelSize[dim] : 1;
+        cellId += (coords[dim] / kernel) * cellStride;
+        cellStride *= (dims.get(dim) + kernel - 1) / kernel;
+      }
+      cellMap[index] = cellId;
+      for (int dim = 0; dim < coords.length; dim++) {
+        if (++coords[dim] < dims.get(dim)) break;
+        coords[dim] = 0;
       }
-      return cellId;
-    })).values());
-    tensor.freeRef();
-    return lists;
+    }
+    return cellMap;
   }
 
   @Nonnull
@@ -28,7 +28,6 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 
 /**
@@ -81,33 +80,27 @@ public class MaxImageBandLayer extends LayerBase {
     assert 3 == inputDims.length;
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
 
-    final Coordinate[][] maxCoords = inputData.stream().map(data -> {
-      Coordinate[] coordinates = IntStream.range(0, inputDims[2]).mapToObj(band -> {
-        return data.coordStream(true).filter(e -> e.getCoords()[2] == band).max(Comparator.comparing(c -> data.get(c))).get();
-      }).toArray(i -> new Coordinate[i]);
-      data.freeRef();
-      return coordinates;
-    }).toArray(i -> new Coordinate[i][]);
-
-    return new Result(TensorArray.wrap(IntStream.range(0, inputData.length()).mapToObj(dataIndex -> {
+    final int pixels = inputDims[0] * inputDims[1];
+    final int[][] argmaxA = new int[inputData.length()][];
+    return new Result(TensorArray.wrap(IntStream.range(0, inputData.length()).parallel().mapToObj(dataIndex -> {
       Tensor tensor = inputData.get(dataIndex);
-      final DoubleStream doubleStream = IntStream.range(0, inputDims[2]).mapToDouble(band -> {
-        final int[] maxCoord = maxCoords[dataIndex][band].getCoords();
-        double v = tensor.get(maxCoord[0], maxCoord[1], band);
-        return v;
-      });
-      Tensor tensor1 = new Tensor(1, 1, inputDims[2]).set(Tensor.getDoubles(doubleStream, inputDims[2]));
+      final double[] data = tensor.getData();
+      final int[] argmax = ImgBandReduction.bandArgmax(data, pixels, inputDims[2]);
+      argmaxA[dataIndex] = argmax;
+      @Nonnull final Tensor output = new Tensor(1, 1, inputDims[2]);
+      final double[] outputData = output.getData();
+      for (int band = 0; band < argmax.length; band++) outputData[band] = data[argmax[band]];
       tensor.freeRef();
-      return tensor1;
+      return output;
     }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (inObj[0].isAlive()) {
         @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
           Tensor deltaTensor = delta.get(dataIndex);
-          @Nonnull final Tensor passback = new Tensor(inputData.getDimensions());
-          IntStream.range(0, inputDims[2]).forEach(b -> {
-            final int[] maxCoord = maxCoords[dataIndex][b].getCoords();
-            passback.set(new int[]{maxCoord[0], maxCoord[1], b}, deltaTensor.get(0, 0, b));
-          });
+          final double[] deltaData = deltaTensor.getData();
+          @Nonnull final Tensor passback = new Tensor(inputDims);
+          final double[] passbackData = passback.getData();
+          final int[] argmax = argmaxA[dataIndex];
+          for (int band = 0; band < argmax.length; band++) passbackData[argmax[band]] = deltaData[band];
           deltaTensor.freeRef();
           return passback;
         }).toArray(i -> new Tensor[i]));
@@ -26,8 +26,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.*;
-import java.util.stream.IntStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * The type Max meta key.
@@ -70,36 +72,42 @@ public class MaxMetaLayer extends LayerBase {
   public Result eval(final Result... inObj) {
     final Result input = inObj[0];
     input.addRef();
-    final int itemCnt = input.getData().length();
-    final Tensor input0Tensor = input.getData().get(0);
-    final int vectorSize = input0Tensor.length();
+    final TensorList inputData = input.getData();
+    final int itemCnt = inputData.length();
+    @Nonnull final int[] dims = inputData.getDimensions();
+    final int vectorSize = Tensor.length(dims);
     @Nonnull final int[] indicies = new int[vectorSize];
-    for (int i = 0; i < vectorSize; i++) {
-      final int itemNumber = i;
-      indicies[i] = IntStream.range(0, itemCnt)
-          .mapToObj(x -> x).max(Comparator.comparing(dataIndex -> {
-            Tensor tensor = input.getData().get(dataIndex);
-            double v = tensor.getData()[itemNumber];
-            tensor.freeRef();
-            return v;
-          })).get();
-    }
-    return new Result(TensorArray.wrap(input0Tensor.mapIndex((v, c) -> {
-      Tensor tensor = input.getData().get(indicies[c]);
-      double v1 = tensor.getData()[c];
+    @Nonnull final Tensor output = inputData.get(0).copyAndFree();
+    @Nonnull final double[] max = output.getData();
+    for (int dataIndex = 1; dataIndex < itemCnt; dataIndex++) {
+      final Tensor tensor = inputData.get(dataIndex);
+      final double[] values = tensor.getData();
+      for (int i = 0; i < vectorSize; i++) {
+        if (Double.compare(values[i], max[i]) > 0) {
+          max[i] = values[i];
+          indicies[i] = dataIndex;
+        }
+      }
       tensor.freeRef();
-      return v1;
-    })), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+    }
+    return new Result(TensorArray.wrap(output), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (input.isAlive()) {
+        // Each element's gradient goes to the one item holding its maximum, so the feedback is a sparse list
         @Nullable final Tensor delta = data.get(0);
-        @Nonnull final Tensor feedback[] = new Tensor[itemCnt];
-        Arrays.parallelSetAll(feedback, i -> new Tensor(delta.getDimensions()));
-        input0Tensor.coordStream(true).forEach((inputCoord) -> {
-          feedback[indicies[inputCoord.getIndex()]].add(inputCoord, delta.get(inputCoord));
-        });
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(feedback);
-        input.accumulate(buffer, tensorArray);
+        @Nonnull final double[] deltaData = delta.getData();
+        @Nonnull final int[] rowPointers = new int[itemCnt + 1];
+        for (int i = 0; i < vectorSize; i++) rowPointers[indicies[i] + 1]++;
+        for (int dataIndex = 0; dataIndex < itemCnt; dataIndex++) rowPointers[dataIndex + 1] += rowPointers[dataIndex];
+        @Nonnull final int[] next = Arrays.copyOf(rowPointers, itemCnt);
+        @Nonnull final int[] indices = new int[vectorSize];
+        @Nonnull final double[] values = new double[vectorSize];
+        for (int i = 0; i < vectorSize; i++) {
+          final int position = next[indicies[i]]++;
+          indices[position] = i;
+          values[position] = deltaData[i];
+        }
         delta.freeRef();
+        input.accumulate(buffer, new SparseTensorList(dims, rowPointers, indices, values));
       }
     }) {
 
@@ -111,7 +119,6 @@ public class MaxMetaLayer extends LayerBase {
       @Override
       protected void _free() {
         input.freeRef();
-        input0Tensor.freeRef();
       }
 
     };
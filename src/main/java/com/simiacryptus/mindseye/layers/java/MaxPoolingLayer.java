@@ -20,10 +20,8 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
-import com.simiacryptus.lang.Tuple2;
 import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.util.JsonUtil;
-import com.simiacryptus.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,9 +31,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.Function;
-import java.util.function.IntToDoubleFunction;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -44,10 +39,13 @@ import java.util.stream.IntStream;
 @SuppressWarnings("serial")
 public class MaxPoolingLayer extends LayerBase {
 
-  private static final Function<MaxPoolingLayer.CalcRegionsParameter, List<Tuple2<Integer, int[]>>> calcRegionsCache = Util.cache(MaxPoolingLayer::calcRegions);
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(MaxPoolingLayer.class);
   private int[] kernelDims;
+  @Nullable
+  private int[] strides = null;
+  @Nullable
+  private int[] paddings = null;
 
 
   /**
@@ -78,45 +76,23 @@ public class MaxPoolingLayer extends LayerBase {
     this.kernelDims = Arrays.copyOf(kernelDims, kernelDims.length);
   }
 
-  private static List<Tuple2<Integer, int[]>> calcRegions(@Nonnull final MaxPoolingLayer.CalcRegionsParameter p) {
-    @Nonnull final Tensor input = new Tensor(p.inputDims);
-    final int[] newDims = IntStream.range(0, p.inputDims.length).map(i -> {
-      //assert 0 == p.inputDims[i] % p.kernelDims[i];
-      return (int) Math.ceil(p.inputDims[i] * 1.0 / p.kernelDims[i]);
-    }).toArray();
-    @Nonnull final Tensor output = new Tensor(newDims);
-
-    List<Tuple2<Integer, int[]>> tuple2s = output.coordStream(true).map(o -> {
-      Tensor tensor = new Tensor(p.kernelDims);
-      final int[] inCoords = tensor.coordStream(true).mapToInt(kernelCoord -> {
-        @Nonnull final int[] result = new int[o.getCoords().length];
-        for (int index = 0; index < o.getCoords().length; index++) {
-          final int outputCoordinate = o.getCoords()[index];
-          final int kernelSize = p.kernelDims[index];
-          final int baseCoordinate = Math.min(outputCoordinate * kernelSize, p.inputDims[index] - kernelSize);
-          final int kernelCoordinate = kernelCoord.getCoords()[index];
-          result[index] = baseCoordinate + kernelCoordinate;
-        }
-        return input.index(result);
-      }).toArray();
-      tensor.freeRef();
-      return new Tuple2<>(o.getIndex(), inCoords);
-    }).collect(Collectors.toList());
-    input.freeRef();
-    output.freeRef();
-    return tuple2s;
-  }
-
   /**
-   * From json max subsample key.
+   * From json max subsample key. Also accepts the json of the cudnn PoolingLayer.
    *
    * @param json the json
    * @param rs   the rs
    * @return the max subsample key
    */
   public static MaxPoolingLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
-    return new MaxPoolingLayer(json,
-        JsonUtil.getIntArray(json.getAsJsonArray("heapCopy")));
+    if (!json.has("heapCopy")) {
+      return new MaxPoolingLayer(json, json.get("windowX").getAsInt(), json.get("windowY").getAsInt(), 1)
+          .setStrides(json.get("strideX").getAsInt(), json.get("strideY").getAsInt(), 1)
+          .setPaddings(json.get("paddingX").getAsInt(), json.get("paddingY").getAsInt(), 0);
+    }
+    @Nonnull final MaxPoolingLayer layer = new MaxPoolingLayer(json, JsonUtil.getIntArray(json.getAsJsonArray("heapCopy")));
+    if (json.has("strides")) layer.setStrides(JsonUtil.getIntArray(json.getAsJsonArray("strides")));
+    if (json.has("paddings")) layer.setPaddings(JsonUtil.getIntArray(json.getAsJsonArray("paddings")));
+    return layer;
   }
 
   @Nonnull
@@ -126,50 +102,47 @@ public class MaxPoolingLayer extends LayerBase {
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
 
     final Result in = inObj[0];
-    in.getData().length();
-
-    @Nonnull final int[] inputDims = in.getData().getDimensions();
-    final List<Tuple2<Integer, int[]>> regions = MaxPoolingLayer.calcRegionsCache.apply(new MaxPoolingLayer.CalcRegionsParameter(inputDims, kernelDims));
-    final Tensor[] outputA = IntStream.range(0, in.getData().length()).mapToObj(dataIndex -> {
-      final int[] newDims = IntStream.range(0, inputDims.length).map(i -> {
-        return (int) Math.ceil(inputDims[i] * 1.0 / kernelDims[i]);
-      }).toArray();
-      @Nonnull final Tensor output = new Tensor(newDims);
-      return output;
-    }).toArray(i -> new Tensor[i]);
-    Arrays.stream(outputA).mapToInt(x -> x.length()).sum();
-    @Nonnull final int[][] gradientMapA = new int[in.getData().length()][];
-    IntStream.range(0, in.getData().length()).forEach(dataIndex -> {
-      @Nullable final Tensor input = in.getData().get(dataIndex);
-      final Tensor output = outputA[dataIndex];
-      @Nonnull final IntToDoubleFunction keyExtractor = inputCoords -> input.get(inputCoords);
-      @Nonnull final int[] gradientMap = new int[input.length()];
-      regions.parallelStream().forEach(tuple -> {
-        final Integer from = tuple.getFirst();
-        final int[] toList = tuple.getSecond();
-        int toMax = -1;
+    final TensorList indata = in.getData();
+    @Nonnull final int[] inputDims = indata.getDimensions();
+    final PoolingRegions regions = PoolingRegions.get(inputDims, kernelDims, strides, paddings);
+    final int window = regions.window;
+    final int[] indices = regions.indices;
+    @Nonnull final int[][] argmaxA = new int[indata.length()][];
+    final Tensor[] outputA = IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
+      @Nullable final Tensor input = indata.get(dataIndex);
+      final double[] inputData = input.getData();
+      @Nonnull final Tensor output = new Tensor(regions.outputDims);
+      final double[] outputData = output.getData();
+      @Nonnull final int[] argmax = new int[outputData.length];
+      for (int outputIndex = 0; outputIndex < outputData.length; outputIndex++) {
+        int best = -1;
         double bestValue = Double.NEGATIVE_INFINITY;
-        for (final int c : toList) {
-          final double value = keyExtractor.applyAsDouble(c);
-          if (-1 == toMax || bestValue < value) {
+        for (int position = outputIndex * window; position < (outputIndex + 1) * window; position++) {
+          final int inputIndex = indices[position];
+          if (inputIndex < 0) continue;
+          final double value = inputData[inputIndex];
+          if (-1 == best || bestValue < value) {
             bestValue = value;
-            toMax = c;
+            best = inputIndex;
           }
         }
-        gradientMap[from] = toMax;
-        output.set(from, input.get(toMax));
-      });
+        argmax[outputIndex] = best;
+        outputData[outputIndex] = -1 == best ? 0.0 : bestValue;
+      }
       input.freeRef();
-      gradientMapA[dataIndex] = gradientMap;
-    });
+      argmaxA[dataIndex] = argmax;
+      return output;
+    }).toArray(i -> new Tensor[i]);
     return new Result(TensorArray.wrap(outputA), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (in.isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, in.getData().length()).parallel().mapToObj(dataIndex -> {
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, data.length()).parallel().mapToObj(dataIndex -> {
           @Nonnull final Tensor backSignal = new Tensor(inputDims);
-          final int[] ints = gradientMapA[dataIndex];
+          final double[] backSignalData = backSignal.getData();
+          final int[] argmax = argmaxA[dataIndex];
           @Nullable final Tensor datum = data.get(dataIndex);
-          for (int i = 0; i < datum.length(); i++) {
-            backSignal.add(ints[i], datum.get(i));
+          final double[] deltaData = datum.getData();
+          for (int i = 0; i < deltaData.length; i++) {
+            if (argmax[i] >= 0) backSignalData[argmax[i]] += deltaData[i];
           }
           datum.freeRef();
           return backSignal;
@@ -195,6 +168,8 @@ public class MaxPoolingLayer extends LayerBase {
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
     @Nonnull final JsonObject json = super.getJsonStub();
     json.add("heapCopy", JsonUtil.getJson(kernelDims));
+    if (null != strides) json.add("strides", JsonUtil.getJson(strides));
+    if (null != paddings) json.add("paddings", JsonUtil.getJson(paddings));
     return json;
   }
 
@@ -205,55 +180,47 @@ public class MaxPoolingLayer extends LayerBase {
   }
 
   /**
-   * The type Calc regions parameter.
+   * Gets strides. If null, the windows do not overlap and cover the whole input, the last window being shifted back
+   * inside the input when the size is not a multiple of the kernel.
+   *
+   * @return the strides
    */
-  public static class CalcRegionsParameter {
-    /**
-     * The Input dims.
-     */
-    public int[] inputDims;
-    /**
-     * The Kernel dims.
-     */
-    public int[] kernelDims;
-
-    /**
-     * Instantiates a new Calc regions parameter.
-     *
-     * @param inputDims  the input dims
-     * @param kernelDims the kernel dims
-     */
-    public CalcRegionsParameter(final int[] inputDims, final int[] kernelDims) {
-      this.inputDims = inputDims;
-      this.kernelDims = kernelDims;
-    }
+  @Nullable
+  public int[] getStrides() {
+    return strides;
+  }
 
-    @Override
-    public boolean equals(@Nullable final Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (obj == null) {
-        return false;
-      }
-      if (getClass() != obj.getClass()) {
-        return false;
-      }
-      @Nonnull final MaxPoolingLayer.CalcRegionsParameter other = (MaxPoolingLayer.CalcRegionsParameter) obj;
-      if (!Arrays.equals(inputDims, other.inputDims)) {
-        return false;
-      }
-      return Arrays.equals(kernelDims, other.kernelDims);
-    }
+  /**
+   * Sets strides.
+   *
+   * @param strides the strides
+   * @return the strides
+   */
+  @Nonnull
+  public MaxPoolingLayer setStrides(@Nullable final int... strides) {
+    this.strides = null == strides ? null : Arrays.copyOf(strides, strides.length);
+    return this;
+  }
 
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + Arrays.hashCode(inputDims);
-      result = prime * result + Arrays.hashCode(kernelDims);
-      return result;
-    }
+  /**
+   * Gets paddings, which are applied to both edges of each dimension when strides are set. Padding never wins the max.
+   *
+   * @return the paddings
+   */
+  @Nullable
+  public int[] getPaddings() {
+    return paddings;
+  }
 
+  /**
+   * Sets paddings.
+   *
+   * @param paddings the paddings
+   * @return the paddings
+   */
+  @Nonnull
+  public MaxPoolingLayer setPaddings(@Nullable final int... paddings) {
+    this.paddings = null == paddings ? null : Arrays.copyOf(paddings, paddings.length);
+    return this;
   }
 }
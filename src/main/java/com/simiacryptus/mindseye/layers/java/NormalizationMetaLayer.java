@@ -20,33 +20,36 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
-import com.simiacryptus.mindseye.network.PipelineNetwork;
+import com.simiacryptus.mindseye.lang.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
 
 /**
- * The type Normalization meta key.
+ * Scales each input by the inverse root mean square of all elements across the execution batch. The mean square is
+ * computed in one {@link BatchMoments} pass and differentiated in closed form. Batches no larger than the min batch
+ * count reuse the last computed mean square, which then receives no gradient.
  */
 @SuppressWarnings("serial")
-public class NormalizationMetaLayer extends PipelineNetwork {
+public class NormalizationMetaLayer extends LayerBase {
 
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(NormalizationMetaLayer.class);
+  @Nullable
+  private Tensor lastResult;
+  private int minBatchCount = 1;
 
   /**
    * Instantiates a new Normalization meta key.
    */
   public NormalizationMetaLayer() {
-    super(1);
-    getInput(0);
-    wrap(new SqActivationLayer()).freeRef();
-    wrap(new AvgReducerLayer()).freeRef();
-    wrap(new AvgMetaLayer()).freeRef();
-    wrap(new NthPowerActivationLayer().setPower(-0.5)).freeRef();
-    wrap(new ProductInputsLayer(), getHead(), getInput(0)).freeRef();
   }
 
   /**
@@ -56,7 +59,9 @@ public class NormalizationMetaLayer extends PipelineNetwork {
    * @param rs   the rs
    */
   protected NormalizationMetaLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
-    super(json, rs);
+    super(json);
+    if (json.has("lastResult")) lastResult = Tensor.fromJson(json.get("lastResult"), rs);
+    if (json.has("minBatchCount")) minBatchCount = json.get("minBatchCount").getAsInt();
   }
 
   /**
@@ -70,4 +75,121 @@ public class NormalizationMetaLayer extends PipelineNetwork {
     return new NormalizationMetaLayer(json, rs);
   }
 
+  @Override
+  protected void _free() {
+    if (null != lastResult) lastResult.freeRef();
+    super._free();
+  }
+
+  @Nullable
+  @Override
+  public Result evalAndFree(@Nonnull final Result... inObj) {
+    if (1 != inObj.length) throw new IllegalArgumentException();
+    final Result input = inObj[0];
+    final TensorList inputData = input.getData();
+    final int itemCnt = inputData.length();
+    final boolean passback;
+    final double meanSquare;
+    if (null == lastResult || itemCnt > minBatchCount) {
+      meanSquare = BatchMoments.compute(inputData).getTotalMeanSquare();
+      passback = true;
+      if (null != lastResult) lastResult.freeRef();
+      lastResult = new Tensor(new double[]{meanSquare}, 1);
+    } else {
+      meanSquare = lastResult.get(0);
+      passback = false;
+    }
+    final double scale = 1 / Math.sqrt(meanSquare);
+    final Tensor[] output = IntStream.range(0, itemCnt).parallel().mapToObj(i -> {
+      final Tensor tensor = inputData.get(i);
+      final double[] values = tensor.getData();
+      final double[] result = new double[values.length];
+      for (int j = 0; j < result.length; j++) result[j] = values[j] * scale;
+      final Tensor normalized = new Tensor(result, tensor.getDimensions());
+      tensor.freeRef();
+      return normalized;
+    }).toArray(i -> new Tensor[i]);
+    return new Result(TensorArray.wrap(output), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      if (input.isAlive()) {
+        final double[][] deltas = new double[itemCnt][];
+        final double[][] values = new double[itemCnt][];
+        final Tensor[] tensors = new Tensor[2 * itemCnt];
+        IntStream.range(0, itemCnt).forEach(i -> {
+          tensors[2 * i] = data.get(i);
+          tensors[2 * i + 1] = inputData.get(i);
+          deltas[i] = tensors[2 * i].getData();
+          values[i] = tensors[2 * i + 1].getData();
+        });
+        final double correction;
+        if (passback) {
+          final double dot = IntStream.range(0, itemCnt).parallel().mapToDouble(i -> {
+            double sum = 0;
+            for (int j = 0; j < values[i].length; j++) sum += deltas[i][j] * values[i][j];
+            return sum;
+          }).sum();
+          correction = dot * scale / (meanSquare * itemCnt * Tensor.length(inputData.getDimensions()));
+        } else {
+          correction = 0;
+        }
+        @Nonnull final Tensor feedback[] = IntStream.range(0, itemCnt).parallel().mapToObj(i -> {
+          final double[] gradient = new double[values[i].length];
+          for (int j = 0; j < gradient.length; j++) gradient[j] = deltas[i][j] * scale - values[i][j] * correction;
+          return new Tensor(gradient, inputData.getDimensions());
+        }).toArray(i -> new Tensor[i]);
+        Arrays.stream(tensors).forEach(ReferenceCounting::freeRef);
+        input.accumulate(buffer, TensorArray.wrap(feedback));
+      }
+    }) {
+
+      @Override
+      protected void _free() {
+        inputData.freeRef();
+        input.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return input.isAlive();
+      }
+
+    };
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    if (null != lastResult) {
+      json.add("lastResult", lastResult.toJson(resources, dataSerializer));
+    }
+    json.addProperty("minBatchCount", minBatchCount);
+    return json;
+  }
+
+  /**
+   * Gets min batch count.
+   *
+   * @return the min batch count
+   */
+  public int getMinBatchCount() {
+    return minBatchCount;
+  }
+
+  /**
+   * Sets min batch count.
+   *
+   * @param minBatchCount the min batch count
+   * @return the min batch count
+   */
+  @Nonnull
+  public NormalizationMetaLayer setMinBatchCount(final int minBatchCount) {
+    this.minBatchCount = minBatchCount;
+    return this;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A flat gather table for the java pooling layers: the input indices of the window of output element o are stored at
+ * [o * window, (o + 1) * window), with -1 marking positions which fall in the padding. Tables are immutable and cached
+ * per shape; the cache keeps the most recently used shapes, softly referenced, so it stays bounded as shapes change.
+ */
+final class PoolingRegions {
+
+  private static final int CACHE_SIZE = 64;
+  private static final Cache<String, PoolingRegions> cache = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).softValues().build();
+  /**
+   * The Output dims.
+   */
+  final int[] outputDims;
+  /**
+   * The number of elements in each window.
+   */
+  final int window;
+  /**
+   * The gather table.
+   */
+  final int[] indices;
+
+  private PoolingRegions(@Nonnull final int[] inputDims, @Nonnull final int[] kernelDims, @Nullable final int[] strides, @Nullable final int[] paddings) {
+    final int dims = inputDims.length;
+    outputDims = new int[dims];
+    final int[][] bases = new int[dims][];
+    for (int i = 0; i < dims; i++) {
+      final int kernelSize = i < kernelDims.length ? kernelDims[i] : 1;
+      if (null == strides) {
+        // Windows tile the input; a partial last window is shifted back inside the input
+        outputDims[i] = (int) Math.ceil(inputDims[i] * 1.0 / kernelSize);
+        bases[i] = new int[outputDims[i]];
+        for (int o = 0; o < outputDims[i]; o++) bases[i][o] = Math.min(o * kernelSize, inputDims[i] - kernelSize);
+      } else {
+        final int stride = i < strides.length ? strides[i] : 1;
+        final int padding = null == paddings || i >= paddings.length ? 0 : paddings[i];
+        outputDims[i] = (inputDims[i] + 2 * padding - kernelSize) / stride + 1;
+        bases[i] = new int[outputDims[i]];
+        for (int o = 0; o < outputDims[i]; o++) bases[i][o] = o * stride - padding;
+      }
+    }
+    final int[] windowDims = Arrays.copyOf(kernelDims, dims);
+    for (int i = kernelDims.length; i < dims; i++) windowDims[i] = 1;
+    window = Tensor.length(windowDims);
+    final int outputLength = Tensor.length(outputDims);
+    indices = new int[outputLength * window];
+    final int[] outputCoords = new int[dims];
+    final int[] windowCoords = new int[dims];
+    int position = 0;
+    for (int output = 0; output < outputLength; output++) {
+      for (int offset = 0; offset < window; offset++) {
+        int index = 0;
+        int skip = 1;
+        boolean inBounds = true;
+        for (int i = 0; i < dims; i++) {
+          final int coord = bases[i][outputCoords[i]] + windowCoords[i];
+          inBounds &= coord >= 0 && coord < inputDims[i];
+          index += coord * skip;
+          skip *= inputDims[i];
+        }
+        indices[position++] = inBounds ? index : -1;
+        increment(windowCoords, windowDims);
+      }
+      increment(outputCoords, outputDims);
+    }
+  }
+
+  /**
+   * Gets the table for a pooling shape.
+   *
+   * @param inputDims  the input dims
+   * @param kernelDims the kernel dims
+   * @param strides    the strides, or null for non-overlapping windows covering the input
+   * @param paddings   the paddings, used only with explicit strides
+   * @return the pooling regions
+   */
+  @Nonnull
+  static PoolingRegions get(@Nonnull final int[] inputDims, @Nonnull final int[] kernelDims, @Nullable final int[] strides, @Nullable final int[] paddings) {
+    final String key = Arrays.toString(inputDims) + Arrays.toString(kernelDims) + Arrays.toString(strides) + Arrays.toString(paddings);
+    return cache.asMap().computeIfAbsent(key, k -> new PoolingRegions(inputDims, kernelDims, strides, paddings));
+  }
+
+  /**
+   * Gets the number of cached tables.
+   *
+   * @return the long
+   */
+  static long getCacheSize() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private static void increment(@Nonnull final int[] coords, @Nonnull final int[] dims) {
+    for (int i = 0; i < coords.length; i++) {
+      if (++coords[i] < dims[i]) return;
+      coords[i] = 0;
+    }
+  }
+}
@@ -74,22 +74,35 @@ public class ProductLayer extends LayerBase {
     Arrays.stream(inObj).forEach(x -> x.getData().addRef());
     final Result in0 = inObj[0];
     @Nonnull final double[] sum_A = new double[in0.getData().length()];
+    // The product of each input's elements, per item
+    @Nonnull final double[][] partial = new double[inObj.length][in0.getData().length()];
     final Tensor[] outputA = IntStream.range(0, in0.getData().length()).mapToObj(dataIndex -> {
       double sum = 1;
-      for (@Nonnull final Result element : inObj) {
-        Tensor tensor = element.getData().get(dataIndex);
-        @Nullable final double[] input = tensor.getData();
-        for (final double element2 : input) {
-          sum *= element2;
+      for (int k = 0; k < inObj.length; k++) {
+        final TensorList data = inObj[k].getData();
+        double product = 1;
+        if (data instanceof SparseTensorList) {
+          product = sparseProduct((SparseTensorList) data, dataIndex);
+        } else {
+          Tensor tensor = data.get(dataIndex);
+          @Nullable final double[] input = tensor.getData();
+          for (final double element2 : input) {
+            product *= element2;
+          }
+          tensor.freeRef();
         }
-        tensor.freeRef();
+        partial[k][dataIndex] = product;
+        sum *= product;
       }
       sum_A[dataIndex] = sum;
       return new Tensor(new double[]{sum}, 1);
     }).toArray(i -> new Tensor[i]);
     return new Result(TensorArray.wrap(outputA), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
-      for (@Nonnull final Result in_l : inObj) {
-        if (in_l.isAlive()) {
+      for (int l = 0; l < inObj.length; l++) {
+        final Result in_l = inObj[l];
+        if (in_l.isAlive() && in_l.getData() instanceof SparseTensorList) {
+          in_l.accumulate(buffer, sparsePassback((SparseTensorList) in_l.getData(), delta, partial, l));
+        } else if (in_l.isAlive()) {
           @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).mapToObj(dataIndex -> {
             Tensor dataTensor = delta.get(dataIndex);
             Tensor lTensor = in_l.getData().get(dataIndex);
@@ -125,6 +138,78 @@ public class ProductLayer extends LayerBase {
     };
   }
 
+  /**
+   * Multiplies the elements of one item of a sparse input; any implicit zero makes the product zero.
+   *
+   * @param data      the data
+   * @param dataIndex the data index
+   * @return the product
+   */
+  private static double sparseProduct(@Nonnull final SparseTensorList data, final int dataIndex) {
+    final int[] rowPointers = data.getRowPointers();
+    final int start = rowPointers[dataIndex];
+    final int end = rowPointers[dataIndex + 1];
+    if (end - start < Tensor.length(data.getDimensions())) return 0;
+    final double[] values = data.getValues();
+    double product = 1;
+    for (int j = start; j < end; j++) {
+      product *= values[j];
+    }
+    return product;
+  }
+
+  /**
+   * Computes the gradient for a sparse input without dividing by its zeros. An item with no zeros gets the usual dense
+   * gradient; an item with exactly one zero has a gradient only at that element, equal to the product of
+   * everything else; an item with more zeros has no gradient.
+   *
+   * @param data    the input data
+   * @param delta   the output delta
+   * @param partial the per-input products
+   * @param l       the index of the input
+   * @return the passback
+   */
+  @Nonnull
+  private static SparseTensorList sparsePassback(@Nonnull final SparseTensorList data, @Nonnull final TensorList delta, @Nonnull final double[][] partial, final int l) {
+    final int length = Tensor.length(data.getDimensions());
+    final int[] rowPointers = data.getRowPointers();
+    final int[] indices = data.getIndices();
+    final double[] values = data.getValues();
+    final int batch = delta.length();
+    final int[][] rowIndices = new int[batch][];
+    final double[][] rowValues = new double[batch][];
+    IntStream.range(0, batch).forEach(dataIndex -> {
+      Tensor deltaTensor = delta.get(dataIndex);
+      double scale = deltaTensor.get(0);
+      deltaTensor.freeRef();
+      for (int k = 0; k < partial.length; k++) {
+        if (k != l) scale *= partial[k][dataIndex];
+      }
+      final int start = rowPointers[dataIndex];
+      final int nonzeros = rowPointers[dataIndex + 1] - start;
+      if (nonzeros == length) {
+        rowIndices[dataIndex] = Arrays.copyOfRange(indices, start, start + nonzeros);
+        rowValues[dataIndex] = new double[nonzeros];
+        for (int j = 0; j < nonzeros; j++) {
+          rowValues[dataIndex][j] = scale * partial[l][dataIndex] / values[start + j];
+        }
+      } else if (nonzeros == length - 1) {
+        int zero = 0;
+        while (zero < nonzeros && indices[start + zero] == zero) zero++;
+        double others = scale;
+        for (int j = start; j < start + nonzeros; j++) {
+          others *= values[j];
+        }
+        rowIndices[dataIndex] = others == 0 ? new int[]{} : new int[]{zero};
+        rowValues[dataIndex] = others == 0 ? new double[]{} : new double[]{others};
+      } else {
+        rowIndices[dataIndex] = new int[]{};
+        rowValues[dataIndex] = new double[]{};
+      }
+    });
+    return SparseTensorList.create(data.getDimensions(), rowIndices, rowValues);
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.JsonUtil;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An inference-only int8 version of {@link ImgConvolutionLayer}, with the same filter layout, padding and stride
+ * semantics. Each output band's filter is quantized with its own scale and the input image with a fixed scale chosen
+ * from calibration data (see {@link com.simiacryptus.mindseye.network.util.QuantizationTool}); each output is an
+ * integer dot product of a filter with a quantized im2col patch, rescaled once. The layer produces no gradients.
+ */
+@SuppressWarnings("serial")
+public class QuantizedConvolutionLayer extends LayerBase {
+
+  @Nonnull
+  private final int[] kernelDims;
+  private final int inputBands;
+  private final int outputBands;
+  private final int strideX;
+  private final int strideY;
+  @Nullable
+  private final Integer paddingX;
+  @Nullable
+  private final Integer paddingY;
+  @Nonnull
+  private final byte[] weights;
+  @Nonnull
+  private final double[] weightScales;
+  private final double inputScale;
+
+  /**
+   * Instantiates a new Quantized convolution layer.
+   *
+   * @param layer      the layer to quantize
+   * @param inputRange the largest input magnitude to represent
+   */
+  public QuantizedConvolutionLayer(@Nonnull final ImgConvolutionLayer layer, final double inputRange) {
+    @Nonnull final Tensor kernel = layer.getKernel();
+    this.kernelDims = kernel.getDimensions();
+    this.inputBands = layer.getInputBands();
+    this.outputBands = layer.getOutputBands();
+    this.strideX = layer.getStrideX();
+    this.strideY = layer.getStrideY();
+    this.paddingX = layer.getPaddingX();
+    this.paddingY = layer.getPaddingY();
+    final int patch = kernelDims[0] * kernelDims[1] * inputBands;
+    final double[] matrix = ConvolutionGeometry.toMatrix(kernel.getData(), kernelDims, outputBands);
+    this.weightScales = Int8Quantization.rowScales(matrix, patch);
+    this.weights = Int8Quantization.quantizeRows(matrix, patch, weightScales);
+    this.inputScale = Int8Quantization.scale(inputRange);
+  }
+
+  /**
+   * Instantiates a new Quantized convolution layer.
+   *
+   * @param json      the json
+   * @param resources the resources
+   */
+  protected QuantizedConvolutionLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> resources) {
+    super(json);
+    kernelDims = JsonUtil.getIntArray(json.getAsJsonArray("kernelDims"));
+    inputBands = json.get("inputBands").getAsInt();
+    outputBands = json.get("outputBands").getAsInt();
+    strideX = json.get("strideX").getAsInt();
+    strideY = json.get("strideY").getAsInt();
+    JsonElement paddingX = json.get("paddingX");
+    this.paddingX = null != paddingX && paddingX.isJsonPrimitive() ? paddingX.getAsInt() : null;
+    JsonElement paddingY = json.get("paddingY");
+    this.paddingY = null != paddingY && paddingY.isJsonPrimitive() ? paddingY.getAsInt() : null;
+    weights = Int8Quantization.fromJson(json.get("weights"), resources);
+    weightScales = JsonUtil.getDoubleArray(json.getAsJsonArray("weightScales"));
+    inputScale = json.get("inputScale").getAsDouble();
+  }
+
+  /**
+   * From json quantized convolution layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the quantized convolution layer
+   */
+  public static QuantizedConvolutionLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new QuantizedConvolutionLayer(json, rs);
+  }
+
+  @Nonnull
+  @Override
+  public Result eval(@Nonnull final Result... inObj) {
+    final TensorList indata = inObj[0].getData();
+    @Nonnull final int[] inputDims = indata.getDimensions();
+    assert inputDims[2] == inputBands : Arrays.toString(inputDims);
+    @Nonnull final ConvolutionGeometry geometry = ConvolutionGeometry.create(inputDims, kernelDims, outputBands,
+        strideX, strideY, paddingX, paddingY);
+    return new ConstantResult(TensorArray.wrap(IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
+      @Nonnull final Tensor input = indata.get(dataIndex);
+      final byte[] columns = geometry.im2col(Int8Quantization.quantize(input.getData(), inputScale));
+      input.freeRef();
+      @Nonnull final Tensor output = new Tensor(geometry.outputDims);
+      final double[] outputData = output.getData();
+      for (int outputBand = 0; outputBand < outputBands; outputBand++) {
+        final double scale = inputScale * weightScales[outputBand];
+        for (int pixel = 0; pixel < geometry.pixels; pixel++) {
+          final int sum = Int8Quantization.dot(weights, outputBand * geometry.patch, columns, pixel * geometry.patch, geometry.patch);
+          outputData[pixel + geometry.pixels * outputBand] = sum * scale;
+        }
+      }
+      return output;
+    }).toArray(i -> new Tensor[i])));
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    json.add("kernelDims", JsonUtil.getJson(kernelDims));
+    json.addProperty("inputBands", inputBands);
+    json.addProperty("outputBands", outputBands);
+    json.addProperty("strideX", strideX);
+    json.addProperty("strideY", strideY);
+    json.addProperty("paddingX", paddingX);
+    json.addProperty("paddingY", paddingY);
+    json.add("weights", Int8Quantization.toJson(weights, resources));
+    json.add("weightScales", JsonUtil.getJson(weightScales));
+    json.addProperty("inputScale", inputScale);
+    return json;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
+
+  /**
+   * Gets the input quantization scale.
+   *
+   * @return the input scale
+   */
+  public double getInputScale() {
+    return inputScale;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.JsonUtil;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An inference-only int8 version of {@link FullyConnectedLayer}. Each output's weights are quantized with their own
+ * scale, and the input is quantized with a fixed scale chosen from calibration data (see
+ * {@link com.simiacryptus.mindseye.network.util.QuantizationTool}); inputs beyond the calibrated range saturate. Each
+ * output is an integer dot product rescaled once, so the weights take an eighth of the memory of the double layer. The
+ * layer produces no gradients.
+ */
+@SuppressWarnings("serial")
+public class QuantizedFullyConnectedLayer extends LayerBase {
+
+  /**
+   * The Input dims.
+   */
+  @Nonnull
+  public final int[] inputDims;
+  /**
+   * The Output dims.
+   */
+  @Nonnull
+  public final int[] outputDims;
+  @Nonnull
+  private final byte[] weights;
+  @Nonnull
+  private final double[] weightScales;
+  private final double inputScale;
+
+  /**
+   * Instantiates a new Quantized fully connected layer.
+   *
+   * @param inputDims  the input dims
+   * @param outputDims the output dims
+   * @param weights    the weights, laid out as the (inputs, outputs) weight tensor of {@link FullyConnectedLayer}
+   * @param inputRange the largest input magnitude to represent
+   */
+  public QuantizedFullyConnectedLayer(@Nonnull final int[] inputDims, @Nonnull final int[] outputDims, @Nonnull final double[] weights, final double inputRange) {
+    this.inputDims = Arrays.copyOf(inputDims, inputDims.length);
+    this.outputDims = Arrays.copyOf(outputDims, outputDims.length);
+    final int inputs = Tensor.length(inputDims);
+    if (weights.length != inputs * Tensor.length(outputDims)) throw new IllegalArgumentException();
+    this.weightScales = Int8Quantization.rowScales(weights, inputs);
+    this.weights = Int8Quantization.quantizeRows(weights, inputs, weightScales);
+    this.inputScale = Int8Quantization.scale(inputRange);
+  }
+
+  /**
+   * Instantiates a new Quantized fully connected layer.
+   *
+   * @param json      the json
+   * @param resources the resources
+   */
+  protected QuantizedFullyConnectedLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> resources) {
+    super(json);
+    inputDims = JsonUtil.getIntArray(json.getAsJsonArray("inputDims"));
+    outputDims = JsonUtil.getIntArray(json.getAsJsonArray("outputDims"));
+    weights = Int8Quantization.fromJson(json.get("weights"), resources);
+    weightScales = JsonUtil.getDoubleArray(json.getAsJsonArray("weightScales"));
+    inputScale = json.get("inputScale").getAsDouble();
+  }
+
+  /**
+   * From json quantized fully connected layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the quantized fully connected layer
+   */
+  public static QuantizedFullyConnectedLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new QuantizedFullyConnectedLayer(json, rs);
+  }
+
+  @Nonnull
+  @Override
+  public Result eval(@Nonnull final Result... inObj) {
+    final TensorList indata = inObj[0].getData();
+    final int inputs = Tensor.length(inputDims);
+    final int outputs = weightScales.length;
+    assert Tensor.length(indata.getDimensions()) == inputs : Arrays.toString(indata.getDimensions()) + " == " + Arrays.toString(inputDims);
+    return new ConstantResult(TensorArray.wrap(IntStream.range(0, indata.length()).parallel().mapToObj(dataIndex -> {
+      @Nonnull final Tensor input = indata.get(dataIndex);
+      final byte[] quantized = Int8Quantization.quantize(input.getData(), inputScale);
+      input.freeRef();
+      @Nonnull final Tensor output = new Tensor(outputDims);
+      final double[] outputData = output.getData();
+      for (int o = 0; o < outputs; o++) {
+        outputData[o] = Int8Quantization.dot(weights, o * inputs, quantized, 0, inputs) * inputScale * weightScales[o];
+      }
+      return output;
+    }).toArray(i -> new Tensor[i])));
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    json.add("inputDims", JsonUtil.getJson(inputDims));
+    json.add("outputDims", JsonUtil.getJson(outputDims));
+    json.add("weights", Int8Quantization.toJson(weights, resources));
+    json.add("weightScales", JsonUtil.getJson(weightScales));
+    json.addProperty("inputScale", inputScale);
+    return json;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
+
+  /**
+   * Gets the dequantized weights, laid out as the weight tensor of {@link FullyConnectedLayer}.
+   *
+   * @return the weights
+   */
+  @Nonnull
+  public double[] getWeights() {
+    final int inputs = Tensor.length(inputDims);
+    final double[] data = new double[weights.length];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = weights[i] * weightScales[i / inputs];
+    }
+    return data;
+  }
+
+  /**
+   * Gets the input quantization scale.
+   *
+   * @return the input scale
+   */
+  public double getInputScale() {
+    return inputScale;
+  }
+}
@@ -105,7 +105,7 @@ public class ReLuActivationLayer extends LayerBase {
     indata.addRef();
     weights.addRef();
     final int itemCnt = indata.length();
-    return new Result(TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
+    return new Result(SparseTensorList.compressAndFree(TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
       @Nullable Tensor tensorElement = indata.get(dataIndex);
       @Nonnull final Tensor tensor = tensorElement.multiply(weights.get(0));
       tensorElement.freeRef();
@@ -116,7 +116,7 @@ public class ReLuActivationLayer extends LayerBase {
         }
       }
       return tensor;
-    }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+    }).toArray(i -> new Tensor[i]))), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
       if (!isFrozen()) {
         IntStream.range(0, delta.length()).parallel().forEach(dataIndex -> {
           @Nullable Tensor deltaTensor = delta.get(dataIndex);
@@ -71,39 +71,64 @@ public class ScaleMetaLayer extends LayerBase {
   @Nullable
   @Override
   public Result eval(@Nonnull final Result... inObj) {
-    final int itemCnt = inObj[0].getData().length();
+    final TensorList inputData = inObj[0].getData();
+    final int itemCnt = inputData.length();
+    @Nonnull final int[] dims = inputData.getDimensions();
+    final int length = Tensor.length(dims);
+    final int parameterCnt = inObj[1].getData().length();
+    final Tensor scaleTensor = inObj[1].getData().get(0);
+    @Nonnull final double[] scale = scaleTensor.getData();
+    final Tensor[] tensors = IntStream.range(0, itemCnt)
+        .parallel()
+        .mapToObj(dataIndex -> {
+          final Tensor tensor = inputData.get(dataIndex);
+          @Nonnull final double[] values = tensor.getData();
+          @Nonnull final Tensor output = new Tensor(dims);
+          @Nonnull final double[] outputData = output.getData();
+          for (int i = 0; i < length; i++) outputData[i] = values[i] * scale[i];
+          tensor.freeRef();
+          return output;
+        })
+        .toArray(i -> new Tensor[i]);
+    inputData.addRef();
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
-    Arrays.stream(inObj).forEach(x -> x.getData().addRef());
-    final Tensor[] tensors = IntStream.range(0, itemCnt).mapToObj(dataIndex -> inObj[0].getData().get(dataIndex).mapIndex((v, c) -> v * inObj[1].getData().get(0).get(c))).toArray(i -> new Tensor[i]);
-    Tensor tensor0 = tensors[0];
-    tensor0.addRef();
     return new Result(TensorArray.wrap(tensors), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (inObj[0].isAlive()) {
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(data.stream().map(t -> {
-          @Nullable Tensor t1 = inObj[1].getData().get(0);
-          @Nullable Tensor tensor = t.mapIndex((v, c) -> {
-            return v * t1.get(c);
-          });
-          t.freeRef();
-          t1.freeRef();
-          return tensor;
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
+          final Tensor delta = data.get(dataIndex);
+          @Nonnull final double[] deltaData = delta.getData();
+          @Nonnull final Tensor passback = new Tensor(dims);
+          @Nonnull final double[] passbackData = passback.getData();
+          for (int i = 0; i < length; i++) passbackData[i] = deltaData[i] * scale[i];
+          delta.freeRef();
+          return passback;
         }).toArray(i -> new Tensor[i]));
         inObj[0].accumulate(buffer, tensorArray);
       }
       if (inObj[1].isAlive()) {
-        @Nullable final Tensor passback = tensor0.mapIndex((v, c) -> {
-          return IntStream.range(0, itemCnt).mapToDouble(i -> data.get(i).get(c) * inObj[0].getData().get(i).get(c)).sum();
+        // The scale gradient sums delta * input over the batch, reduced with one accumulator per fork/join split
+        @Nonnull final double[] sum = IntStream.range(0, itemCnt).parallel().collect(() -> new double[length], (accumulator, dataIndex) -> {
+          final Tensor delta = data.get(dataIndex);
+          final Tensor input = inputData.get(dataIndex);
+          @Nonnull final double[] deltaData = delta.getData();
+          @Nonnull final double[] values = input.getData();
+          for (int i = 0; i < length; i++) accumulator[i] += deltaData[i] * values[i];
+          delta.freeRef();
+          input.freeRef();
+        }, (a, b) -> {
+          for (int i = 0; i < a.length; i++) a[i] += b[i];
         });
-        tensor0.freeRef();
-        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, inObj[1].getData().length())
-            .mapToObj(i -> i == 0 ? passback : passback.map(v -> 0)).toArray(i -> new Tensor[i]));
+        @Nonnull final Tensor passback = new Tensor(sum, dims);
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, parameterCnt)
+            .mapToObj(i -> i == 0 ? passback : new Tensor(dims)).toArray(i -> new Tensor[i]));
         inObj[1].accumulate(buffer, tensorArray);
       }
-      Arrays.stream(inObj).forEach(x -> x.getData().addRef());
     }) {
 
       @Override
       protected void _free() {
+        scaleTensor.freeRef();
+        inputData.freeRef();
         Arrays.stream(inObj).forEach(nnResult -> nnResult.freeRef());
       }
 
@@ -20,9 +20,12 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
 import com.simiacryptus.mindseye.lang.DataSerializer;
+import com.simiacryptus.mindseye.lang.MathMode;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 
 /**
@@ -69,7 +72,7 @@ public final class SigmoidActivationLayer extends SimpleActivationLayer<SigmoidA
   @Override
   protected final void eval(final double x, final double[] results) {
     final double minDeriv = 0;
-    final double ex = exp(x);
+    final double ex = exp(CoreSettings.INSTANCE().getMath(), x);
     final double ex1 = 1 + ex;
     double d = ex / (ex1 * ex1);
     double f = 1 / (1 + 1. / ex);
@@ -87,14 +90,42 @@ public final class SigmoidActivationLayer extends SimpleActivationLayer<SigmoidA
     results[1] = d;
   }
 
-  private double exp(final double x) {
+  @Override
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    final boolean balanced = isBalanced();
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double ex = exp(math, input[i]);
+      final double f = 1 / (1 + 1. / ex);
+      output[i] = balanced ? 2 * f - 1 : f;
+      if (null != derivative) {
+        final double ex1 = 1 + ex;
+        final double d = ex / (ex1 * ex1);
+        derivative[i] = Double.isFinite(d) ? (balanced ? 2 * d : d) : 0;
+      }
+    }
+  }
+
+  @Override
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    final double scale = isBalanced() ? 2 : 1;
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double ex = exp(math, input[i]);
+      final double ex1 = 1 + ex;
+      final double d = ex / (ex1 * ex1);
+      if (Double.isFinite(d)) passback[i] = delta[i] * scale * d;
+    }
+  }
+
+  private static double exp(@Nonnull final MathMode math, final double x) {
     if (x < SigmoidActivationLayer.MIN_X) {
       return SigmoidActivationLayer.MIN_F;
     }
     if (x > SigmoidActivationLayer.MAX_X) {
       return SigmoidActivationLayer.MAX_F;
     }
-    return Math.exp(x);
+    return math.exp(x);
   }
 
   @Nonnull
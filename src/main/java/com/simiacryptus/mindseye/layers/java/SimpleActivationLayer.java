@@ -67,6 +67,39 @@ public abstract class SimpleActivationLayer<T extends SimpleActivationLayer<T>>
    */
   protected abstract void eval(final double x, double[] results);
 
+  /**
+   * Evaluates the activation over a whole tensor. Subclasses should override this (and {@link #backward}) with a tight
+   * loop; the default delegates to {@link #eval(double, double[])} per element.
+   *
+   * @param input      the input
+   * @param output     the output
+   * @param derivative if not null, receives the derivative at each input
+   */
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    @Nonnull final double[] results = new double[2];
+    for (int i = 0; i < input.length; i++) {
+      eval(input[i], results);
+      output[i] = results[0];
+      if (null != derivative) derivative[i] = results[1];
+    }
+  }
+
+  /**
+   * Computes the input gradient from the input and output gradient, recomputing the derivative. Entries with a
+   * non-finite derivative receive no gradient.
+   *
+   * @param input    the input
+   * @param delta    the output gradient
+   * @param passback receives the input gradient
+   */
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    @Nonnull final double[] results = new double[2];
+    for (int i = 0; i < input.length; i++) {
+      eval(input[i], results);
+      if (Double.isFinite(results[1])) passback[i] = delta[i] * results[1];
+    }
+  }
+
   @Nonnull
   @Override
   public Result eval(@Nonnull final Result... inObj) {
@@ -75,32 +108,36 @@ public abstract class SimpleActivationLayer<T extends SimpleActivationLayer<T>>
     assert 0 < itemCnt;
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
     Arrays.stream(inObj).forEach(nnResult -> nnResult.getData().addRef());
-    @Nonnull final Tensor inputGradientA[] = new Tensor[itemCnt];
+    // Either keep the derivative of each sample until backprop, or recompute it there from the retained input
+    final boolean storeDerivative = inObj[0].isAlive() && !CoreSettings.INSTANCE().isActivationRecompute();
+    final int length = Tensor.length(indata0.getDimensions());
+    @Nonnull final double[][] derivativeA = new double[itemCnt][];
     return new Result(TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
       @Nullable final Tensor input = indata0.get(dataIndex);
       @Nonnull final Tensor output = new Tensor(indata0.getDimensions());
-      @Nonnull final Tensor inputGradient = new Tensor(input.length());
-      inputGradientA[dataIndex] = inputGradient;
-      @Nonnull final double[] results = new double[2];
-      for (int i = 0; i < input.length(); i++) {
-        eval(input.getData()[i], results);
-        inputGradient.set(i, results[1]);
-        output.set(i, results[0]);
-      }
+      @Nullable final double[] derivative = storeDerivative ? RecycleBin.DOUBLES.obtain(length) : null;
+      derivativeA[dataIndex] = derivative;
+      forward(input.getData(), output.getData(), derivative);
       input.freeRef();
       return output;
     }).toArray(i -> new Tensor[i])), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (inObj[0].isAlive()) {
         @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, itemCnt).parallel().mapToObj(dataIndex -> {
           @Nonnull final Tensor passback = new Tensor(data.getDimensions());
-          @Nullable final double[] gradientData = inputGradientA[dataIndex].getData();
+          @Nonnull final double[] passbackData = passback.getData();
           @Nullable Tensor tensor = data.get(dataIndex);
-          IntStream.range(0, passback.length()).forEach(i -> {
-            final double v = gradientData[i];
-            if (Double.isFinite(v)) {
-              passback.set(i, tensor.get(i) * v);
+          @Nonnull final double[] deltaData = tensor.getData();
+          @Nullable final double[] derivative = derivativeA[dataIndex];
+          if (null != derivative) {
+            for (int i = 0; i < passbackData.length; i++) {
+              final double v = derivative[i];
+              if (Double.isFinite(v)) passbackData[i] = deltaData[i] * v;
             }
-          });
+          } else {
+            @Nullable final Tensor input = indata0.get(dataIndex);
+            backward(input.getData(), deltaData, passbackData);
+            input.freeRef();
+          }
           tensor.freeRef();
           return passback;
         }).toArray(i -> new Tensor[i]));
@@ -112,8 +149,8 @@ public abstract class SimpleActivationLayer<T extends SimpleActivationLayer<T>>
       protected void _free() {
         Arrays.stream(inObj).forEach(nnResult -> nnResult.freeRef());
         Arrays.stream(inObj).forEach(nnResult -> nnResult.getData().freeRef());
-        for (@Nonnull Tensor tensor : inputGradientA) {
-          tensor.freeRef();
+        for (@Nullable double[] derivative : derivativeA) {
+          if (null != derivative) RecycleBin.DOUBLES.recycle(derivative, derivative.length);
         }
       }
 
@@ -20,9 +20,12 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.CoreSettings;
 import com.simiacryptus.mindseye.lang.DataSerializer;
+import com.simiacryptus.mindseye.lang.MathMode;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Map;
 
 /**
@@ -62,8 +65,9 @@ public final class SinewaveActivationLayer extends SimpleActivationLayer<Sinewav
 
   @Override
   protected final void eval(final double x, final double[] results) {
-    double d = Math.cos(x);
-    double f = Math.sin(x);
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    double d = math.cos(x);
+    double f = math.sin(x);
     if (!isBalanced()) {
       d = d / 2;
       f = (f + 1) / 2;
@@ -72,6 +76,31 @@ public final class SinewaveActivationLayer extends SimpleActivationLayer<Sinewav
     results[1] = d;
   }
 
+  @Override
+  protected void forward(@Nonnull final double[] input, @Nonnull final double[] output, @Nullable final double[] derivative) {
+    final boolean balanced = isBalanced();
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      final double f = math.sin(input[i]);
+      output[i] = balanced ? f : (f + 1) / 2;
+    }
+    if (null != derivative) {
+      for (int i = 0; i < input.length; i++) {
+        final double d = math.cos(input[i]);
+        derivative[i] = balanced ? d : d / 2;
+      }
+    }
+  }
+
+  @Override
+  protected void backward(@Nonnull final double[] input, @Nonnull final double[] delta, @Nonnull final double[] passback) {
+    final double scale = isBalanced() ? 1 : 0.5;
+    final MathMode math = CoreSettings.INSTANCE().getMath();
+    for (int i = 0; i < input.length; i++) {
+      passback[i] = delta[i] * scale * math.cos(input[i]);
+    }
+  }
+
   @Nonnull
   @Override
   public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
@@ -76,6 +76,7 @@ public class SoftmaxActivationLayer extends LayerBase {
     @Nonnull final double[] sumA = new double[itemCnt];
     Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
     @Nonnull final Tensor expA[] = new Tensor[itemCnt];
+    final MathMode math = CoreSettings.INSTANCE().getMath();
     final Tensor[] outputA = IntStream.range(0, itemCnt).mapToObj(dataIndex -> {
       @Nullable final Tensor input = inObj[0].getData().get(dataIndex);
       assert 1 < input.length() : "input.length() = " + input.length();
@@ -85,7 +86,7 @@ public class SoftmaxActivationLayer extends LayerBase {
       final double max = summaryStatistics.getMax();
       //final double min = summaryStatistics.getMin();
       exp = input.map(x -> {
-        double xx = Math.exp(x - max);
+        double xx = math.exp(x - max);
         return Double.isFinite(xx) ? xx : 0;
       });
       input.freeRef();
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * A fused {@link SoftmaxActivationLayer} followed by {@link EntropyLossLayer}: the first input is a vector of logits,
+ * the second a target distribution, and the output is the cross-entropy -sum(y * log(softmax(x))). The log-softmax is
+ * computed with a max-shifted log-sum-exp, which stays finite for any logits, and the logit gradient is simply
+ * softmax(x) * sum(y) - y. Only the log-sum-exp of each row is kept for backprop. In pixelwise mode the input is an
+ * image, the softmax is taken over the bands of each pixel as in {@link ImgPixelSoftmaxLayer}, and the loss is summed
+ * over pixels.
+ */
+@SuppressWarnings("serial")
+public class SoftmaxEntropyLossLayer extends LayerBase {
+
+  @SuppressWarnings("unused")
+  private static final Logger log = LoggerFactory.getLogger(SoftmaxEntropyLossLayer.class);
+  private boolean pixelwise = false;
+
+  /**
+   * Instantiates a new Softmax entropy loss layer.
+   */
+  public SoftmaxEntropyLossLayer() {
+  }
+
+  /**
+   * Instantiates a new Softmax entropy loss layer.
+   *
+   * @param id the id
+   */
+  protected SoftmaxEntropyLossLayer(@Nonnull final JsonObject id) {
+    super(id);
+    pixelwise = id.has("pixelwise") && id.get("pixelwise").getAsBoolean();
+  }
+
+  /**
+   * From json softmax entropy loss layer.
+   *
+   * @param json the json
+   * @param rs   the rs
+   * @return the softmax entropy loss layer
+   */
+  public static SoftmaxEntropyLossLayer fromJson(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
+    return new SoftmaxEntropyLossLayer(json);
+  }
+
+  @Nonnull
+  @Override
+  public Result eval(@Nonnull final Result... inObj) {
+    final Result logits = inObj[0];
+    final Result target = inObj[1];
+    final TensorList logitData = logits.getData();
+    final TensorList targetData = target.getData();
+    @Nonnull final int[] dims = logitData.getDimensions();
+    if (Tensor.length(dims) != Tensor.length(targetData.getDimensions())) {
+      throw new IllegalArgumentException(Arrays.toString(dims) + " != " + Arrays.toString(targetData.getDimensions()));
+    }
+    // Softmax rows are strided: element j of row r is at r + j * stride
+    final int rows = pixelwise ? dims[0] * dims[1] : 1;
+    final int stride = rows;
+    final int bands = Tensor.length(dims) / rows;
+    Arrays.stream(inObj).forEach(nnResult -> nnResult.addRef());
+    logitData.addRef();
+    targetData.addRef();
+    @Nonnull final double[][] logSumExpA = new double[logitData.length()][];
+    final Tensor[] outputA = IntStream.range(0, logitData.length()).parallel().mapToObj(dataIndex -> {
+      @Nullable final Tensor logitTensor = logitData.get(dataIndex);
+      @Nullable final Tensor targetTensor = targetData.get(dataIndex);
+      final double[] x = logitTensor.getData();
+      final double[] y = targetTensor.getData();
+      final double[] logSumExp = new double[rows];
+      double total = 0;
+      for (int row = 0; row < rows; row++) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = 0, i = row; j < bands; j++, i += stride) max = Math.max(max, x[i]);
+        double sum = 0;
+        for (int j = 0, i = row; j < bands; j++, i += stride) sum += Math.exp(x[i] - max);
+        final double lse = max + Math.log(sum);
+        logSumExp[row] = lse;
+        for (int j = 0, i = row; j < bands; j++, i += stride) {
+          if (0 != y[i]) total += y[i] * (lse - x[i]);
+        }
+      }
+      logitTensor.freeRef();
+      targetTensor.freeRef();
+      logSumExpA[dataIndex] = logSumExp;
+      return new Tensor(new double[]{total}, 1);
+    }).toArray(i -> new Tensor[i]);
+    return new Result(TensorArray.wrap(outputA), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      if (logits.isAlive()) {
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
+          final Tensor deltaTensor = delta.get(dataIndex);
+          final double scale = deltaTensor.get(0);
+          deltaTensor.freeRef();
+          @Nullable final Tensor logitTensor = logitData.get(dataIndex);
+          @Nullable final Tensor targetTensor = targetData.get(dataIndex);
+          final double[] x = logitTensor.getData();
+          final double[] y = targetTensor.getData();
+          final double[] logSumExp = logSumExpA[dataIndex];
+          @Nonnull final Tensor passback = new Tensor(dims);
+          final double[] passbackData = passback.getData();
+          for (int row = 0; row < rows; row++) {
+            double targetSum = 0;
+            for (int j = 0, i = row; j < bands; j++, i += stride) targetSum += y[i];
+            final double lse = logSumExp[row];
+            for (int j = 0, i = row; j < bands; j++, i += stride) {
+              passbackData[i] = scale * (Math.exp(x[i] - lse) * targetSum - y[i]);
+            }
+          }
+          logitTensor.freeRef();
+          targetTensor.freeRef();
+          return passback;
+        }).toArray(i -> new Tensor[i]));
+        logits.accumulate(buffer, tensorArray);
+      }
+      if (target.isAlive()) {
+        @Nonnull TensorArray tensorArray = TensorArray.wrap(IntStream.range(0, delta.length()).parallel().mapToObj(dataIndex -> {
+          final Tensor deltaTensor = delta.get(dataIndex);
+          final double scale = deltaTensor.get(0);
+          deltaTensor.freeRef();
+          @Nullable final Tensor logitTensor = logitData.get(dataIndex);
+          final double[] x = logitTensor.getData();
+          final double[] logSumExp = logSumExpA[dataIndex];
+          @Nonnull final Tensor passback = new Tensor(targetData.getDimensions());
+          final double[] passbackData = passback.getData();
+          for (int row = 0; row < rows; row++) {
+            final double lse = logSumExp[row];
+            for (int j = 0, i = row; j < bands; j++, i += stride) {
+              passbackData[i] = scale * (lse - x[i]);
+            }
+          }
+          logitTensor.freeRef();
+          return passback;
+        }).toArray(i -> new Tensor[i]));
+        target.accumulate(buffer, tensorArray);
+      }
+    }) {
+
+      @Override
+      protected void _free() {
+        logitData.freeRef();
+        targetData.freeRef();
+        Arrays.stream(inObj).forEach(ReferenceCounting::freeRef);
+      }
+
+      @Override
+      public boolean isAlive() {
+        return logits.isAlive() || target.isAlive();
+      }
+
+    };
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    json.addProperty("pixelwise", pixelwise);
+    return json;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
+
+  /**
+   * Whether the softmax is taken over the bands of each pixel of an image input, rather than the whole input.
+   *
+   * @return the boolean
+   */
+  public boolean isPixelwise() {
+    return pixelwise;
+  }
+
+  /**
+   * Sets pixelwise.
+   *
+   * @param pixelwise the pixelwise
+   * @return the pixelwise
+   */
+  @Nonnull
+  public SoftmaxEntropyLossLayer setPixelwise(final boolean pixelwise) {
+    this.pixelwise = pixelwise;
+    return this;
+  }
+}
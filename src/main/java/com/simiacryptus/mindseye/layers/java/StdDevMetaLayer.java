@@ -20,23 +20,31 @@
 package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
-import com.simiacryptus.mindseye.network.DAGNode;
-import com.simiacryptus.mindseye.network.PipelineNetwork;
+import com.simiacryptus.mindseye.lang.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
 
 /**
- * The type Std dev meta key.
+ * Computes the standard deviation of all elements across an execution batch as a single scalar. The mean and variance
+ * are computed together in one {@link BatchMoments} pass, and the gradient is given in closed form as (x - mean) / (n *
+ * stddev). Batches no larger than the min batch count reuse the last computed value and pass no gradient.
  */
 @SuppressWarnings("serial")
-public class StdDevMetaLayer extends PipelineNetwork {
+public class StdDevMetaLayer extends LayerBase {
 
   @SuppressWarnings("unused")
   private static final Logger log = LoggerFactory.getLogger(StdDevMetaLayer.class);
+  @Nullable
+  private Tensor lastResult;
+  private int minBatchCount = 1;
 
   /**
    * Instantiates a new Std dev meta key.
@@ -51,16 +59,7 @@ public class StdDevMetaLayer extends PipelineNetwork {
    * @param minBatchCount the min batch count
    */
   public StdDevMetaLayer(final int minBatchCount) {
-    super(1);
-    wrap(new AvgMetaLayer().setMinBatchCount(minBatchCount)).freeRef();
-    wrap(new AvgReducerLayer()).freeRef();
-    wrap(new SqActivationLayer()).freeRef();
-    @Nullable final DAGNode a = wrap(new LinearActivationLayer().setScale(-1).freeze());
-    wrap(new SqActivationLayer(), getInput(0)).freeRef();
-    wrap(new AvgMetaLayer().setMinBatchCount(minBatchCount)).freeRef();
-    wrap(new AvgReducerLayer()).freeRef();
-    wrap(new SumInputsLayer(), getHead(), a).freeRef();
-    wrap(new NthPowerActivationLayer().setPower(0.5)).freeRef();
+    this.minBatchCount = minBatchCount;
   }
 
   /**
@@ -70,7 +69,9 @@ public class StdDevMetaLayer extends PipelineNetwork {
    * @param rs   the rs
    */
   protected StdDevMetaLayer(@Nonnull final JsonObject json, Map<CharSequence, byte[]> rs) {
-    super(json, rs);
+    super(json);
+    if (json.has("lastResult")) lastResult = Tensor.fromJson(json.get("lastResult"), rs);
+    if (json.has("minBatchCount")) minBatchCount = json.get("minBatchCount").getAsInt();
   }
 
   /**
@@ -84,4 +85,101 @@ public class StdDevMetaLayer extends PipelineNetwork {
     return new StdDevMetaLayer(json, rs);
   }
 
+  @Override
+  protected void _free() {
+    if (null != lastResult) lastResult.freeRef();
+    super._free();
+  }
+
+  @Nullable
+  @Override
+  public Result evalAndFree(@Nonnull final Result... inObj) {
+    if (1 != inObj.length) throw new IllegalArgumentException();
+    final Result input = inObj[0];
+    final TensorList inputData = input.getData();
+    final int itemCnt = inputData.length();
+    final boolean passback;
+    final double mean;
+    final double stdDev;
+    if (null == lastResult || itemCnt > minBatchCount) {
+      @Nonnull final BatchMoments moments = BatchMoments.compute(inputData);
+      mean = moments.getTotalMean();
+      stdDev = Math.sqrt(moments.getTotalVariance());
+      passback = true;
+      if (null != lastResult) lastResult.freeRef();
+      lastResult = new Tensor(new double[]{stdDev}, 1);
+    } else {
+      mean = 0;
+      stdDev = lastResult.get(0);
+      passback = false;
+    }
+    return new Result(TensorArray.wrap(new Tensor(new double[]{stdDev}, 1)), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      if (passback && input.isAlive()) {
+        @Nullable final Tensor delta = data.get(0);
+        final double scale = 0 == stdDev ? 0 : delta.get(0) / (stdDev * itemCnt * Tensor.length(inputData.getDimensions()));
+        delta.freeRef();
+        @Nonnull final Tensor feedback[] = IntStream.range(0, itemCnt).parallel().mapToObj(i -> {
+          final Tensor tensor = inputData.get(i);
+          final double[] values = tensor.getData();
+          final double[] gradient = new double[values.length];
+          for (int j = 0; j < gradient.length; j++) gradient[j] = (values[j] - mean) * scale;
+          final Tensor result = new Tensor(gradient, tensor.getDimensions());
+          tensor.freeRef();
+          return result;
+        }).toArray(i -> new Tensor[i]);
+        input.accumulate(buffer, TensorArray.wrap(feedback));
+      }
+    }) {
+
+      @Override
+      protected void _free() {
+        inputData.freeRef();
+        input.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return passback && input.isAlive();
+      }
+
+    };
+  }
+
+  @Nonnull
+  @Override
+  public JsonObject getJson(Map<CharSequence, byte[]> resources, @Nonnull DataSerializer dataSerializer) {
+    @Nonnull final JsonObject json = super.getJsonStub();
+    if (null != lastResult) {
+      json.add("lastResult", lastResult.toJson(resources, dataSerializer));
+    }
+    json.addProperty("minBatchCount", minBatchCount);
+    return json;
+  }
+
+  /**
+   * Gets min batch count.
+   *
+   * @return the min batch count
+   */
+  public int getMinBatchCount() {
+    return minBatchCount;
+  }
+
+  /**
+   * Sets min batch count.
+   *
+   * @param minBatchCount the min batch count
+   * @return the min batch count
+   */
+  @Nonnull
+  public StdDevMetaLayer setMinBatchCount(final int minBatchCount) {
+    this.minBatchCount = minBatchCount;
+    return this;
+  }
+
+  @Nonnull
+  @Override
+  public List<double[]> state() {
+    return Arrays.asList();
+  }
 }
@@ -21,14 +21,15 @@ package com.simiacryptus.mindseye.layers.java;
 
 import com.google.gson.JsonObject;
 import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.CounterRandom;
 import com.simiacryptus.mindseye.layers.StochasticComponent;
-import com.simiacryptus.util.FastRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * The type Binary noise key.
@@ -123,10 +124,11 @@ public class StochasticBinaryNoiseLayer extends LayerBase implements StochasticC
     assert null == inObj || 0 == inObj.length;
     Tensor mask = masks.computeIfAbsent(seed, s -> {
       Tensor m = new Tensor(dimensions);
-      FastRandom random = new FastRandom(seed ^ layerSeed);
-      for (int i = 0; i < m.length(); i++) {
-        m.set(i, s == 0 || (random.random() < density) ? amplitude : 0);
-      }
+      final double[] data = m.getData();
+      final long stream = CounterRandom.stream(seed ^ layerSeed, 0);
+      IntStream.range(0, data.length).parallel().forEach(i -> {
+        data[i] = s == 0 || (CounterRandom.uniform(stream, i) < density) ? amplitude : 0;
+      });
       m.detach();
       return m;
     });
@@ -73,6 +73,14 @@ public class SumInputsLayer extends LayerBase {
       return data;
     }).reduce((l, r) -> {
       assert l.length() == r.length() || 1 == l.length() || 1 == r.length();
+      if (l.length() == r.length() && Arrays.equals(l.getDimensions(), r.getDimensions())
+          && (l instanceof SparseTensorList || r instanceof SparseTensorList)) {
+        // Only the sparse side's nonzeros are added, and two sparse inputs stay sparse
+        @Nonnull final TensorList sum = l instanceof SparseTensorList ? l.add(r) : r.add(l);
+        l.freeRef();
+        r.freeRef();
+        return sum;
+      }
       @Nonnull TensorArray sum = TensorArray.wrap(IntStream.range(0, l.length()).parallel()
           .mapToObj(i -> {
             @Nullable final Tensor left = l.get(1 == l.length() ? 0 : i);
@@ -30,8 +30,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.ToDoubleFunction;
-import java.util.stream.IntStream;
 
 /**
  * The type Sum meta key.
@@ -84,27 +82,14 @@ public class SumMetaLayer extends LayerBase {
     final int itemCnt = inputData.length();
     if (null == lastResult || minBatches < itemCnt) {
       if(null != lastResult) lastResult.freeRef();
-      @Nonnull final ToDoubleFunction<Coordinate> f = (c) ->
-          IntStream.range(0, itemCnt)
-              .mapToDouble(dataIndex -> {
-                Tensor tensor = inputData.get(dataIndex);
-                double v = tensor.get(c);
-                tensor.freeRef();
-                return v;
-              })
-              .sum();
-      lastResult = inputData.get(0).mapCoordsAndFree(f);
+      lastResult = new Tensor(BatchMoments.compute(inputData).getSum(), inputData.getDimensions());
     }
     return new Result(TensorArray.create(lastResult), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       if (input.isAlive()) {
         @Nullable final Tensor delta = data.get(0);
         @Nonnull final Tensor feedback[] = new Tensor[itemCnt];
-        Arrays.parallelSetAll(feedback, i -> new Tensor(delta.getDimensions()));
-        delta.coordStream(false).forEach((inputCoord) -> {
-          for (int inputItem = 0; inputItem < itemCnt; inputItem++) {
-            feedback[inputItem].add(inputCoord, delta.get(inputCoord));
-          }
-        });
+        Arrays.parallelSetAll(feedback, i -> new Tensor(delta.getData(), delta.getDimensions()));
+        delta.freeRef();
         @Nonnull TensorArray tensorArray = TensorArray.wrap(feedback);
         input.accumulate(buffer, tensorArray);
       }
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Concatenates two or more images apply the same resolution so the output contains all input color bands.
@@ -78,21 +79,26 @@ public class TensorConcatLayer extends LayerBase {
         Arrays.stream(inObj).mapToInt(x->Tensor.length(x.getData().getDimensions())).sum()
     };
 
-    @Nonnull final List<Tensor> outputTensors = new ArrayList<>();
-    for (int b = 0; b < numBatches; b++) {
+    @Nonnull final Tensor[] outputTensors = IntStream.range(0, numBatches).parallel().mapToObj(b -> {
       @Nonnull final Tensor outputTensor = new Tensor(outputDims);
       int pos = 0;
       @Nullable final double[] outputTensorData = outputTensor.getData();
       for (int i = 0; i < inObj.length; i++) {
-        @Nullable Tensor tensor = inObj[i].getData().get(b);
-        @Nullable final double[] data = tensor.getData();
-        System.arraycopy(data, 0, outputTensorData, pos, Math.min(data.length, outputTensorData.length - pos));
-        pos += data.length;
-        tensor.freeRef();
+        final TensorList inputData = inObj[i].getData();
+        @Nonnull final int[] inputDims = inputData.getDimensions();
+        if (3 == inputDims.length) {
+          // Images, including crop and padding views, are written straight into the output
+          ImgRegionTensorList.copy(inputData, b, outputTensorData, pos, inputDims, 0, 0, 0);
+        } else {
+          @Nullable Tensor tensor = inputData.get(b);
+          System.arraycopy(tensor.getData(), 0, outputTensorData, pos, tensor.length());
+          tensor.freeRef();
+        }
+        pos += Tensor.length(inputDims);
       }
-      outputTensors.add(outputTensor);
-    }
-    return new Result(TensorArray.wrap(outputTensors.toArray(new Tensor[]{})), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      return outputTensor;
+    }).toArray(i -> new Tensor[i]);
+    return new Result(TensorArray.wrap(outputTensors), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
       assert numBatches == data.length();
 
       @Nonnull final List<Tensor[]> splitBatches = new ArrayList<>();
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a fixed number of independent tasks, such as the tiles of a tiled evaluation, with at most a given number in
+ * flight. Each worker claims the next unstarted task when it finishes one, so memory held by in-flight tasks stays
+ * bounded by the concurrency rather than the task count. Workers run on a cached daemon pool, so nested executions
+ * cannot starve each other.
+ */
+final class TileExecutor {
+
+  private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("tile-%d").setDaemon(true).build());
+
+  private TileExecutor() {
+  }
+
+  /**
+   * Runs tasks 0 until count and waits for all of them.
+   *
+   * @param count       the number of tasks
+   * @param concurrency the maximum number of tasks in flight; 0 or less uses one per available processor
+   * @param task        the task
+   */
+  static void run(final int count, final int concurrency, @Nonnull final IntConsumer task) {
+    final int workers = Math.min(count, concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors());
+    if (workers <= 1) {
+      IntStream.range(0, count).forEach(task);
+      return;
+    }
+    final AtomicInteger next = new AtomicInteger(0);
+    CompletableFuture.allOf(IntStream.range(0, workers).mapToObj(worker -> CompletableFuture.runAsync(() -> {
+      for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+        task.accept(index);
+      }
+    }, pool)).toArray(i -> new CompletableFuture<?>[i])).join();
+  }
+}
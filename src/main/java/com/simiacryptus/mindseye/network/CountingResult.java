@@ -24,11 +24,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -91,12 +95,20 @@ public class CountingResult extends Result {
    * The type Counting accumulator.
    */
   static class CountingAccumulator extends ReferenceCountingBase implements BiConsumer<DeltaSet<UUID>, TensorList> {
+    /**
+     * The number of doubles guarded by each lock stripe while summing heap-resident gradients in place.
+     */
+    private static final int STRIPE_SIZE = 4 * 1024;
     @Nonnull
     private final AtomicInteger references;
     @Nonnull
     private final AtomicBoolean hasAccumulated;
     private final Result inner;
     @Nonnull
+    private final AtomicReference<Tensor[]> accumulationBuffer;
+    @Nonnull
+    private final Object[] stripes;
+    @Nonnull
     private final LinkedList<TensorList> passbackBuffers;
     @Nonnull
     private final AtomicInteger accumulations;
@@ -111,6 +123,8 @@ public class CountingResult extends Result {
       this.inner.addRef();
       references = new AtomicInteger(0);
       hasAccumulated = new AtomicBoolean(false);
+      accumulationBuffer = new AtomicReference<>();
+      stripes = IntStream.range(0, 16).mapToObj(i -> new Object()).toArray();
       passbackBuffers = new LinkedList<>();
       accumulations = new AtomicInteger(0);
     }
@@ -142,44 +156,103 @@ public class CountingResult extends Result {
         data.addRef();
         inner.accumulate(buffer, data);
       } else {
-        @Nonnull TensorList reduced = null;
-        synchronized (passbackBuffers) {
-          assert passbackBuffers.stream().allMatch(x -> x.assertAlive());
-          passbackBuffers.add(data);
-          data.addRef();
-          if (passbackBuffers.size() > CoreSettings.INSTANCE().backpropAggregationSize) {
-            Stream<TensorList> stream = passbackBuffers.stream();
-            if (!CoreSettings.INSTANCE().isSingleThreaded()) stream = stream.parallel();
-            //x.addRef();
-            @Nonnull TensorList compacted = stream.reduce((a, b) -> {
-              TensorList c;
-              c = a.addAndFree(b);
-              b.freeRef();
-              return c;
-            }).get();
-            //passbackBuffers.stream().distinct().filter((TensorList x) -> x != reduced).forEach(t -> t.freeRef());
-            passbackBuffers.clear();
-            passbackBuffers.add(compacted);
-            assert passbackBuffers.stream().allMatch(x -> x.assertAlive());
+        if (data instanceof TensorArray) {
+          addInPlace((TensorArray) data);
+        } else {
+          addDeviceBuffer(data);
+        }
+        if (accumulations.incrementAndGet() == references.get()) {
+          accumulations.set(0);
+          @Nullable TensorList reduced = drain();
+          if (null != reduced) {
+            inner.accumulate(buffer, reduced);
           }
-          if (accumulations.incrementAndGet() == references.get()) {
-            Stream<TensorList> stream = passbackBuffers.stream();
-            if (!CoreSettings.INSTANCE().isSingleThreaded()) stream = stream.parallel();
-            reduced = stream.reduce((a, b) -> {
-              TensorList c;
-              c = a.addAndFree(b);
-              b.freeRef();
-              return c;
-            }).get();
-            passbackBuffers.clear();
+        }
+      }
+    }
+
+    /**
+     * Sums heap-resident gradient data into this node's accumulation buffer. The first contribution is copied to seed
+     * the buffer; later contributions are added in place, with each lock stripe guarding a range of elements so that
+     * concurrent contributors only contend when summing the same region at the same time.
+     */
+    private void addInPlace(@Nonnull final TensorArray data) {
+      Tensor[] target = accumulationBuffer.get();
+      if (null == target) {
+        @Nonnull final Tensor[] seed = Arrays.stream(data.getData()).map(Tensor::copy).toArray(i -> new Tensor[i]);
+        if (accumulationBuffer.compareAndSet(null, seed)) return;
+        for (@Nonnull Tensor tensor : seed) tensor.freeRef();
+        target = accumulationBuffer.get();
+      }
+      final Tensor[] accumulator = target;
+      final Tensor[] source = data.getData();
+      assert accumulator.length == source.length;
+      final int length = accumulator[0].length();
+      final int chunks = (length + STRIPE_SIZE - 1) / STRIPE_SIZE;
+      IntStream stream = IntStream.range(0, accumulator.length * chunks);
+      if (!CoreSettings.INSTANCE().isSingleThreaded()) stream = stream.parallel();
+      stream.forEach(task -> {
+        final double[] from = source[task / chunks].getData();
+        final double[] to = accumulator[task / chunks].getData();
+        final int start = (task % chunks) * STRIPE_SIZE;
+        final int end = Math.min(length, start + STRIPE_SIZE);
+        synchronized (stripes[task % stripes.length]) {
+          for (int i = start; i < end; i++) {
+            to[i] += from[i];
           }
+        }
+      });
+    }
+
+    /**
+     * Retains device-resident gradient data (e.g. GPU memory) so it can be summed on the device, compacting the
+     * pending list once it exceeds the configured aggregation size.
+     */
+    private void addDeviceBuffer(@Nonnull final TensorList data) {
+      synchronized (passbackBuffers) {
+        assert passbackBuffers.stream().allMatch(x -> x.assertAlive());
+        passbackBuffers.add(data);
+        data.addRef();
+        if (passbackBuffers.size() > CoreSettings.INSTANCE().backpropAggregationSize) {
+          @Nonnull TensorList compacted = reduce(passbackBuffers);
+          passbackBuffers.clear();
+          passbackBuffers.add(compacted);
           assert passbackBuffers.stream().allMatch(x -> x.assertAlive());
         }
-        if (null != reduced) {
-          inner.accumulate(buffer, reduced);
-          accumulations.set(0);
+      }
+    }
+
+    /**
+     * Hands off all accumulated gradient data, leaving this accumulator empty.
+     */
+    @Nullable
+    private TensorList drain() {
+      @Nullable final Tensor[] heap = accumulationBuffer.getAndSet(null);
+      @Nullable TensorList device = null;
+      synchronized (passbackBuffers) {
+        if (!passbackBuffers.isEmpty()) {
+          device = reduce(passbackBuffers);
+          passbackBuffers.clear();
         }
       }
+      if (null == heap) return device;
+      @Nonnull final TensorArray heapList = TensorArray.wrap(heap);
+      if (null == device) return heapList;
+      TensorList sum = heapList.addAndFree(device);
+      device.freeRef();
+      return sum;
+    }
+
+    @Nonnull
+    private static TensorList reduce(@Nonnull final LinkedList<TensorList> buffers) {
+      Stream<TensorList> stream = buffers.stream();
+      if (!CoreSettings.INSTANCE().isSingleThreaded()) stream = stream.parallel();
+      return stream.reduce((a, b) -> {
+        TensorList c;
+        c = a.addAndFree(b);
+        b.freeRef();
+        return c;
+      }).get();
     }
 
     @Override
@@ -188,6 +261,10 @@ public class CountingResult extends Result {
         passbackBuffers.stream().forEach(t -> t.freeRef());
         passbackBuffers.clear();
       }
+      @Nullable final Tensor[] heap = accumulationBuffer.getAndSet(null);
+      if (null != heap) {
+        for (@Nonnull Tensor tensor : heap) tensor.freeRef();
+      }
       this.inner.freeRef();
     }
 
@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.network;
 
 import com.google.gson.*;
 import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.StochasticComponent;
 import com.simiacryptus.mindseye.layers.java.WrapperLayer;
 import com.simiacryptus.util.MonitoredItem;
 import com.simiacryptus.util.MonitoredObject;
@@ -31,6 +32,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
@@ -63,6 +65,9 @@ public abstract class DAGNetwork extends LayerBase {
    * The Nodes by id.
    */
   protected final LinkedHashMap<UUID, DAGNode> internalNodes = new LinkedHashMap<>();
+  private boolean constantFolding = false;
+  @Nullable
+  private transient GraphProfiler profiler = null;
 
   /**
    * Instantiates a new Dag network.
@@ -130,6 +135,9 @@ public abstract class DAGNetwork extends LayerBase {
     initLinks(deserializedLinks, source_layersByNodeId, head);
     source_layersByLayerId.values().forEach(x -> x.freeRef());
     this.labels.putAll(labels);
+    if (json.has("constantFolding")) {
+      this.constantFolding = json.get("constantFolding").getAsBoolean();
+    }
     assertConsistent();
   }
 
@@ -288,22 +296,226 @@ public abstract class DAGNetwork extends LayerBase {
    */
   @Nonnull
   public GraphEvaluationContext buildExeCtx(@Nonnull final Result... inputs) {
+    return buildExeCtx(false, inputs);
+  }
+
+  /**
+   * Build handler ctx graph evaluation context.
+   *
+   * @param inference whether the evaluation is forward-only, in which case inputs are stored without a CountingResult
+   * @param inputs    the inputs
+   * @return the graph evaluation context
+   */
+  @Nonnull
+  private GraphEvaluationContext buildExeCtx(final boolean inference, @Nonnull final Result... inputs) {
     assert inputs.length == inputHandles.size() : inputs.length + " != " + inputHandles.size();
     @Nonnull final GraphEvaluationContext context = new GraphEvaluationContext();
+    context.inference = inference;
     for (int i = 0; i < inputs.length; i++) {
       UUID key = inputHandles.get(i);
       Result input = inputs[i];
       if (!context.calculated.containsKey(key)) {
         input.getData().addRef();
-        context.calculated.put(key, new Singleton<CountingResult>().set(new CountingResult(input)));
+        if (inference) {
+          input.addRef();
+          context.calculated.put(key, new Singleton<Object>().set(input));
+        } else {
+          context.calculated.put(key, new Singleton<Object>().set(new CountingResult(input)));
+        }
       }
     }
-    context.expectedCounts.putAll(getNodes().stream().flatMap(t -> {
+    final List<DAGNode> reachableNodes = getReachableNodes();
+    context.expectedCounts.putAll(reachableNodes.stream().flatMap(t -> {
       return Arrays.stream(t.getInputs()).map(n -> n.getId());
     }).filter(x -> !inputHandles.contains(x)).collect(Collectors.groupingBy(x -> x, Collectors.counting())));
+    if (isConstantFolding()) {
+      context.constantNodes.addAll(getConstantFrontier(reachableNodes));
+    }
     return context;
   }
 
+  /**
+   * Gets the nodes which contribute to the head node, in breadth-first order starting at the head.
+   *
+   * @return the reachable nodes
+   */
+  @Nonnull
+  public List<DAGNode> getReachableNodes() {
+    final DAGNode head = getHead();
+    try {
+      @Nonnull final LinkedHashMap<UUID, DAGNode> visited = new LinkedHashMap<>();
+      @Nonnull final ArrayDeque<DAGNode> queue = new ArrayDeque<>();
+      queue.add(head);
+      while (!queue.isEmpty()) {
+        final DAGNode node = queue.poll();
+        if (!visited.containsKey(node.getId())) {
+          visited.put(node.getId(), node);
+          queue.addAll(Arrays.asList(node.getInputs()));
+        }
+      }
+      return new ArrayList<>(visited.values());
+    } finally {
+      head.freeRef();
+    }
+  }
+
+  /**
+   * Removes all nodes which do not contribute to the head node, along with any labels which refer to them.
+   *
+   * @return the dag network
+   */
+  @Nonnull
+  public synchronized DAGNetwork prune() {
+    assertAlive();
+    final Set<UUID> reachable = getReachableNodes().stream().map(DAGNode::getId).collect(Collectors.toSet());
+    for (final UUID id : new ArrayList<>(internalNodes.keySet())) {
+      if (!reachable.contains(id)) {
+        DAGNode removed = internalNodes.remove(id);
+        if (null != removed) removed.freeRef();
+      }
+    }
+    labels.values().removeIf(id -> !reachable.contains(id));
+    assertConsistent();
+    return this;
+  }
+
+  /**
+   * Determines the set of constant nodes whose outputs are worth caching: nodes which are computed only from frozen,
+   * deterministic layers without depending on any network input, and which are either the head or are consumed by a
+   * non-constant node. Nodes without inputs (e.g. ValueLayer) are never cached since they are already trivial to
+   * evaluate.
+   *
+   * @param reachableNodes the reachable nodes
+   * @return the node ids
+   */
+  @Nonnull
+  private Set<UUID> getConstantFrontier(@Nonnull final List<DAGNode> reachableNodes) {
+    @Nonnull final Map<UUID, Boolean> constant = new HashMap<>();
+    reachableNodes.forEach(node -> isConstant(node, constant));
+    final UUID headId = getHeadId();
+    final Set<UUID> consumedByVariable = reachableNodes.stream()
+        .filter(node -> !constant.get(node.getId()))
+        .flatMap(node -> Arrays.stream(node.getInputs()))
+        .map(DAGNode::getId)
+        .collect(Collectors.toSet());
+    return reachableNodes.stream()
+        .filter(node -> constant.get(node.getId()))
+        .filter(node -> 0 < node.getInputs().length)
+        .map(DAGNode::getId)
+        .filter(id -> id.equals(headId) || consumedByVariable.contains(id))
+        .collect(Collectors.toSet());
+  }
+
+  private boolean isConstant(@Nonnull final DAGNode node, @Nonnull final Map<UUID, Boolean> memo) {
+    final Boolean known = memo.get(node.getId());
+    if (null != known) return known;
+    final Layer layer = node.getLayer();
+    final boolean constant = null != layer
+        && layer.isFrozen()
+        && !isStochastic(layer)
+        && Arrays.stream(node.getInputs()).allMatch(input -> isConstant(input, memo));
+    memo.put(node.getId(), constant);
+    return constant;
+  }
+
+  /**
+   * Checks whether a layer, or any layer it wraps or contains, draws random noise, so its output is not a function of
+   * its weights and inputs alone.
+   *
+   * @param layer the layer
+   * @return the boolean
+   */
+  public static boolean isStochastic(final Layer layer) {
+    if (layer instanceof StochasticComponent) return true;
+    if (layer instanceof WrapperLayer) return isStochastic(((WrapperLayer) layer).getInner());
+    if (layer instanceof DAGNetwork) {
+      @Nonnull final AtomicBoolean stochastic = new AtomicBoolean(false);
+      ((DAGNetwork) layer).visitLayers(l -> {
+        if (l instanceof StochasticComponent) stochastic.set(true);
+      });
+      return stochastic.get();
+    }
+    return false;
+  }
+
+  /**
+   * Discards all cached constant node outputs. Cached outputs are recomputed automatically when a layer of a constant
+   * subgraph is replaced or its weights change, so this only releases their memory.
+   *
+   * @return the dag network
+   */
+  @Nonnull
+  public DAGNetwork invalidateConstants() {
+    visitNodes(node -> {
+      if (node instanceof InnerNode) {
+        ((InnerNode) node).clearConstantCache();
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Is constant folding boolean.
+   *
+   * @return the boolean
+   */
+  public boolean isConstantFolding() {
+    return constantFolding;
+  }
+
+  /**
+   * Sets constant folding. When enabled, subgraphs which depend only on frozen layers and no network input are
+   * evaluated once and their outputs cached across evaluations.
+   *
+   * @param constantFolding the constant folding
+   * @return the constant folding
+   */
+  @Nonnull
+  public DAGNetwork setConstantFolding(final boolean constantFolding) {
+    this.constantFolding = constantFolding;
+    if (!constantFolding) invalidateConstants();
+    return this;
+  }
+
+  /**
+   * Gets profiler.
+   *
+   * @return the profiler
+   */
+  @Nullable
+  public GraphProfiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * Sets the profiler which records the evaluation of each node, or null to disable profiling. The profiler is also
+   * attached to all nested networks, whose nodes are reported beneath the node containing them.
+   *
+   * @param profiler the profiler
+   * @return the profiler
+   */
+  @Nonnull
+  public DAGNetwork setProfiler(@Nullable final GraphProfiler profiler) {
+    setProfiler(profiler, GraphProfiler.frame(getName()));
+    return this;
+  }
+
+  private void setProfiler(@Nullable final GraphProfiler profiler, @Nonnull final String path) {
+    assertAlive();
+    this.profiler = profiler;
+    this.internalNodes.values().forEach(node -> {
+      Layer layer = node.getLayer();
+      @Nonnull final String nodePath = path + ";" + GraphProfiler.frame(layer.getName());
+      if (null != profiler) profiler.register(node.getId(), nodePath);
+      while (layer instanceof WrapperLayer) {
+        layer = ((WrapperLayer) layer).getInner();
+      }
+      if (layer instanceof DAGNetwork) {
+        ((DAGNetwork) layer).setProfiler(profiler, nodePath);
+      }
+    });
+  }
+
   @Nonnull
   @Override
   public DAGNetwork copy(SerialPrecision precision) {
@@ -324,6 +536,31 @@ public abstract class DAGNetwork extends LayerBase {
     }
   }
 
+  @Nonnull
+  @Override
+  public Result evalInferenceAndFree(final Result... input) {
+    assertAlive();
+    final Result[] detached = Arrays.stream(input).map(result -> {
+      @Nonnull final Result constantResult = new ConstantResult(result.getData());
+      result.freeRef();
+      return constantResult;
+    }).toArray(i -> new Result[i]);
+    @Nonnull GraphEvaluationContext buildExeCtx = buildExeCtx(true, detached);
+    DAGNode head = getHead();
+    try {
+      @Nullable final Result result = head.get(buildExeCtx);
+      if (null == result) throw new IllegalStateException();
+      final TensorList data = result.getData();
+      result.freeRef();
+      return new ConstantResult(data);
+    } finally {
+      head.freeRef();
+      buildExeCtx.freeRef();
+      Arrays.stream(detached).map(Result::getData).forEach(ReferenceCounting::freeRef);
+      Arrays.stream(detached).forEach(ReferenceCounting::freeRef);
+    }
+  }
+
   /**
    * Gets by label.
    *
@@ -444,6 +681,7 @@ public abstract class DAGNetwork extends LayerBase {
     });
     json.add("labels", labels);
     json.addProperty("head", getHeadId().toString());
+    json.addProperty("constantFolding", constantFolding);
     return json;
   }
 
@@ -20,10 +20,15 @@
 package com.simiacryptus.mindseye.network;
 
 import com.simiacryptus.mindseye.lang.ReferenceCountingBase;
+import com.simiacryptus.mindseye.lang.Result;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 /**
@@ -38,9 +43,26 @@ class GraphEvaluationContext extends ReferenceCountingBase {
   final Map<UUID, Long> expectedCounts = new ConcurrentHashMap<>();
 
   /**
-   * The Calculated.
+   * The Calculated. During training each value is a CountingResult which sums the deltas of its consumers; during
+   * inference it is the node's plain output. A node which failed holds the Throwable instead.
    */
-  final Map<UUID, Supplier<CountingResult>> calculated = new ConcurrentHashMap<>();
+  final Map<UUID, Supplier<Object>> calculated = new ConcurrentHashMap<>();
+
+  /**
+   * The number of consumers which have taken each node's output during an inference evaluation.
+   */
+  final Map<UUID, AtomicInteger> inferenceCounts = new ConcurrentHashMap<>();
+
+  /**
+   * The nodes whose output is served from the constant-folding cache during this evaluation.
+   */
+  final Set<UUID> constantNodes = Collections.synchronizedSet(new HashSet<>());
+
+  /**
+   * Whether this is a forward-only evaluation, in which each node discards its backpropagation state as soon as its
+   * output is computed.
+   */
+  volatile boolean inference = false;
 
   @Override
   protected synchronized void _free() {
@@ -48,17 +70,32 @@ class GraphEvaluationContext extends ReferenceCountingBase {
       Object o = e.getValue().get();
       if (o instanceof RuntimeException) throw (RuntimeException) o;
       if (o instanceof Throwable) throw new RuntimeException((Throwable) o);
-      CountingResult countingNNResult = (CountingResult) o;
       if (expectedCounts.containsKey(e.getKey())) {
-        return expectedCounts.get(e.getKey()) > countingNNResult.getAccumulator().getCount();
+        return expectedCounts.get(e.getKey()) > getCount(e.getKey(), (Result) o);
       } else {
         return true;
       }
     }).forEach(x -> {
-      CountingResult result = x.getValue().get();
+      Result result = (Result) x.getValue().get();
       result.freeRef();
       result.getData().freeRef();
     });
     calculated.clear();
   }
+
+  /**
+   * Gets the number of consumers which have taken the given node's output.
+   *
+   * @param id     the node id
+   * @param result the node's stored result
+   * @return the count
+   */
+  int getCount(final UUID id, final Result result) {
+    if (result instanceof CountingResult) {
+      return ((CountingResult) result).getAccumulator().getCount();
+    } else {
+      final AtomicInteger count = inferenceCounts.get(id);
+      return null == count ? 0 : count.get();
+    }
+  }
 }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.DeltaSet;
+import com.simiacryptus.mindseye.lang.Layer;
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Records per-node timing and memory metrics for the forward and backward passes of a {@link DAGNetwork}. Attach it
+ * with {@link DAGNetwork#setProfiler(GraphProfiler)}; nested networks share the same profiler and appear as child
+ * frames of the node which contains them. Recorded events can be exported as a Chrome trace (chrome://tracing) or as
+ * folded stacks for flame graph tools.
+ * <p>
+ * CPU time and allocated bytes are measured on the thread which evaluates each node, so work a layer forks onto other
+ * threads is reflected only in wall time.
+ */
+public class GraphProfiler {
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+  private final Map<UUID, String> paths = new ConcurrentHashMap<>();
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+  private final long epochNanos = System.nanoTime();
+
+  /**
+   * Registers the stack path reported for a node.
+   *
+   * @param nodeId the node id
+   * @param path   the semicolon-delimited frame path
+   */
+  void register(@Nonnull final UUID nodeId, @Nonnull final String path) {
+    paths.put(nodeId, path);
+  }
+
+  /**
+   * Evaluates a node's layer, recording the forward pass and instrumenting the result to record the backward pass.
+   *
+   * @param nodeId    the node id
+   * @param layer     the layer
+   * @param in        the inputs, which are consumed
+   * @param inference whether the result will never be back-propagated
+   * @param fn        the evaluation function
+   * @return the result
+   */
+  @Nullable
+  Result eval(@Nonnull final UUID nodeId, @Nonnull final Layer layer, @Nonnull final Result[] in, final boolean inference, @Nonnull final Function<Result[], Result> fn) {
+    final String path = paths.computeIfAbsent(nodeId, id -> frame(layer.getName()));
+    @Nonnull final AtomicReference<Sample> passback = new AtomicReference<>(Sample.ZERO);
+    final Result[] wrappedInput = inference ? in : Arrays.stream(in).map(result -> wrapInput(result, passback)).toArray(i -> new Result[i]);
+    final Sample start = Sample.now();
+    @Nullable final Result output = fn.apply(wrappedInput);
+    final Sample elapsed = Sample.now().minus(start);
+    events.add(new Event(nodeId, path, layer, Phase.Forward, start.wallNanos, elapsed.wallNanos, elapsed, null == output ? 0 : bytes(output.getData())));
+    if (inference || null == output) return output;
+    return new Result(output.getData(), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      final long deltaBytes = bytes(data);
+      data.addRef();
+      final Sample before = passback.get();
+      final Sample backwardStart = Sample.now();
+      output.accumulate(buffer, data);
+      final Sample total = Sample.now().minus(backwardStart);
+      final Sample self = total.minus(passback.get().minus(before));
+      events.add(new Event(nodeId, path, layer, Phase.Backward, backwardStart.wallNanos, total.wallNanos, self, deltaBytes));
+    }) {
+
+      @Override
+      protected void _free() {
+        output.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return output.isAlive();
+      }
+    };
+  }
+
+  @Nonnull
+  private static Result wrapInput(@Nonnull final Result result, @Nonnull final AtomicReference<Sample> passback) {
+    return new Result(result.getData(), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      data.addRef();
+      final Sample start = Sample.now();
+      result.accumulate(buffer, data);
+      final Sample elapsed = Sample.now().minus(start);
+      passback.accumulateAndGet(elapsed, Sample::plus);
+    }) {
+
+      @Override
+      protected void _free() {
+        result.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return result.isAlive();
+      }
+    };
+  }
+
+  private static long bytes(@Nonnull final TensorList data) {
+    return (long) data.length() * Tensor.length(data.getDimensions()) * Double.BYTES;
+  }
+
+  /**
+   * Converts a layer name to a frame name usable in folded stacks.
+   *
+   * @param name the name
+   * @return the frame name
+   */
+  @Nonnull
+  static String frame(@Nonnull final CharSequence name) {
+    return name.toString().replaceAll("[;\\s]", "_");
+  }
+
+  /**
+   * Gets the recorded events, in the order they completed.
+   *
+   * @return the events
+   */
+  @Nonnull
+  public List<Event> getEvents() {
+    return new ArrayList<>(events);
+  }
+
+  /**
+   * Discards all recorded events.
+   *
+   * @return the graph profiler
+   */
+  @Nonnull
+  public GraphProfiler clear() {
+    events.clear();
+    return this;
+  }
+
+  /**
+   * Exports the recorded events in the Chrome trace event format. Event durations are inclusive of nested network
+   * evaluation and of upstream back-propagation, so the events nest on each thread's timeline.
+   *
+   * @return the json object
+   */
+  @Nonnull
+  public JsonObject toChromeTrace() {
+    @Nonnull final JsonArray traceEvents = new JsonArray();
+    for (@Nonnull final Event event : getEvents()) {
+      @Nonnull final JsonObject json = new JsonObject();
+      json.addProperty("name", event.layerName);
+      json.addProperty("cat", event.phase.name());
+      json.addProperty("ph", "X");
+      json.addProperty("ts", (event.startNanos - epochNanos) / 1e3);
+      json.addProperty("dur", event.totalWallNanos / 1e3);
+      json.addProperty("pid", 0);
+      json.addProperty("tid", event.threadId);
+      @Nonnull final JsonObject args = new JsonObject();
+      args.addProperty("node", event.nodeId.toString());
+      args.addProperty("class", event.layerClass);
+      args.addProperty("thread", event.threadName);
+      args.addProperty("selfWallNanos", event.wallNanos);
+      args.addProperty("cpuNanos", event.cpuNanos);
+      args.addProperty("allocatedBytes", event.allocatedBytes);
+      args.addProperty("outputBytes", event.outputBytes);
+      json.add("args", args);
+      traceEvents.add(json);
+    }
+    @Nonnull final JsonObject json = new JsonObject();
+    json.add("traceEvents", traceEvents);
+    json.addProperty("displayTimeUnit", "ms");
+    return json;
+  }
+
+  /**
+   * Exports the recorded wall time, in microseconds, as folded stacks (one {@code frame;frame;frame count} line per
+   * path) suitable for flame graph tools. The root frame of each stack is the pass which produced it, and each count
+   * excludes the time attributed to child frames.
+   *
+   * @return the folded stacks
+   */
+  @Nonnull
+  public String toFoldedStacks() {
+    @Nonnull final Map<String, Long> totals = new TreeMap<>();
+    for (@Nonnull final Event event : getEvents()) {
+      totals.merge(event.phase.name() + ";" + event.path, event.wallNanos, Long::sum);
+    }
+    @Nonnull final Map<String, Long> self = new TreeMap<>(totals);
+    totals.forEach((path, nanos) -> {
+      final int split = path.lastIndexOf(';');
+      final String parent = path.substring(0, split);
+      if (self.containsKey(parent)) self.put(parent, self.get(parent) - nanos);
+    });
+    return self.entrySet().stream()
+        .map(e -> e.getKey() + " " + Math.max(0, e.getValue() / 1000))
+        .collect(Collectors.joining("\n"));
+  }
+
+  /**
+   * The evaluation pass an event was recorded in.
+   */
+  public enum Phase {
+    /**
+     * Forward phase.
+     */
+    Forward,
+    /**
+     * Backward phase.
+     */
+    Backward
+  }
+
+  /**
+   * A single timed evaluation of a node.
+   */
+  public static final class Event {
+    /**
+     * The Node id.
+     */
+    public final UUID nodeId;
+    /**
+     * The semicolon-delimited frame path, from the outermost network down to this node.
+     */
+    public final String path;
+    /**
+     * The Layer name.
+     */
+    public final String layerName;
+    /**
+     * The Layer class.
+     */
+    public final String layerClass;
+    /**
+     * The Phase.
+     */
+    public final Phase phase;
+    /**
+     * The Thread id.
+     */
+    public final long threadId;
+    /**
+     * The Thread name.
+     */
+    public final String threadName;
+    /**
+     * The System.nanoTime() at which the event started.
+     */
+    public final long startNanos;
+    /**
+     * The elapsed wall time, including time spent back-propagating into upstream nodes.
+     */
+    public final long totalWallNanos;
+    /**
+     * The elapsed wall time attributed to this node.
+     */
+    public final long wallNanos;
+    /**
+     * The CPU time of the evaluating thread attributed to this node, or a negative value if unsupported.
+     */
+    public final long cpuNanos;
+    /**
+     * The bytes allocated by the evaluating thread attributed to this node, or a negative value if unsupported.
+     */
+    public final long allocatedBytes;
+    /**
+     * The size of the output (forward) or output gradient (backward), in bytes of double precision data.
+     */
+    public final long outputBytes;
+
+    private Event(final UUID nodeId, final String path, @Nonnull final Layer layer, final Phase phase, final long startNanos, final long totalWallNanos, @Nonnull final Sample self, final long outputBytes) {
+      this.nodeId = nodeId;
+      this.path = path;
+      this.layerName = layer.getName();
+      this.layerClass = layer.getClass().getSimpleName();
+      this.phase = phase;
+      this.threadId = Thread.currentThread().getId();
+      this.threadName = Thread.currentThread().getName();
+      this.startNanos = startNanos;
+      this.totalWallNanos = totalWallNanos;
+      this.wallNanos = self.wallNanos;
+      this.cpuNanos = self.cpuNanos;
+      this.allocatedBytes = self.allocatedBytes;
+      this.outputBytes = outputBytes;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+      return String.format("%s %s %s: wall=%.3fms cpu=%.3fms alloc=%d out=%d", phase, layerClass, path,
+          wallNanos / 1e6, cpuNanos / 1e6, allocatedBytes, outputBytes);
+    }
+  }
+
+  private static final class Sample {
+    private static final Sample ZERO = new Sample(0, 0, 0);
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    private Sample(final long wallNanos, final long cpuNanos, final long allocatedBytes) {
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    @Nonnull
+    static Sample now() {
+      final long cpuNanos = threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1;
+      long allocatedBytes = -1;
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+        final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+          allocatedBytes = sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+      }
+      return new Sample(System.nanoTime(), cpuNanos, allocatedBytes);
+    }
+
+    @Nonnull
+    Sample plus(@Nonnull final Sample right) {
+      return new Sample(wallNanos + right.wallNanos, combine(cpuNanos, right.cpuNanos, 1), combine(allocatedBytes, right.allocatedBytes, 1));
+    }
+
+    @Nonnull
+    Sample minus(@Nonnull final Sample right) {
+      return new Sample(wallNanos - right.wallNanos, combine(cpuNanos, right.cpuNanos, -1), combine(allocatedBytes, right.allocatedBytes, -1));
+    }
+
+    private static long combine(final long left, final long right, final int sign) {
+      return left < 0 || right < 0 ? -1 : left + sign * right;
+    }
+  }
+}
@@ -19,15 +19,16 @@
 
 package com.simiacryptus.mindseye.network;
 
-import com.simiacryptus.mindseye.lang.CoreSettings;
-import com.simiacryptus.mindseye.lang.Layer;
-import com.simiacryptus.mindseye.lang.ReferenceCounting;
-import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.util.Util;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -46,6 +47,10 @@ public final class InnerNode extends LazyResult {
   private final DAGNode[] inputNodes;
   private volatile Layer layer;
   private boolean parallel = true;
+  @Nullable
+  private TensorList constantCache = null;
+  @Nullable
+  private List<Object> constantCacheKey = null;
 
   /**
    * Instantiates a new Inner node.
@@ -93,6 +98,15 @@ public final class InnerNode extends LazyResult {
   @Nullable
   @Override
   protected Result eval(final GraphEvaluationContext ctx) {
+    if (ctx.constantNodes.contains(getId())) {
+      return evalConstant(ctx);
+    } else {
+      return evalLayer(ctx);
+    }
+  }
+
+  @Nullable
+  private Result evalLayer(final GraphEvaluationContext ctx) {
     assertAlive();
     @Nonnull final Layer innerLayer = getLayer();
     assert Arrays.stream(inputNodes).allMatch(x -> x != null);
@@ -100,8 +114,88 @@ public final class InnerNode extends LazyResult {
     if (!CoreSettings.INSTANCE().isSingleThreaded() && parallel) stream = stream.parallel();
     final Result[] in = stream.map(x -> x == null ? null : x.get(ctx)).toArray(i -> new Result[i]);
     assert Arrays.stream(in).allMatch(x -> x != null);
-    @Nullable Result result = innerLayer.evalAndFree(in);
-    return result;
+    @Nullable final GraphProfiler profiler = dagNetwork.getProfiler();
+    if (null != profiler) {
+      return profiler.eval(getId(), innerLayer, in, ctx.inference, inputs -> evalLayer(ctx, innerLayer, inputs));
+    }
+    return evalLayer(ctx, innerLayer, in);
+  }
+
+  @Nullable
+  private static Result evalLayer(final GraphEvaluationContext ctx, @Nonnull final Layer innerLayer, final Result[] in) {
+    if (ctx.inference) {
+      return innerLayer.evalInferenceAndFree(in);
+    } else {
+      return innerLayer.evalAndFree(in);
+    }
+  }
+
+  @Nonnull
+  private Result evalConstant(final GraphEvaluationContext ctx) {
+    @Nonnull final List<Object> key = getConstantStateKey();
+    synchronized (this) {
+      if (null != constantCache && isSameState(key, constantCacheKey)) {
+        constantCache.addRef();
+        return new ConstantResult(constantCache);
+      }
+    }
+    @Nullable final Result result = evalLayer(ctx);
+    if (null == result) throw new IllegalStateException();
+    final TensorList data = result.getData();
+    result.freeRef();
+    synchronized (this) {
+      clearConstantCache();
+      data.addRef();
+      constantCache = data;
+      constantCacheKey = key;
+    }
+    return new ConstantResult(data);
+  }
+
+  /**
+   * Collects the layer and a content hash of the weights of this node and of each upstream node. A cached constant value
+   * is valid only while every layer is the same object and its weights hash the same as when it was computed, so
+   * weights updated in place invalidate it.
+   */
+  @Nonnull
+  private List<Object> getConstantStateKey() {
+    @Nonnull final List<Object> key = new ArrayList<>();
+    collectStateKey(this, key, new HashSet<>());
+    return key;
+  }
+
+  /**
+   * Visits each upstream node once, so diamond-shaped graphs cost time linear in their size.
+   */
+  private static void collectStateKey(@Nonnull final DAGNode node, @Nonnull final List<Object> key, @Nonnull final Set<UUID> visited) {
+    if (!visited.add(node.getId())) return;
+    final Layer layer = node.getLayer();
+    if (null != layer) {
+      key.add(layer);
+      key.add(WeightDigest.of(layer));
+    }
+    for (@Nonnull final DAGNode input : node.getInputs()) {
+      collectStateKey(input, key, visited);
+    }
+  }
+
+  private static boolean isSameState(@Nonnull final List<Object> a, @Nullable final List<Object> b) {
+    if (null == b || a.size() != b.size()) return false;
+    for (int i = 0; i < a.size(); i++) {
+      if (a.get(i) instanceof Layer ? a.get(i) != b.get(i) : !a.get(i).equals(b.get(i))) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Discards the cached constant value of this node, if any.
+   */
+  public synchronized void clearConstantCache() {
+    if (null != constantCache) {
+      constantCache.freeRef();
+      constantCache = null;
+    }
+    constantCacheKey = null;
   }
 
   @Nonnull
@@ -125,6 +219,7 @@ public final class InnerNode extends LazyResult {
     Layer prevLayer = this.layer;
     if (newLayer != prevLayer) {
       if (null != prevLayer) prevLayer.freeRef();
+      clearConstantCache();
       this.layer = newLayer;
       if (null != newLayer) newLayer.addRef();
       dagNetwork.assertConsistent();
@@ -139,6 +234,7 @@ public final class InnerNode extends LazyResult {
   @Override
   protected void _free() {
     super._free();
+    clearConstantCache();
     Arrays.stream(this.inputNodes).forEach(ReferenceCounting::freeRef);
     this.layer.freeRef();
     this.layer = null;
@@ -67,9 +67,9 @@ final class InputNode extends LazyResult {
     assertAlive();
     this.dagNetwork.assertAlive();
     synchronized (context) {
-      CountingResult countingNNResult = context.calculated.get(id).get();
-      countingNNResult.addRef();
-      return countingNNResult;
+      Result result = (Result) context.calculated.get(id).get();
+      result.addRef();
+      return result;
     }
   }
 
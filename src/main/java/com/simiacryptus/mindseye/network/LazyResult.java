@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 /**
@@ -70,17 +71,22 @@ abstract class LazyResult extends ReferenceCountingBase implements DAGNode {
   @Nullable
   protected abstract Result eval(GraphEvaluationContext t);
 
+  /**
+   * Gets the node's output, evaluating it on first use. Training evaluations wrap the output in a CountingResult so
+   * the deltas of every consumer are summed before backpropagating; inference evaluations store the plain output and
+   * only count consumers, so the last one takes the stored reference and it is released as soon as that one is done.
+   */
   @Nullable
   @Override
-  public CountingResult get(@Nonnull final GraphEvaluationContext context) {
+  public Result get(@Nonnull final GraphEvaluationContext context) {
     context.assertAlive();
     assertAlive();
     long expectedCount = context.expectedCounts.getOrDefault(id, -1L);
     if (!context.calculated.containsKey(id)) {
-      @Nullable Singleton singleton = null;
+      @Nullable Singleton<Object> singleton = null;
       synchronized (context) {
         if (!context.calculated.containsKey(id)) {
-          singleton = new Singleton();
+          singleton = new Singleton<>();
           context.calculated.put(id, singleton);
         }
       }
@@ -88,22 +94,31 @@ abstract class LazyResult extends ReferenceCountingBase implements DAGNode {
         try {
           @Nullable Result result = eval(context);
           if (null == result) throw new IllegalStateException();
-          singleton.set(new CountingResult(result));
-          result.freeRef();
+          if (context.inference) {
+            singleton.set(result);
+          } else {
+            singleton.set(new CountingResult(result));
+            result.freeRef();
+          }
         } catch (Throwable e) {
           log.warn("Error execuing network component", e);
           singleton.set(e);
         }
       }
     }
-    Supplier resultSupplier = context.calculated.get(id);
+    Supplier<Object> resultSupplier = context.calculated.get(id);
     if (null == resultSupplier) throw new IllegalStateException();
     Object obj = null == resultSupplier ? null : resultSupplier.get();
     if (obj != null && obj instanceof Throwable) throw new RuntimeException((Throwable) obj);
     if (obj != null && obj instanceof RuntimeException) throw ((RuntimeException) obj);
-    @Nullable CountingResult nnResult = (CountingResult) obj;
+    @Nullable Result nnResult = (Result) obj;
     if (null == nnResult) throw new IllegalStateException();
-    int references = nnResult.getAccumulator().increment();
+    int references;
+    if (context.inference) {
+      references = context.inferenceCounts.computeIfAbsent(id, x -> new AtomicInteger()).incrementAndGet();
+    } else {
+      references = ((CountingResult) nnResult).getAccumulator().increment();
+    }
     if (references <= 0) throw new IllegalStateException();
     if (expectedCount >= 0 && references > expectedCount) throw new IllegalStateException();
     if (expectedCount <= 0 || references < expectedCount) {
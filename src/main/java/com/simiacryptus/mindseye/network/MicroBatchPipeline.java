@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.simiacryptus.mindseye.lang.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates a linear sequence of layers GPipe-style: the batch is split into micro-batches which are streamed through
+ * the layer stages, so that different stages work on different micro-batches at the same time. Each stage processes
+ * its micro-batches in order on at most one thread at a time, in both the forward and backward passes, so weight
+ * gradients accumulate per stage exactly as they would for a single evaluation.
+ */
+final class MicroBatchPipeline {
+
+  private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("pipeline-stage-%d").setDaemon(true).build());
+
+  private MicroBatchPipeline() {
+  }
+
+  /**
+   * Evaluates the stages in sequence over the given input, split into the given number of micro-batches.
+   *
+   * @param stages       the stages
+   * @param input        the input
+   * @param microBatches the micro batches
+   * @return the result
+   */
+  @Nonnull
+  static Result eval(@Nonnull final List<Layer> stages, @Nonnull final Result input, final int microBatches) {
+    final TensorList inputData = input.getData();
+    final int length = inputData.length();
+    final int count = Math.min(microBatches, length);
+    final int[] offsets = IntStream.rangeClosed(0, count).map(m -> (int) ((long) m * length / count)).toArray();
+    final int stageCount = stages.size();
+    @Nonnull final StageInput[][] inputs = new StageInput[stageCount][count];
+    @Nonnull final Result[][] outputs = new Result[stageCount][count];
+    input.addRef();
+    for (int m = 0; m < count; m++) {
+      input.addRef();
+      inputs[0][m] = new StageInput(slice(inputData, offsets[m], offsets[m + 1]), input);
+    }
+    CompletableFuture<?>[] ready = IntStream.range(0, count).mapToObj(m -> CompletableFuture.completedFuture(null)).toArray(i -> new CompletableFuture<?>[i]);
+    for (int s = 0; s < stageCount; s++) {
+      final int stage = s;
+      final Layer layer = stages.get(stage);
+      @Nonnull final CompletableFuture<?>[] next = new CompletableFuture<?>[count];
+      CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+      for (int m = 0; m < count; m++) {
+        final int microBatch = m;
+        next[m] = ready[m].thenCombineAsync(previous, (a, b) -> {
+          if (0 < stage) {
+            final Result upstream = outputs[stage - 1][microBatch];
+            upstream.getData().addRef();
+            upstream.addRef();
+            inputs[stage][microBatch] = new StageInput(upstream.getData(), upstream);
+          }
+          outputs[stage][microBatch] = layer.eval(inputs[stage][microBatch]);
+          return null;
+        }, pool);
+        previous = next[m];
+      }
+      ready = next;
+    }
+    CompletableFuture.allOf(ready).join();
+    final Result[] heads = outputs[stageCount - 1];
+    @Nonnull final TensorArray outputData = TensorArray.wrap(Arrays.stream(heads)
+        .flatMap(result -> result.getData().stream())
+        .toArray(i -> new Tensor[i]));
+    return new Result(outputData, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      List<CompletableFuture<TensorList>> pending = IntStream.range(0, count)
+          .mapToObj(m -> CompletableFuture.<TensorList>completedFuture(slice(delta, offsets[m], offsets[m + 1])))
+          .collect(Collectors.toList());
+      for (int s = stageCount - 1; s >= 0; s--) {
+        final int stage = s;
+        @Nonnull final List<CompletableFuture<TensorList>> next = new ArrayList<>(count);
+        CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+        for (int m = 0; m < count; m++) {
+          final int microBatch = m;
+          next.add(pending.get(m).thenCombineAsync(previous, (stageDelta, b) -> {
+            if (null != stageDelta) {
+              outputs[stage][microBatch].accumulate(buffer, stageDelta);
+            }
+            return inputs[stage][microBatch].takeDelta();
+          }, pool));
+          previous = next.get(m);
+        }
+        pending = next;
+      }
+      final TensorList[] inputDeltas = pending.stream().map(CompletableFuture::join).toArray(i -> new TensorList[i]);
+      if (input.isAlive() && Arrays.stream(inputDeltas).allMatch(x -> null != x)) {
+        input.accumulate(buffer, TensorArray.wrap(Arrays.stream(inputDeltas)
+            .flatMap(TensorList::stream)
+            .toArray(i -> new Tensor[i])));
+      }
+      Arrays.stream(inputDeltas).filter(x -> null != x).forEach(ReferenceCounting::freeRef);
+    }) {
+      @Override
+      protected void _free() {
+        Arrays.stream(outputs).flatMap(Arrays::stream).forEach(result -> {
+          result.getData().freeRef();
+          result.freeRef();
+        });
+        Arrays.stream(inputs).flatMap(Arrays::stream).forEach(result -> {
+          result.getData().freeRef();
+          result.freeRef();
+        });
+        input.freeRef();
+      }
+
+      @Override
+      public boolean isAlive() {
+        return Arrays.stream(heads).anyMatch(Result::isAlive);
+      }
+    };
+  }
+
+  @Nonnull
+  private static TensorArray slice(@Nonnull final TensorList data, final int from, final int to) {
+    return TensorArray.wrap(IntStream.range(from, to).mapToObj(data::get).toArray(i -> new Tensor[i]));
+  }
+
+  /**
+   * The input of one stage for one micro-batch. Rather than propagating backwards immediately, it retains the
+   * gradient passed back to it so the upstream stage can process it in its own turn.
+   */
+  private static final class StageInput extends Result {
+    private final Result source;
+    private final TensorList[] passback;
+
+    private StageInput(@Nonnull final TensorList data, @Nonnull final Result source) {
+      this(data, source, new TensorList[1]);
+    }
+
+    private StageInput(@Nonnull final TensorList data, @Nonnull final Result source, @Nonnull final TensorList[] passback) {
+      super(data, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+        delta.addRef();
+        synchronized (passback) {
+          if (null == passback[0]) {
+            passback[0] = delta;
+          } else {
+            passback[0] = passback[0].addAndFree(delta);
+            delta.freeRef();
+          }
+        }
+      });
+      this.source = source;
+      this.passback = passback;
+    }
+
+    /**
+     * Removes and returns the gradient passed back to this input, if any.
+     *
+     * @return the tensor list
+     */
+    @Nullable
+    TensorList takeDelta() {
+      synchronized (passback) {
+        final TensorList delta = passback[0];
+        passback[0] = null;
+        return delta;
+      }
+    }
+
+    @Override
+    public boolean isAlive() {
+      return source.isAlive();
+    }
+
+    @Override
+    protected void _free() {
+      @Nullable final TensorList delta = takeDelta();
+      if (null != delta) delta.freeRef();
+      source.freeRef();
+    }
+  }
+}
@@ -20,15 +20,14 @@
 package com.simiacryptus.mindseye.network;
 
 import com.google.gson.JsonObject;
-import com.simiacryptus.mindseye.lang.DataSerializer;
-import com.simiacryptus.mindseye.lang.Layer;
-import com.simiacryptus.mindseye.lang.SerialPrecision;
-import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.mindseye.layers.java.ValueLayer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -40,6 +39,7 @@ import java.util.UUID;
 public class PipelineNetwork extends DAGNetwork {
   @Nullable
   private DAGNode head;
+  private int microBatches = 1;
 
   /**
    * Instantiates a new Pipeline network.
@@ -74,6 +74,9 @@ public class PipelineNetwork extends DAGNetwork {
       assert null != headId;
       setHead(getNodeById(headId));
     }
+    if (json.has("microBatches")) {
+      microBatches = json.get("microBatches").getAsInt();
+    }
   }
 
   /**
@@ -299,7 +302,71 @@ public class PipelineNetwork extends DAGNetwork {
     assertConsistent();
     final JsonObject json = super.getJson(resources, dataSerializer);
     json.addProperty("head", getHeadId().toString());
+    json.addProperty("microBatches", microBatches);
     return json;
   }
 
+  @Nullable
+  @Override
+  public Result eval(final Result... input) {
+    if (1 < microBatches && 1 == input.length && 1 < input[0].getData().length()) {
+      @Nullable final List<Layer> stages = getLinearStages();
+      if (null != stages && 1 < stages.size()) {
+        assertAlive();
+        return MicroBatchPipeline.eval(stages, input[0], microBatches);
+      }
+    }
+    return super.eval(input);
+  }
+
+  /**
+   * Gets the layers of this network in evaluation order, if it is a simple chain from its single input to its head
+   * where each layer consumes only the output of the previous one.
+   *
+   * @return the linear stages, or null if the network is not a simple chain
+   */
+  @Nullable
+  private List<Layer> getLinearStages() {
+    if (1 != inputHandles.size()) return null;
+    @Nonnull final LinkedList<Layer> stages = new LinkedList<>();
+    final DAGNode head = getHead();
+    try {
+      DAGNode node = head;
+      while (node instanceof InnerNode) {
+        final DAGNode[] inputs = node.getInputs();
+        if (1 != inputs.length) return null;
+        stages.addFirst(node.getLayer());
+        node = inputs[0];
+      }
+      if (!(node instanceof InputNode) || !node.getId().equals(inputHandles.get(0))) return null;
+      return stages;
+    } finally {
+      head.freeRef();
+    }
+  }
+
+  /**
+   * Gets micro batches.
+   *
+   * @return the micro batches
+   */
+  public int getMicroBatches() {
+    return microBatches;
+  }
+
+  /**
+   * Sets the number of micro-batches used for pipelined evaluation. When greater than one and this network is a simple
+   * chain of layers, each batch is split into this many micro-batches which are streamed through the layers
+   * concurrently, with each layer acting as a pipeline stage.
+   *
+   * @param microBatches the micro batches
+   * @return the micro batches
+   */
+  @Nonnull
+  public PipelineNetwork setMicroBatches(final int microBatches) {
+    if (microBatches < 1) throw new IllegalArgumentException();
+    this.microBatches = microBatches;
+    return this;
+  }
+
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network.util;
+
+import com.simiacryptus.mindseye.lang.ConstantResult;
+import com.simiacryptus.mindseye.lang.Layer;
+import com.simiacryptus.mindseye.lang.ReferenceCounting;
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedReferenceLayer;
+import com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer;
+import com.simiacryptus.mindseye.layers.java.QuantizedConvolutionLayer;
+import com.simiacryptus.mindseye.layers.java.QuantizedFullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.WrapperLayer;
+import com.simiacryptus.mindseye.network.DAGNetwork;
+import com.simiacryptus.mindseye.network.DAGNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+/**
+ * Post-training int8 quantization of a trained network. Fully connected and convolution layers (java, and cudnn
+ * through their compatibility layers) are replaced by {@link QuantizedFullyConnectedLayer} and
+ * {@link QuantizedConvolutionLayer}. Weights are quantized per output channel from their own values; the input range of
+ * each layer is taken as the largest input magnitude seen while evaluating a calibration set, so the calibration data
+ * should be representative of the data the network will see. {@link #evaluate(Layer, Layer, Tensor[][])} measures the
+ * accuracy cost on held-out data.
+ */
+public final class QuantizationTool {
+
+  private static final Logger log = LoggerFactory.getLogger(QuantizationTool.class);
+
+  private QuantizationTool() {
+  }
+
+  /**
+   * Creates a quantized copy of a network. The original is not modified. Layers which are not reached while evaluating
+   * the calibration data are left unquantized.
+   *
+   * @param network     the network
+   * @param calibration the calibration data, indexed by sample and then network input
+   * @return the quantized network
+   */
+  @Nonnull
+  public static DAGNetwork quantize(@Nonnull final DAGNetwork network, @Nonnull final Tensor[][] calibration) {
+    @Nonnull final DAGNetwork copy = (DAGNetwork) network.copy();
+    final List<DAGNode> nodes = new ArrayList<>();
+    copy.visitNodes(nodes::add);
+    final List<DAGNode> targets = new ArrayList<>();
+    final List<RangeRecorder> recorders = new ArrayList<>();
+    for (@Nonnull final DAGNode node : nodes) {
+      @Nullable final Layer quantizable = getQuantizable(node.getLayer());
+      if (null == quantizable) continue;
+      @Nonnull final RangeRecorder recorder = new RangeRecorder(quantizable);
+      quantizable.freeRef();
+      node.setLayer(recorder);
+      targets.add(node);
+      recorders.add(recorder);
+    }
+    @Nonnull final Result result = eval(copy, calibration);
+    result.getData().freeRef();
+    result.freeRef();
+    for (int i = 0; i < targets.size(); i++) {
+      @Nonnull final RangeRecorder recorder = recorders.get(i);
+      @Nonnull final Layer replacement = recorder.quantize();
+      log.info(String.format("Quantized %s with input range %s", recorder.getInner().getName(), recorder.getRange()));
+      targets.get(i).setLayer(replacement);
+      replacement.freeRef();
+      recorder.freeRef();
+    }
+    return copy;
+  }
+
+  /**
+   * Compares the outputs of a quantized network against its reference on held-out data.
+   *
+   * @param reference the reference network
+   * @param candidate the quantized network
+   * @param holdout   the held-out data, indexed by sample and then network input
+   * @return the accuracy report
+   */
+  @Nonnull
+  public static Report evaluate(@Nonnull final Layer reference, @Nonnull final Layer candidate, @Nonnull final Tensor[][] holdout) {
+    @Nonnull final Report report = new Report();
+    @Nonnull final Result referenceResult = eval(reference, holdout);
+    @Nonnull final Result candidateResult = eval(candidate, holdout);
+    final TensorList referenceData = referenceResult.getData();
+    final TensorList candidateData = candidateResult.getData();
+    for (int i = 0; i < referenceData.length(); i++) {
+      @Nonnull final Tensor expected = referenceData.get(i);
+      @Nonnull final Tensor actual = candidateData.get(i);
+      report.add(expected.getData(), actual.getData());
+      expected.freeRef();
+      actual.freeRef();
+    }
+    referenceData.freeRef();
+    candidateData.freeRef();
+    referenceResult.freeRef();
+    candidateResult.freeRef();
+    return report;
+  }
+
+  @Nonnull
+  private static Result eval(@Nonnull final Layer layer, @Nonnull final Tensor[][] data) {
+    final Result[] input = ConstantResult.batchResultArray(data);
+    @Nullable final Result result = layer.eval(input);
+    Arrays.stream(input).forEach(ReferenceCounting::freeRef);
+    Arrays.stream(input).map(Result::getData).forEach(ReferenceCounting::freeRef);
+    if (null == result) throw new IllegalStateException();
+    return result;
+  }
+
+  @Nullable
+  private static Layer getQuantizable(@Nonnull final Layer layer) {
+    if (layer instanceof FullyConnectedLayer || layer instanceof FullyConnectedReferenceLayer || layer instanceof ImgConvolutionLayer) {
+      layer.addRef();
+      return layer;
+    }
+    if (layer instanceof com.simiacryptus.mindseye.layers.cudnn.conv.ConvolutionLayer) {
+      return ((com.simiacryptus.mindseye.layers.cudnn.conv.ConvolutionLayer) layer).getCompatibilityLayer();
+    }
+    if (layer instanceof com.simiacryptus.mindseye.layers.cudnn.conv.SimpleConvolutionLayer) {
+      return ((com.simiacryptus.mindseye.layers.cudnn.conv.SimpleConvolutionLayer) layer).getCompatibilityLayer();
+    }
+    if (layer instanceof com.simiacryptus.mindseye.layers.cudnn.conv.FullyConnectedLayer) {
+      return ((com.simiacryptus.mindseye.layers.cudnn.conv.FullyConnectedLayer) layer).getCompatibilityLayer();
+    }
+    return null;
+  }
+
+  /**
+   * Passes evaluation through to a quantizable layer while recording the largest input magnitude.
+   */
+  @SuppressWarnings("serial")
+  private static final class RangeRecorder extends WrapperLayer {
+    private final DoubleAccumulator range = new DoubleAccumulator(Math::max, 0);
+
+    private RangeRecorder(@Nonnull final Layer inner) {
+      super(inner);
+      setName(inner.getName());
+    }
+
+    @Nullable
+    @Override
+    public Result eval(final Result... array) {
+      array[0].getData().stream().parallel().forEach(tensor -> {
+        range.accumulate(Arrays.stream(tensor.getData()).map(Math::abs).max().orElse(0));
+        tensor.freeRef();
+      });
+      return super.eval(array);
+    }
+
+    private double getRange() {
+      return range.get();
+    }
+
+    @Nonnull
+    private Layer quantize() {
+      @Nonnull final Layer inner = getInner();
+      final Layer quantized;
+      if (0 == range.get()) {
+        inner.addRef();
+        return inner;
+      } else if (inner instanceof ImgConvolutionLayer) {
+        quantized = new QuantizedConvolutionLayer((ImgConvolutionLayer) inner, range.get());
+      } else if (inner instanceof FullyConnectedLayer) {
+        @Nonnull final FullyConnectedLayer layer = (FullyConnectedLayer) inner;
+        quantized = new QuantizedFullyConnectedLayer(layer.inputDims, layer.outputDims, layer.getWeights().getData(), range.get());
+      } else {
+        @Nonnull final FullyConnectedReferenceLayer layer = (FullyConnectedReferenceLayer) inner;
+        quantized = new QuantizedFullyConnectedLayer(layer.inputDims, layer.outputDims, layer.getWeights().getData(), range.get());
+      }
+      return quantized.setName(inner.getName());
+    }
+  }
+
+  /**
+   * The accuracy of a quantized network relative to its reference.
+   */
+  public static final class Report {
+    private int samples = 0;
+    private long elements = 0;
+    private double maxError = 0;
+    private double sumSqError = 0;
+    private double sumSqReference = 0;
+    private int argmaxAgreement = 0;
+
+    private void add(@Nonnull final double[] expected, @Nonnull final double[] actual) {
+      int expectedArgmax = 0;
+      int actualArgmax = 0;
+      for (int i = 0; i < expected.length; i++) {
+        final double error = actual[i] - expected[i];
+        maxError = Math.max(maxError, Math.abs(error));
+        sumSqError += error * error;
+        sumSqReference += expected[i] * expected[i];
+        if (expected[i] > expected[expectedArgmax]) expectedArgmax = i;
+        if (actual[i] > actual[actualArgmax]) actualArgmax = i;
+      }
+      if (expectedArgmax == actualArgmax) argmaxAgreement++;
+      elements += expected.length;
+      samples++;
+    }
+
+    /**
+     * Gets the number of samples compared.
+     *
+     * @return the samples
+     */
+    public int getSamples() {
+      return samples;
+    }
+
+    /**
+     * Gets the largest absolute output error.
+     *
+     * @return the max error
+     */
+    public double getMaxError() {
+      return maxError;
+    }
+
+    /**
+     * Gets the root mean square output error.
+     *
+     * @return the rms error
+     */
+    public double getRmsError() {
+      return 0 == elements ? 0 : Math.sqrt(sumSqError / elements);
+    }
+
+    /**
+     * Gets the rms error relative to the rms of the reference outputs.
+     *
+     * @return the relative error
+     */
+    public double getRelativeError() {
+      return 0 == sumSqReference ? 0 : Math.sqrt(sumSqError / sumSqReference);
+    }
+
+    /**
+     * Gets the fraction of samples whose largest output is at the same index in both networks, i.e. the classification
+     * agreement for a classifier.
+     *
+     * @return the argmax agreement
+     */
+    public double getArgmaxAgreement() {
+      return 0 == samples ? 1 : (double) argmaxAgreement / samples;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+      return String.format("samples=%d, maxError=%.3e, rmsError=%.3e, relativeError=%.3e, argmaxAgreement=%.4f",
+          samples, getMaxError(), getRmsError(), getRelativeError(), getArgmaxAgreement());
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.simiacryptus.mindseye.layers.java.ImgConcatLayer;
+import com.simiacryptus.mindseye.layers.java.ImgCropLayer;
+import com.simiacryptus.mindseye.layers.java.ImgTileAssemblyLayer;
+import com.simiacryptus.mindseye.layers.java.ImgZeroPaddingLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests image views against the element-wise copies they replace.
+ */
+public class ImgRegionTensorListTest {
+
+  @Nonnull
+  private static Tensor random(@Nonnull final Random random, @Nonnull final int... dims) {
+    return new Tensor(dims).set(() -> random.nextGaussian());
+  }
+
+  private static void assertEquals(@Nonnull final Tensor expected, @Nonnull final Tensor actual) {
+    Assert.assertArrayEquals(expected.getDimensions(), actual.getDimensions());
+    Assert.assertArrayEquals(expected.getData(), actual.getData(), 0.0);
+  }
+
+  /**
+   * Crop and padding views match ImgCropLayer.copy, forward and backward, and nested views collapse.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testCropAndPad() {
+    final Random random = new Random(1);
+    final Tensor input = random(random, 7, 6, 2);
+    for (@Nonnull final int[] size : new int[][]{{4, 3}, {5, 6}, {10, 9}}) {
+      @Nonnull final ImgCropLayer layer = new ImgCropLayer(size[0], size[1]);
+      final Tensor[] gradient = new Tensor[1];
+      final Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+        gradient[0] = data.get(0);
+      });
+      final Result result = layer.eval(inputResult);
+      final Tensor actual = result.getData().get(0);
+      final Tensor expected = ImgCropLayer.copy(input, new Tensor(size[0], size[1], 2));
+      assertEquals(expected, actual);
+      final Tensor delta = random(random, size[0], size[1], 2);
+      result.accumulate(new DeltaSet<>(), TensorArray.create(delta));
+      final Tensor expectedGradient = ImgCropLayer.copy(delta, new Tensor(7, 6, 2));
+      assertEquals(expectedGradient, gradient[0]);
+      for (Tensor t : new Tensor[]{actual, expected, delta, expectedGradient, gradient[0]}) t.freeRef();
+      result.getData().freeRef();
+      result.freeRef();
+      inputResult.getData().freeRef();
+      inputResult.freeRef();
+      layer.freeRef();
+    }
+
+    final TensorArray list = TensorArray.create(input);
+    final TensorList padded = ImgRegionTensorList.create(list, new int[]{9, 8, 2}, -1, -1, 0);
+    final TensorList cropped = ImgRegionTensorList.create(padded, new int[]{3, 3, 1}, 2, 1, 1);
+    Assert.assertSame(list, ((ImgRegionTensorList) cropped).getInner());
+    final Tensor expected = new Tensor(3, 3, 1).setByCoord(c -> input.get(c.getCoords()[0] + 1, c.getCoords()[1], 1));
+    final Tensor actual = cropped.get(0);
+    assertEquals(expected, actual);
+    final TensorList shifted = ImgRegionTensorList.create(cropped, new int[]{3, 3, 1}, -1, 0, 0);
+    final Tensor shiftedActual = shifted.get(0);
+    Assert.assertEquals(0.0, shiftedActual.get(0, 1, 0), 0.0);
+    Assert.assertEquals(actual.get(1, 1, 0), shiftedActual.get(2, 1, 0), 0.0);
+    for (ReferenceCounting t : new ReferenceCounting[]{expected, actual, shiftedActual, shifted, cropped, padded, list, input}) t.freeRef();
+  }
+
+  /**
+   * Concatenation of padded inputs matches concatenation of materialized inputs, and its gradient is a band slice.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testConcat() {
+    final Random random = new Random(2);
+    final Tensor a = random(random, 4, 4, 2);
+    final Tensor b = random(random, 2, 2, 3);
+    @Nonnull final ImgZeroPaddingLayer padding = new ImgZeroPaddingLayer(1, 1);
+    final Result paddedB = padding.eval(b);
+    final Tensor paddedTensor = paddedB.getData().get(0);
+    @Nonnull final ImgConcatLayer concat = new ImgConcatLayer().setMaxBands(4);
+    final Tensor[] gradient = new Tensor[1];
+    final Result inputA = new Result(TensorArray.create(a), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradient[0] = data.get(0);
+    });
+    final Result result = concat.eval(inputA, paddedB);
+    final Tensor actual = result.getData().get(0);
+    Assert.assertArrayEquals(new int[]{4, 4, 4}, actual.getDimensions());
+    for (int i = 0; i < 32; i++) Assert.assertEquals(a.get(i), actual.get(i), 0.0);
+    for (int i = 0; i < 32; i++) Assert.assertEquals(paddedTensor.get(i), actual.get(32 + i), 0.0);
+    final Tensor delta = random(random, 4, 4, 4);
+    result.accumulate(new DeltaSet<>(), TensorArray.create(delta));
+    for (int i = 0; i < 32; i++) Assert.assertEquals(delta.get(i), gradient[0].get(i), 0.0);
+    for (ReferenceCounting t : new ReferenceCounting[]{a, b, paddedTensor, actual, delta, gradient[0], result.getData(), result,
+        inputA.getData(), inputA, paddedB.getData(), paddedB, concat, padding}) t.freeRef();
+  }
+
+  /**
+   * Tile assembly writes each tile into its region, and each tile's gradient is its region of the output gradient.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAssembly() {
+    final Random random = new Random(3);
+    final Tensor[] tiles = {random(random, 3, 2, 1), random(random, 2, 2, 1), random(random, 3, 3, 1), random(random, 2, 3, 1)};
+    final Tensor[][] gradients = new Tensor[4][1];
+    final Result[] inputs = new Result[4];
+    for (int i = 0; i < 4; i++) {
+      final Tensor[] gradient = gradients[i];
+      inputs[i] = new Result(TensorArray.create(tiles[i]), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+        gradient[0] = data.get(0);
+      });
+    }
+    @Nonnull final ImgTileAssemblyLayer layer = new ImgTileAssemblyLayer(2, 2);
+    final Result result = layer.eval(inputs);
+    final Tensor actual = result.getData().get(0);
+    Assert.assertArrayEquals(new int[]{5, 5, 1}, actual.getDimensions());
+    final int[][] positions = {{0, 0}, {3, 0}, {0, 2}, {3, 2}};
+    final Tensor delta = random(random, 5, 5, 1);
+    result.accumulate(new DeltaSet<>(), TensorArray.create(delta));
+    for (int i = 0; i < 4; i++) {
+      final int[] position = positions[i];
+      final Tensor tile = tiles[i];
+      final Tensor gradient = gradients[i][0];
+      tile.coordStream(false).forEach(c -> {
+        final int x = c.getCoords()[0] + position[0];
+        final int y = c.getCoords()[1] + position[1];
+        Assert.assertEquals(tile.get(c), actual.get(x, y, 0), 0.0);
+        Assert.assertEquals(delta.get(x, y, 0), gradient.get(c), 0.0);
+      });
+      gradient.freeRef();
+      tile.freeRef();
+      inputs[i].getData().freeRef();
+      inputs[i].freeRef();
+    }
+    for (ReferenceCounting t : new ReferenceCounting[]{actual, delta, result.getData(), result, layer}) t.freeRef();
+  }
+}
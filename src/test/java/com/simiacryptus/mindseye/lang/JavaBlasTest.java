@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The type Java blas apply.
+ */
+public class JavaBlasTest {
+  private static final Logger log = LoggerFactory.getLogger(JavaBlasTest.class);
+
+  @Nonnull
+  private static double[] random(@Nonnull final Random random, final int length) {
+    return random.doubles(length, -1, 1).toArray();
+  }
+
+  /**
+   * Naive reference multiplication.
+   */
+  private static void reference(final boolean transposeA, final boolean transposeB, final int m, final int n, final int k,
+                                final double alpha, @Nonnull final double[] a, @Nonnull final double[] b, final double beta, @Nonnull final double[] c) {
+    for (int j = 0; j < n; j++) {
+      for (int i = 0; i < m; i++) {
+        double sum = 0;
+        for (int p = 0; p < k; p++) {
+          sum += (transposeA ? a[p + i * k] : a[i + p * m]) * (transposeB ? b[j + p * n] : b[p + j * k]);
+        }
+        c[i + j * m] = alpha * sum + beta * c[i + j * m];
+      }
+    }
+  }
+
+  /**
+   * Test all transpose variants against a naive implementation, at shapes which do not divide the block sizes.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testGemm() {
+    final Random random = new Random(42);
+    final int[][] shapes = {{1, 1, 1}, {3, 5, 7}, {67, 1, 300}, {67, 130, 300}, {129, 65, 17}, {5, 200, 1}};
+    for (int[] shape : shapes) {
+      final int m = shape[0];
+      final int n = shape[1];
+      final int k = shape[2];
+      for (int variant = 0; variant < 4; variant++) {
+        final boolean transposeA = 0 != (variant & 1);
+        final boolean transposeB = 0 != (variant & 2);
+        final double[] a = random(random, m * k);
+        final double[] b = random(random, k * n);
+        final double[] expected = random(random, m * n);
+        final double[] actual = expected.clone();
+        reference(transposeA, transposeB, m, n, k, 0.5, a, b, 2.0, expected);
+        Blas.JAVA.gemm(transposeA, transposeB, m, n, k, 0.5, a, b, 2.0, actual);
+        Assert.assertArrayEquals(String.format("%dx%dx%d %s/%s", m, n, k, transposeA, transposeB), expected, actual, 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Test that a zero beta ignores the prior contents of the result, including NaN.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testZeroBeta() {
+    final Random random = new Random(7);
+    final double[] a = random(random, 6 * 4);
+    final double[] x = random(random, 4);
+    final double[] expected = new double[6];
+    reference(false, false, 6, 1, 4, 1.0, a, x, 0.0, expected);
+    final double[] actual = new double[6];
+    Arrays.fill(actual, Double.NaN);
+    Blas.JAVA.gemv(false, 6, 4, 1.0, a, x, 0.0, actual);
+    Assert.assertArrayEquals(expected, actual, 1e-12);
+  }
+
+  /**
+   * Compares the java and native backends at the shapes used by FullyConnectedLayer (forward, weight gradient and input
+   * gradient for a 784-1024-10 network at batch 100).
+   */
+  @Test
+  @Category(TestCategories.ResearchCode.class)
+  public void benchmark() {
+    final Random random = new Random(1);
+    final int batch = 100;
+    final int[][] layers = {{784, 1024}, {1024, 10}};
+    for (int[] layer : layers) {
+      final int inputs = layer[0];
+      final int outputs = layer[1];
+      final double[] weights = random(random, inputs * outputs);
+      final double[] input = random(random, inputs * batch);
+      final double[] delta = random(random, outputs * batch);
+      for (Blas blas : Blas.values()) {
+        final double[] output = new double[outputs * batch];
+        final double[] weightDelta = new double[inputs * outputs];
+        final double[] passback = new double[inputs * batch];
+        final int iterations = 5;
+        long forward = 0;
+        long backward = 0;
+        for (int i = 0; i <= iterations; i++) {
+          final long t0 = System.nanoTime();
+          blas.gemm(true, false, outputs, batch, inputs, 1.0, weights, input, 0.0, output);
+          final long t1 = System.nanoTime();
+          blas.gemm(false, true, inputs, outputs, batch, 1.0, input, delta, 0.0, weightDelta);
+          blas.gemm(false, false, inputs, batch, outputs, 1.0, weights, delta, 0.0, passback);
+          final long t2 = System.nanoTime();
+          if (i > 0) {
+            forward += t1 - t0;
+            backward += t2 - t1;
+          }
+        }
+        log.info(String.format("%s %dx%d batch %d: forward %.3fms, backward %.3fms", blas, inputs, outputs, batch,
+            forward / 1e6 / iterations, backward / 1e6 / iterations));
+      }
+    }
+  }
+
+}
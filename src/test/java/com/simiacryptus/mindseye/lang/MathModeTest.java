@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The type Math mode apply.
+ */
+public class MathModeTest {
+  private static final Logger log = LoggerFactory.getLogger(MathModeTest.class);
+
+  /**
+   * The functions under test, with the sampled domain of each and whether its error is measured relative to the result.
+   */
+  private enum Function {
+    EXP(-700, 700, true) {
+      @Override
+      double apply(@Nonnull final MathMode math, final double x) {
+        return math.exp(x);
+      }
+
+      @Override
+      void applyAll(@Nonnull final MathMode math, @Nonnull final double[] inputs, @Nonnull final double[] outputs) {
+        for (int i = 0; i < inputs.length; i++) outputs[i] = math.exp(inputs[i]);
+      }
+    },
+    LOG(-300, 300, true) {
+      @Override
+      double sample(@Nonnull final Random random) {
+        // log-uniform over the magnitudes, so every exponent is covered
+        return Math.pow(10, super.sample(random));
+      }
+
+      @Override
+      double apply(@Nonnull final MathMode math, final double x) {
+        return math.log(x);
+      }
+
+      @Override
+      void applyAll(@Nonnull final MathMode math, @Nonnull final double[] inputs, @Nonnull final double[] outputs) {
+        for (int i = 0; i < inputs.length; i++) outputs[i] = math.log(inputs[i]);
+      }
+    },
+    SIN(-100, 100, false) {
+      @Override
+      double apply(@Nonnull final MathMode math, final double x) {
+        return math.sin(x);
+      }
+
+      @Override
+      void applyAll(@Nonnull final MathMode math, @Nonnull final double[] inputs, @Nonnull final double[] outputs) {
+        for (int i = 0; i < inputs.length; i++) outputs[i] = math.sin(inputs[i]);
+      }
+    },
+    COS(-100, 100, false) {
+      @Override
+      double apply(@Nonnull final MathMode math, final double x) {
+        return math.cos(x);
+      }
+
+      @Override
+      void applyAll(@Nonnull final MathMode math, @Nonnull final double[] inputs, @Nonnull final double[] outputs) {
+        for (int i = 0; i < inputs.length; i++) outputs[i] = math.cos(inputs[i]);
+      }
+    };
+
+    final double min;
+    final double max;
+    final boolean relative;
+
+    Function(final double min, final double max, final boolean relative) {
+      this.min = min;
+      this.max = max;
+      this.relative = relative;
+    }
+
+    /**
+     * Sample double.
+     *
+     * @param random the random
+     * @return the double
+     */
+    double sample(@Nonnull final Random random) {
+      return min + (max - min) * random.nextDouble();
+    }
+
+    /**
+     * Apply double.
+     *
+     * @param math the math
+     * @param x    the x
+     * @return the double
+     */
+    abstract double apply(@Nonnull final MathMode math, final double x);
+
+    /**
+     * Applies the function to every input, in a loop of its own so the benchmark measures the function rather than
+     * the dispatch.
+     *
+     * @param math    the math
+     * @param inputs  the inputs
+     * @param outputs the outputs
+     */
+    abstract void applyAll(@Nonnull final MathMode math, @Nonnull final double[] inputs, @Nonnull final double[] outputs);
+
+    /**
+     * Gets the largest error of the fast mode against the exact mode.
+     *
+     * @param inputs the inputs
+     * @return the error
+     */
+    double maxError(@Nonnull final double[] inputs) {
+      double error = 0;
+      for (final double x : inputs) {
+        final double expected = apply(MathMode.EXACT, x);
+        final double diff = Math.abs(apply(MathMode.FAST, x) - expected);
+        error = Math.max(error, relative && 0 != expected ? diff / Math.abs(expected) : diff);
+      }
+      return error;
+    }
+
+    /**
+     * Samples the domain of the function.
+     *
+     * @param random the random
+     * @param count  the count
+     * @return the inputs
+     */
+    @Nonnull
+    double[] inputs(@Nonnull final Random random, final int count) {
+      final double[] inputs = new double[count];
+      for (int i = 0; i < count; i++) inputs[i] = sample(random);
+      return inputs;
+    }
+  }
+
+  /**
+   * Test the fast approximations stay within their documented error over the sampled domains.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAccuracy() {
+    final Random random = new Random(42);
+    for (Function function : Function.values()) {
+      final double error = function.maxError(function.inputs(random, 200000));
+      Assert.assertTrue(function + " error " + error, error < (function.relative ? 1e-8 : 1e-9));
+    }
+    // the ranges activation inputs usually fall in, and the region around log's zero
+    final double[] small = new double[20001];
+    for (int i = 0; i < small.length; i++) small[i] = -20 + i * 0.002;
+    Assert.assertTrue(Function.EXP.maxError(small) < 1e-8);
+    Assert.assertTrue(Function.SIN.maxError(small) < 1e-9);
+    Assert.assertTrue(Function.COS.maxError(small) < 1e-9);
+    final double[] nearOne = new double[20001];
+    for (int i = 0; i < nearOne.length; i++) nearOne[i] = 0.5 + i * 0.0001;
+    nearOne[10000] = 1.0 + 1e-12;
+    Assert.assertTrue(Function.LOG.maxError(nearOne) < 1e-8);
+  }
+
+  /**
+   * Test arguments outside the approximated ranges give the same results as the exact mode.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSpecialValues() {
+    final double[] values = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0, 1.0, -1.0,
+        800, -800, -740, Double.MIN_VALUE, 1e6, -1e6};
+    for (final double x : values) {
+      for (Function function : Function.values()) {
+        final double expected = function.apply(MathMode.EXACT, x);
+        final double actual = function.apply(MathMode.FAST, x);
+        if (Double.isNaN(expected) || Double.isInfinite(expected) || 0 == expected) {
+          Assert.assertEquals(function + "(" + x + ")", expected, actual, 0);
+        } else {
+          Assert.assertEquals(function + "(" + x + ")", expected, actual, 1e-8 * Math.abs(expected));
+        }
+      }
+    }
+  }
+
+  /**
+   * Reports the time per element and the largest error of each function in each mode.
+   */
+  @Test
+  @Category(TestCategories.ResearchCode.class)
+  public void benchmark() {
+    final Random random = new Random(1);
+    for (Function function : Function.values()) {
+      final double[] inputs = function.inputs(random, 1 << 20);
+      final double error = function.maxError(inputs);
+      for (MathMode math : MathMode.values()) {
+        final int iterations = 10;
+        long time = 0;
+        double checksum = 0;
+        final double[] outputs = new double[inputs.length];
+        for (int i = 0; i <= iterations; i++) {
+          final long t0 = System.nanoTime();
+          function.applyAll(math, inputs, outputs);
+          if (i > 0) time += System.nanoTime() - t0;
+          checksum += outputs[i];
+        }
+        log.info(String.format("%s %s: %.2fns/element, max %s error %.3e (checksum %s)", function, math,
+            (double) time / iterations / inputs.length, function.relative ? "relative" : "absolute",
+            MathMode.EXACT == math ? 0.0 : error, checksum));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The type Sparse tensor list apply.
+ */
+public class SparseTensorListTest {
+
+  /**
+   * Dense tensor array.
+   *
+   * @param data the data
+   * @return the tensor array
+   */
+  @Nonnull
+  public static TensorArray dense(@Nonnull final double[]... data) {
+    final Tensor[] tensors = new Tensor[data.length];
+    for (int i = 0; i < data.length; i++) tensors[i] = new Tensor(data[i].clone(), 2, 3);
+    return TensorArray.wrap(tensors);
+  }
+
+  /**
+   * Asserts two tensor lists hold the same values.
+   *
+   * @param expected the expected
+   * @param actual   the actual
+   */
+  public static void assertEquals(@Nonnull final TensorList expected, @Nonnull final TensorList actual) {
+    Assert.assertEquals(expected.length(), actual.length());
+    Assert.assertArrayEquals(expected.getDimensions(), actual.getDimensions());
+    for (int i = 0; i < expected.length(); i++) {
+      final Tensor a = expected.get(i);
+      final Tensor b = actual.get(i);
+      Assert.assertArrayEquals(a.getData(), b.getData(), 1e-12);
+      a.freeRef();
+      b.freeRef();
+    }
+  }
+
+  /**
+   * Test conversion to the sparse form and back.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testRoundTrip() {
+    @Nonnull final TensorArray dense = dense(new double[]{0, 1, 0, 0, 2, 0}, new double[]{0, 0, 0, 0, 0, 0});
+    @Nonnull final SparseTensorList sparse = SparseTensorList.create(dense);
+    Assert.assertEquals(2, sparse.getNonZeros());
+    Assert.assertArrayEquals(new int[]{0, 2, 2}, sparse.getRowPointers());
+    Assert.assertArrayEquals(new int[]{1, 4}, sparse.getIndices());
+    Assert.assertEquals(10.0 / 12, sparse.getSparsity(), 1e-12);
+    Assert.assertEquals(10.0 / 12, SparseTensorList.getSparsity(dense), 1e-12);
+    assertEquals(dense, sparse);
+    sparse.freeRef();
+
+    final double threshold = CoreSettings.INSTANCE().getSparseThreshold();
+    try {
+      CoreSettings.INSTANCE().setSparseThreshold(0.9);
+      dense.addRef();
+      @Nonnull final TensorList unchanged = SparseTensorList.compressAndFree(dense);
+      Assert.assertSame(dense, unchanged);
+      unchanged.freeRef();
+      CoreSettings.INSTANCE().setSparseThreshold(0.5);
+      dense.addRef();
+      @Nonnull final TensorList compressed = SparseTensorList.compressAndFree(dense);
+      Assert.assertTrue(compressed instanceof SparseTensorList);
+      assertEquals(dense, compressed);
+      compressed.freeRef();
+    } finally {
+      CoreSettings.INSTANCE().setSparseThreshold(threshold);
+    }
+    dense.freeRef();
+  }
+
+  /**
+   * Test sparse addition against dense addition.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAdd() {
+    @Nonnull final TensorArray a = dense(new double[]{0, 1, 0, 0, 2, 0}, new double[]{3, 0, 0, 0, 0, -1});
+    @Nonnull final TensorArray b = dense(new double[]{0, -1, 0, 5, 0, 0}, new double[]{0, 0, 4, 0, 0, 0});
+    @Nonnull final TensorList expected = a.add(b);
+    @Nonnull final SparseTensorList sparseA = SparseTensorList.create(a);
+    @Nonnull final SparseTensorList sparseB = SparseTensorList.create(b);
+
+    @Nonnull final TensorList merged = sparseA.add(sparseB);
+    Assert.assertTrue(merged instanceof SparseTensorList);
+    // 1 + -1 cancels and is not stored
+    Assert.assertEquals(5, ((SparseTensorList) merged).getNonZeros());
+    assertEquals(expected, merged);
+    @Nonnull final TensorList mixed = sparseA.add(b);
+    Assert.assertTrue(mixed instanceof TensorArray);
+    assertEquals(expected, mixed);
+
+    merged.freeRef();
+    mixed.freeRef();
+    sparseA.freeRef();
+    sparseB.freeRef();
+    expected.freeRef();
+    a.freeRef();
+    b.freeRef();
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang;
+
+import com.google.gson.JsonPrimitive;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * The type Tuning table apply.
+ */
+public class TuningTableTest {
+
+  /**
+   * Test that tables sharing a file keep each other's sections when saved.
+   *
+   * @throws IOException the io exception
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSharedFile() throws IOException {
+    final TuningTable<Integer> numbers = new TuningTable<>("numbers", json -> json.getAsInt(), JsonPrimitive::new);
+    final TuningTable<String> names = new TuningTable<>("names", json -> json.getAsString(), JsonPrimitive::new);
+    final File file = File.createTempFile("tuning", ".json");
+    file.delete();
+    try {
+      numbers.put("a", 1);
+      names.put("a", "one");
+      numbers.save(file);
+      names.save(file);
+      numbers.clear();
+      names.clear();
+      Assert.assertNull(numbers.get("a"));
+      numbers.load(file);
+      names.load(file);
+      Assert.assertEquals(Integer.valueOf(1), numbers.get("a"));
+      Assert.assertEquals("one", names.get("a"));
+      Assert.assertEquals(1, numbers.getEntries().size());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that concurrent first reads all see the recorded entries, and that a put made meanwhile keeps them in the file.
+   *
+   * @throws IOException the io exception
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testConcurrentLoad() throws IOException {
+    final File file = File.createTempFile("tuning", ".json");
+    final String previous = CoreSettings.INSTANCE().getConvolutionTuningFile();
+    try {
+      final TuningTable<Integer> recorded = new TuningTable<>("numbers", json -> json.getAsInt(), JsonPrimitive::new);
+      IntStream.range(0, 1000).forEach(i -> recorded.put("k" + i, i));
+      recorded.save(file);
+      CoreSettings.INSTANCE().setConvolutionTuningFile(file.getAbsolutePath());
+      final TuningTable<Integer> numbers = new TuningTable<>("numbers", json -> json.getAsInt(), JsonPrimitive::new);
+      IntStream.range(0, 1000).parallel().forEach(i -> {
+        if (0 == i % 100) numbers.put("new" + i, -i);
+        Assert.assertEquals(Integer.valueOf(i), numbers.get("k" + i));
+      });
+      final TuningTable<Integer> reloaded = new TuningTable<>("numbers", json -> json.getAsInt(), JsonPrimitive::new);
+      reloaded.load(file);
+      Assert.assertEquals(1010, reloaded.getEntries().size());
+    } finally {
+      CoreSettings.INSTANCE().setConvolutionTuningFile(previous);
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Exercises the caching allocator policy against host memory.
+ */
+public class CachingAllocatorTest {
+
+  private static final long MiB = CudaMemory.MiB;
+
+  /**
+   * Small requests are rounded, split out of one shared segment and reused once freed.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSplitAndReuse() {
+    final HostMemorySource source = new HostMemorySource(1024 * MiB);
+    final DeviceMetrics metrics = new DeviceMetrics();
+    final CachingAllocator<ByteBuffer> allocator = new CachingAllocator<>(source, metrics, 1024 * MiB);
+    final ByteBuffer a = allocator.allocate(1000);
+    final ByteBuffer b = allocator.allocate(3000);
+    Assert.assertEquals(1, source.getAllocations());
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT, allocator.getReservedBytes());
+    Assert.assertEquals(1024 + 3072, allocator.getAllocatedBytes());
+    Assert.assertEquals(4000, allocator.getRequestedBytes());
+    Assert.assertEquals(1 - 4000.0 / 4096, metrics.getInternalFragmentation(), 1e-12);
+    allocator.free(a);
+    final ByteBuffer c = allocator.allocate(512);
+    Assert.assertEquals(1, source.getAllocations());
+    Assert.assertEquals(2, metrics.cacheHits.get());
+    Assert.assertEquals(1, metrics.cacheMisses.get());
+    allocator.free(b);
+    allocator.free(c);
+    Assert.assertEquals(0, allocator.getAllocatedBytes());
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT, allocator.getLargestFreeBlock());
+    Assert.assertEquals(0, metrics.getFragmentation(), 0);
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT, allocator.emptyCache());
+    Assert.assertEquals(0, source.getAllocated());
+    Assert.assertEquals(0, metrics.usedMemory.get());
+    Assert.assertEquals(0, metrics.cachedMemory.get());
+  }
+
+  /**
+   * Freeing the middle of three blocks leaves a hole that shows up as external fragmentation until its neighbours
+   * are freed and coalesce with it.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testCoalesce() {
+    final HostMemorySource source = new HostMemorySource(1024 * MiB);
+    final DeviceMetrics metrics = new DeviceMetrics();
+    final CachingAllocator<ByteBuffer> allocator = new CachingAllocator<>(source, metrics, 1024 * MiB);
+    final ByteBuffer a = allocator.allocate(512 * 1024);
+    final ByteBuffer b = allocator.allocate(512 * 1024);
+    final ByteBuffer c = allocator.allocate(512 * 1024);
+    allocator.free(b);
+    Assert.assertEquals(1 - 512.0 / 1024, metrics.getFragmentation(), 1e-12);
+    allocator.free(a);
+    Assert.assertEquals(1 - 1024.0 / 1536, metrics.getFragmentation(), 1e-12);
+    allocator.free(c);
+    Assert.assertEquals(0, metrics.getFragmentation(), 0);
+    Assert.assertEquals(1, allocator.getSegments());
+    final ByteBuffer whole = allocator.allocate(CachingAllocator.SMALL_LIMIT);
+    Assert.assertEquals(1, source.getAllocations());
+    allocator.free(whole);
+  }
+
+  /**
+   * Blocks freed on one stream are not handed to another.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testStreams() {
+    final HostMemorySource source = new HostMemorySource(1024 * MiB);
+    final DeviceMetrics metrics = new DeviceMetrics();
+    final CachingAllocator<ByteBuffer> allocator = new CachingAllocator<>(source, metrics, 1024 * MiB);
+    allocator.free(allocator.allocate(4096, 0));
+    allocator.free(allocator.allocate(4096, 1));
+    Assert.assertEquals(2, source.getAllocations());
+    allocator.free(allocator.allocate(4096, 1));
+    Assert.assertEquals(2, source.getAllocations());
+    Assert.assertEquals(1.0 / 3, metrics.getHitRate(), 1e-12);
+  }
+
+  /**
+   * Free segments are returned once the reserved total passes the high water mark, and the whole cache is emptied
+   * when the source runs out of memory.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testReleasePolicy() {
+    final HostMemorySource source = new HostMemorySource(36 * MiB);
+    final DeviceMetrics metrics = new DeviceMetrics();
+    final CachingAllocator<ByteBuffer> allocator = new CachingAllocator<>(source, metrics, 24 * MiB);
+    final ByteBuffer small = allocator.allocate(1024);
+    allocator.free(allocator.allocate(5 * MiB));
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT + CachingAllocator.LARGE_SEGMENT, source.getAllocated());
+    Assert.assertEquals(0, source.getFrees());
+    final ByteBuffer large = allocator.allocate(22 * MiB);
+    Assert.assertEquals(1, source.getFrees());
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT + 22 * MiB, source.getAllocated());
+    allocator.free(large);
+    allocator.free(small);
+    Assert.assertEquals(CachingAllocator.SMALL_SEGMENT + 22 * MiB, allocator.getReservedBytes());
+    final CachingAllocator<ByteBuffer> unbounded = new CachingAllocator<>(new HostMemorySource(24 * MiB), new DeviceMetrics(), Long.MAX_VALUE);
+    unbounded.free(unbounded.allocate(5 * MiB));
+    final ByteBuffer retried = unbounded.allocate(22 * MiB);
+    Assert.assertEquals(22 * MiB, unbounded.getReservedBytes());
+    unbounded.free(retried);
+  }
+
+  /**
+   * A mixed workload of short-lived buffers is served almost entirely from the cache.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testWorkload() {
+    final HostMemorySource source = new HostMemorySource(1024 * MiB);
+    final DeviceMetrics metrics = new DeviceMetrics();
+    final CachingAllocator<ByteBuffer> allocator = new CachingAllocator<>(source, metrics, 512 * MiB);
+    final Random random = new Random(7);
+    final List<ByteBuffer> live = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      if (live.size() > 32 || (!live.isEmpty() && random.nextBoolean())) {
+        allocator.free(live.remove(random.nextInt(live.size())));
+      } else {
+        final long size = random.nextInt(8) == 0 ? (1 + random.nextInt(16)) * MiB : 1 + random.nextInt(256 * 1024);
+        live.add(allocator.allocate(size));
+      }
+    }
+    live.forEach(allocator::free);
+    Assert.assertTrue(allocator.toString() + " hitRate=" + metrics.getHitRate(), metrics.getHitRate() > 0.95);
+    Assert.assertTrue(allocator.getReservedBytes() <= 512 * MiB);
+    allocator.emptyCache();
+    Assert.assertEquals(0, source.getAllocated());
+  }
+}
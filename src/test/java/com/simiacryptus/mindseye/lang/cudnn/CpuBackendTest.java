@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.lang.cudnn;
+
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.cudnn.ActivationLayer;
+import com.simiacryptus.util.test.TestCategories;
+import jcuda.jcudnn.*;
+import jcuda.runtime.cudaMemcpyKind;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Checks the CPU emulation backend against direct reference computations.
+ */
+public class CpuBackendTest {
+
+  private final CpuBackend backend = new CpuBackend(1);
+  private final Random random = new Random(42);
+  private final cudnnHandle handle = new cudnnHandle();
+  private final CudaPointer one = CudaPointer.to(new double[]{1.0});
+  private final CudaPointer zero = CudaPointer.to(new double[]{0.0});
+
+  @Nonnull
+  private double[] random(final int length) {
+    return IntStream.range(0, length).mapToDouble(i -> random.nextGaussian()).toArray();
+  }
+
+  @Nonnull
+  private cudnnTensorDescriptor tensor(final int n, final int c, final int h, final int w) {
+    final cudnnTensorDescriptor desc = new cudnnTensorDescriptor();
+    Assert.assertEquals(0, backend.cudnnSetTensor4dDescriptorEx(desc, cudnnDataType.CUDNN_DATA_DOUBLE, n, c, h, w, c * h * w, h * w, w, 1));
+    return desc;
+  }
+
+  private static double dot(@Nonnull final double[] a, @Nonnull final double[] b) {
+    return IntStream.range(0, a.length).mapToDouble(i -> a[i] * b[i]).sum();
+  }
+
+  /**
+   * Convolution output matches a direct evaluation, and both backward passes are its adjoints.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testConvolution() {
+    final int n = 2, c = 3, k = 2, h = 5, w = 4, r = 3;
+    final double[] x = random(n * c * h * w);
+    final double[] filter = random(k * c * r * r);
+    final cudnnTensorDescriptor xDesc = tensor(n, c, h, w);
+    final cudnnFilterDescriptor wDesc = new cudnnFilterDescriptor();
+    Assert.assertEquals(0, backend.cudnnSetFilter4dDescriptor(wDesc, cudnnDataType.CUDNN_DATA_DOUBLE, cudnnTensorFormat.CUDNN_TENSOR_NCHW, k, c, r, r));
+    final cudnnConvolutionDescriptor convDesc = new cudnnConvolutionDescriptor();
+    Assert.assertEquals(0, backend.cudnnSetConvolution2dDescriptor(convDesc, 1, 1, 1, 1, 1, 1, cudnnConvolutionMode.CUDNN_CONVOLUTION, cudnnDataType.CUDNN_DATA_DOUBLE));
+    final int[] dims = new int[4];
+    Assert.assertEquals(0, backend.cudnnGetConvolutionNdForwardOutputDim(convDesc, xDesc, wDesc, 4, dims));
+    Assert.assertArrayEquals(new int[]{n, k, h, w}, dims);
+    final cudnnTensorDescriptor yDesc = tensor(n, k, h, w);
+    final double[] y = new double[n * k * h * w];
+    Assert.assertEquals(0, backend.cudnnConvolutionForward(handle, one, xDesc, CudaPointer.to(x), wDesc, CudaPointer.to(filter),
+        convDesc, 0, null, 0, zero, yDesc, CudaPointer.to(y)));
+    for (int b = 0; b < n; b++) {
+      for (int o = 0; o < k; o++) {
+        for (int p = 0; p < h; p++) {
+          for (int q = 0; q < w; q++) {
+            double sum = 0;
+            for (int i = 0; i < c; i++) {
+              for (int u = 0; u < r; u++) {
+                for (int v = 0; v < r; v++) {
+                  final int yy = p + u - 1, xx = q + v - 1;
+                  if (yy < 0 || yy >= h || xx < 0 || xx >= w) continue;
+                  sum += x[((b * c + i) * h + yy) * w + xx] * filter[((o * c + i) * r + (r - 1 - u)) * r + (r - 1 - v)];
+                }
+              }
+            }
+            Assert.assertEquals(sum, y[((b * k + o) * h + p) * w + q], 1e-9);
+          }
+        }
+      }
+    }
+    final double[] dy = random(y.length);
+    final double[] dx = new double[x.length];
+    Assert.assertEquals(0, backend.cudnnConvolutionBackwardData(handle, one, wDesc, CudaPointer.to(filter), yDesc, CudaPointer.to(dy),
+        convDesc, 0, null, 0, zero, xDesc, CudaPointer.to(dx)));
+    Assert.assertEquals(dot(y, dy), dot(x, dx), 1e-9);
+    final double[] dw = new double[filter.length];
+    Assert.assertEquals(0, backend.cudnnConvolutionBackwardFilter(handle, one, xDesc, CudaPointer.to(x), yDesc, CudaPointer.to(dy),
+        convDesc, 0, null, 0, zero, wDesc, CudaPointer.to(dw)));
+    Assert.assertEquals(dot(y, dy), dot(filter, dw), 1e-9);
+  }
+
+  /**
+   * Max pooling selects the window maximum and routes the gradient back to it.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMaxPooling() {
+    final double[] x = {1, 5, 2, 0, 3, 4, 8, 6, -1, 0, 7, 9, 2, 2, 1, 1};
+    final cudnnTensorDescriptor xDesc = tensor(1, 1, 4, 4);
+    final cudnnTensorDescriptor yDesc = tensor(1, 1, 2, 2);
+    final cudnnPoolingDescriptor poolDesc = new cudnnPoolingDescriptor();
+    Assert.assertEquals(0, backend.cudnnSetPoolingNdDescriptor(poolDesc, cudnnPoolingMode.CUDNN_POOLING_MAX,
+        cudnnNanPropagation.CUDNN_NOT_PROPAGATE_NAN, 2, new int[]{2, 2}, new int[]{0, 0}, new int[]{2, 2}));
+    final double[] y = new double[4];
+    Assert.assertEquals(0, backend.cudnnPoolingForward(handle, poolDesc, one, xDesc, CudaPointer.to(x), zero, yDesc, CudaPointer.to(y)));
+    Assert.assertArrayEquals(new double[]{5, 8, 2, 9}, y, 0);
+    final double[] dx = new double[16];
+    Assert.assertEquals(0, backend.cudnnPoolingBackward(handle, poolDesc, one, yDesc, CudaPointer.to(y), yDesc, CudaPointer.to(new double[]{1, 2, 3, 4}),
+        xDesc, CudaPointer.to(x), zero, xDesc, CudaPointer.to(dx)));
+    Assert.assertArrayEquals(new double[]{0, 1, 0, 0, 0, 0, 2, 0, 0, 0, 0, 4, 3, 0, 0, 0}, dx, 0);
+  }
+
+  /**
+   * Channel softmax normalizes each pixel, and the output blends into the destination with alpha and beta.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSoftmaxBlending() {
+    final double[] x = random(2 * 3 * 2 * 2);
+    final cudnnTensorDescriptor desc = tensor(2, 3, 2, 2);
+    final double[] y = new double[x.length];
+    Assert.assertEquals(0, backend.cudnnSoftmaxForward(handle, cudnnSoftmaxAlgorithm.CUDNN_SOFTMAX_ACCURATE, cudnnSoftmaxMode.CUDNN_SOFTMAX_MODE_CHANNEL,
+        one, desc, CudaPointer.to(x), zero, desc, CudaPointer.to(y)));
+    for (int b = 0; b < 2; b++) {
+      for (int pixel = 0; pixel < 4; pixel++) {
+        double sum = 0;
+        for (int c = 0; c < 3; c++) sum += y[(b * 3 + c) * 4 + pixel];
+        Assert.assertEquals(1.0, sum, 1e-12);
+      }
+    }
+    final double[] z = y.clone();
+    Assert.assertEquals(0, backend.cudnnAddTensor(handle, CudaPointer.to(new double[]{2.0}), desc, CudaPointer.to(x),
+        CudaPointer.to(new double[]{0.5}), desc, CudaPointer.to(z)));
+    for (int i = 0; i < z.length; i++) Assert.assertEquals(2 * x[i] + 0.5 * y[i], z[i], 1e-12);
+  }
+
+  /**
+   * Device allocations hold float data that round-trips through host arrays.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMemory() {
+    final CudaPointer device = new CudaPointer();
+    Assert.assertEquals(0, backend.cudaMalloc(device, 8 * Float.BYTES));
+    Assert.assertEquals(0, backend.cudaMemset(device, 0, 8 * Float.BYTES));
+    final float[] input = {1, 2, 3, 4};
+    Assert.assertEquals(0, backend.cudaMemcpy(device.withByteOffset(4 * Float.BYTES), CudaPointer.to(input), 4 * Float.BYTES, cudaMemcpyKind.cudaMemcpyHostToDevice));
+    final float[] output = new float[8];
+    Assert.assertEquals(0, backend.cudaMemcpy(CudaPointer.to(output), device, 8 * Float.BYTES, cudaMemcpyKind.cudaMemcpyDeviceToHost));
+    Assert.assertArrayEquals(new float[]{0, 0, 0, 0, 1, 2, 3, 4}, output, 0);
+    Assert.assertEquals(0, backend.cudaFree(device));
+  }
+
+  /**
+   * A cudnn layer evaluates through the emulated device when no GPU is present.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testLayerEval() {
+    Assume.assumeTrue(CudaSystem.backend.isEmulated());
+    Assert.assertTrue(CudaSystem.isEnabled());
+    final ActivationLayer layer = new ActivationLayer(ActivationLayer.Mode.SIGMOID);
+    final Tensor input = new Tensor(new double[]{-2, -0.5, 0, 0.5, 2, 4}, 1, 2, 3);
+    final Result result = layer.eval(input);
+    final TensorList data = result.getData();
+    final Tensor output = data.get(0);
+    for (int i = 0; i < input.length(); i++) {
+      Assert.assertEquals(1 / (1 + Math.exp(-input.get(i))), output.get(i), 1e-6);
+    }
+    output.freeRef();
+    data.freeRef();
+    result.freeRef();
+    input.freeRef();
+    layer.freeRef();
+  }
+}
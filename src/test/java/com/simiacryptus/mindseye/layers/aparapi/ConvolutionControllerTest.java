@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.aparapi;
+
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Tests that chunked, double-buffered and concurrent convolutions agree with a single run.
+ */
+public class ConvolutionControllerTest {
+
+  /**
+   * Skips these tests where no Aparapi device can be created, unless convolutions run in CPU mode.
+   */
+  @Before
+  public void assumeDevice() {
+    if (OpenCL.cpuMode) return;
+    try {
+      OpenCL.devicePool.apply(device -> device);
+    } catch (@Nonnull final Throwable e) {
+      Assume.assumeNoException(e);
+    }
+  }
+
+  @Nonnull
+  private static double[][] random(@Nonnull final Random random, final int items, final int length) {
+    final double[][] data = new double[items][length];
+    for (final double[] item : data) {
+      for (int i = 0; i < length; i++) item[i] = random.nextGaussian();
+    }
+    return data;
+  }
+
+  @Nonnull
+  private static double[][][] run(@Nonnull final ConvolutionController controller, @Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] delta) {
+    final int inLength = input[0].length;
+    final int outLength = delta[0].length;
+    final double[][] output = new double[input.length][outLength];
+    controller.convolve(input, weights, output);
+    final double[][] backprop = new double[input.length][inLength];
+    controller.backprop(backprop, weights, delta);
+    final double[][] gradient = new double[1][weights.length];
+    controller.gradient(input, gradient[0], delta);
+    return new double[][][]{output, backprop, gradient};
+  }
+
+  private static void assertEquals(@Nonnull final double[][][] expected, @Nonnull final double[][][] actual) {
+    for (int i = 0; i < expected.length; i++) {
+      for (int j = 0; j < expected[i].length; j++) {
+        Assert.assertArrayEquals(expected[i][j], actual[i][j], 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Splitting a batch into chunks, including a partial last chunk, does not change any result.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testChunks() {
+    final Random random = new Random(1);
+    final int[] inputSize = {6, 5, 2};
+    final int[] kernelSize = {3, 3, 6};
+    final ConvolutionController controller = new ConvolutionController(inputSize, kernelSize, null, null);
+    final int inLength = 6 * 5 * 2;
+    final int outLength = 6 * 5 * 3;
+    final double[][] input = random(random, 7, inLength);
+    final double[][] delta = random(random, 7, outLength);
+    final double[] weights = random(random, 1, 3 * 3 * 6)[0];
+    final double[][][] expected = run(controller, input, weights, delta);
+    final int maxBufferSize = ConvolutionController.MAX_BUFFER_SIZE;
+    try {
+      ConvolutionController.MAX_BUFFER_SIZE = 3 * outLength;
+      assertEquals(expected, run(controller, input, weights, delta));
+    } finally {
+      ConvolutionController.MAX_BUFFER_SIZE = maxBufferSize;
+    }
+    final double[] changed = weights.clone();
+    changed[4] += 1;
+    final double[][][] updated = run(controller, input, changed, delta);
+    Assert.assertNotEquals(expected[0][0][0] - updated[0][0][0], 0.0, 0.0);
+    assertEquals(expected, run(controller, input, weights, delta));
+  }
+
+  /**
+   * Concurrent calls with different weights each see their own weights.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testConcurrent() {
+    final Random random = new Random(2);
+    final ConvolutionController controller = new ConvolutionController(new int[]{5, 5, 1}, new int[]{3, 3, 1}, null, null);
+    final double[][] input = random(random, 4, 25);
+    final double[][] delta = random(random, 4, 25);
+    final double[][] weights = random(random, 4, 9);
+    final double[][][][] expected = IntStream.range(0, 4).mapToObj(i -> run(controller, input, weights[i], delta)).toArray(i -> new double[i][][][]);
+    IntStream.range(0, 32).parallel().forEach(i -> assertEquals(expected[i % 4], run(controller, input, weights[i % 4], delta)));
+  }
+}
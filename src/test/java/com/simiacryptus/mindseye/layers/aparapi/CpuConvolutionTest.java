@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.aparapi;
+
+import com.simiacryptus.mindseye.lang.CoreSettings;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests that the CPU convolution matches the Aparapi kernels it replaces, for every tiling.
+ */
+public class CpuConvolutionTest {
+
+  @Nonnull
+  private static double[][] random(@Nonnull final Random random, final int items, final int length) {
+    final double[][] data = new double[items][length];
+    for (final double[] item : data) {
+      for (int i = 0; i < length; i++) item[i] = random.nextGaussian();
+    }
+    return data;
+  }
+
+  /**
+   * The element-wise reference: the bodies of the three kernels, evaluated for every global id.
+   */
+  @Nonnull
+  private static double[][][] reference(@Nonnull final int[] inputSize, @Nonnull final int[] kernelSize, @Nonnull final int[] kernelOffset, @Nonnull final int[] outputSize,
+                                        @Nonnull final double[][] input, @Nonnull final double[] weights, @Nonnull final double[][] delta) {
+    final int items = input.length;
+    final int is2 = inputSize[0] * inputSize[1] * inputSize[2];
+    final int os2 = outputSize[0] * outputSize[1] * outputSize[2];
+    final double[][] output = new double[items][os2];
+    final double[][] backprop = new double[items][is2];
+    final double[] gradient = new double[weights.length];
+    for (int batch = 0; batch < items; batch++) {
+      for (int i = 0; i < os2; i++) {
+        final int o2 = i / (outputSize[0] * outputSize[1]);
+        final int o1 = i % (outputSize[0] * outputSize[1]) / outputSize[0];
+        final int o0 = i % outputSize[0];
+        for (int k = 0; k < weights.length; k++) {
+          final int k2 = k / (kernelSize[0] * kernelSize[1]);
+          final int k1 = k % (kernelSize[0] * kernelSize[1]) / kernelSize[0];
+          final int k0 = k % kernelSize[0];
+          final int x = k2 - o2;
+          if (x < 0 || 0 != x % outputSize[2]) continue;
+          final int i2 = x / outputSize[2];
+          final int i0 = o0 - k0 + kernelOffset[0];
+          final int i1 = o1 - k1 + kernelOffset[1];
+          if (i2 >= inputSize[2] || i0 < 0 || i1 < 0 || i0 >= inputSize[0] || i1 >= inputSize[1]) continue;
+          final int index = i0 + inputSize[0] * (i1 + inputSize[1] * i2);
+          output[batch][i] += input[batch][index] * weights[k];
+          backprop[batch][index] += delta[batch][i] * weights[k];
+          gradient[k] += input[batch][index] * delta[batch][i];
+        }
+      }
+    }
+    return new double[][][]{output, backprop, {gradient}};
+  }
+
+  private static void check(@Nonnull final Random random, @Nonnull final int[] inputSize, final int outputBands, final int kernelWidth, final Integer padding) {
+    final int[] kernelSize = {kernelWidth, kernelWidth, inputSize[2] * outputBands};
+    final ConvolutionController controller = new ConvolutionController(inputSize, kernelSize, padding, padding);
+    final int[] outputSize = controller.getOutputDims();
+    final int[] kernelOffset = {null == padding ? (kernelWidth - 1) / 2 : padding, null == padding ? (kernelWidth - 1) / 2 : padding};
+    final int inLength = inputSize[0] * inputSize[1] * inputSize[2];
+    final int outLength = outputSize[0] * outputSize[1] * outputSize[2];
+    final double[][] input = random(random, 5, inLength);
+    final double[][] delta = random(random, 5, outLength);
+    final double[] weights = random(random, 1, kernelSize[0] * kernelSize[1] * kernelSize[2])[0];
+    final double[][][] expected = reference(inputSize, kernelSize, kernelOffset, outputSize, input, weights, delta);
+    for (final int rows : new int[]{1, 3, 100}) {
+      for (final int items : new int[]{1, 2, 5}) {
+        final String key = new CpuConvolution(inputSize, kernelSize, kernelOffset, outputSize).getKey();
+        CpuConvolution.getTuningTable().put(key, new CpuConvolution.Tiling(rows, items));
+        final double[][] output = random(random, 5, outLength);
+        controller.convolve(input, weights, output);
+        final double[][] backprop = random(random, 5, inLength);
+        controller.backprop(backprop, weights, delta);
+        final double[] gradient = new double[weights.length];
+        controller.gradient(input, gradient, delta);
+        for (int i = 0; i < input.length; i++) {
+          Assert.assertArrayEquals(expected[0][i], output[i], 1e-9);
+          Assert.assertArrayEquals(expected[1][i], backprop[i], 1e-9);
+        }
+        Assert.assertArrayEquals(expected[2][0], gradient, 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Every tiling reproduces the kernels, with and without padding.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testKernels() {
+    final boolean cpuMode = OpenCL.cpuMode;
+    OpenCL.cpuMode = true;
+    try {
+      final Random random = new Random(1);
+      check(random, new int[]{7, 6, 2}, 3, 3, null);
+      check(random, new int[]{8, 5, 1}, 2, 5, null);
+      check(random, new int[]{9, 9, 3}, 1, 3, 0);
+      check(random, new int[]{6, 6, 2}, 2, 3, 1);
+    } finally {
+      OpenCL.cpuMode = cpuMode;
+      CpuConvolution.getTuningTable().clear();
+    }
+  }
+
+  /**
+   * Autotuning records a tiling per shape, which survives a save and load.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAutotune() throws Exception {
+    final boolean cpuMode = OpenCL.cpuMode;
+    final boolean autotune = CoreSettings.INSTANCE().isConvolutionAutotune();
+    OpenCL.cpuMode = true;
+    CoreSettings.INSTANCE().setConvolutionAutotune(true);
+    final File file = File.createTempFile("kernel-tuning", ".json");
+    try {
+      final Random random = new Random(2);
+      final ConvolutionController controller = new ConvolutionController(new int[]{16, 16, 2}, new int[]{3, 3, 4}, null, null);
+      controller.convolve(random(random, 4, 512), random(random, 1, 36)[0], new double[4][512]);
+      final Map<String, CpuConvolution.Tiling> table = CpuConvolution.getTuningTable().getEntries();
+      Assert.assertEquals(1, table.size());
+      CpuConvolution.getTuningTable().save(file);
+      CpuConvolution.getTuningTable().clear();
+      CpuConvolution.getTuningTable().load(file);
+      final CpuConvolution.Tiling expected = table.values().iterator().next();
+      final CpuConvolution.Tiling actual = CpuConvolution.getTuningTable().getEntries().values().iterator().next();
+      Assert.assertEquals(expected.rows, actual.rows);
+      Assert.assertEquals(expected.items, actual.items);
+    } finally {
+      OpenCL.cpuMode = cpuMode;
+      CoreSettings.INSTANCE().setConvolutionAutotune(autotune);
+      CpuConvolution.getTuningTable().clear();
+      file.delete();
+    }
+  }
+}
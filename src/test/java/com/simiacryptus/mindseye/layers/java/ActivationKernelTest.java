@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests the array-level activation kernels against the per-element definitions.
+ */
+public class ActivationKernelTest {
+
+  private static void check(@Nonnull final SimpleActivationLayer<?> layer) {
+    final Random random = new Random(5);
+    final double[] input = new double[100];
+    for (int i = 0; i < input.length; i++) input[i] = 4 * random.nextGaussian();
+    input[0] = 0;
+    final double[] delta = new double[input.length];
+    for (int i = 0; i < delta.length; i++) delta[i] = random.nextGaussian();
+    final double[] output = new double[input.length];
+    final double[] derivative = new double[input.length];
+    final double[] passback = new double[input.length];
+    layer.forward(input, output, derivative);
+    layer.backward(input, delta, passback);
+    final double[] results = new double[2];
+    for (int i = 0; i < input.length; i++) {
+      layer.eval(input[i], results);
+      final String message = layer.getClass().getSimpleName() + " at " + input[i];
+      Assert.assertEquals(message, results[0], output[i], 1e-12 * Math.max(1, Math.abs(results[0])));
+      Assert.assertEquals(message, results[1], derivative[i], 1e-12 * Math.max(1, Math.abs(results[1])));
+      Assert.assertEquals(message, delta[i] * results[1], passback[i], 1e-12 * Math.max(1, Math.abs(delta[i] * results[1])));
+    }
+    checkRecompute(layer);
+    layer.freeRef();
+  }
+
+  /**
+   * Checks that the layer gradient is the same whether the derivative is stored or recomputed.
+   */
+  private static void checkRecompute(@Nonnull final SimpleActivationLayer<?> layer) {
+    final Random random = new Random(6);
+    final Tensor input = new Tensor(4, 5).set(() -> random.nextGaussian());
+    final Tensor delta = new Tensor(4, 5).set(() -> random.nextGaussian());
+    final boolean recompute = CoreSettings.INSTANCE().isActivationRecompute();
+    final Tensor[] passback = new Tensor[2];
+    try {
+      for (int mode = 0; mode < 2; mode++) {
+        CoreSettings.INSTANCE().setActivationRecompute(1 == mode);
+        final int index = mode;
+        Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+          passback[index] = data.get(0);
+        });
+        Result result = layer.eval(inputResult);
+        DeltaSet<UUID> deltaSet = new DeltaSet<>();
+        result.accumulate(deltaSet, TensorArray.create(delta));
+        deltaSet.freeRef();
+        result.getData().freeRef();
+        result.freeRef();
+        inputResult.getData().freeRef();
+        inputResult.freeRef();
+      }
+    } finally {
+      CoreSettings.INSTANCE().setActivationRecompute(recompute);
+    }
+    Assert.assertArrayEquals(passback[0].getData(), passback[1].getData(), 1e-12);
+    passback[0].freeRef();
+    passback[1].freeRef();
+    input.freeRef();
+    delta.freeRef();
+  }
+
+  /**
+   * Test the overridden kernels, and the per-element default.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    check(new SigmoidActivationLayer());
+    check(new SigmoidActivationLayer().setBalanced(false));
+    check(new GaussianActivationLayer(0.5, 2.0));
+    check(new SinewaveActivationLayer());
+    check(new SinewaveActivationLayer().setBalanced(false));
+    check(new LogActivationLayer());
+    check(new SqActivationLayer());
+  }
+
+}
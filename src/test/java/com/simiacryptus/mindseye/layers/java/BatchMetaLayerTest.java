@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Tests the batch-level meta layers against hand-computed outputs and gradients.
+ */
+public class BatchMetaLayerTest {
+
+  @Nonnull
+  private static TensorList[] evalAndBackprop(@Nonnull final Layer layer, @Nonnull final TensorList delta, @Nonnull final TensorList... inputs) {
+    final TensorList[] results = new TensorList[inputs.length + 1];
+    final Result[] inputResults = new Result[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      final int index = i;
+      inputResults[i] = new Result(inputs[i], (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+        data.addRef();
+        results[index + 1] = data;
+      });
+    }
+    final Result result = layer.eval(inputResults);
+    results[0] = result.getData();
+    results[0].addRef();
+    final DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, delta);
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    for (final Result inputResult : inputResults) {
+      inputResult.getData().freeRef();
+      inputResult.freeRef();
+    }
+    return results;
+  }
+
+  private static void assertItems(@Nonnull final double[][] expected, @Nonnull final TensorList actual) {
+    Assert.assertEquals(expected.length, actual.length());
+    for (int i = 0; i < expected.length; i++) {
+      final Tensor tensor = actual.get(i);
+      Assert.assertArrayEquals(expected[i], tensor.getData(), 1e-12);
+      tensor.freeRef();
+    }
+    actual.freeRef();
+  }
+
+  /**
+   * The maximum of each element is routed back to the item which held it, the first on ties.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMax() {
+    final MaxMetaLayer layer = new MaxMetaLayer();
+    final TensorList[] results = evalAndBackprop(layer,
+        TensorArray.wrap(new Tensor(new double[]{10, 20, 30, 40}, 4)),
+        TensorArray.wrap(new Tensor(new double[]{1, 5, 2, 7}, 4), new Tensor(new double[]{3, 5, 0, 9}, 4), new Tensor(new double[]{2, 4, 2, 8}, 4)));
+    assertItems(new double[][]{{3, 5, 2, 9}}, results[0]);
+    assertItems(new double[][]{{0, 20, 30, 0}, {10, 0, 0, 40}, {0, 0, 0, 0}}, results[1]);
+    layer.freeRef();
+  }
+
+  /**
+   * The bias is added to every item, and its gradient is the sum of the output gradients.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testBias() {
+    final BiasMetaLayer layer = new BiasMetaLayer();
+    final TensorList[] results = evalAndBackprop(layer,
+        TensorArray.wrap(new Tensor(new double[]{1, 2}, 2), new Tensor(new double[]{3, 4}, 2)),
+        TensorArray.wrap(new Tensor(new double[]{1, 2}, 2), new Tensor(new double[]{3, 4}, 2)),
+        TensorArray.wrap(new Tensor(new double[]{10, 20}, 2)));
+    assertItems(new double[][]{{11, 22}, {13, 24}}, results[0]);
+    assertItems(new double[][]{{1, 2}, {3, 4}}, results[1]);
+    assertItems(new double[][]{{4, 6}}, results[2]);
+    layer.freeRef();
+  }
+
+  /**
+   * Every item is scaled element-wise, and the scale gradient sums the output gradient times the input.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testScale() {
+    final ScaleMetaLayer layer = new ScaleMetaLayer();
+    final TensorList[] results = evalAndBackprop(layer,
+        TensorArray.wrap(new Tensor(new double[]{1, 1}, 2), new Tensor(new double[]{2, 3}, 2)),
+        TensorArray.wrap(new Tensor(new double[]{1, 2}, 2), new Tensor(new double[]{3, 4}, 2)),
+        TensorArray.wrap(new Tensor(new double[]{2, -1}, 2)));
+    assertItems(new double[][]{{2, -2}, {6, -4}}, results[0]);
+    assertItems(new double[][]{{2, -1}, {4, -3}}, results[1]);
+    assertItems(new double[][]{{7, 14}}, results[2]);
+    layer.freeRef();
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.google.common.hash.HashCode;
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Tests the one-pass batch statistics and the closed-form gradients of the layers built on them.
+ */
+public class BatchNormalizationLayerTest {
+
+  @Nonnull
+  private static double[][] randomBatch(@Nonnull final Random random, final int items, final int length, final double offset) {
+    final double[][] batch = new double[items][length];
+    for (int i = 0; i < items; i++) {
+      for (int j = 0; j < length; j++) batch[i][j] = offset + random.nextGaussian();
+    }
+    return batch;
+  }
+
+  @Nonnull
+  private static TensorArray toTensors(@Nonnull final double[][] batch) {
+    final Tensor[] tensors = new Tensor[batch.length];
+    for (int i = 0; i < batch.length; i++) tensors[i] = new Tensor(batch[i], batch[i].length);
+    return TensorArray.wrap(tensors);
+  }
+
+  /**
+   * Evaluates the weighted sum of a layer's outputs and, when a gradient array is given, its gradient.
+   */
+  private static double loss(@Nonnull final Layer layer, @Nonnull final double[][] batch, final long seed, final double[][] gradient) {
+    final TensorArray data = toTensors(batch);
+    final Result input = new Result(data, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      for (int i = 0; i < gradient.length; i++) {
+        final Tensor tensor = delta.get(i);
+        gradient[i] = tensor.getData().clone();
+        tensor.freeRef();
+      }
+    }) {
+      @Override
+      public boolean isAlive() {
+        return null != gradient;
+      }
+    };
+    final Result result = layer.eval(input);
+    final TensorList output = result.getData();
+    final Random random = new Random(seed);
+    final Tensor[] weights = new Tensor[output.length()];
+    double sum = 0;
+    for (int i = 0; i < weights.length; i++) {
+      final Tensor tensor = output.get(i);
+      weights[i] = new Tensor(tensor.getDimensions());
+      for (int j = 0; j < tensor.length(); j++) {
+        weights[i].set(j, random.nextGaussian());
+        sum += weights[i].get(j) * tensor.get(j);
+      }
+      tensor.freeRef();
+    }
+    if (null != gradient) {
+      @Nonnull final DeltaSet<UUID> buffer = new DeltaSet<>();
+      result.accumulate(buffer, TensorArray.wrap(weights));
+      buffer.freeRef();
+    } else {
+      for (final Tensor weight : weights) weight.freeRef();
+    }
+    output.freeRef();
+    result.freeRef();
+    data.freeRef();
+    input.freeRef();
+    return sum;
+  }
+
+  private static void assertGradient(@Nonnull final Supplier<Layer> factory, @Nonnull final double[][] batch) {
+    final double[][] gradient = new double[batch.length][];
+    final Layer layer = factory.get();
+    loss(layer, batch, 7, gradient);
+    layer.freeRef();
+    final double h = 1e-5;
+    for (int i = 0; i < batch.length; i++) {
+      for (int j = 0; j < batch[i].length; j++) {
+        final double value = batch[i][j];
+        batch[i][j] = value + h;
+        final Layer plus = factory.get();
+        final double upper = loss(plus, batch, 7, null);
+        plus.freeRef();
+        batch[i][j] = value - h;
+        final Layer minus = factory.get();
+        final double lower = loss(minus, batch, 7, null);
+        minus.freeRef();
+        batch[i][j] = value;
+        Assert.assertEquals((upper - lower) / (2 * h), gradient[i][j], 1e-5);
+      }
+    }
+  }
+
+  /**
+   * The merged Welford pass matches a two-pass computation even with a large common offset.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMoments() {
+    final double[][] batch = randomBatch(new Random(1), 100, 5, 1e6);
+    final TensorArray data = toTensors(batch);
+    final BatchMoments moments = BatchMoments.compute(data);
+    data.freeRef();
+    Assert.assertEquals(100, moments.getCount());
+    for (int j = 0; j < 5; j++) {
+      double mean = 0;
+      for (final double[] row : batch) mean += row[j] / batch.length;
+      double variance = 0;
+      for (final double[] row : batch) variance += (row[j] - mean) * (row[j] - mean) / batch.length;
+      Assert.assertEquals(mean, moments.getMean()[j], 1e-8);
+      Assert.assertEquals(variance, moments.getVariance()[j], 1e-8);
+    }
+  }
+
+  /**
+   * The closed-form gradients agree with finite differences.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testGradients() {
+    final double[][] batch = randomBatch(new Random(2), 5, 3, 0.5);
+    assertGradient(BatchNormalizationLayer::new, batch);
+    assertGradient(() -> new StdDevMetaLayer(0), batch);
+    assertGradient(NormalizationMetaLayer::new, batch);
+  }
+
+  /**
+   * Inference mode normalizes single samples with the running averages, which survive serialization.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testInference() {
+    final BatchNormalizationLayer layer = new BatchNormalizationLayer().setMomentum(0.5);
+    final Random random = new Random(3);
+    for (int i = 0; i < 4; i++) loss(layer, randomBatch(random, 20, 3, 2.0), 0, null);
+    final double[] mean = layer.getRunningMean();
+    final double[] variance = layer.getRunningVariance();
+    layer.setInference(true);
+    final Layer copy = layer.copy();
+    layer.freeRef();
+    final double[][] sample = randomBatch(random, 1, 3, 2.0);
+    final TensorArray data = toTensors(sample);
+    final ConstantResult constant = new ConstantResult(data);
+    final Result result = copy.eval(constant);
+    final Tensor output = result.getData().get(0);
+    for (int j = 0; j < 3; j++) {
+      Assert.assertEquals((sample[0][j] - mean[j]) / Math.sqrt(variance[j] + 1e-5), output.get(j), 1e-9);
+    }
+    Assert.assertArrayEquals(mean, ((BatchNormalizationLayer) copy).getRunningMean(), 0);
+    output.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    constant.freeRef();
+    data.freeRef();
+    copy.freeRef();
+  }
+
+  /**
+   * The forward-only path normalizes a whole batch with the running averages and leaves them unchanged, while training
+   * batches change the weight digest.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testEvalInference() {
+    final BatchNormalizationLayer layer = new BatchNormalizationLayer().setMomentum(0.5);
+    final Random random = new Random(4);
+    loss(layer, randomBatch(random, 20, 3, 2.0), 0, null);
+    final HashCode digest = WeightDigest.of(layer);
+    loss(layer, randomBatch(random, 20, 3, 2.0), 0, null);
+    Assert.assertNotEquals(digest, WeightDigest.of(layer));
+    final double[] mean = layer.getRunningMean();
+    final double[] variance = layer.getRunningVariance();
+    final HashCode trained = WeightDigest.of(layer);
+    final double[][] batch = randomBatch(random, 10, 3, 2.0);
+    final TensorArray data = toTensors(batch);
+    final Result result = layer.evalInferenceAndFree(new ConstantResult(data));
+    Assert.assertFalse(result.isAlive());
+    final TensorList output = result.getData();
+    for (int i = 0; i < batch.length; i++) {
+      final Tensor tensor = output.get(i);
+      for (int j = 0; j < 3; j++) {
+        Assert.assertEquals((batch[i][j] - mean[j]) / Math.sqrt(variance[j] + 1e-5), tensor.get(j), 1e-9);
+      }
+      tensor.freeRef();
+    }
+    Assert.assertArrayEquals(mean, layer.getRunningMean(), 0);
+    Assert.assertArrayEquals(variance, layer.getRunningVariance(), 0);
+    Assert.assertEquals(trained, WeightDigest.of(layer));
+    output.freeRef();
+    result.freeRef();
+    layer.freeRef();
+  }
+}
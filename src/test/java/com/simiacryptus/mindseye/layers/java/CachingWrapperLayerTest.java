@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.ResultCache;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.network.DAGNode;
+import com.simiacryptus.mindseye.network.InferenceEvalTest;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The type Caching wrapper layer apply.
+ */
+public class CachingWrapperLayerTest {
+
+  /**
+   * Test repeated inference over a shared background reuses the background branch and matches uncached evaluation.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSharedPrefix() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(2);
+    @Nonnull final FullyConnectedLayer fc = new FullyConnectedLayer(new int[]{3}, new int[]{3});
+    fc.set(i -> 0.1 * (i + 1));
+    fc.freeze();
+    network.wrap(fc, network.getInput(0)).freeRef();
+    final DAGNode activated = network.wrap(new SigmoidActivationLayer());
+    network.wrap(new SumInputsLayer(), activated, network.getInput(1)).freeRef();
+    @Nonnull final Tensor background = new Tensor(0.5, -0.25, 0.125);
+    @Nonnull final Tensor[] overlays = {new Tensor(1.0, 0.0, 0.0), new Tensor(0.0, 1.0, 0.0), new Tensor(0.0, 0.0, 1.0)};
+    final double[][] expected = new double[overlays.length][];
+    for (int i = 0; i < overlays.length; i++) expected[i] = InferenceEvalTest.copyAndFree(network.eval(background, overlays[i]));
+
+    @Nonnull final ResultCache cache = new ResultCache(1 << 20);
+    CachingWrapperLayer.wrapNodes(network, cache);
+    for (int i = 0; i < overlays.length; i++) {
+      Assert.assertArrayEquals(expected[i], InferenceEvalTest.copyAndFree(network.evalInference(background, overlays[i])), 1e-12);
+    }
+    // fc and sigmoid are computed once and then served twice each
+    Assert.assertEquals(4, cache.getHits());
+    Assert.assertArrayEquals(expected[0], InferenceEvalTest.copyAndFree(network.evalInference(background, overlays[0])), 1e-12);
+    Assert.assertEquals(7, cache.getHits());
+
+    fc.setFrozen(false);
+    fc.set(i -> -0.1 * (i + 1));
+    final double[] changed = InferenceEvalTest.copyAndFree(network.eval(background, overlays[0]));
+    Assert.assertArrayEquals(changed, InferenceEvalTest.copyAndFree(network.evalInference(background, overlays[0])), 1e-12);
+    Assert.assertNotEquals(expected[0][0], changed[0], 1e-6);
+
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.getBytes());
+    for (Tensor overlay : overlays) overlay.freeRef();
+    background.freeRef();
+    network.freeRef();
+  }
+
+  /**
+   * Test the byte budget evicts the least recently used entries.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testEviction() {
+    @Nonnull final CachingWrapperLayer layer = new CachingWrapperLayer(new LinearActivationLayer().setScale(2.0).freeze(),
+        new ResultCache(2 * 3 * 8));
+    @Nonnull final Tensor a = new Tensor(1.0, 2.0, 3.0);
+    @Nonnull final Tensor b = new Tensor(4.0, 5.0, 6.0);
+    @Nonnull final Tensor c = new Tensor(7.0, 8.0, 9.0);
+    InferenceEvalTest.copyAndFree(layer.evalInference(a));
+    InferenceEvalTest.copyAndFree(layer.evalInference(b));
+    InferenceEvalTest.copyAndFree(layer.evalInference(a));
+    InferenceEvalTest.copyAndFree(layer.evalInference(c));
+    Assert.assertEquals(2, layer.getCache().size());
+    Assert.assertEquals(1, layer.getCache().getEvictions());
+    Assert.assertArrayEquals(new double[]{2.0, 4.0, 6.0}, InferenceEvalTest.copyAndFree(layer.evalInference(a)), 1e-12);
+    Assert.assertEquals(2, layer.getCache().getHits());
+    InferenceEvalTest.copyAndFree(layer.evalInference(b));
+    Assert.assertEquals(2, layer.getCache().getHits());
+    layer.getCache().clear();
+    a.freeRef();
+    b.freeRef();
+    c.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test changing a frozen layer's weights in place does not serve outputs computed from the old weights.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testFrozenWeightChange() {
+    @Nonnull final LinearActivationLayer inner = new LinearActivationLayer().setScale(2.0);
+    inner.freeze();
+    @Nonnull final CachingWrapperLayer layer = new CachingWrapperLayer(inner, new ResultCache(1 << 20));
+    @Nonnull final Tensor input = new Tensor(1.0, 2.0, 3.0);
+    Assert.assertArrayEquals(new double[]{2.0, 4.0, 6.0}, InferenceEvalTest.copyAndFree(layer.evalInference(input)), 1e-12);
+    Assert.assertArrayEquals(new double[]{2.0, 4.0, 6.0}, InferenceEvalTest.copyAndFree(layer.evalInference(input)), 1e-12);
+    Assert.assertEquals(1, layer.getCache().getHits());
+    inner.setScale(3.0);
+    Assert.assertArrayEquals(new double[]{3.0, 6.0, 9.0}, InferenceEvalTest.copyAndFree(layer.evalInference(input)), 1e-12);
+    Assert.assertEquals(1, layer.getCache().getHits());
+    layer.getCache().clear();
+    input.freeRef();
+    layer.freeRef();
+    inner.freeRef();
+  }
+
+  /**
+   * Test stochastic layers are not cached, so a reshuffled noise mask takes effect, and are left unwrapped in networks.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testStochastic() {
+    @Nonnull final DropoutNoiseLayer dropout = new DropoutNoiseLayer(0.5);
+    @Nonnull final CachingWrapperLayer layer = new CachingWrapperLayer(dropout, new ResultCache(1 << 20));
+    @Nonnull final Tensor input = new Tensor(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0);
+    for (long seed = 0; seed < 4; seed++) {
+      dropout.shuffle(seed);
+      final double[] expected = InferenceEvalTest.copyAndFree(dropout.eval(input));
+      Assert.assertArrayEquals(expected, InferenceEvalTest.copyAndFree(layer.evalInference(input)), 1e-12);
+    }
+    Assert.assertEquals(0, layer.getCache().size());
+    Assert.assertEquals(0, layer.getCache().getHits());
+
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new LinearActivationLayer().setScale(2.0).freeze()).freeRef();
+    network.wrap(new DropoutNoiseLayer(0.5)).freeRef();
+    CachingWrapperLayer.wrapNodes(network, new ResultCache(1 << 20));
+    final DAGNode head = network.getHead();
+    Assert.assertTrue(head.getLayer() instanceof DropoutNoiseLayer);
+    Assert.assertTrue(head.getInputs()[0].getLayer() instanceof CachingWrapperLayer);
+    head.freeRef();
+    input.freeRef();
+    network.freeRef();
+    layer.freeRef();
+    dropout.freeRef();
+  }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The type Convolution algorithm apply.
+ */
+public class ConvolutionAlgorithmTest {
+
+  private static double[] random(@Nonnull final Random random, final int length) {
+    final double[] data = new double[length];
+    for (int i = 0; i < length; i++) data[i] = random.nextGaussian();
+    return data;
+  }
+
+  private static void check(final int width, final int height, final int kernelSize, final int inputBands, final int outputBands, final int stride, final int padding) {
+    final Random random = new Random(width * 31 + kernelSize);
+    @Nonnull final ImgConvolutionLayer layer = new ImgConvolutionLayer(kernelSize, kernelSize, inputBands, outputBands)
+        .setStrideX(stride).setStrideY(stride).setPaddingX(padding).setPaddingY(padding);
+    final int[] inputDims = {width, height, inputBands};
+    final int[] kernelDims = {kernelSize, kernelSize, inputBands * outputBands};
+    final int offset = kernelSize - 1 - ((kernelSize - 1) / 2 + padding);
+    final ConvolutionGeometry geometry = new ConvolutionGeometry(inputDims, kernelDims, layer.getOutputDims(inputDims), stride, stride, offset, offset);
+    layer.freeRef();
+    final double[] kernel = random(random, Tensor.length(kernelDims));
+    final double[] input = random(random, Tensor.length(inputDims));
+    final double[] expected = new double[Tensor.length(geometry.outputDims)];
+    ConvolutionAlgorithm.IM2COL.plan(geometry, kernel).apply(input, expected);
+    for (@Nonnull final ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+      if (!algorithm.supports(geometry)) continue;
+      final double[] actual = new double[expected.length];
+      algorithm.plan(geometry, kernel).apply(input, actual);
+      Assert.assertArrayEquals(algorithm + " " + geometry, expected, actual, 1e-9);
+    }
+  }
+
+  /**
+   * Test the fast algorithms against im2col for odd image sizes, padding and strides.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAlgorithms() {
+    check(7, 5, 3, 2, 3, 1, 0);
+    check(8, 9, 3, 3, 2, 1, 1);
+    check(6, 6, 3, 1, 1, 1, -1);
+    check(11, 9, 7, 2, 2, 1, 0);
+    check(10, 13, 7, 2, 3, 1, 2);
+    check(12, 10, 5, 2, 2, 2, 1);
+    check(1, 1, 1, 1, 1, 1, 0);
+    check(1, 1, 1, 2, 3, 1, 0);
+  }
+
+  /**
+   * Test that autotuning handles a 1x1 kernel over a 1x1 image, where the FFT transform size is 1.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAutotuneSingleTap() {
+    ConvolutionAlgorithm.getTuningTable().clear();
+    final boolean autotune = CoreSettings.INSTANCE().isConvolutionAutotune();
+    CoreSettings.INSTANCE().setConvolutionAutotune(true);
+    final ConvolutionGeometry geometry = new ConvolutionGeometry(new int[]{1, 1, 1}, new int[]{1, 1, 1}, new int[]{1, 1, 1}, 1, 1, 0, 0);
+    final TensorList data = TensorArray.wrap(new Tensor(new double[]{2.0}, 1, 1, 1));
+    try {
+      final ConvolutionAlgorithm algorithm = ConvolutionAlgorithm.select(geometry, new double[]{3.0}, data);
+      final double[] output = new double[1];
+      algorithm.plan(geometry, new double[]{3.0}).apply(new double[]{2.0}, output);
+      Assert.assertEquals(6.0, output[0], 1e-9);
+    } finally {
+      CoreSettings.INSTANCE().setConvolutionAutotune(autotune);
+      ConvolutionAlgorithm.getTuningTable().clear();
+      data.freeRef();
+    }
+  }
+
+  /**
+   * Test that cached plans are rebuilt when the weights change in place.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testWeightChange() {
+    final Random random = new Random(11);
+    final Tensor input = new Tensor(9, 7, 2).set(() -> random.nextGaussian());
+    @Nonnull final ImgConvolutionLayer layer = new ImgConvolutionLayer(7, 7, 2, 3);
+    layer.setWeights(() -> random.nextGaussian());
+    for (@Nonnull final ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+      layer.setAlgorithm(algorithm);
+      layer.eval(input).getDataAndFree().freeRef();
+    }
+    layer.setWeights(() -> random.nextGaussian());
+    layer.setAlgorithm(ConvolutionAlgorithm.IM2COL);
+    final Tensor expected = layer.eval(input).getDataAndFree().getAndFree(0);
+    for (@Nonnull final ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+      layer.setAlgorithm(algorithm);
+      final Tensor output = layer.eval(input).getDataAndFree().getAndFree(0);
+      Assert.assertArrayEquals(algorithm.name(), expected.getData(), output.getData(), 1e-9);
+      output.freeRef();
+    }
+    expected.freeRef();
+    input.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test that the layer output and input gradient do not depend on the algorithm.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testLayer() {
+    final Random random = new Random(7);
+    final Tensor input = new Tensor(9, 7, 2).set(() -> random.nextGaussian());
+    final Tensor outputDelta = new Tensor(9, 7, 3).set(() -> random.nextGaussian());
+    @Nonnull final ImgConvolutionLayer layer = new ImgConvolutionLayer(3, 3, 2, 3);
+    layer.setWeights(() -> random.nextGaussian());
+    Tensor expectedOutput = null;
+    Tensor expectedDelta = null;
+    for (@Nonnull final ConvolutionAlgorithm algorithm : ConvolutionAlgorithm.values()) {
+      layer.setAlgorithm(algorithm);
+      final Tensor[] inputDelta = new Tensor[1];
+      Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+        inputDelta[0] = data.get(0);
+      });
+      Result result = layer.eval(inputResult);
+      final Tensor output = result.getData().get(0);
+      DeltaSet<UUID> deltaSet = new DeltaSet<>();
+      result.accumulate(deltaSet, TensorArray.create(outputDelta));
+      if (null == expectedOutput) {
+        expectedOutput = output;
+        expectedDelta = inputDelta[0];
+      } else {
+        Assert.assertArrayEquals(algorithm.name(), expectedOutput.getData(), output.getData(), 1e-9);
+        Assert.assertArrayEquals(algorithm.name(), expectedDelta.getData(), inputDelta[0].getData(), 1e-9);
+        output.freeRef();
+        inputDelta[0].freeRef();
+      }
+      deltaSet.freeRef();
+      result.getData().freeRef();
+      result.freeRef();
+      inputResult.getData().freeRef();
+      inputResult.freeRef();
+    }
+    expectedOutput.freeRef();
+    expectedDelta.freeRef();
+    input.freeRef();
+    outputDelta.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test that the tuning table survives a round trip through a file.
+   *
+   * @throws IOException the io exception
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testTuningTable() throws IOException {
+    ConvolutionAlgorithm.getTuningTable().clear();
+    final ConvolutionGeometry geometry = new ConvolutionGeometry(new int[]{8, 8, 2}, new int[]{3, 3, 4}, new int[]{8, 8, 2}, 1, 1, 1, 1);
+    final TensorList data = TensorArray.wrap(new Tensor(8, 8, 2));
+    Assert.assertEquals(ConvolutionAlgorithm.WINOGRAD, ConvolutionAlgorithm.select(geometry, new double[36], data));
+    final File file = File.createTempFile("convolution", ".json");
+    try {
+      FileUtils.write(file, "{\"algorithms\":{\"" + geometry + "\":\"FFT\"}}", Charset.forName("UTF-8"));
+      ConvolutionAlgorithm.getTuningTable().clear();
+      ConvolutionAlgorithm.getTuningTable().load(file);
+      Assert.assertEquals(ConvolutionAlgorithm.FFT, ConvolutionAlgorithm.select(geometry, new double[36], data));
+      final Map<String, ConvolutionAlgorithm> table = ConvolutionAlgorithm.getTuningTable().getEntries();
+      ConvolutionAlgorithm.getTuningTable().save(file);
+      ConvolutionAlgorithm.getTuningTable().clear();
+      ConvolutionAlgorithm.getTuningTable().load(file);
+      Assert.assertEquals(table, ConvolutionAlgorithm.getTuningTable().getEntries());
+    } finally {
+      ConvolutionAlgorithm.getTuningTable().clear();
+      file.delete();
+      data.freeRef();
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * The type Fully connected batch apply.
+ */
+public class FullyConnectedBatchTest {
+
+  /**
+   * Evaluates a layer over a batch and back-propagates the given output delta.
+   *
+   * @param layer       the layer
+   * @param input       the input
+   * @param outputDelta the output delta
+   * @param inputDelta  receives the input delta
+   * @return the output, followed by the weight delta
+   */
+  @Nonnull
+  public static double[][] run(@Nonnull final Layer layer, @Nonnull final Tensor[] input, @Nonnull final Tensor[] outputDelta, @Nonnull final double[][] inputDelta) {
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      for (int i = 0; i < data.length(); i++) {
+        Tensor tensor = data.get(i);
+        inputDelta[i] = tensor.getData().clone();
+        tensor.freeRef();
+      }
+    });
+    Result result = layer.eval(inputResult);
+    double[] output = result.getData().stream().flatMapToDouble(t -> {
+      double[] data = t.getData().clone();
+      t.freeRef();
+      return Arrays.stream(data);
+    }).toArray();
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.create(outputDelta));
+    double[] weightDelta = deltaSet.getMap().get(layer.getId()).getDelta().clone();
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    return new double[][]{output, weightDelta};
+  }
+
+  /**
+   * Test the batched matrix products against the per-sample reference implementation.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    final int[] inputDims = {3, 2};
+    final int[] outputDims = {5};
+    final int batch = 7;
+    @Nonnull final FullyConnectedLayer layer = new FullyConnectedLayer(inputDims, outputDims);
+    @Nonnull final FullyConnectedReferenceLayer reference = new FullyConnectedReferenceLayer(inputDims, outputDims);
+    reference.set(layer.getWeights());
+    Tensor[] input = IntStream.range(0, batch).mapToObj(i -> new Tensor(inputDims).set(j -> Math.sin(i * 7 + j))).toArray(i -> new Tensor[i]);
+    Tensor[] outputDelta = IntStream.range(0, batch).mapToObj(i -> new Tensor(outputDims).set(j -> Math.cos(i * 3 + j))).toArray(i -> new Tensor[i]);
+    double[][] inputDelta = new double[batch][];
+    double[][] referenceInputDelta = new double[batch][];
+    double[][] actual = run(layer, input, outputDelta, inputDelta);
+    double[][] expected = run(reference, input, outputDelta, referenceInputDelta);
+    Assert.assertArrayEquals(expected[0], actual[0], 1e-10);
+    Assert.assertArrayEquals(expected[1], actual[1], 1e-10);
+    for (int i = 0; i < batch; i++) {
+      Assert.assertArrayEquals(referenceInputDelta[i], inputDelta[i], 1e-10);
+    }
+    for (Tensor tensor : input) tensor.freeRef();
+    for (Tensor tensor : outputDelta) tensor.freeRef();
+    layer.freeRef();
+    reference.freeRef();
+  }
+
+}
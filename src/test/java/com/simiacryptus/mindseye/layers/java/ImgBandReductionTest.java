@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tests the per-pixel band reduction layers against direct evaluation. The images span several pixel blocks.
+ */
+public class ImgBandReductionTest {
+
+  private static final int width = 23;
+  private static final int height = 17;
+  private static final int bands = 3;
+
+  private static Tensor[] evalAndBackprop(@Nonnull final Layer layer, @Nonnull final Tensor input, @Nonnull final Tensor delta) {
+    final Tensor[] gradient = new Tensor[1];
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradient[0] = data.get(0);
+    });
+    Result result = layer.eval(inputResult);
+    final Tensor output = result.getData().get(0);
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.create(delta));
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    return new Tensor[]{output, gradient[0]};
+  }
+
+  /**
+   * Test softmax.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSoftmax() {
+    final Random random = new Random(1);
+    final Tensor input = new Tensor(width, height, bands).set(() -> 10 * random.nextGaussian());
+    final Tensor delta = new Tensor(width, height, bands).set(() -> random.nextGaussian());
+    @Nonnull final ImgPixelSoftmaxLayer layer = new ImgPixelSoftmaxLayer();
+    final Tensor[] result = evalAndBackprop(layer, input, delta);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double sum = 0;
+        for (int b = 0; b < bands; b++) sum += Math.exp(input.get(x, y, b));
+        double dot = 0;
+        for (int b = 0; b < bands; b++) dot += Math.exp(input.get(x, y, b)) / sum * delta.get(x, y, b);
+        for (int b = 0; b < bands; b++) {
+          final double p = Math.exp(input.get(x, y, b)) / sum;
+          Assert.assertEquals(p, result[0].get(x, y, b), 1e-12);
+          Assert.assertEquals(p * (delta.get(x, y, b) - dot), result[1].get(x, y, b), 1e-12);
+        }
+      }
+    }
+    for (Tensor tensor : result) tensor.freeRef();
+    input.freeRef();
+    delta.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test sum.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSum() {
+    final Random random = new Random(2);
+    final Tensor input = new Tensor(width, height, bands).set(() -> random.nextGaussian());
+    final Tensor delta = new Tensor(width, height, 1).set(() -> random.nextGaussian());
+    @Nonnull final ImgPixelSumLayer layer = new ImgPixelSumLayer();
+    final Tensor[] result = evalAndBackprop(layer, input, delta);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double sum = 0;
+        for (int b = 0; b < bands; b++) {
+          sum += input.get(x, y, b);
+          Assert.assertEquals(delta.get(x, y, 0), result[1].get(x, y, b), 0);
+        }
+        Assert.assertEquals(sum, result[0].get(x, y, 0), 1e-12);
+      }
+    }
+    for (Tensor tensor : result) tensor.freeRef();
+    input.freeRef();
+    delta.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test band max.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testBandMax() {
+    final Random random = new Random(3);
+    final Tensor input = new Tensor(width, height, bands).set(() -> random.nextGaussian());
+    final Tensor delta = new Tensor(1, 1, bands).set(() -> random.nextGaussian());
+    @Nonnull final MaxImageBandLayer layer = new MaxImageBandLayer();
+    final Tensor[] result = evalAndBackprop(layer, input, delta);
+    for (int b = 0; b < bands; b++) {
+      double max = Double.NEGATIVE_INFINITY;
+      int count = 0;
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          max = Math.max(max, input.get(x, y, b));
+          if (0 != result[1].get(x, y, b)) {
+            count++;
+            Assert.assertEquals(delta.get(0, 0, b), result[1].get(x, y, b), 0);
+          }
+        }
+      }
+      Assert.assertEquals(1, count);
+      Assert.assertEquals(max, result[0].get(0, 0, b), 0);
+    }
+    for (Tensor tensor : result) tensor.freeRef();
+    input.freeRef();
+    delta.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test each item is fetched once per pass rather than once per pixel block, since some lists copy on every get.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testSingleFetch() {
+    final Random random = new Random(4);
+    final int items = 3;
+    final Tensor[] images = new Tensor[items];
+    for (int i = 0; i < items; i++) images[i] = new Tensor(width, height, bands).set(() -> random.nextGaussian());
+    Assert.assertTrue(ImgBandReduction.blocks(width * height) > 1);
+    final CopyingList list = new CopyingList(images);
+    final double[] sums = new double[items];
+    ImgBandReduction.forEachBlock(list, width * height, (index, data, block) -> {
+      synchronized (sums) {
+        final int start = block * ImgBandReduction.BLOCK;
+        for (int j = start; j < Math.min(start + ImgBandReduction.BLOCK, width * height); j++) sums[index] += data[j];
+      }
+    });
+    Assert.assertEquals(items, list.gets.get());
+    for (int i = 0; i < items; i++) {
+      double expected = 0;
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) expected += images[i].get(x, y, 0);
+      }
+      Assert.assertEquals(expected, sums[i], 1e-9);
+    }
+    list.freeRef();
+  }
+
+  /**
+   * A list which returns a fresh copy on each get, as region views and sparse lists do.
+   */
+  private static final class CopyingList extends ReferenceCountingBase implements TensorList {
+    private final Tensor[] data;
+    private final AtomicInteger gets = new AtomicInteger();
+
+    private CopyingList(@Nonnull final Tensor[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public Tensor get(final int i) {
+      gets.incrementAndGet();
+      return data[i].copy();
+    }
+
+    @Override
+    public int[] getDimensions() {
+      return data[0].getDimensions();
+    }
+
+    @Override
+    public int length() {
+      return data.length;
+    }
+
+    @Override
+    public Stream<Tensor> stream() {
+      return Arrays.stream(data).map(Tensor::copy);
+    }
+
+    @Override
+    protected void _free() {
+      for (final Tensor tensor : data) tensor.freeRef();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The type Img convolution layer apply.
+ */
+public class ImgConvolutionLayerTest {
+
+  private static final int inputBands = 2;
+  private static final int outputBands = 3;
+
+  /**
+   * Direct evaluation of a strided, padded convolution.
+   */
+  @Nonnull
+  private static Tensor convolve(@Nonnull final Tensor input, @Nonnull final Tensor kernel, @Nonnull final int[] outputDims, final int stride, final int padding) {
+    final int[] inputDims = input.getDimensions();
+    final int[] kernelDims = kernel.getDimensions();
+    final Tensor output = new Tensor(outputDims);
+    output.setByCoord(c -> {
+      final int ox = c.getCoords()[0];
+      final int oy = c.getCoords()[1];
+      final int o = c.getCoords()[2];
+      double sum = 0;
+      for (int i = 0; i < inputBands; i++) {
+        for (int ky = 0; ky < kernelDims[1]; ky++) {
+          for (int kx = 0; kx < kernelDims[0]; kx++) {
+            final int ix = ox * stride - ((kernelDims[0] - 1) / 2 + padding) + (kernelDims[0] - 1 - kx);
+            final int iy = oy * stride - ((kernelDims[1] - 1) / 2 + padding) + (kernelDims[1] - 1 - ky);
+            if (ix < 0 || iy < 0 || ix >= inputDims[0] || iy >= inputDims[1]) continue;
+            sum += input.get(ix, iy, i) * kernel.get(kx, ky, o + i * outputBands);
+          }
+        }
+      }
+      return sum;
+    });
+    return output;
+  }
+
+  private static double dot(@Nonnull final Tensor a, @Nonnull final Tensor b) {
+    double sum = 0;
+    for (int i = 0; i < a.length(); i++) sum += a.get(i) * b.get(i);
+    return sum;
+  }
+
+  /**
+   * Test the forward pass against direct convolution, and both gradients through the adjoint identities
+   * &lt;dY, conv(x', w)&gt; = &lt;dX, x'&gt; and &lt;dY, conv(x, w')&gt; = &lt;dW, w'&gt;.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    final Random random = new Random(3);
+    final int stride = 2;
+    final int padding = 1;
+    @Nonnull final ImgConvolutionLayer layer = new ImgConvolutionLayer(3, 4, inputBands, outputBands);
+    layer.setStrideX(stride).setStrideY(stride).setPaddingX(padding).setPaddingY(padding);
+    layer.setWeights(() -> random.nextGaussian());
+    final Tensor kernel = layer.getKernel();
+    final Tensor input = new Tensor(7, 6, inputBands).set(() -> random.nextGaussian());
+    final int[] outputDims = layer.getOutputDims(input.getDimensions());
+    Assert.assertArrayEquals(new int[]{5, 4, outputBands}, outputDims);
+
+    final Tensor[] inputDelta = new Tensor[1];
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      inputDelta[0] = data.get(0);
+    });
+    Result result = layer.eval(inputResult);
+    final Tensor output = result.getData().get(0);
+    final Tensor expected = convolve(input, kernel, outputDims, stride, padding);
+    Assert.assertArrayEquals(expected.getData(), output.getData(), 1e-10);
+
+    final Tensor outputDelta = new Tensor(outputDims).set(() -> random.nextGaussian());
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.create(outputDelta));
+    final Tensor weightDelta = new Tensor(deltaSet.getMap().get(layer.getId()).getDelta(), kernel.getDimensions());
+
+    final Tensor probeInput = new Tensor(input.getDimensions()).set(() -> random.nextGaussian());
+    final Tensor probeOutput = convolve(probeInput, kernel, outputDims, stride, padding);
+    Assert.assertEquals(dot(outputDelta, probeOutput), dot(inputDelta[0], probeInput), 1e-9);
+    final Tensor probeKernel = new Tensor(kernel.getDimensions()).set(() -> random.nextGaussian());
+    final Tensor probeKernelOutput = convolve(input, probeKernel, outputDims, stride, padding);
+    Assert.assertEquals(dot(outputDelta, probeKernelOutput), dot(weightDelta, probeKernel), 1e-9);
+
+    for (Tensor tensor : new Tensor[]{output, expected, outputDelta, weightDelta, probeInput, probeOutput, probeKernel, probeKernelOutput, inputDelta[0], input}) {
+      tensor.freeRef();
+    }
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    layer.freeRef();
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests that tiled evaluation with a halo reproduces an untiled convolution, forward and backward.
+ */
+public class ImgTileSubnetStreamingTest {
+
+  @Nonnull
+  private static Tensor[] evalWithGradients(@Nonnull final Layer layer, @Nonnull final ImgConvolutionLayer convolution, @Nonnull final Tensor input) {
+    final Tensor[] gradient = new Tensor[1];
+    final Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradient[0] = data.get(0);
+    });
+    final Result result = layer.eval(inputResult);
+    final Tensor output = result.getData().get(0);
+    final Tensor delta = output.map(v -> 1.0);
+    @Nonnull final DeltaSet<UUID> buffer = new DeltaSet<>();
+    result.accumulate(buffer, TensorArray.wrap(delta));
+    final Tensor weightGradient = new Tensor(buffer.getMap().get(convolution.getId()).getDelta(), convolution.getKernel().getDimensions());
+    buffer.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    return new Tensor[]{output, gradient[0], weightGradient};
+  }
+
+  /**
+   * A halo as wide as the kernel radius makes tiled convolution exact.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testHalo() {
+    final Random random = new Random(5);
+    @Nonnull final ImgConvolutionLayer convolution = new ImgConvolutionLayer(3, 3, 2, 3);
+    convolution.setWeights(() -> random.nextGaussian());
+    @Nonnull final ImgTileSubnetLayer tiled = new ImgTileSubnetLayer(convolution, 4, 4).setHaloX(1).setHaloY(1).setMaxConcurrency(3);
+    final Tensor input = new Tensor(12, 12, 2).set(() -> random.nextGaussian());
+
+    final Tensor[] expected = evalWithGradients(convolution, convolution, input);
+    final Tensor[] actual = evalWithGradients(tiled, convolution, input);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertArrayEquals(expected[i].getDimensions(), actual[i].getDimensions());
+      Assert.assertArrayEquals(expected[i].getData(), actual[i].getData(), 1e-9);
+      expected[i].freeRef();
+      actual[i].freeRef();
+    }
+    input.freeRef();
+    tiled.freeRef();
+    convolution.freeRef();
+  }
+
+  /**
+   * Tiles which need no backpropagation are not retained, so the result is a constant.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testInference() {
+    final Random random = new Random(6);
+    @Nonnull final ImgConvolutionLayer convolution = new ImgConvolutionLayer(3, 3, 1, 1);
+    convolution.setWeights(() -> random.nextGaussian());
+    convolution.freeze();
+    @Nonnull final ImgTileSubnetLayer tiled = new ImgTileSubnetLayer(convolution, 5, 5).setHaloX(1).setHaloY(1);
+    final Tensor input = new Tensor(20, 15, 1).set(() -> random.nextGaussian());
+    final Result result = tiled.eval(input);
+    Assert.assertFalse(result.isAlive());
+    final Tensor actual = result.getData().get(0);
+    final Tensor expected = convolution.eval(input).getDataAndFree().getAndFree(0);
+    Assert.assertArrayEquals(expected.getData(), actual.getData(), 1e-9);
+    expected.freeRef();
+    actual.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    input.freeRef();
+    tiled.freeRef();
+    convolution.freeRef();
+  }
+
+  /**
+   * Inference frees every tile as it is placed, even when the subnetwork has trainable weights.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testInferenceUnfrozen() {
+    final Random random = new Random(7);
+    @Nonnull final ImgConvolutionLayer convolution = new ImgConvolutionLayer(3, 3, 2, 2);
+    convolution.setWeights(() -> random.nextGaussian());
+    @Nonnull final ImgTileSubnetLayer tiled = new ImgTileSubnetLayer(convolution, 5, 5).setHaloX(1).setHaloY(1).setMaxConcurrency(2);
+    final Tensor input = new Tensor(20, 15, 2).set(() -> random.nextGaussian());
+    final Result result = tiled.evalInference(input);
+    Assert.assertFalse(result.isAlive());
+    final Tensor actual = result.getData().get(0);
+    final Tensor expected = convolution.eval(input).getDataAndFree().getAndFree(0);
+    Assert.assertArrayEquals(expected.getData(), actual.getData(), 1e-9);
+    expected.freeRef();
+    actual.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    input.freeRef();
+    tiled.freeRef();
+    convolution.freeRef();
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.CounterRandom;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests the counter-based random masks and the noise layers using them.
+ */
+public class NoiseMaskTest {
+
+  private static Tensor[] evalAndBackprop(@Nonnull final Layer layer, @Nonnull final Tensor input, @Nonnull final Tensor delta) {
+    final Tensor[] gradient = new Tensor[1];
+    Result inputResult = new Result(TensorArray.create(input, input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradient[0] = data.get(1);
+    });
+    Result result = layer.eval(inputResult);
+    final Tensor output = result.getData().get(1);
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.create(delta, delta));
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    return new Tensor[]{output, gradient[0]};
+  }
+
+  /**
+   * Masks are reproducible, independent per sample, and have the requested density.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testBernoulli() {
+    final int length = 100000;
+    final long[] a = CounterRandom.bernoulli(CounterRandom.stream(42, 0), length, 0.3);
+    final long[] b = CounterRandom.bernoulli(CounterRandom.stream(42, 0), length, 0.3);
+    final long[] c = CounterRandom.bernoulli(CounterRandom.stream(42, 1), length, 0.3);
+    Assert.assertArrayEquals(a, b);
+    int count = 0;
+    int same = 0;
+    for (int i = 0; i < length; i++) {
+      if (CounterRandom.get(a, i)) count++;
+      if (CounterRandom.get(a, i) == CounterRandom.get(c, i)) same++;
+      Assert.assertEquals(CounterRandom.uniform(CounterRandom.stream(42, 0), i) < 0.3, CounterRandom.get(a, i));
+    }
+    Assert.assertEquals(0.3, count * 1.0 / length, 0.01);
+    // Independent masks agree with probability 0.3^2 + 0.7^2
+    Assert.assertEquals(0.58, same * 1.0 / length, 0.01);
+  }
+
+  /**
+   * Dropout is stable between shuffles, and its gradient passes exactly through the kept elements.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testDropout() {
+    final Random random = new Random(1);
+    final Tensor input = new Tensor(10, 10).set(() -> 1 + random.nextDouble());
+    final Tensor delta = new Tensor(10, 10).set(() -> random.nextGaussian());
+    @Nonnull final DropoutNoiseLayer layer = new DropoutNoiseLayer(0.5);
+    final Tensor[] first = evalAndBackprop(layer, input, delta);
+    final Tensor[] second = evalAndBackprop(layer, input, delta);
+    Assert.assertArrayEquals(first[0].getData(), second[0].getData(), 0);
+    int dropped = 0;
+    for (int i = 0; i < input.length(); i++) {
+      if (0 == first[0].get(i)) {
+        dropped++;
+        Assert.assertEquals(0, first[1].get(i), 0);
+      } else {
+        Assert.assertEquals(input.get(i) / 0.5, first[0].get(i), 1e-12);
+        Assert.assertEquals(delta.get(i) / 0.5, first[1].get(i), 1e-12);
+      }
+    }
+    Assert.assertTrue(dropped > 20 && dropped < 80);
+    layer.shuffle(0);
+    final Tensor[] shuffled = evalAndBackprop(layer, input, delta);
+    Assert.assertFalse(Arrays.equals(first[0].getData(), shuffled[0].getData()));
+    layer.clearNoise();
+    final Tensor[] cleared = evalAndBackprop(layer, input, delta);
+    Assert.assertArrayEquals(input.getData(), cleared[0].getData(), 0);
+    Assert.assertArrayEquals(delta.getData(), cleared[1].getData(), 0);
+    for (Tensor[] tensors : new Tensor[][]{first, second, shuffled, cleared}) {
+      for (Tensor tensor : tensors) tensor.freeRef();
+    }
+    input.freeRef();
+    delta.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Dropout masks each item of a batch alike, so an item's output does not depend on its position in the batch.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testDropoutBatchPosition() {
+    final Random random = new Random(2);
+    final Tensor input = new Tensor(10, 10).set(() -> 1 + random.nextDouble());
+    @Nonnull final DropoutNoiseLayer layer = new DropoutNoiseLayer(0.5);
+    input.addRef();
+    input.addRef();
+    final Result result = layer.eval(new ConstantResult(TensorArray.wrap(input, input)));
+    final TensorList data = result.getData();
+    final Tensor a = data.get(0);
+    final Tensor b = data.get(1);
+    Assert.assertArrayEquals(a.getData(), b.getData(), 0);
+    a.freeRef();
+    b.freeRef();
+    result.freeRef();
+    input.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Max dropout keeps exactly the maximum of each cell.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMaxDropout() {
+    final Random random = new Random(2);
+    final Tensor input = new Tensor(5, 4, 2).set(() -> random.nextGaussian());
+    final Tensor delta = new Tensor(5, 4, 2).set(() -> random.nextGaussian());
+    @Nonnull final MaxDropoutNoiseLayer layer = new MaxDropoutNoiseLayer(2, 2, 1);
+    final Tensor[] result = evalAndBackprop(layer, input, delta);
+    for (int band = 0; band < 2; band++) {
+      for (int cy = 0; cy < 2; cy++) {
+        for (int cx = 0; cx < 3; cx++) {
+          int kept = 0;
+          double keptValue = Double.NaN;
+          double max = Double.NEGATIVE_INFINITY;
+          for (int y = 2 * cy; y < Math.min(4, 2 * cy + 2); y++) {
+            for (int x = 2 * cx; x < Math.min(5, 2 * cx + 2); x++) {
+              max = Math.max(max, input.get(x, y, band));
+              if (0 != result[0].get(x, y, band)) {
+                kept++;
+                keptValue = result[0].get(x, y, band);
+                Assert.assertEquals(delta.get(x, y, band), result[1].get(x, y, band), 0);
+              } else {
+                Assert.assertEquals(0, result[1].get(x, y, band), 0);
+              }
+            }
+          }
+          Assert.assertEquals(1, kept);
+          Assert.assertEquals(max, keptValue, 0);
+        }
+      }
+    }
+    for (Tensor tensor : result) tensor.freeRef();
+    input.freeRef();
+    delta.freeRef();
+    layer.freeRef();
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests the fused softmax cross-entropy against the unfused layers.
+ */
+public class SoftmaxEntropyLossLayerTest {
+
+  private static double evalLoss(@Nonnull final Layer layer, @Nonnull final Tensor logits, @Nonnull final Tensor target) {
+    final Result result = layer.eval(new ConstantResult(logits), new ConstantResult(target));
+    final double loss = result.getData().get(0).get(0);
+    result.getData().freeRef();
+    result.freeRef();
+    return loss;
+  }
+
+  private static double evalUnfused(@Nonnull final Layer softmax, @Nonnull final Tensor logits, @Nonnull final Tensor target) {
+    final Result probabilities = softmax.eval(new ConstantResult(logits));
+    @Nonnull final EntropyLossLayer entropy = new EntropyLossLayer();
+    final Result result = entropy.eval(probabilities, new ConstantResult(target));
+    final double loss = result.getData().get(0).get(0);
+    result.getData().freeRef();
+    result.freeRef();
+    entropy.freeRef();
+    return loss;
+  }
+
+  private static void check(@Nonnull final SoftmaxEntropyLossLayer layer, @Nonnull final Layer softmax, @Nonnull final int... dims) {
+    final Random random = new Random(9);
+    final Tensor logits = new Tensor(dims).set(() -> 3 * random.nextGaussian());
+    final Tensor target = new Tensor(dims).set(() -> random.nextDouble());
+    Assert.assertEquals(evalUnfused(softmax, logits, target), evalLoss(layer, logits, target), 1e-8);
+
+    final Tensor[] gradients = new Tensor[2];
+    final Result logitResult = new Result(TensorArray.create(logits), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradients[0] = data.get(0);
+    });
+    final Result targetResult = new Result(TensorArray.create(target), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      gradients[1] = data.get(0);
+    });
+    final Result result = layer.eval(logitResult, targetResult);
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.wrap(new Tensor(new double[]{2.0}, 1)));
+    final double epsilon = 1e-6;
+    for (int i = 0; i < logits.length(); i++) {
+      final Tensor shifted = logits.copy();
+      shifted.set(i, logits.get(i) + epsilon);
+      final double up = evalLoss(layer, shifted, target);
+      shifted.set(i, logits.get(i) - epsilon);
+      final double down = evalLoss(layer, shifted, target);
+      shifted.freeRef();
+      Assert.assertEquals(2.0 * (up - down) / (2 * epsilon), gradients[0].get(i), 1e-6);
+      final Tensor shiftedTarget = target.copy();
+      shiftedTarget.set(i, target.get(i) + epsilon);
+      final double targetUp = evalLoss(layer, logits, shiftedTarget);
+      shiftedTarget.freeRef();
+      Assert.assertEquals(2.0 * (targetUp - evalLoss(layer, logits, target)) / epsilon, gradients[1].get(i), 1e-5);
+    }
+
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    logitResult.getData().freeRef();
+    logitResult.freeRef();
+    targetResult.getData().freeRef();
+    targetResult.freeRef();
+    gradients[0].freeRef();
+    gradients[1].freeRef();
+    logits.freeRef();
+    target.freeRef();
+    softmax.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test against SoftmaxActivationLayer and EntropyLossLayer.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    check(new SoftmaxEntropyLossLayer(), new SoftmaxActivationLayer(), 10);
+  }
+
+  /**
+   * Test against ImgPixelSoftmaxLayer and EntropyLossLayer.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testPixelwise() {
+    check(new SoftmaxEntropyLossLayer().setPixelwise(true), new ImgPixelSoftmaxLayer(), 3, 2, 4);
+  }
+
+  /**
+   * Logits far beyond the range of exp must still give a finite loss and gradient.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testStability() {
+    @Nonnull final SoftmaxEntropyLossLayer layer = new SoftmaxEntropyLossLayer();
+    final Tensor logits = new Tensor(new double[]{1000, -1000, 0}, 3);
+    final Tensor target = new Tensor(new double[]{0, 1, 0}, 3);
+    Assert.assertEquals(2000, evalLoss(layer, logits, target), 1e-9);
+    logits.freeRef();
+    target.freeRef();
+    layer.freeRef();
+  }
+
+}
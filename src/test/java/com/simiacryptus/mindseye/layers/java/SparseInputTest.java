@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Checks that layers with a sparse-aware path give the same outputs and gradients for sparse and dense inputs.
+ */
+public class SparseInputTest {
+
+  /**
+   * The result of one forward and backward pass.
+   */
+  private static class Pass {
+    /**
+     * The Output.
+     */
+    double[][] output;
+    /**
+     * The Passback.
+     */
+    double[][] passback;
+    /**
+     * The Weight delta.
+     */
+    double[] weightDelta;
+  }
+
+  @Nonnull
+  private static double[][] toArrays(@Nonnull final TensorList data) {
+    final double[][] arrays = new double[data.length()][];
+    for (int i = 0; i < arrays.length; i++) {
+      final Tensor tensor = data.get(i);
+      arrays[i] = tensor.getData().clone();
+      tensor.freeRef();
+    }
+    return arrays;
+  }
+
+  @Nonnull
+  private static Pass run(@Nonnull final Layer layer, @Nonnull final TensorList data) {
+    @Nonnull final Pass pass = new Pass();
+    data.addRef();
+    @Nonnull final Result input = new Result(data, (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList delta) -> {
+      pass.passback = toArrays(delta);
+    });
+    final Result result = layer.eval(input);
+    final TensorList output = result.getData();
+    pass.output = toArrays(output);
+    @Nonnull final DeltaSet<UUID> buffer = new DeltaSet<>();
+    final Tensor[] deltas = new Tensor[output.length()];
+    for (int i = 0; i < deltas.length; i++) {
+      final int item = i;
+      deltas[i] = new Tensor(output.getDimensions()).setByCoord(c -> 1 + 0.5 * item - 0.25 * c.getIndex());
+    }
+    result.accumulate(buffer, TensorArray.wrap(deltas));
+    final DoubleBuffer<UUID> weights = buffer.getMap().get(layer.getId());
+    if (null != weights) pass.weightDelta = weights.getDelta().clone();
+    buffer.freeRef();
+    result.freeRef();
+    input.freeRef();
+    return pass;
+  }
+
+  /**
+   * Test the fully connected layer's sparse kernels against its dense path.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testFullyConnected() {
+    @Nonnull final FullyConnectedLayer layer = new FullyConnectedLayer(new int[]{2, 3}, new int[]{4});
+    layer.set(i -> Math.sin(i + 1));
+    @Nonnull final TensorArray dense = SparseTensorListTest.dense(
+        new double[]{0, 1.5, 0, 0, -2, 0}, new double[]{0, 0, 0, 0, 0, 0}, new double[]{0.5, 0, 0, 0, 0, 3});
+    @Nonnull final SparseTensorList sparse = SparseTensorList.create(dense);
+    @Nonnull final Pass expected = run(layer, dense);
+    @Nonnull final Pass actual = run(layer, sparse);
+    for (int i = 0; i < expected.output.length; i++) {
+      Assert.assertArrayEquals(expected.output[i], actual.output[i], 1e-9);
+    }
+    Assert.assertArrayEquals(expected.weightDelta, actual.weightDelta, 1e-9);
+    for (int i = 0; i < expected.passback.length; i++) {
+      Assert.assertArrayEquals(expected.passback[i], actual.passback[i], 1e-9);
+    }
+    sparse.freeRef();
+    dense.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test the product layer gives the exact gradient at a single zero, where the dense path divides by it.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testProduct() {
+    @Nonnull final ProductLayer layer = new ProductLayer();
+    @Nonnull final TensorArray dense = SparseTensorListTest.dense(
+        new double[]{1, 2, 3, 4, 5, 6}, new double[]{1, 2, 0, 4, 5, 6}, new double[]{1, 0, 0, 4, 5, 6});
+    @Nonnull final SparseTensorList sparse = SparseTensorList.create(dense);
+    @Nonnull final Pass expected = run(layer, dense);
+    @Nonnull final Pass actual = run(layer, sparse);
+    Assert.assertArrayEquals(new double[]{720}, actual.output[0], 0);
+    Assert.assertArrayEquals(new double[]{0}, actual.output[1], 0);
+    Assert.assertArrayEquals(new double[]{0}, actual.output[2], 0);
+    Assert.assertArrayEquals(expected.passback[0], actual.passback[0], 1e-9);
+    Assert.assertArrayEquals(new double[]{0, 0, 1.5 * 240, 0, 0, 0}, actual.passback[1], 1e-9);
+    Assert.assertArrayEquals(new double[]{0, 0, 0, 0, 0, 0}, actual.passback[2], 0);
+    sparse.freeRef();
+    dense.freeRef();
+    layer.freeRef();
+  }
+
+  /**
+   * Test ReLU emits a sparse list once enough outputs are zero, and that it sums with a dense list.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testReLuAndSum() {
+    final double threshold = CoreSettings.INSTANCE().getSparseThreshold();
+    try {
+      CoreSettings.INSTANCE().setSparseThreshold(0.5);
+      @Nonnull final ReLuActivationLayer relu = new ReLuActivationLayer();
+      @Nonnull final TensorArray input = SparseTensorListTest.dense(new double[]{-1, 2, -3, -4, 5, -6});
+      final Result activated = relu.eval(new ConstantResult(input));
+      final TensorList sparse = activated.getData();
+      Assert.assertTrue(sparse instanceof SparseTensorList);
+      sparse.addRef();
+      @Nonnull final SumInputsLayer sum = new SumInputsLayer();
+      final Result result = sum.eval(new ConstantResult(sparse), new ConstantResult(SparseTensorListTest.dense(new double[]{1, 1, 1, 1, 1, 1})));
+      Assert.assertArrayEquals(new double[]{1, 3, 1, 1, 6, 1}, toArrays(result.getData())[0], 0);
+      result.freeRef();
+      sum.freeRef();
+      activated.freeRef();
+      relu.freeRef();
+    } finally {
+      CoreSettings.INSTANCE().setSparseThreshold(threshold);
+    }
+  }
+
+}
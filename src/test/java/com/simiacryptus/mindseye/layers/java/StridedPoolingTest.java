@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.layers.java;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.cudnn.PoolingLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Tests the java pooling layers against direct evaluation, with and without strides and padding.
+ */
+public class StridedPoolingTest {
+
+  /**
+   * Direct evaluation of 2d pooling over each band; a null stride means the legacy non-overlapping windows.
+   */
+  @Nonnull
+  private static Tensor pool(@Nonnull final Tensor input, final int window, final Integer stride, final int padding, final boolean max) {
+    final int[] dims = input.getDimensions();
+    final int[] outputDims = null == stride ?
+        new int[]{(dims[0] + window - 1) / window, (dims[1] + window - 1) / window, dims[2]} :
+        new int[]{(dims[0] + 2 * padding - window) / stride + 1, (dims[1] + 2 * padding - window) / stride + 1, dims[2]};
+    final Tensor output = new Tensor(outputDims);
+    output.setByCoord(c -> {
+      final int[] coords = c.getCoords();
+      final int baseX = null == stride ? Math.min(coords[0] * window, dims[0] - window) : coords[0] * stride - padding;
+      final int baseY = null == stride ? Math.min(coords[1] * window, dims[1] - window) : coords[1] * stride - padding;
+      double result = max ? Double.NEGATIVE_INFINITY : 0;
+      int count = 0;
+      for (int y = baseY; y < baseY + window; y++) {
+        for (int x = baseX; x < baseX + window; x++) {
+          if (x < 0 || y < 0 || x >= dims[0] || y >= dims[1]) continue;
+          final double value = input.get(x, y, coords[2]);
+          result = max ? Math.max(result, value) : result + value;
+          count++;
+        }
+      }
+      return max ? result : result / count;
+    });
+    return output;
+  }
+
+  private static double dot(@Nonnull final Tensor a, @Nonnull final Tensor b) {
+    double sum = 0;
+    for (int i = 0; i < a.length(); i++) sum += a.get(i) * b.get(i);
+    return sum;
+  }
+
+  /**
+   * Checks the forward pass against direct evaluation, and the gradient through &lt;dY, dF/dX x'&gt; = &lt;dX, x'&gt;
+   * with a finite difference, which is exact for these piecewise linear functions away from ties.
+   */
+  private static void check(@Nonnull final Layer layer, @Nonnull final Tensor input, final int window, final Integer stride, final int padding, final boolean max) {
+    final Random random = new Random(11);
+    final Tensor[] inputDelta = new Tensor[1];
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      inputDelta[0] = data.get(0);
+    });
+    Result result = layer.eval(inputResult);
+    final Tensor output = result.getData().get(0);
+    final Tensor expected = pool(input, window, stride, padding, max);
+    Assert.assertArrayEquals(expected.getDimensions(), output.getDimensions());
+    Assert.assertArrayEquals(expected.getData(), output.getData(), 1e-12);
+
+    final Tensor outputDelta = new Tensor(output.getDimensions()).set(() -> random.nextGaussian());
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet, TensorArray.create(outputDelta));
+    final double epsilon = 1e-6;
+    final Tensor probe = new Tensor(input.getDimensions()).set(() -> random.nextGaussian());
+    final Tensor shifted = input.copy();
+    for (int i = 0; i < shifted.length(); i++) shifted.set(i, input.get(i) + epsilon * probe.get(i));
+    final Tensor shiftedOutput = pool(shifted, window, stride, padding, max);
+    final Tensor difference = shiftedOutput.minus(expected).scaleInPlace(1 / epsilon);
+    Assert.assertEquals(dot(outputDelta, difference), dot(inputDelta[0], probe), 1e-6);
+
+    for (Tensor tensor : new Tensor[]{output, expected, outputDelta, probe, shifted, shiftedOutput, difference, inputDelta[0]}) {
+      tensor.freeRef();
+    }
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+  }
+
+  /**
+   * Test max pooling.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testMax() {
+    final Tensor input = new Tensor(7, 6, 2).set(new Random(1)::nextGaussian);
+    MaxPoolingLayer layer = new MaxPoolingLayer(2, 2, 1);
+    check(layer, input, 2, null, 0, true);
+    layer.freeRef();
+    layer = new MaxPoolingLayer(3, 3, 1).setStrides(2, 2, 1).setPaddings(1, 1, 0);
+    check(layer, input, 3, 2, 1, true);
+    layer.freeRef();
+    input.freeRef();
+  }
+
+  /**
+   * Test avg pooling.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testAvg() {
+    final Tensor input = new Tensor(8, 6, 2).set(new Random(2)::nextGaussian);
+    AvgPoolingLayer layer = new AvgPoolingLayer(2, 2, 1);
+    check(layer, input, 2, null, 0, false);
+    layer.freeRef();
+    layer = new AvgPoolingLayer(3, 3, 1).setStrides(1, 1, 1).setPaddings(1, 1, 0);
+    check(layer, input, 3, 1, 1, false);
+    layer.freeRef();
+    input.freeRef();
+  }
+
+  /**
+   * Test the cudnn pooling layer's java fallback.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testCompatibility() {
+    final Tensor input = new Tensor(9, 9, 2).set(new Random(3)::nextGaussian);
+    @Nonnull final PoolingLayer pooling = new PoolingLayer().setWindowX(3).setWindowY(3).setStrideX(2).setStrideY(2).setPaddingX(1).setPaddingY(1);
+    Layer layer = pooling.getCompatibilityLayer();
+    Assert.assertTrue(layer instanceof MaxPoolingLayer);
+    check(layer, input, 3, 2, 1, true);
+    layer.freeRef();
+    layer = pooling.setMode(PoolingLayer.PoolingMode.Avg).getCompatibilityLayer();
+    Assert.assertTrue(layer instanceof AvgPoolingLayer);
+    check(layer, input, 3, 2, 1, false);
+    layer.freeRef();
+    pooling.freeRef();
+    input.freeRef();
+  }
+
+  /**
+   * Test the table cache stays bounded when many input shapes are pooled, and still returns correct tables.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testCacheBounded() {
+    for (int size = 4; size < 200; size++) {
+      final PoolingRegions regions = PoolingRegions.get(new int[]{size, 3, 1}, new int[]{2, 2}, null, null);
+      Assert.assertArrayEquals(new int[]{(size + 1) / 2, 2, 1}, regions.outputDims);
+    }
+    Assert.assertTrue(PoolingRegions.getCacheSize() <= 64);
+    final Tensor input = new Tensor(7, 5, 2).set(new Random(4)::nextGaussian);
+    @Nonnull final MaxPoolingLayer layer = new MaxPoolingLayer(2, 2);
+    check(layer, input, 2, null, 0, true);
+    layer.freeRef();
+    input.freeRef();
+  }
+
+}
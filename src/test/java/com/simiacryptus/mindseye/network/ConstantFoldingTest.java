@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.java.LinearActivationLayer;
+import com.simiacryptus.mindseye.layers.java.SumInputsLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The type Constant folding apply.
+ */
+public class ConstantFoldingTest {
+
+  /**
+   * Builds a network adding a frozen, input-independent branch to its input.
+   *
+   * @return the pipeline network
+   */
+  @Nonnull
+  public PipelineNetwork buildNetwork() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    DAGNode input = network.getInput(0);
+    DAGNode constant = network.constValueWrap(new Tensor(1.0, 2.0, 3.0));
+    DAGNode branch = network.wrap(new LinearActivationLayer().setScale(2.0).setName("scale").freeze(), constant);
+    network.wrap(new SumInputsLayer(), input, branch).freeRef();
+    return network;
+  }
+
+  /**
+   * Eval double [ ].
+   *
+   * @param network the network
+   * @param input   the input
+   * @return the double [ ]
+   */
+  public double[] eval(@Nonnull final DAGNetwork network, @Nonnull final Tensor input) {
+    Result result = network.eval(input);
+    TensorList data = result.getData();
+    Tensor tensor = data.get(0);
+    double[] doubles = tensor.getData().clone();
+    tensor.freeRef();
+    data.freeRef();
+    result.freeRef();
+    return doubles;
+  }
+
+  /**
+   * Test folded evaluation matches the unfolded evaluation, including after the folded layer's weights change in place.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testFolding() {
+    @Nonnull final PipelineNetwork network = buildNetwork();
+    @Nonnull final Tensor input = new Tensor(0.5, 0.25, 0.125);
+    double[] expected = eval(network, input);
+    network.setConstantFolding(true);
+    Assert.assertArrayEquals(expected, eval(network, input), 1e-12);
+    Assert.assertArrayEquals(expected, eval(network, input), 1e-12);
+    LinearActivationLayer scale = network.getByName("scale");
+    scale.setScale(3.0);
+    Assert.assertArrayEquals(new double[]{3.5, 6.25, 9.125}, eval(network, input), 1e-12);
+    network.invalidateConstants();
+    Assert.assertArrayEquals(new double[]{3.5, 6.25, 9.125}, eval(network, input), 1e-12);
+    input.freeRef();
+    network.freeRef();
+  }
+
+  /**
+   * Test pruning removes nodes which do not contribute to the head.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testPrune() {
+    @Nonnull final PipelineNetwork network = buildNetwork();
+    DAGNode head = network.getHead();
+    network.wrap(new LinearActivationLayer(), network.getInput(0)).freeRef();
+    network.setHead(head);
+    head.freeRef();
+    Assert.assertEquals(5, network.getNodes().size());
+    network.prune();
+    Assert.assertEquals(4, network.getNodes().size());
+    network.freeRef();
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.simiacryptus.mindseye.lang.DeltaSet;
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorArray;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.java.LinearActivationLayer;
+import com.simiacryptus.mindseye.layers.java.SumInputsLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The type Counting result apply.
+ */
+public class CountingResultTest {
+
+  /**
+   * Test that gradients from a node with large fan-out are summed before being passed back.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testFanOut() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    DAGNode trunk = network.wrap(new LinearActivationLayer().setScale(2.0).freeze());
+    final int fanOut = 8;
+    DAGNode[] branches = new DAGNode[fanOut];
+    for (int i = 0; i < fanOut; i++) {
+      trunk.addRef();
+      branches[i] = network.wrap(new LinearActivationLayer().setScale(i + 1).freeze(), trunk);
+    }
+    trunk.freeRef();
+    network.wrap(new SumInputsLayer(), branches).freeRef();
+    @Nonnull final Tensor input = new Tensor(new double[]{0.5, 1.5, -2.0, 4.0, 0.0, 1.0}, 6);
+    final double[] delta = new double[input.length()];
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      Tensor tensor = data.get(0);
+      synchronized (delta) {
+        for (int i = 0; i < delta.length; i++) delta[i] += tensor.get(i);
+      }
+      tensor.freeRef();
+    });
+    Result result = network.eval(inputResult);
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet);
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    double expected = 2.0 * fanOut * (fanOut + 1) / 2;
+    Assert.assertEquals(input.length(), delta.length);
+    Assert.assertTrue(Arrays.toString(delta), Arrays.stream(delta).allMatch(v -> Math.abs(v - expected) < 1e-9));
+    input.freeRef();
+    network.freeRef();
+  }
+
+}
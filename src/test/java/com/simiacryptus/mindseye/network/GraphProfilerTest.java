@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.simiacryptus.mindseye.lang.DeltaSet;
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorArray;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.LinearActivationLayer;
+import com.simiacryptus.mindseye.layers.java.SigmoidActivationLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The type Graph profiler apply.
+ */
+public class GraphProfilerTest {
+
+  /**
+   * Test that every node, including those of a nested network, records one forward and one backward event.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    @Nonnull final PipelineNetwork inner = new PipelineNetwork(1);
+    inner.wrap(new SigmoidActivationLayer()).freeRef();
+    inner.wrap(new LinearActivationLayer()).freeRef();
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new FullyConnectedLayer(new int[]{3}, new int[]{4})).freeRef();
+    network.wrap(inner).freeRef();
+    @Nonnull final GraphProfiler profiler = new GraphProfiler();
+    network.setProfiler(profiler);
+    Assert.assertSame(profiler, inner.getProfiler());
+
+    @Nonnull final Tensor input = new Tensor(0.5, -0.25, 0.125);
+    final double[] delta = new double[input.length()];
+    Result inputResult = new Result(TensorArray.create(input), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      Tensor tensor = data.get(0);
+      for (int i = 0; i < delta.length; i++) delta[i] += tensor.get(i);
+      tensor.freeRef();
+    });
+    Result result = network.eval(inputResult);
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet);
+    deltaSet.freeRef();
+    result.getData().freeRef();
+    result.freeRef();
+    inputResult.getData().freeRef();
+    inputResult.freeRef();
+    Assert.assertTrue(Arrays.stream(delta).anyMatch(v -> v != 0.0));
+
+    final List<GraphProfiler.Event> events = profiler.getEvents();
+    Assert.assertEquals(events.toString(), 8, events.size());
+    Assert.assertEquals(4, events.stream().filter(e -> e.phase == GraphProfiler.Phase.Forward).count());
+    Assert.assertEquals(4, events.stream().filter(e -> e.phase == GraphProfiler.Phase.Backward).count());
+    final String innerPath = GraphProfiler.frame(network.getName()) + ";" + GraphProfiler.frame(inner.getName());
+    Assert.assertEquals(4, events.stream().filter(e -> e.path.startsWith(innerPath + ";")).count());
+    Assert.assertTrue(events.stream().filter(e -> e.phase == GraphProfiler.Phase.Forward).allMatch(e -> e.outputBytes > 0));
+    Assert.assertTrue(events.stream().allMatch(e -> e.totalWallNanos >= e.wallNanos));
+
+    final JsonObject trace = profiler.toChromeTrace();
+    final JsonArray traceEvents = trace.getAsJsonArray("traceEvents");
+    Assert.assertEquals(8, traceEvents.size());
+    Assert.assertEquals("X", traceEvents.get(0).getAsJsonObject().get("ph").getAsString());
+    final String[] folded = profiler.toFoldedStacks().split("\n");
+    Assert.assertEquals(8, folded.length);
+    for (String line : folded) {
+      Assert.assertTrue(line, line.matches("(Forward|Backward);[^ ]+ \\d+"));
+    }
+
+    network.setProfiler(null);
+    Assert.assertNull(inner.getProfiler());
+    profiler.clear();
+    network.eval(input).getDataAndFree().freeRef();
+    Assert.assertTrue(profiler.getEvents().isEmpty());
+    input.freeRef();
+    network.freeRef();
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.simiacryptus.mindseye.lang.Result;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.TensorList;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer;
+import com.simiacryptus.mindseye.layers.java.ReLuActivationLayer;
+import com.simiacryptus.mindseye.layers.java.SigmoidActivationLayer;
+import com.simiacryptus.mindseye.layers.java.SumInputsLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The type Inference eval apply.
+ */
+public class InferenceEvalTest {
+
+  /**
+   * Copy and free double [ ].
+   *
+   * @param result the result
+   * @return the double [ ]
+   */
+  public static double[] copyAndFree(@Nonnull final Result result) {
+    TensorList data = result.getData();
+    Tensor tensor = data.get(0);
+    double[] doubles = tensor.getData().clone();
+    tensor.freeRef();
+    data.freeRef();
+    result.freeRef();
+    return doubles;
+  }
+
+  /**
+   * Test inference evaluation matches the standard evaluation and retains no backpropagation state.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new FullyConnectedLayer(new int[]{3}, new int[]{4})).freeRef();
+    network.wrap(new SigmoidActivationLayer()).freeRef();
+    network.wrap(new FullyConnectedLayer(new int[]{4}, new int[]{2})).freeRef();
+    @Nonnull final Tensor input = new Tensor(0.5, -0.25, 0.125);
+    double[] expected = copyAndFree(network.eval(input));
+    Result inference = network.evalInference(input);
+    Assert.assertFalse(inference.isAlive());
+    Assert.assertArrayEquals(expected, copyAndFree(inference), 1e-12);
+    input.freeRef();
+    network.freeRef();
+  }
+
+  /**
+   * Test inference evaluation of a convolution matches the standard evaluation.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testConvolution() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new ImgConvolutionLayer(3, 3, 2, 3).setWeights(() -> Math.random() - 0.5)).freeRef();
+    network.wrap(new ReLuActivationLayer()).freeRef();
+    @Nonnull final Tensor input = new Tensor(5, 4, 2).set(() -> Math.random() - 0.5);
+    double[] expected = copyAndFree(network.eval(input));
+    Result inference = network.evalInference(input);
+    Assert.assertFalse(inference.isAlive());
+    Assert.assertArrayEquals(expected, copyAndFree(inference), 1e-9);
+    input.freeRef();
+    network.freeRef();
+  }
+
+  /**
+   * Test inference evaluation of a node read by several consumers, whose output is released by the last of them.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void testFanOut() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    DAGNode trunk = network.wrap(new FullyConnectedLayer(new int[]{3}, new int[]{4}));
+    final int fanOut = 4;
+    DAGNode[] branches = new DAGNode[fanOut];
+    for (int i = 0; i < fanOut; i++) {
+      trunk.addRef();
+      branches[i] = network.wrap(new FullyConnectedLayer(new int[]{4}, new int[]{2}), trunk);
+    }
+    trunk.freeRef();
+    network.wrap(new SumInputsLayer(), branches).freeRef();
+    @Nonnull final Tensor input = new Tensor(0.5, -0.25, 0.125);
+    double[] expected = copyAndFree(network.eval(input));
+    for (int i = 0; i < 3; i++) {
+      Assert.assertArrayEquals(expected, copyAndFree(network.evalInference(input)), 1e-12);
+    }
+    input.freeRef();
+    network.freeRef();
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network;
+
+import com.simiacryptus.mindseye.lang.*;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.SigmoidActivationLayer;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * The type Micro batch pipeline apply.
+ */
+public class MicroBatchPipelineTest {
+
+  /**
+   * Evaluates the network over the batch and returns the output followed by the input gradient and weight gradients.
+   *
+   * @param network the network
+   * @param batch   the batch
+   * @return the double [ ] [ ]
+   */
+  public double[][] run(@Nonnull final PipelineNetwork network, @Nonnull final Tensor[] batch) {
+    final double[][] inputDelta = new double[batch.length][];
+    Result input = new Result(TensorArray.create(batch), (@Nonnull final DeltaSet<UUID> buffer, @Nonnull final TensorList data) -> {
+      for (int i = 0; i < data.length(); i++) {
+        Tensor tensor = data.get(i);
+        inputDelta[i] = tensor.getData().clone();
+        tensor.freeRef();
+      }
+    }) {
+      @Override
+      public boolean isAlive() {
+        return true;
+      }
+    };
+    Result result = network.eval(input);
+    TensorList output = result.getData();
+    double[] outputValues = output.stream().flatMapToDouble(t -> {
+      double[] data = t.getData().clone();
+      t.freeRef();
+      return Arrays.stream(data);
+    }).toArray();
+    DeltaSet<UUID> deltaSet = new DeltaSet<>();
+    result.accumulate(deltaSet);
+    double[] weightDeltas = network.getChildren().stream()
+        .filter(layer -> deltaSet.getMap().containsKey(layer.getId()))
+        .flatMapToDouble(layer -> Arrays.stream(deltaSet.getMap().get(layer.getId()).getDelta()))
+        .toArray();
+    deltaSet.freeRef();
+    output.freeRef();
+    result.freeRef();
+    input.getData().freeRef();
+    input.freeRef();
+    return new double[][]{
+        outputValues,
+        Arrays.stream(inputDelta).flatMapToDouble(Arrays::stream).toArray(),
+        weightDeltas
+    };
+  }
+
+  /**
+   * Test pipelined evaluation produces the same outputs and gradients as standard evaluation.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new FullyConnectedLayer(new int[]{3}, new int[]{5})).freeRef();
+    network.wrap(new SigmoidActivationLayer()).freeRef();
+    network.wrap(new FullyConnectedLayer(new int[]{5}, new int[]{2})).freeRef();
+    Tensor[] batch = IntStream.range(0, 7).mapToObj(i -> new Tensor(3).set(j -> Math.sin(i * 3 + j))).toArray(i -> new Tensor[i]);
+    double[][] expected = run(network, batch);
+    network.setMicroBatches(3);
+    double[][] actual = run(network, batch);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(expected[i].length, actual[i].length);
+      Assert.assertArrayEquals(expected[i], actual[i], 1e-9);
+    }
+    Assert.assertTrue(0 < expected[2].length);
+    for (Tensor tensor : batch) tensor.freeRef();
+    network.freeRef();
+  }
+
+}
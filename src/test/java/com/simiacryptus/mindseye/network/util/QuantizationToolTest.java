@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.network.util;
+
+import com.simiacryptus.mindseye.lang.Layer;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.layers.java.FullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.ImgConvolutionLayer;
+import com.simiacryptus.mindseye.layers.java.QuantizedConvolutionLayer;
+import com.simiacryptus.mindseye.layers.java.QuantizedFullyConnectedLayer;
+import com.simiacryptus.mindseye.layers.java.ReLuActivationLayer;
+import com.simiacryptus.mindseye.network.DAGNetwork;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+import com.simiacryptus.util.test.TestCategories;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests post-training int8 quantization of a small convolutional network.
+ */
+public class QuantizationToolTest {
+
+  @Nonnull
+  private static Tensor[][] data(@Nonnull final Random random, final int samples) {
+    final Tensor[][] data = new Tensor[samples][];
+    for (int i = 0; i < samples; i++) {
+      data[i] = new Tensor[]{new Tensor(8, 8, 2).set(() -> random.nextGaussian())};
+    }
+    return data;
+  }
+
+  private static void free(@Nonnull final Tensor[][] data) {
+    Arrays.stream(data).flatMap(Arrays::stream).forEach(Tensor::freeRef);
+  }
+
+  @Nonnull
+  private static List<Class<?>> layerClasses(@Nonnull final DAGNetwork network) {
+    final List<Class<?>> classes = new ArrayList<>();
+    network.visitNodes(node -> classes.add(node.getLayer().getClass()));
+    return classes;
+  }
+
+  /**
+   * Quantizes a network and compares it to the original on held-out data.
+   */
+  @Test
+  @Category(TestCategories.UnitTest.class)
+  public void test() {
+    final Random random = new Random(3);
+    @Nonnull final PipelineNetwork network = new PipelineNetwork(1);
+    network.wrap(new ImgConvolutionLayer(3, 3, 2, 4).setWeights(() -> 0.3 * random.nextGaussian())).freeRef();
+    network.wrap(new ReLuActivationLayer()).freeRef();
+    network.wrap(new FullyConnectedLayer(new int[]{8, 8, 4}, new int[]{10}).set(() -> 0.1 * random.nextGaussian())).freeRef();
+    final Tensor[][] calibration = data(random, 32);
+    final Tensor[][] holdout = data(random, 32);
+
+    @Nonnull final DAGNetwork quantized = QuantizationTool.quantize(network, calibration);
+    Assert.assertTrue(layerClasses(quantized).contains(QuantizedConvolutionLayer.class));
+    Assert.assertTrue(layerClasses(quantized).contains(QuantizedFullyConnectedLayer.class));
+    Assert.assertTrue(layerClasses(network).contains(ImgConvolutionLayer.class));
+
+    @Nonnull final QuantizationTool.Report report = QuantizationTool.evaluate(network, quantized, holdout);
+    Assert.assertEquals(32, report.getSamples());
+    Assert.assertTrue(report.toString(), report.getRelativeError() < 0.05);
+    Assert.assertTrue(report.toString(), report.getArgmaxAgreement() >= 0.9);
+
+    @Nonnull final Layer copy = quantized.copy();
+    Assert.assertEquals(0.0, QuantizationTool.evaluate(quantized, copy, holdout).getMaxError(), 0.0);
+
+    copy.freeRef();
+    quantized.freeRef();
+    network.freeRef();
+    free(calibration);
+    free(holdout);
+  }
+}